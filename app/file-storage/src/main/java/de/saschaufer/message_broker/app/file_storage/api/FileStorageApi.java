@@ -2,7 +2,10 @@ package de.saschaufer.message_broker.app.file_storage.api;
 
 import de.saschaufer.message_broker.common.Constants;
 import de.saschaufer.message_broker.common.api.errorhandler.dto.ErrorResponse;
+import de.saschaufer.message_broker.common.api.file_storage.dto.FileChunksResponse;
 import de.saschaufer.message_broker.common.api.file_storage.dto.FileDownloadRequest;
+import de.saschaufer.message_broker.common.api.file_storage.dto.FileHashesRequest;
+import de.saschaufer.message_broker.common.api.file_storage.dto.FileHashesResponse;
 import de.saschaufer.message_broker.common.api.file_storage.dto.FileUploadResponse;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
@@ -10,11 +13,15 @@ import io.swagger.v3.oas.annotations.enums.ParameterIn;
 import io.swagger.v3.oas.annotations.headers.Header;
 import io.swagger.v3.oas.annotations.media.*;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.Part;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.util.MultiValueMap;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.util.List;
@@ -22,6 +29,13 @@ import java.util.Map;
 
 public interface FileStorageApi {
 
+    String STREAM_PATH = "/stream";
+    String RAW_PATH = "/raw";
+    String HASHES_PATH = "/hashes";
+    String FILE_PATH = "/{directoryId}/{fileId}";
+    String CHUNKS_PATH = "/{directoryId}/{fileId}/chunks";
+    String ARCHIVE_PATH = "/{directoryId}";
+
     @PostMapping(
             consumes = MediaType.MULTIPART_FORM_DATA_VALUE,
             produces = MediaType.APPLICATION_JSON_VALUE
@@ -38,7 +52,10 @@ public interface FileStorageApi {
             responses = {
                     @ApiResponse(responseCode = "201", content = @Content(mediaType = MediaType.APPLICATION_JSON_VALUE, schema = @Schema(implementation = FileUploadResponse.class))),
                     @ApiResponse(responseCode = "400", content = @Content(mediaType = MediaType.APPLICATION_JSON_VALUE, schema = @Schema(implementation = ErrorResponse.class))),
-                    @ApiResponse(responseCode = "500", content = @Content(mediaType = MediaType.APPLICATION_JSON_VALUE, schema = @Schema(implementation = ErrorResponse.class)))
+                    @ApiResponse(responseCode = "429", content = @Content(mediaType = MediaType.APPLICATION_JSON_VALUE, schema = @Schema(implementation = ErrorResponse.class))),
+                    @ApiResponse(responseCode = "500", content = @Content(mediaType = MediaType.APPLICATION_JSON_VALUE, schema = @Schema(implementation = ErrorResponse.class))),
+                    @ApiResponse(responseCode = "503", content = @Content(mediaType = MediaType.APPLICATION_JSON_VALUE, schema = @Schema(implementation = ErrorResponse.class))),
+                    @ApiResponse(responseCode = "507", content = @Content(mediaType = MediaType.APPLICATION_JSON_VALUE, schema = @Schema(implementation = ErrorResponse.class)))
             }
     )
     ResponseEntity<FileUploadResponse> postFiles(
@@ -76,7 +93,12 @@ public interface FileStorageApi {
                                             ),
                                             @Header(
                                                     name = Constants.Http.Header.FILE_HASH,
-                                                    description = "SHA3-512 of the file.",
+                                                    description = "Hash of the file with the given algorithm, or its tree hash if tree hashing is configured.",
+                                                    schema = @Schema(implementation = Map.class)
+                                            ),
+                                            @Header(
+                                                    name = Constants.Http.Header.FILE_HASH_ALGORITHM,
+                                                    description = "SHA3-512 (default), SHA-512, SHA-256 or CRC32C. Files hashed with CRC32C are never deduplicated.",
                                                     schema = @Schema(implementation = Map.class)
                                             )
                                     }
@@ -97,7 +119,216 @@ public interface FileStorageApi {
                     )
             )
             @RequestPart(Constants.Http.BodyPart.FILE)
-            final List<Part> files
+            final List<Part> files,
+
+            @Parameter(hidden = true)
+            final HttpServletRequest request
+            //@formatter:on
+    );
+
+    @PostMapping(
+            path = FileStorageApi.STREAM_PATH,
+            consumes = MediaType.MULTIPART_FORM_DATA_VALUE,
+            produces = MediaType.APPLICATION_JSON_VALUE
+    )
+    @Operation(
+            description = "Same as the upload of files, but the body is parsed while it is received and each file is written directly to its destination.",
+            parameters = {
+                    @Parameter(
+                            name = Constants.Http.Header.CORRELATION_ID,
+                            description = "A unique identifier for the request. If none is provided, one is generated.",
+                            example = "sadrwrw3r",
+                            in = ParameterIn.HEADER
+                    ),
+                    @Parameter(
+                            name = Constants.Http.Query.DIRECTORY_ID,
+                            description = "Provide if files should be stored under the same directory as previously uploaded files.",
+                            example = "sdfaefafe",
+                            in = ParameterIn.QUERY
+                    )
+            },
+            requestBody = @io.swagger.v3.oas.annotations.parameters.RequestBody(
+                    content = @Content(
+                            mediaType = MediaType.MULTIPART_FORM_DATA_VALUE,
+                            encoding = @Encoding(
+                                    name = Constants.Http.BodyPart.FILE,
+                                    style = "",
+                                    headers = {
+                                            @Header(
+                                                    name = Constants.Http.Header.FILE_ID,
+                                                    required = true,
+                                                    description = "Unique ID for the file. Used in response to identify a file.",
+                                                    schema = @Schema(implementation = Map.class)
+                                            ),
+                                            @Header(
+                                                    name = Constants.Http.Header.FILE_HASH,
+                                                    description = "Hash of the file with the given algorithm, or its tree hash if tree hashing is configured.",
+                                                    schema = @Schema(implementation = Map.class)
+                                            ),
+                                            @Header(
+                                                    name = Constants.Http.Header.FILE_HASH_ALGORITHM,
+                                                    description = "SHA3-512 (default), SHA-512, SHA-256 or CRC32C. Files hashed with CRC32C are never deduplicated.",
+                                                    schema = @Schema(implementation = Map.class)
+                                            )
+                                    }
+                            ),
+                            schemaProperties = {
+                                    @SchemaProperty(
+                                            name = Constants.Http.BodyPart.FILE,
+                                            array = @ArraySchema(
+                                                    minItems = 1,
+                                                    schema = @Schema(
+                                                            name = Constants.Http.BodyPart.FILE,
+                                                            contentMediaType = MediaType.APPLICATION_OCTET_STREAM_VALUE,
+                                                            implementation = MultipartFile.class
+                                                    )
+                                            )
+                                    )
+                            }
+                    )
+            ),
+            responses = {
+                    @ApiResponse(responseCode = "201", content = @Content(mediaType = MediaType.APPLICATION_JSON_VALUE, schema = @Schema(implementation = FileUploadResponse.class))),
+                    @ApiResponse(responseCode = "400", content = @Content(mediaType = MediaType.APPLICATION_JSON_VALUE, schema = @Schema(implementation = ErrorResponse.class))),
+                    @ApiResponse(responseCode = "413", content = @Content(mediaType = MediaType.APPLICATION_JSON_VALUE, schema = @Schema(implementation = ErrorResponse.class))),
+                    @ApiResponse(responseCode = "429", content = @Content(mediaType = MediaType.APPLICATION_JSON_VALUE, schema = @Schema(implementation = ErrorResponse.class))),
+                    @ApiResponse(responseCode = "500", content = @Content(mediaType = MediaType.APPLICATION_JSON_VALUE, schema = @Schema(implementation = ErrorResponse.class))),
+                    @ApiResponse(responseCode = "503", content = @Content(mediaType = MediaType.APPLICATION_JSON_VALUE, schema = @Schema(implementation = ErrorResponse.class))),
+                    @ApiResponse(responseCode = "507", content = @Content(mediaType = MediaType.APPLICATION_JSON_VALUE, schema = @Schema(implementation = ErrorResponse.class)))
+            }
+    )
+    ResponseEntity<FileUploadResponse> postFilesStreaming(
+            //@formatter:off
+            @Parameter(
+                    name = Constants.Http.Header.USER_AGENT,
+                    description = "A name for the sending system.",
+                    example = "my-pc",
+                    in = ParameterIn.HEADER,
+                    required = true
+            )
+            @RequestHeader(value = Constants.Http.Header.USER_AGENT)
+            final String userAgent,
+
+            @Parameter(hidden = true)
+            final HttpServletRequest request
+            //@formatter:on
+    );
+
+    @PostMapping(
+            path = FileStorageApi.RAW_PATH,
+            produces = MediaType.APPLICATION_JSON_VALUE
+    )
+    @Operation(
+            description = """
+                    Uploads a single file as the request body. If the store already holds content with the given hash, the file is linked to it without reading the body.
+                    Clients sending 'Expect: 100-continue' don't transfer the body in that case.""",
+            parameters = {
+                    @Parameter(
+                            name = Constants.Http.Header.CORRELATION_ID,
+                            description = "A unique identifier for the request. If none is provided, one is generated.",
+                            example = "sadrwrw3r",
+                            in = ParameterIn.HEADER
+                    ),
+                    @Parameter(
+                            name = Constants.Http.Query.DIRECTORY_ID,
+                            description = "Provide if files should be stored under the same directory as previously uploaded files.",
+                            example = "sdfaefafe",
+                            in = ParameterIn.QUERY
+                    ),
+                    @Parameter(
+                            name = Constants.Http.Header.FILE_ID,
+                            description = "Unique ID for the file. Used in response to identify a file.",
+                            example = "file-1",
+                            in = ParameterIn.HEADER,
+                            required = true
+                    ),
+                    @Parameter(
+                            name = Constants.Http.Header.FILE_HASH,
+                            description = "Hash of the file with the given algorithm, or its tree hash if tree hashing is configured.",
+                            in = ParameterIn.HEADER
+                    ),
+                    @Parameter(
+                            name = Constants.Http.Header.FILE_HASH_ALGORITHM,
+                            description = "SHA3-512 (default), SHA-512, SHA-256 or CRC32C. Files hashed with CRC32C are never deduplicated.",
+                            example = "SHA-256",
+                            in = ParameterIn.HEADER
+                    ),
+                    @Parameter(
+                            name = HttpHeaders.CONTENT_DISPOSITION,
+                            description = "The name of the file.",
+                            example = "attachment; filename=\"test.txt\"",
+                            in = ParameterIn.HEADER
+                    )
+            },
+            requestBody = @io.swagger.v3.oas.annotations.parameters.RequestBody(
+                    content = @Content(
+                            mediaType = MediaType.APPLICATION_OCTET_STREAM_VALUE,
+                            schema = @Schema(type = "string", format = "binary")
+                    )
+            ),
+            responses = {
+                    @ApiResponse(responseCode = "201", content = @Content(mediaType = MediaType.APPLICATION_JSON_VALUE, schema = @Schema(implementation = FileUploadResponse.class))),
+                    @ApiResponse(responseCode = "400", content = @Content(mediaType = MediaType.APPLICATION_JSON_VALUE, schema = @Schema(implementation = ErrorResponse.class))),
+                    @ApiResponse(responseCode = "413", content = @Content(mediaType = MediaType.APPLICATION_JSON_VALUE, schema = @Schema(implementation = ErrorResponse.class))),
+                    @ApiResponse(responseCode = "429", content = @Content(mediaType = MediaType.APPLICATION_JSON_VALUE, schema = @Schema(implementation = ErrorResponse.class))),
+                    @ApiResponse(responseCode = "500", content = @Content(mediaType = MediaType.APPLICATION_JSON_VALUE, schema = @Schema(implementation = ErrorResponse.class))),
+                    @ApiResponse(responseCode = "503", content = @Content(mediaType = MediaType.APPLICATION_JSON_VALUE, schema = @Schema(implementation = ErrorResponse.class))),
+                    @ApiResponse(responseCode = "507", content = @Content(mediaType = MediaType.APPLICATION_JSON_VALUE, schema = @Schema(implementation = ErrorResponse.class)))
+            }
+    )
+    ResponseEntity<FileUploadResponse> postFile(
+            //@formatter:off
+            @Parameter(
+                    name = Constants.Http.Header.USER_AGENT,
+                    description = "A name for the sending system.",
+                    example = "my-pc",
+                    in = ParameterIn.HEADER,
+                    required = true
+            )
+            @RequestHeader(value = Constants.Http.Header.USER_AGENT)
+            final String userAgent,
+
+            @Parameter(hidden = true)
+            final HttpServletRequest request
+            //@formatter:on
+    );
+
+    @PostMapping(
+            path = FileStorageApi.HASHES_PATH,
+            consumes = MediaType.APPLICATION_JSON_VALUE,
+            produces = MediaType.APPLICATION_JSON_VALUE
+    )
+    @Operation(
+            description = "Returns which of the given hashes the store already holds content for that was uploaded by the same client. Files with these hashes can be uploaded without transferring their content.",
+            parameters = {
+                    @Parameter(
+                            name = Constants.Http.Header.CORRELATION_ID,
+                            description = "A unique identifier for the request. If none is provided, one is generated.",
+                            example = "sadrwrw3r",
+                            in = ParameterIn.HEADER
+                    )
+            },
+            responses = {
+                    @ApiResponse(responseCode = "200", content = @Content(mediaType = MediaType.APPLICATION_JSON_VALUE, schema = @Schema(implementation = FileHashesResponse.class))),
+                    @ApiResponse(responseCode = "400", content = @Content(mediaType = MediaType.APPLICATION_JSON_VALUE, schema = @Schema(implementation = ErrorResponse.class))),
+                    @ApiResponse(responseCode = "429", content = @Content(mediaType = MediaType.APPLICATION_JSON_VALUE, schema = @Schema(implementation = ErrorResponse.class))),
+                    @ApiResponse(responseCode = "500", content = @Content(mediaType = MediaType.APPLICATION_JSON_VALUE, schema = @Schema(implementation = ErrorResponse.class)))
+            }
+    )
+    ResponseEntity<FileHashesResponse> postHashes(
+            //@formatter:off
+            @Parameter(
+                    name = Constants.Http.Header.USER_AGENT,
+                    description = "A name for the sending system.",
+                    example = "my-pc",
+                    in = ParameterIn.HEADER,
+                    required = true
+            )
+            @RequestHeader(value = Constants.Http.Header.USER_AGENT)
+            final String userAgent,
+
+            @RequestBody
+            final FileHashesRequest fileHashesRequest
             //@formatter:on
     );
 
@@ -128,7 +359,17 @@ public interface FileStorageApi {
                                             ),
                                             @Header(
                                                     name = Constants.Http.Header.FILE_HASH,
-                                                    description = "SHA3-512 of the file.",
+                                                    description = "Hash of the file, or its tree hash if configured.",
+                                                    schema = @Schema(implementation = Map.class)
+                                            ),
+                                            @Header(
+                                                    name = Constants.Http.Header.FILE_HASH_ALGORITHM,
+                                                    description = "Algorithm of the hash of the file.",
+                                                    schema = @Schema(implementation = Map.class)
+                                            ),
+                                            @Header(
+                                                    name = Constants.Http.Header.FILE_HASH_MODE,
+                                                    description = "flat if the hash is the one of the whole file, tree if it is the one of its chunk hashes.",
                                                     schema = @Schema(implementation = Map.class)
                                             )
                                     }
@@ -148,6 +389,7 @@ public interface FileStorageApi {
                             }
                     )),
                     @ApiResponse(responseCode = "400", content = @Content(mediaType = MediaType.APPLICATION_JSON_VALUE, schema = @Schema(implementation = ErrorResponse.class))),
+                    @ApiResponse(responseCode = "429", content = @Content(mediaType = MediaType.APPLICATION_JSON_VALUE, schema = @Schema(implementation = ErrorResponse.class))),
                     @ApiResponse(responseCode = "500", content = @Content(mediaType = MediaType.APPLICATION_JSON_VALUE, schema = @Schema(implementation = ErrorResponse.class)))
             }
     )
@@ -167,4 +409,190 @@ public interface FileStorageApi {
             final FileDownloadRequest fileDownloadRequest
             //@formatter:on
     );
+
+    @GetMapping(
+            path = FileStorageApi.FILE_PATH
+    )
+    @Operation(
+            description = "Downloads a single file. Supports range requests and conditional requests with the hash of the file as ETag.",
+            parameters = {
+                    @Parameter(
+                            name = Constants.Http.Header.CORRELATION_ID,
+                            description = "A unique identifier for the request. If none is provided, one is generated.",
+                            example = "sadrwrw3r",
+                            in = ParameterIn.HEADER
+                    ),
+                    @Parameter(
+                            name = HttpHeaders.RANGE,
+                            description = "Byte ranges of the file to download.",
+                            example = "bytes=0-1023",
+                            in = ParameterIn.HEADER
+                    ),
+                    @Parameter(
+                            name = HttpHeaders.IF_NONE_MATCH,
+                            description = "ETag of a previously downloaded version of the file.",
+                            in = ParameterIn.HEADER
+                    )
+            },
+            responses = {
+                    @ApiResponse(responseCode = "200", headers = {
+                            @Header(name = HttpHeaders.ETAG, description = "Hash of the file in quotes, followed by the content coding if the file is sent compressed.", schema = @Schema(implementation = String.class)),
+                            @Header(name = HttpHeaders.CONTENT_ENCODING, description = "deflate if the file is sent as it is stored compressed.", schema = @Schema(implementation = String.class)),
+                            @Header(name = Constants.Http.Header.FILE_HASH, description = "Hash of the file, or its tree hash if configured.", schema = @Schema(implementation = String.class)),
+                            @Header(name = Constants.Http.Header.FILE_HASH_ALGORITHM, description = "Algorithm of the hash of the file.", schema = @Schema(implementation = String.class)),
+                            @Header(name = Constants.Http.Header.FILE_HASH_MODE, description = "flat if the hash is the one of the whole file, tree if it is the one of its chunk hashes.", schema = @Schema(implementation = String.class))
+                    }, content = @Content(mediaType = MediaType.APPLICATION_OCTET_STREAM_VALUE)),
+                    @ApiResponse(responseCode = "206", content = @Content(mediaType = MediaType.APPLICATION_OCTET_STREAM_VALUE)),
+                    @ApiResponse(responseCode = "304", content = @Content),
+                    @ApiResponse(responseCode = "400", content = @Content(mediaType = MediaType.APPLICATION_JSON_VALUE, schema = @Schema(implementation = ErrorResponse.class))),
+                    @ApiResponse(responseCode = "404", content = @Content(mediaType = MediaType.APPLICATION_JSON_VALUE, schema = @Schema(implementation = ErrorResponse.class))),
+                    @ApiResponse(responseCode = "416", content = @Content),
+                    @ApiResponse(responseCode = "429", content = @Content(mediaType = MediaType.APPLICATION_JSON_VALUE, schema = @Schema(implementation = ErrorResponse.class))),
+                    @ApiResponse(responseCode = "500", content = @Content(mediaType = MediaType.APPLICATION_JSON_VALUE, schema = @Schema(implementation = ErrorResponse.class)))
+            }
+    )
+    ResponseEntity<Resource> getFile(
+            //@formatter:off
+            @Parameter(
+                    name = Constants.Http.Header.USER_AGENT,
+                    description = "A name for the sending system.",
+                    example = "my-pc",
+                    in = ParameterIn.HEADER,
+                    required = true
+            )
+            @RequestHeader(value = Constants.Http.Header.USER_AGENT)
+            final String userAgent,
+
+            @Parameter(description = "The directory the file was uploaded to.", example = "328a145a-a230-4931-8813-e6469d2f1f09")
+            @PathVariable("directoryId")
+            final String directoryId,
+
+            @Parameter(description = "The file ID returned by the upload.", example = "71bead9f-5764-4e88-93b5-1b674a6a37f9")
+            @PathVariable("fileId")
+            final String fileId,
+
+            @Parameter(
+                    name = HttpHeaders.ACCEPT_ENCODING,
+                    description = "Files stored compressed are sent deflated if deflate is accepted, otherwise they are inflated by the server.",
+                    example = "deflate",
+                    in = ParameterIn.HEADER
+            )
+            @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false)
+            final String acceptEncoding
+            //@formatter:on
+    );
+
+    @GetMapping(
+            path = FileStorageApi.CHUNKS_PATH,
+            produces = MediaType.APPLICATION_JSON_VALUE
+    )
+    @Operation(
+            description = "Returns the hashes of the chunks of a file uploaded with tree hashing. Ranges of a download can be verified against them.",
+            parameters = {
+                    @Parameter(
+                            name = Constants.Http.Header.CORRELATION_ID,
+                            description = "A unique identifier for the request. If none is provided, one is generated.",
+                            example = "sadrwrw3r",
+                            in = ParameterIn.HEADER
+                    )
+            },
+            responses = {
+                    @ApiResponse(responseCode = "200", content = @Content(mediaType = MediaType.APPLICATION_JSON_VALUE, schema = @Schema(implementation = FileChunksResponse.class))),
+                    @ApiResponse(responseCode = "400", content = @Content(mediaType = MediaType.APPLICATION_JSON_VALUE, schema = @Schema(implementation = ErrorResponse.class))),
+                    @ApiResponse(responseCode = "404", content = @Content(mediaType = MediaType.APPLICATION_JSON_VALUE, schema = @Schema(implementation = ErrorResponse.class))),
+                    @ApiResponse(responseCode = "429", content = @Content(mediaType = MediaType.APPLICATION_JSON_VALUE, schema = @Schema(implementation = ErrorResponse.class))),
+                    @ApiResponse(responseCode = "500", content = @Content(mediaType = MediaType.APPLICATION_JSON_VALUE, schema = @Schema(implementation = ErrorResponse.class)))
+            }
+    )
+    ResponseEntity<FileChunksResponse> getChunks(
+            //@formatter:off
+            @Parameter(
+                    name = Constants.Http.Header.USER_AGENT,
+                    description = "A name for the sending system.",
+                    example = "my-pc",
+                    in = ParameterIn.HEADER,
+                    required = true
+            )
+            @RequestHeader(value = Constants.Http.Header.USER_AGENT)
+            final String userAgent,
+
+            @Parameter(description = "The directory the file was uploaded to.", example = "328a145a-a230-4931-8813-e6469d2f1f09")
+            @PathVariable("directoryId")
+            final String directoryId,
+
+            @Parameter(description = "The file ID returned by the upload.", example = "71bead9f-5764-4e88-93b5-1b674a6a37f9")
+            @PathVariable("fileId")
+            final String fileId
+            //@formatter:on
+    );
+
+    @GetMapping(
+            path = FileStorageApi.ARCHIVE_PATH
+    )
+    @Operation(
+            description = "Downloads all files of a directory, or the given files, as an archive which is generated while it is sent.",
+            parameters = {
+                    @Parameter(
+                            name = Constants.Http.Header.CORRELATION_ID,
+                            description = "A unique identifier for the request. If none is provided, one is generated.",
+                            example = "sadrwrw3r",
+                            in = ParameterIn.HEADER
+                    )
+            },
+            responses = {
+                    @ApiResponse(responseCode = "200", content = {
+                            @Content(mediaType = "application/zip"),
+                            @Content(mediaType = "application/x-tar"),
+                            @Content(mediaType = "application/gzip")
+                    }),
+                    @ApiResponse(responseCode = "400", content = @Content(mediaType = MediaType.APPLICATION_JSON_VALUE, schema = @Schema(implementation = ErrorResponse.class))),
+                    @ApiResponse(responseCode = "404", content = @Content(mediaType = MediaType.APPLICATION_JSON_VALUE, schema = @Schema(implementation = ErrorResponse.class))),
+                    @ApiResponse(responseCode = "429", content = @Content(mediaType = MediaType.APPLICATION_JSON_VALUE, schema = @Schema(implementation = ErrorResponse.class))),
+                    @ApiResponse(responseCode = "500", content = @Content(mediaType = MediaType.APPLICATION_JSON_VALUE, schema = @Schema(implementation = ErrorResponse.class)))
+            }
+    )
+    ResponseEntity<StreamingResponseBody> getArchive(
+            //@formatter:off
+            @Parameter(
+                    name = Constants.Http.Header.USER_AGENT,
+                    description = "A name for the sending system.",
+                    example = "my-pc",
+                    in = ParameterIn.HEADER,
+                    required = true
+            )
+            @RequestHeader(value = Constants.Http.Header.USER_AGENT)
+            final String userAgent,
+
+            @Parameter(description = "The directory to download.", example = "328a145a-a230-4931-8813-e6469d2f1f09")
+            @PathVariable("directoryId")
+            final String directoryId,
+
+            @Parameter(
+                    name = Constants.Http.Query.FILE_ID,
+                    description = "Only put these files into the archive. All files of the directory if none is given.",
+                    example = "71bead9f-5764-4e88-93b5-1b674a6a37f9",
+                    in = ParameterIn.QUERY
+            )
+            @RequestParam(value = Constants.Http.Query.FILE_ID, required = false)
+            final List<String> fileIds,
+
+            @Parameter(
+                    name = Constants.Http.Query.FORMAT,
+                    description = "Format of the archive: zip, tar or tar.gz.",
+                    example = "zip",
+                    in = ParameterIn.QUERY
+            )
+            @RequestParam(value = Constants.Http.Query.FORMAT, defaultValue = "zip")
+            final String format,
+
+            @Parameter(
+                    name = Constants.Http.Query.COMPRESSION_LEVEL,
+                    description = "Compression level from 0 (none) to 9 (best) for zip and tar.gz. -1 uses the default level.",
+                    example = "1",
+                    in = ParameterIn.QUERY
+            )
+            @RequestParam(value = Constants.Http.Query.COMPRESSION_LEVEL, defaultValue = "-1")
+            final Integer compressionLevel
+            //@formatter:on
+    );
 }
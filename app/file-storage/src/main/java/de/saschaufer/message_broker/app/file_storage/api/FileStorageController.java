@@ -1,17 +1,32 @@
 package de.saschaufer.message_broker.app.file_storage.api;
 
+import de.saschaufer.message_broker.app.file_storage.api.filter.QuotaFilter;
+import de.saschaufer.message_broker.app.file_storage.api.multipart.RequestBodyPart;
+import de.saschaufer.message_broker.app.file_storage.api.multipart.StreamingMultipartParser;
+import de.saschaufer.message_broker.app.file_storage.config.FileStorageProperties;
+import de.saschaufer.message_broker.app.file_storage.service.ClientQuotas;
 import de.saschaufer.message_broker.app.file_storage.service.FileStorageService;
+import de.saschaufer.message_broker.app.file_storage.service.UploadAdmission;
+import de.saschaufer.message_broker.app.file_storage.service.dto.ArchiveEntry;
+import de.saschaufer.message_broker.app.file_storage.service.dto.ArchiveFormat;
+import de.saschaufer.message_broker.app.file_storage.service.dto.ChunkHashes;
 import de.saschaufer.message_broker.app.file_storage.service.dto.File;
 import de.saschaufer.message_broker.common.Constants;
 import de.saschaufer.message_broker.common.api.errorhandler.ResponseStatusException;
+import de.saschaufer.message_broker.common.api.file_storage.dto.FileChunksResponse;
 import de.saschaufer.message_broker.common.api.file_storage.dto.FileDownloadRequest;
+import de.saschaufer.message_broker.common.api.file_storage.dto.FileHashesRequest;
+import de.saschaufer.message_broker.common.api.file_storage.dto.FileHashesResponse;
 import de.saschaufer.message_broker.common.api.file_storage.dto.FileResponse;
 import de.saschaufer.message_broker.common.api.file_storage.dto.FileUploadResponse;
+import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.Part;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.core.io.InputStreamResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.ContentDisposition;
 import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
@@ -19,9 +34,17 @@ import org.springframework.util.LinkedMultiValueMap;
 import org.springframework.util.MultiValueMap;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import org.springframework.web.util.UriComponentsBuilder;
+import org.springframework.web.util.UriUtils;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 @Slf4j
@@ -32,9 +55,12 @@ public class FileStorageController implements FileStorageApi {
 
     public static final String FILE_STORAGE_PATH_V1 = "/file-storage";
 
+    private final FileStorageProperties fileStorageProperties;
     private final FileStorageService fileStorageService;
+    private final UploadAdmission uploadAdmission;
+    private final ClientQuotas clientQuotas;
 
-    public ResponseEntity<FileUploadResponse> postFiles(final String userAgent, final String directoryId, final List<Part> files) {
+    public ResponseEntity<FileUploadResponse> postFiles(final String userAgent, final String directoryId, final List<Part> files, final HttpServletRequest request) {
 
         log.atInfo().setMessage("Received request for upload files.").addKeyValue("user-agent", userAgent).log();
 
@@ -42,21 +68,96 @@ public class FileStorageController implements FileStorageApi {
             throw new ResponseStatusException(HttpStatus.BAD_REQUEST, String.format("Header '%s' must not be empty.", Constants.Http.Header.USER_AGENT));
         }
 
-        final String dirId = directoryId != null ? directoryId : UUID.randomUUID().toString();
-        if (dirId.isBlank()) {
-            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, String.format("Parameter '%s' must not be empty.", Constants.Http.Query.DIRECTORY_ID));
-        }
+        final String dirId = getDirectoryId(directoryId);
 
-        final List<File> filesOut = fileStorageService.saveFiles(dirId, files);
+        // The servlet container parsed the body already, bodies of unknown size are checked against the quota now
+        final ClientQuotas.Reservation reservation = getReservation(request);
+        files.forEach(file -> reservation.receiveFile());
+        reservation.receive(files.stream().mapToLong(Part::getSize).sum());
 
-        final FileUploadResponse response = new FileUploadResponse(dirId, new ArrayList<>());
-        for (final File file : filesOut) {
-            response.files().add(new FileResponse(file.id(), file.fileId(), file.hash()));
+        final List<File> filesOut;
+        try (final UploadAdmission.Permit ignored = uploadAdmission.admit(files.stream().mapToLong(Part::getSize).sum())) {
+            filesOut = fileStorageService.saveFiles(dirId, userAgent, files);
         }
 
+        clientQuotas.charge(userAgent, filesOut, reservation);
+
         log.atInfo().setMessage("Processed request for upload files successfully.").log();
 
-        return ResponseEntity.status(HttpStatus.CREATED).body(response);
+        return ResponseEntity.status(HttpStatus.CREATED).body(createFileUploadResponse(dirId, filesOut));
+    }
+
+    public ResponseEntity<FileUploadResponse> postFilesStreaming(final String userAgent, final HttpServletRequest request) {
+
+        log.atInfo().setMessage("Received request for streaming upload files.").addKeyValue("user-agent", userAgent).log();
+
+        if (userAgent.isBlank()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, String.format("Header '%s' must not be empty.", Constants.Http.Header.USER_AGENT));
+        }
+
+        final String dirId = getDirectoryId(request);
+
+        final String boundary = MediaType.parseMediaType(request.getContentType()).getParameter("boundary");
+        if (boundary == null || boundary.isBlank()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Missing multipart boundary.");
+        }
+
+        // Admitted before anything of the body is read
+        final List<File> filesOut;
+        try (final UploadAdmission.Permit ignored = uploadAdmission.admit(request.getContentLengthLong());
+             final InputStream inputStream = request.getInputStream()) {
+            final StreamingMultipartParser parts = new StreamingMultipartParser(inputStream, boundary, fileStorageProperties.upload().maxFileSize().toBytes());
+            filesOut = fileStorageService.saveFilesStreaming(dirId, userAgent, reserveFiles(parts, getReservation(request)));
+        } catch (final IOException e) {
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Couldn't read request.", e);
+        }
+
+        clientQuotas.charge(userAgent, filesOut, getReservation(request));
+
+        log.atInfo().setMessage("Processed request for streaming upload files successfully.").log();
+
+        return ResponseEntity.status(HttpStatus.CREATED).body(createFileUploadResponse(dirId, filesOut));
+    }
+
+    public ResponseEntity<FileUploadResponse> postFile(final String userAgent, final HttpServletRequest request) {
+
+        log.atInfo().setMessage("Received request for upload file.").addKeyValue("user-agent", userAgent).log();
+
+        if (userAgent.isBlank()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, String.format("Header '%s' must not be empty.", Constants.Http.Header.USER_AGENT));
+        }
+
+        final String dirId = getDirectoryId(request);
+
+        final File file;
+        try (final UploadAdmission.Permit ignored = uploadAdmission.admit(request.getContentLengthLong())) {
+            file = fileStorageService.saveFile(dirId, userAgent, new RequestBodyPart(request, fileStorageProperties.upload().maxFileSize().toBytes()));
+        }
+
+        clientQuotas.charge(userAgent, List.of(file), getReservation(request));
+
+        log.atInfo().setMessage("Processed request for upload file successfully.").log();
+
+        return ResponseEntity.status(HttpStatus.CREATED).body(createFileUploadResponse(dirId, List.of(file)));
+    }
+
+    public ResponseEntity<FileHashesResponse> postHashes(final String userAgent, final FileHashesRequest fileHashesRequest) {
+
+        log.atInfo().setMessage("Received request for known hashes.").addKeyValue("user-agent", userAgent).log();
+
+        if (userAgent.isBlank()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, String.format("Header '%s' must not be empty.", Constants.Http.Header.USER_AGENT));
+        }
+
+        if (fileHashesRequest.hashes() == null) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Missing hashes.");
+        }
+
+        final List<String> known = fileStorageService.findKnownHashes(fileHashesRequest.hashes(), fileHashesRequest.algorithm(), userAgent);
+
+        log.atInfo().setMessage("Processed request for known hashes successfully.").addKeyValue("known", known.size()).log();
+
+        return ResponseEntity.ok(new FileHashesResponse(known));
     }
 
     public ResponseEntity<MultiValueMap<String, Object>> getFiles(final String userAgent, final FileDownloadRequest fileDownloadRequest) {
@@ -67,7 +168,7 @@ public class FileStorageController implements FileStorageApi {
             throw new ResponseStatusException(HttpStatus.BAD_REQUEST, String.format("Header '%s' must not be empty.", Constants.Http.Header.USER_AGENT));
         }
 
-        final List<HttpEntity<InputStreamResource>> httpEntities = fileStorageService.readFiles(fileDownloadRequest.directoryId(), fileDownloadRequest.files());
+        final List<HttpEntity<Resource>> httpEntities = fileStorageService.readFiles(checkDirectoryId(fileDownloadRequest.directoryId()), fileDownloadRequest.files());
 
         final MultiValueMap<String, Object> body = new LinkedMultiValueMap<>();
         body.addAll(Constants.Http.BodyPart.FILE, httpEntities);
@@ -76,4 +177,132 @@ public class FileStorageController implements FileStorageApi {
 
         return ResponseEntity.ok().contentType(MediaType.MULTIPART_FORM_DATA).body(body);
     }
+
+    public ResponseEntity<Resource> getFile(final String userAgent, final String directoryId, final String fileId, final String acceptEncoding) {
+
+        log.atInfo().setMessage("Received request for download file.").addKeyValue("user-agent", userAgent).log();
+
+        if (userAgent.isBlank()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, String.format("Header '%s' must not be empty.", Constants.Http.Header.USER_AGENT));
+        }
+
+        final HttpEntity<Resource> file = fileStorageService.readFile(checkDirectoryId(directoryId), fileId, acceptEncoding);
+
+        log.atInfo().setMessage("Processed request for download file successfully.").log();
+
+        // Range requests (206) and If-None-Match (304) are answered by Spring based on the resource body and the ETag
+        return ResponseEntity.ok().headers(file.getHeaders()).body(file.getBody());
+    }
+
+    public ResponseEntity<FileChunksResponse> getChunks(final String userAgent, final String directoryId, final String fileId) {
+
+        log.atInfo().setMessage("Received request for chunk hashes.").addKeyValue("user-agent", userAgent).log();
+
+        if (userAgent.isBlank()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, String.format("Header '%s' must not be empty.", Constants.Http.Header.USER_AGENT));
+        }
+
+        final ChunkHashes chunkHashes = fileStorageService.readChunkHashes(checkDirectoryId(directoryId), fileId);
+
+        log.atInfo().setMessage("Processed request for chunk hashes successfully.").log();
+
+        return ResponseEntity.ok(new FileChunksResponse(chunkHashes.chunkSize(), chunkHashes.hashes()));
+    }
+
+    public ResponseEntity<StreamingResponseBody> getArchive(final String userAgent, final String directoryId, final List<String> fileIds, final String format, final Integer compressionLevel) {
+
+        log.atInfo().setMessage("Received request for download archive.").addKeyValue("user-agent", userAgent).log();
+
+        if (userAgent.isBlank()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, String.format("Header '%s' must not be empty.", Constants.Http.Header.USER_AGENT));
+        }
+
+        final String dirId = checkDirectoryId(directoryId);
+
+        final ArchiveFormat archiveFormat = ArchiveFormat.ofExtension(format).orElseThrow(() ->
+                new ResponseStatusException(HttpStatus.BAD_REQUEST, String.format("Parameter '%s' must be one of zip, tar or tar.gz.", Constants.Http.Query.FORMAT))
+        );
+
+        if (compressionLevel < -1 || compressionLevel > 9) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, String.format("Parameter '%s' must be between -1 and 9.", Constants.Http.Query.COMPRESSION_LEVEL));
+        }
+
+        // Unknown files are rejected before the response is committed
+        final List<ArchiveEntry> entries = fileStorageService.readArchiveEntries(dirId, fileIds);
+
+        final StreamingResponseBody body = outputStream -> {
+            fileStorageService.writeArchive(entries, archiveFormat, compressionLevel, outputStream);
+            log.atInfo().setMessage("Processed request for download archive successfully.").addKeyValue("files", entries.size()).log();
+        };
+
+        return ResponseEntity.ok()
+                .contentType(archiveFormat.mediaType())
+                .header(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment()
+                        .filename(dirId + "." + archiveFormat.extension(), StandardCharsets.UTF_8)
+                        .build()
+                        .toString())
+                .body(body);
+    }
+
+    private String getDirectoryId(final HttpServletRequest request) {
+
+        // Reading request parameters would make the servlet container parse the body
+        final String directoryId = UriComponentsBuilder.newInstance()
+                .query(request.getQueryString())
+                .build()
+                .getQueryParams()
+                .getFirst(Constants.Http.Query.DIRECTORY_ID);
+
+        return getDirectoryId(directoryId != null ? UriUtils.decode(directoryId, StandardCharsets.UTF_8) : null);
+    }
+
+    private String getDirectoryId(final String directoryId) {
+        return checkDirectoryId(directoryId != null ? directoryId : UUID.randomUUID().toString());
+    }
+
+    // Uploads and downloads alike, the id becomes a path below the storage
+    private static String checkDirectoryId(final String directoryId) {
+        if (directoryId == null || directoryId.isBlank()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, String.format("Parameter '%s' must not be empty.", Constants.Http.Query.DIRECTORY_ID));
+        }
+        // Names starting with a dot are internal (shards, blobs, packs, placements), separators would leave the directory
+        if (directoryId.startsWith(".") || directoryId.contains("/") || directoryId.contains("\\")) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, String.format("Parameter '%s' must not start with '.' or contain path separators.", Constants.Http.Query.DIRECTORY_ID), Map.of(
+                    "directoryId", directoryId
+            ));
+        }
+        return directoryId;
+    }
+
+    private static ClientQuotas.Reservation getReservation(final HttpServletRequest request) {
+        return request.getAttribute(QuotaFilter.RESERVATION_ATTRIBUTE) instanceof ClientQuotas.Reservation reservation ? reservation : ClientQuotas.Reservation.NONE;
+    }
+
+    // Every file is reserved before its body is read
+    private static Iterator<Part> reserveFiles(final Iterator<Part> parts, final ClientQuotas.Reservation reservation) {
+        return new Iterator<>() {
+
+            @Override
+            public boolean hasNext() {
+                return parts.hasNext();
+            }
+
+            @Override
+            public Part next() {
+                final Part part = parts.next();
+                if (Constants.Http.BodyPart.FILE.equals(part.getName())) {
+                    reservation.receiveFile();
+                }
+                return part;
+            }
+        };
+    }
+
+    private FileUploadResponse createFileUploadResponse(final String directoryId, final List<File> files) {
+        final FileUploadResponse response = new FileUploadResponse(directoryId, new ArrayList<>());
+        for (final File file : files) {
+            response.files().add(new FileResponse(file.id(), file.fileId(), file.hash(), file.tree() ? Constants.Http.HashMode.TREE : Constants.Http.HashMode.FLAT));
+        }
+        return response;
+    }
 }
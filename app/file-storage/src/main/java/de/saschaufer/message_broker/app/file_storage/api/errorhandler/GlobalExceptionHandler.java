@@ -1,8 +1,12 @@
 package de.saschaufer.message_broker.app.file_storage.api.errorhandler;
 
+import de.saschaufer.message_broker.app.file_storage.service.RequestRejectedException;
+import de.saschaufer.message_broker.common.Constants;
 import de.saschaufer.message_broker.common.api.errorhandler.ResponseStatusException;
 import de.saschaufer.message_broker.common.api.errorhandler.dto.ErrorResponse;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ControllerAdvice;
 import org.springframework.web.bind.annotation.ExceptionHandler;
@@ -22,4 +26,18 @@ public class GlobalExceptionHandler extends de.saschaufer.message_broker.common.
     public ResponseEntity<ErrorResponse> handleResponseStatusException(final ResponseStatusException e) {
         return super.handleResponseStatusException(e);
     }
+
+    // Rejections are expected under load and the client is told when to come back
+    @ExceptionHandler(RequestRejectedException.class)
+    public ResponseEntity<ErrorResponse> handleRequestRejectedException(final RequestRejectedException e) {
+        log.atWarn().setMessage("Request rejected.").addKeyValue("reason", e.getReason()).addKeyValue(Constants.Logging.DETAILS, e.getAdditionalDetails()).log();
+
+        final HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        if (e.getRetryAfter() != null) {
+            headers.set(HttpHeaders.RETRY_AFTER, String.valueOf(Math.max(1, e.getRetryAfter().toSeconds())));
+        }
+
+        return new ResponseEntity<>(new ErrorResponse(e.getReason(), e.getAdditionalDetails()), headers, e.getStatusCode());
+    }
 }
@@ -0,0 +1,86 @@
+package de.saschaufer.message_broker.app.file_storage.api.filter;
+
+import de.saschaufer.message_broker.app.file_storage.api.FileStorageApi;
+import de.saschaufer.message_broker.app.file_storage.api.FileStorageController;
+import de.saschaufer.message_broker.app.file_storage.service.ClientQuotas;
+import de.saschaufer.message_broker.app.file_storage.service.RequestRejectedException;
+import de.saschaufer.message_broker.common.Constants;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpMethod;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.servlet.HandlerExceptionResolver;
+
+import java.io.IOException;
+import java.util.Set;
+
+// Runs before the servlet container parses multipart bodies, so requests over the limits of their client are rejected
+// before any of the body is stored
+@RequiredArgsConstructor
+public class QuotaFilter extends OncePerRequestFilter {
+
+    // The reservation of an upload, the controller reserves its further files with it
+    public static final String RESERVATION_ATTRIBUTE = QuotaFilter.class.getName() + ".reservation";
+
+    private static final Set<String> UPLOAD_PATHS = Set.of(
+            FileStorageController.FILE_STORAGE_PATH_V1,
+            FileStorageController.FILE_STORAGE_PATH_V1 + FileStorageApi.STREAM_PATH,
+            FileStorageController.FILE_STORAGE_PATH_V1 + FileStorageApi.RAW_PATH
+    );
+
+    private final ClientQuotas clientQuotas;
+    private final HandlerExceptionResolver handlerExceptionResolver;
+
+    @Override
+    protected void doFilterInternal(@NonNull final HttpServletRequest request, @NonNull final HttpServletResponse response, @NonNull final FilterChain filterChain) throws ServletException, IOException {
+
+        final String client = request.getHeader(Constants.Http.Header.USER_AGENT);
+
+        // Requests without a client are rejected by the controller
+        if (client == null || client.isBlank()) {
+            filterChain.doFilter(request, response);
+            return;
+        }
+
+        final ClientQuotas.Reservation reservation;
+        try {
+            clientQuotas.acquire(client);
+            reservation = isUpload(request) ? clientQuotas.reserve(client, request.getContentLengthLong()) : null;
+        } catch (final RequestRejectedException e) {
+            // Answered like the exceptions of the controller
+            handlerExceptionResolver.resolveException(request, response, null, e);
+            return;
+        }
+
+        if (reservation == null) {
+            filterChain.doFilter(request, response);
+            return;
+        }
+
+        request.setAttribute(RESERVATION_ATTRIBUTE, reservation);
+
+        try {
+            filterChain.doFilter(new ReservingRequest(request, reservation), response);
+        } finally {
+            reservation.close();
+        }
+    }
+
+    @Override
+    protected boolean shouldNotFilter(@NonNull final HttpServletRequest request) {
+        // Actuator and API docs aren't limited
+        return !clientQuotas.isEnabled() || !getPath(request).startsWith(FileStorageController.FILE_STORAGE_PATH_V1);
+    }
+
+    private static boolean isUpload(final HttpServletRequest request) {
+        return HttpMethod.POST.matches(request.getMethod()) && UPLOAD_PATHS.contains(getPath(request));
+    }
+
+    private static String getPath(final HttpServletRequest request) {
+        return request.getRequestURI().substring(request.getContextPath().length());
+    }
+}
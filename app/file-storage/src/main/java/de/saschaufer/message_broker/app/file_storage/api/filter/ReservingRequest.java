@@ -0,0 +1,63 @@
+package de.saschaufer.message_broker.app.file_storage.api.filter;
+
+import de.saschaufer.message_broker.app.file_storage.service.ClientQuotas;
+import jakarta.servlet.ReadListener;
+import jakarta.servlet.ServletInputStream;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletRequestWrapper;
+
+import java.io.IOException;
+
+// Bodies read by the controller count against the quota while they are received. Multipart bodies parsed by the
+// servlet container are checked by the controller once they are parsed.
+public class ReservingRequest extends HttpServletRequestWrapper {
+
+    private final ClientQuotas.Reservation reservation;
+
+    public ReservingRequest(final HttpServletRequest request, final ClientQuotas.Reservation reservation) {
+        super(request);
+        this.reservation = reservation;
+    }
+
+    @Override
+    public ServletInputStream getInputStream() throws IOException {
+
+        final ServletInputStream inputStream = super.getInputStream();
+
+        return new ServletInputStream() {
+
+            @Override
+            public int read() throws IOException {
+                final int b = inputStream.read();
+                if (b != -1) {
+                    reservation.receive(1);
+                }
+                return b;
+            }
+
+            @Override
+            public int read(final byte[] b, final int off, final int len) throws IOException {
+                final int n = inputStream.read(b, off, len);
+                if (n > 0) {
+                    reservation.receive(n);
+                }
+                return n;
+            }
+
+            @Override
+            public boolean isFinished() {
+                return inputStream.isFinished();
+            }
+
+            @Override
+            public boolean isReady() {
+                return inputStream.isReady();
+            }
+
+            @Override
+            public void setReadListener(final ReadListener readListener) {
+                inputStream.setReadListener(readListener);
+            }
+        };
+    }
+}
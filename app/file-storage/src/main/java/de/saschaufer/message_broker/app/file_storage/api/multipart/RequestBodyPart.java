@@ -0,0 +1,120 @@
+package de.saschaufer.message_broker.app.file_storage.api.multipart;
+
+import de.saschaufer.message_broker.common.Constants;
+import de.saschaufer.message_broker.common.api.errorhandler.ResponseStatusException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.Part;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+
+// The body of a request as the only file part. The body is only read once the input stream is used, until then a
+// client waiting for 100 Continue hasn't sent it.
+public class RequestBodyPart implements Part {
+
+    private final HttpServletRequest request;
+    private final long maxSize;
+    private final ContentDisposition contentDisposition;
+
+    public RequestBodyPart(final HttpServletRequest request, final long maxSize) {
+        this.request = request;
+        this.maxSize = maxSize;
+        final String value = request.getHeader(HttpHeaders.CONTENT_DISPOSITION);
+        this.contentDisposition = value != null ? ContentDisposition.parse(value) : ContentDisposition.empty();
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+
+        if (request.getContentLengthLong() > maxSize) {
+            throw tooLarge();
+        }
+
+        // Chunked bodies don't announce their size
+        return new FilterInputStream(request.getInputStream()) {
+
+            private long size;
+
+            @Override
+            public int read() throws IOException {
+                final int b = super.read();
+                if (b != -1 && ++size > maxSize) {
+                    throw tooLarge();
+                }
+                return b;
+            }
+
+            @Override
+            public int read(final byte[] b, final int off, final int len) throws IOException {
+                final int read = super.read(b, off, len);
+                if (read > 0 && (size += read) > maxSize) {
+                    throw tooLarge();
+                }
+                return read;
+            }
+        };
+    }
+
+    @Override
+    public String getContentType() {
+        return request.getContentType() != null ? request.getContentType() : MediaType.APPLICATION_OCTET_STREAM_VALUE;
+    }
+
+    @Override
+    public String getName() {
+        return Constants.Http.BodyPart.FILE;
+    }
+
+    @Override
+    public String getSubmittedFileName() {
+        return contentDisposition.getFilename();
+    }
+
+    @Override
+    public long getSize() {
+        return request.getContentLengthLong();
+    }
+
+    @Override
+    public void write(final String fileName) throws IOException {
+        try (final InputStream inputStream = getInputStream()) {
+            Files.copy(inputStream, Path.of(fileName));
+        }
+    }
+
+    @Override
+    public void delete() {
+        // Nothing is stored
+    }
+
+    @Override
+    public String getHeader(final String name) {
+        return request.getHeader(name);
+    }
+
+    @Override
+    public Collection<String> getHeaders(final String name) {
+        return Collections.list(request.getHeaders(name));
+    }
+
+    @Override
+    public Collection<String> getHeaderNames() {
+        return Collections.list(request.getHeaderNames());
+    }
+
+    private ResponseStatusException tooLarge() {
+        return new ResponseStatusException(HttpStatus.CONTENT_TOO_LARGE, "File too large.", Map.of(
+                "max-size", String.valueOf(maxSize)
+        ));
+    }
+}
@@ -0,0 +1,257 @@
+package de.saschaufer.message_broker.app.file_storage.api.multipart;
+
+import de.saschaufer.message_broker.common.api.errorhandler.ResponseStatusException;
+import jakarta.servlet.http.Part;
+import org.springframework.http.HttpStatus;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+public class StreamingMultipartParser implements Iterator<Part> {
+
+    private static final byte CR = '\r';
+    private static final byte LF = '\n';
+    private static final byte DASH = '-';
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_HEADER_SIZE = 16 * 1024;
+
+    private final InputStream inputStream;
+    private final byte[] delimiter;
+    private final long maxPartSize;
+
+    private final byte[] buffer;
+    private int pos;
+    private int limit;
+    private boolean eof;
+
+    private PartInputStream current;
+    private StreamingPart next;
+    private boolean finished;
+
+    public StreamingMultipartParser(final InputStream inputStream, final String boundary, final long maxPartSize) {
+        this.inputStream = inputStream;
+        this.delimiter = ("\r\n--" + boundary).getBytes(StandardCharsets.ISO_8859_1);
+        this.maxPartSize = maxPartSize;
+        this.buffer = new byte[Math.max(BUFFER_SIZE, delimiter.length * 2)];
+
+        // The first boundary isn't preceded by a line break, so the preamble is read as if it was a part body
+        buffer[0] = CR;
+        buffer[1] = LF;
+        limit = 2;
+        current = new PartInputStream(Long.MAX_VALUE);
+    }
+
+    @Override
+    public boolean hasNext() {
+
+        if (next != null) {
+            return true;
+        }
+
+        if (finished) {
+            return false;
+        }
+
+        try {
+            current.drain();
+            if (readEndOfBoundary()) {
+                finished = true;
+                return false;
+            }
+            final Map<String, List<String>> headers = readHeaders();
+            current = new PartInputStream(maxPartSize);
+            next = new StreamingPart(headers, current);
+            return true;
+        } catch (final IOException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Malformed multipart request.", Map.of(
+                    "error", String.valueOf(e.getMessage())
+            ), e);
+        }
+    }
+
+    @Override
+    public Part next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        final Part part = next;
+        next = null;
+        return part;
+    }
+
+    private boolean readEndOfBoundary() throws IOException {
+
+        // Transport padding
+        int b = readByte();
+        while (b == ' ' || b == '\t') {
+            b = readByte();
+        }
+
+        final int b2 = readByte();
+
+        if (b == DASH && b2 == DASH) {
+            return true;
+        }
+
+        if (b == CR && b2 == LF) {
+            return false;
+        }
+
+        throw new IOException("Malformed multipart boundary.");
+    }
+
+    private Map<String, List<String>> readHeaders() throws IOException {
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        // Stop at the empty line separating the headers from the body
+        int matched = 0;
+        while (matched < 4) {
+            final int b = readByte();
+            bytes.write(b);
+            if (bytes.size() > MAX_HEADER_SIZE) {
+                throw new IOException("Multipart headers too large.");
+            }
+            matched = switch (matched) {
+                case 0, 2 -> b == CR ? matched + 1 : 0;
+                case 1, 3 -> b == LF ? matched + 1 : (b == CR ? 1 : 0);
+                default -> 0;
+            };
+            // A part without any headers starts directly with the empty line
+            if (matched == 2 && bytes.size() == 2) {
+                break;
+            }
+        }
+
+        final Map<String, List<String>> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (final String line : bytes.toString(StandardCharsets.UTF_8).split("\r\n")) {
+            final int colon = line.indexOf(':');
+            if (colon > 0) {
+                headers.computeIfAbsent(line.substring(0, colon).trim(), name -> new ArrayList<>()).add(line.substring(colon + 1).trim());
+            }
+        }
+        return headers;
+    }
+
+    private int readByte() throws IOException {
+        if (pos == limit && !fill()) {
+            throw new IOException("Unexpected end of multipart stream.");
+        }
+        return buffer[pos++] & 0xFF;
+    }
+
+    private boolean fill() throws IOException {
+
+        if (eof) {
+            return false;
+        }
+
+        if (pos > 0) {
+            System.arraycopy(buffer, pos, buffer, 0, limit - pos);
+            limit -= pos;
+            pos = 0;
+        }
+
+        final int read = inputStream.read(buffer, limit, buffer.length - limit);
+        if (read == -1) {
+            eof = true;
+            return false;
+        }
+        limit += read;
+        return true;
+    }
+
+    private int indexOfDelimiter(final int maxStart) {
+        outer:
+        for (int i = pos; i <= maxStart; i++) {
+            if (buffer[i] != delimiter[0]) {
+                continue;
+            }
+            for (int j = 1; j < delimiter.length; j++) {
+                if (buffer[i + j] != delimiter[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    private class PartInputStream extends InputStream {
+
+        private final long maxSize;
+        private long size;
+        private boolean done;
+
+        private PartInputStream(final long maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final byte[] b = new byte[1];
+            final int read = read(b, 0, 1);
+            return read == -1 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+
+            if (done) {
+                return -1;
+            }
+
+            if (len == 0) {
+                return 0;
+            }
+
+            while (limit - pos < delimiter.length && fill()) {
+                // Keep reading until the buffer can hold a complete delimiter
+            }
+
+            // Only the bytes that could be returned by this call are searched
+            final int lastStart = limit - delimiter.length;
+            final int index = indexOfDelimiter(Math.min(lastStart, pos + len));
+
+            final int available;
+            if (index == pos) {
+                pos += delimiter.length;
+                done = true;
+                return -1;
+            } else if (index > pos) {
+                available = index - pos;
+            } else if (pos + len <= lastStart) {
+                available = len;
+            } else if (eof) {
+                throw new IOException("Unexpected end of multipart stream.");
+            } else {
+                // The end of the buffer could be the start of a delimiter
+                available = lastStart + 1 - pos;
+            }
+
+            final int n = Math.min(len, available);
+
+            size += n;
+            if (size > maxSize) {
+                throw new ResponseStatusException(HttpStatus.CONTENT_TOO_LARGE, "File too large.", Map.of(
+                        "max-size", String.valueOf(maxSize)
+                ));
+            }
+
+            System.arraycopy(buffer, pos, b, off, n);
+            pos += n;
+            return n;
+        }
+
+        private void drain() throws IOException {
+            final byte[] b = new byte[8192];
+            while (read(b, 0, b.length) != -1) {
+                // Skip the rest of the part
+            }
+        }
+    }
+}
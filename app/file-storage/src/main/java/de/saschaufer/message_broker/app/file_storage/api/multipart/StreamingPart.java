@@ -0,0 +1,79 @@
+package de.saschaufer.message_broker.app.file_storage.api.multipart;
+
+import jakarta.servlet.http.Part;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+class StreamingPart implements Part {
+
+    private final Map<String, List<String>> headers;
+    private final InputStream inputStream;
+    private final ContentDisposition contentDisposition;
+
+    StreamingPart(final Map<String, List<String>> headers, final InputStream inputStream) {
+        this.headers = headers;
+        this.inputStream = inputStream;
+        final String value = getHeader(HttpHeaders.CONTENT_DISPOSITION);
+        this.contentDisposition = value != null ? ContentDisposition.parse(value) : ContentDisposition.empty();
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return inputStream;
+    }
+
+    @Override
+    public String getContentType() {
+        return getHeader(HttpHeaders.CONTENT_TYPE);
+    }
+
+    @Override
+    public String getName() {
+        return contentDisposition.getName();
+    }
+
+    @Override
+    public String getSubmittedFileName() {
+        return contentDisposition.getFilename();
+    }
+
+    @Override
+    public long getSize() {
+        // Unknown until the body has been read
+        return -1;
+    }
+
+    @Override
+    public void write(final String fileName) throws IOException {
+        Files.copy(inputStream, Path.of(fileName));
+    }
+
+    @Override
+    public void delete() {
+        // Nothing is stored
+    }
+
+    @Override
+    public String getHeader(final String name) {
+        final List<String> values = headers.get(name);
+        return values == null || values.isEmpty() ? null : values.getFirst();
+    }
+
+    @Override
+    public Collection<String> getHeaders(final String name) {
+        return headers.getOrDefault(name, List.of());
+    }
+
+    @Override
+    public Collection<String> getHeaderNames() {
+        return headers.keySet();
+    }
+}
@@ -1,16 +1,377 @@
 package de.saschaufer.message_broker.app.file_storage.config;
 
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.DecimalMax;
+import jakarta.validation.constraints.DecimalMin;
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.Min;
 import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Positive;
+import jakarta.validation.constraints.PositiveOrZero;
 import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.ConstructorBinding;
+import org.springframework.util.unit.DataSize;
 import org.springframework.validation.annotation.Validated;
 
+import java.net.URI;
 import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
 
 @Validated
 @ConfigurationProperties("file-storage")
 public record FileStorageProperties(
 
         @NotNull
-        Path path
+        Path path,
+
+        @Positive
+        Integer lockStripes,
+
+        @Valid
+        Journal journal,
+
+        @Valid
+        MetadataCache metadataCache,
+
+        @Valid
+        DownloadTracking downloadTracking,
+
+        @Valid
+        Upload upload,
+
+        @Valid
+        Io io,
+
+        @Valid
+        Dedup dedup,
+
+        @Valid
+        Download download,
+
+        @Valid
+        ContentCache contentCache,
+
+        @Valid
+        Retention retention,
+
+        @Valid
+        Recovery recovery,
+
+        @Valid
+        Layout layout,
+
+        @Valid
+        Placement placement,
+
+        @Valid
+        Backend backend,
+
+        @Valid
+        Packing packing,
+
+        @Valid
+        Compression compression,
+
+        @Valid
+        Hashing hashing,
+
+        @Valid
+        Admission admission,
+
+        @Valid
+        Quota quota
 ) {
+
+    @ConstructorBinding
+    public FileStorageProperties {
+        lockStripes = lockStripes != null ? lockStripes : 1024;
+        journal = journal != null ? journal : new Journal(null, null);
+        metadataCache = metadataCache != null ? metadataCache : new MetadataCache(null);
+        downloadTracking = downloadTracking != null ? downloadTracking : new DownloadTracking(null, null);
+        upload = upload != null ? upload : new Upload(null);
+        io = io != null ? io : new Io(null, null, null);
+        dedup = dedup != null ? dedup : new Dedup(null);
+        download = download != null ? download : new Download(null, null);
+        contentCache = contentCache != null ? contentCache : new ContentCache(null, null, null, null);
+        retention = retention != null ? retention : new Retention(null, null, null, null, null, null, null);
+        recovery = recovery != null ? recovery : new Recovery(null);
+        layout = layout != null ? layout : new Layout(null, null, null, null, null, null);
+        placement = placement != null ? placement : new Placement(null, null);
+        backend = backend != null ? backend : new Backend(null, null);
+        packing = packing != null ? packing : new Packing(null, null, null, null, null);
+        compression = compression != null ? compression : new Compression(null, null, null, null);
+        hashing = hashing != null ? hashing : new Hashing(null, null, null, null);
+        admission = admission != null ? admission : new Admission(null, null, null, null, null, null, null);
+        quota = quota != null ? quota : new Quota(null, null, null, null, null, null);
+    }
+
+    public record Journal(
+            Duration compactionInterval,
+            Integer compactionThreshold
+    ) {
+        public Journal {
+            compactionInterval = compactionInterval != null ? compactionInterval : Duration.ofMinutes(1);
+            compactionThreshold = compactionThreshold != null ? compactionThreshold : 1000;
+        }
+    }
+
+    public record MetadataCache(
+            Long maxEntries
+    ) {
+        public MetadataCache {
+            maxEntries = maxEntries != null ? maxEntries : 100_000L;
+        }
+    }
+
+    public record DownloadTracking(
+            Duration flushInterval,
+            Integer maxPending
+    ) {
+        public DownloadTracking {
+            flushInterval = flushInterval != null ? flushInterval : Duration.ofSeconds(10);
+            maxPending = maxPending != null ? maxPending : 10_000;
+        }
+    }
+
+    public record Upload(
+            DataSize maxFileSize
+    ) {
+        public Upload {
+            maxFileSize = maxFileSize != null ? maxFileSize : DataSize.ofGigabytes(10);
+        }
+    }
+
+    public record Io(
+            @Positive
+            Integer parallelism,
+            Boolean virtualThreads,
+            @Positive
+            Integer queueCapacity
+    ) {
+        public Io {
+            parallelism = parallelism != null ? parallelism : 16;
+            virtualThreads = virtualThreads != null ? virtualThreads : false;
+            queueCapacity = queueCapacity != null ? queueCapacity : 1000;
+        }
+    }
+
+    public record Dedup(
+            Boolean enabled
+    ) {
+        public Dedup {
+            enabled = enabled != null ? enabled : false;
+        }
+    }
+
+    public record Download(
+            @PositiveOrZero
+            Integer prefetchWindow,
+            DataSize prefetchSize
+    ) {
+        public Download {
+            prefetchWindow = prefetchWindow != null ? prefetchWindow : 2;
+            prefetchSize = prefetchSize != null ? prefetchSize : DataSize.ofKilobytes(64);
+        }
+    }
+
+    public record ContentCache(
+            Boolean enabled,
+            DataSize maxSize,
+            DataSize maxFileSize,
+            @Positive
+            Integer minAccesses
+    ) {
+        public ContentCache {
+            enabled = enabled != null ? enabled : false;
+            maxSize = maxSize != null ? maxSize : DataSize.ofMegabytes(64);
+            maxFileSize = maxFileSize != null ? maxFileSize : DataSize.ofKilobytes(64);
+            minAccesses = minAccesses != null ? minAccesses : 2;
+        }
+    }
+
+    public record Retention(
+            Boolean enabled,
+            Duration interval,
+            Duration maxAge,
+            Duration maxIdle,
+            DataSize maxDirectorySize,
+            @Positive
+            Integer batchSize,
+            Duration batchPause
+    ) {
+        public Retention {
+            enabled = enabled != null ? enabled : false;
+            interval = interval != null ? interval : Duration.ofHours(1);
+            batchSize = batchSize != null ? batchSize : 100;
+            batchPause = batchPause != null ? batchPause : Duration.ofMillis(100);
+        }
+    }
+
+    public record Recovery(
+            Boolean enabled
+    ) {
+        public Recovery {
+            enabled = enabled != null ? enabled : true;
+        }
+    }
+
+    public record Layout(
+            @PositiveOrZero
+            @Max(4)
+            Integer directoryLevels,
+            @PositiveOrZero
+            @Max(4)
+            Integer fileLevels,
+            Duration migrationInterval,
+            @Positive
+            Integer migrationBatchSize,
+            Duration migrationBatchPause,
+            Duration migrationGracePeriod
+    ) {
+        public Layout {
+            directoryLevels = directoryLevels != null ? directoryLevels : 0;
+            fileLevels = fileLevels != null ? fileLevels : 0;
+            migrationInterval = migrationInterval != null ? migrationInterval : Duration.ofMinutes(1);
+            migrationBatchSize = migrationBatchSize != null ? migrationBatchSize : 100;
+            migrationBatchPause = migrationBatchPause != null ? migrationBatchPause : Duration.ofMillis(100);
+            migrationGracePeriod = migrationGracePeriod != null ? migrationGracePeriod : Duration.ofHours(1);
+        }
+    }
+
+    public record Placement(
+            List<Path> roots,
+            DataSize minFreeSpace
+    ) {
+        public Placement {
+            roots = roots != null ? List.copyOf(roots) : List.of();
+            minFreeSpace = minFreeSpace != null ? minFreeSpace : DataSize.ofGigabytes(1);
+        }
+    }
+
+    public record Backend(
+            Type type,
+            @Valid
+            S3 s3
+    ) {
+        public Backend {
+            type = type != null ? type : Type.LOCAL;
+            s3 = s3 != null ? s3 : new S3(null, null, null, null, null, null, null, null, null);
+        }
+
+        public enum Type {
+            LOCAL, MEMORY, S3
+        }
+
+        public record S3(
+                URI endpoint,
+                String region,
+                String bucket,
+                String accessKey,
+                String secretKey,
+                String prefix,
+                DataSize partSize,
+                @Positive
+                Integer maxPartBuffers,
+                Duration timeout
+        ) {
+            public S3 {
+                region = region != null ? region : "us-east-1";
+                prefix = prefix != null ? prefix : "";
+                partSize = partSize != null ? partSize : DataSize.ofMegabytes(8);
+                maxPartBuffers = maxPartBuffers != null ? maxPartBuffers : 16;
+                timeout = timeout != null ? timeout : Duration.ofSeconds(30);
+            }
+        }
+    }
+
+    public record Packing(
+            Boolean enabled,
+            DataSize maxFileSize,
+            DataSize maxPackSize,
+            Duration compactionInterval,
+            @DecimalMin("0.0")
+            @DecimalMax("1.0")
+            Double compactionThreshold
+    ) {
+        public Packing {
+            enabled = enabled != null ? enabled : false;
+            maxFileSize = maxFileSize != null ? maxFileSize : DataSize.ofKilobytes(64);
+            maxPackSize = maxPackSize != null ? maxPackSize : DataSize.ofMegabytes(256);
+            compactionInterval = compactionInterval != null ? compactionInterval : Duration.ofMinutes(10);
+            compactionThreshold = compactionThreshold != null ? compactionThreshold : 0.5;
+        }
+    }
+
+    public record Compression(
+            Boolean enabled,
+            List<String> mediaTypes,
+            DataSize minFileSize,
+            @Min(1)
+            @Max(9)
+            Integer level
+    ) {
+        public Compression {
+            enabled = enabled != null ? enabled : false;
+            mediaTypes = mediaTypes != null ? List.copyOf(mediaTypes) : List.of("text/*", "application/json", "application/*+json", "application/xml", "application/*+xml", "application/javascript", "image/svg+xml");
+            minFileSize = minFileSize != null ? minFileSize : DataSize.ofKilobytes(1);
+            level = level != null ? level : 1;
+        }
+    }
+
+    public record Hashing(
+            Boolean tree,
+            DataSize chunkSize,
+            @Positive
+            Integer parallelism,
+            List<String> algorithms
+    ) {
+        public Hashing {
+            tree = tree != null ? tree : false;
+            chunkSize = chunkSize != null ? chunkSize : DataSize.ofMegabytes(4);
+            parallelism = parallelism != null ? parallelism : Runtime.getRuntime().availableProcessors();
+            algorithms = algorithms != null ? List.copyOf(algorithms) : List.of("SHA3-512", "SHA-512", "SHA-256", "CRC32C");
+        }
+    }
+
+    public record Admission(
+            Boolean enabled,
+            @Positive
+            Integer maxConcurrentUploads,
+            @Positive
+            Integer minConcurrentUploads,
+            DataSize maxInFlightBytes,
+            DataSize diskReserve,
+            Duration retryAfter,
+            Boolean adaptive
+    ) {
+        public Admission {
+            enabled = enabled != null ? enabled : false;
+            maxConcurrentUploads = maxConcurrentUploads != null ? maxConcurrentUploads : 64;
+            minConcurrentUploads = Math.min(minConcurrentUploads != null ? minConcurrentUploads : 4, maxConcurrentUploads);
+            maxInFlightBytes = maxInFlightBytes != null ? maxInFlightBytes : DataSize.ofGigabytes(1);
+            diskReserve = diskReserve != null ? diskReserve : DataSize.ofGigabytes(1);
+            retryAfter = retryAfter != null ? retryAfter : Duration.ofSeconds(5);
+            adaptive = adaptive != null ? adaptive : true;
+        }
+    }
+
+    // Limits apply to each client on its own, clients are told apart by their User-Agent. Limits left out don't apply.
+    public record Quota(
+            Boolean enabled,
+            DataSize maxBytes,
+            @Positive
+            Long maxFiles,
+            @Positive
+            Double requestsPerSecond,
+            @Positive
+            Integer burst,
+            Duration persistInterval
+    ) {
+        public Quota {
+            enabled = enabled != null ? enabled : false;
+            burst = burst != null ? burst : 10;
+            persistInterval = persistInterval != null ? persistInterval : Duration.ofSeconds(10);
+        }
+    }
 }
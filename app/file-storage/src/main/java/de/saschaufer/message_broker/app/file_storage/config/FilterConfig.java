@@ -1,10 +1,14 @@
 package de.saschaufer.message_broker.app.file_storage.config;
 
 import de.saschaufer.message_broker.app.file_storage.api.filter.MDCFilter;
+import de.saschaufer.message_broker.app.file_storage.api.filter.QuotaFilter;
+import de.saschaufer.message_broker.app.file_storage.service.ClientQuotas;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.boot.web.servlet.FilterRegistrationBean;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.core.annotation.Order;
+import org.springframework.web.servlet.HandlerExceptionResolver;
 
 @Configuration(proxyBeanMethods = false)
 public class FilterConfig {
@@ -14,4 +18,11 @@ public class FilterConfig {
     public FilterRegistrationBean<MDCFilter> registration() {
         return new FilterRegistrationBean<>(new MDCFilter());
     }
+
+    // After the MDC filter, so rejections are logged with the correlation ID
+    @Bean
+    @Order(Integer.MIN_VALUE + 1)
+    public FilterRegistrationBean<QuotaFilter> quotaRegistration(final ClientQuotas clientQuotas, @Qualifier("handlerExceptionResolver") final HandlerExceptionResolver handlerExceptionResolver) {
+        return new FilterRegistrationBean<>(new QuotaFilter(clientQuotas, handlerExceptionResolver));
+    }
 }
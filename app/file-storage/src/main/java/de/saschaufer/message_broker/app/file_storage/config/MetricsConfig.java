@@ -0,0 +1,50 @@
+package de.saschaufer.message_broker.app.file_storage.config;
+
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import de.saschaufer.message_broker.app.file_storage.service.ContentCache;
+import de.saschaufer.message_broker.app.file_storage.service.DownloadTracker;
+import de.saschaufer.message_broker.app.file_storage.service.RetentionService;
+import de.saschaufer.message_broker.app.file_storage.service.StorageBackend;
+import de.saschaufer.message_broker.app.file_storage.service.UploadAdmission;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.function.Supplier;
+
+// The services keep their own counters, they are only read when the registry is scraped
+@Configuration
+public class MetricsConfig {
+
+    @Bean
+    public MeterBinder fileStorageMeterBinder(final ContentCache contentCache, final RetentionService retentionService, final DownloadTracker downloadTracker, final UploadAdmission uploadAdmission, final StorageBackend storageBackend) {
+        return registry -> {
+
+            bindCacheStats(registry, "content", contentCache::stats);
+            Gauge.builder("file.storage.cache.size", contentCache, ContentCache::bytes).baseUnit("bytes").tag("cache", "content").register(registry);
+
+            FunctionCounter.builder("file.storage.retention.deleted.files", retentionService, RetentionService::deletedFiles).register(registry);
+            FunctionCounter.builder("file.storage.retention.reclaimed", retentionService, RetentionService::reclaimedBytes).baseUnit("bytes").register(registry);
+
+            Gauge.builder("file.storage.download.tracking.pending", downloadTracker, DownloadTracker::pendingEntries).register(registry);
+
+            Gauge.builder("file.storage.upload.limit", uploadAdmission, UploadAdmission::getLimit).register(registry);
+            Gauge.builder("file.storage.upload.active", uploadAdmission, UploadAdmission::getUploads).register(registry);
+            Gauge.builder("file.storage.upload.in.flight", uploadAdmission, UploadAdmission::getBytes).baseUnit("bytes").register(registry);
+
+            // The backend is declared as a StorageBackend bean and isn't found as a binder on its own
+            if (storageBackend instanceof MeterBinder meterBinder) {
+                meterBinder.bindTo(registry);
+            }
+        };
+    }
+
+    private static void bindCacheStats(final MeterRegistry registry, final String cache, final Supplier<CacheStats> stats) {
+        FunctionCounter.builder("file.storage.cache.hits", stats, s -> s.get().hitCount()).tag("cache", cache).register(registry);
+        FunctionCounter.builder("file.storage.cache.misses", stats, s -> s.get().missCount()).tag("cache", cache).register(registry);
+        FunctionCounter.builder("file.storage.cache.evictions", stats, s -> s.get().evictionCount()).tag("cache", cache).register(registry);
+    }
+}
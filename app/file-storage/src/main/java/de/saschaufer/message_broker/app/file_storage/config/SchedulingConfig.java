@@ -0,0 +1,49 @@
+package de.saschaufer.message_broker.app.file_storage.config;
+
+import de.saschaufer.message_broker.app.file_storage.service.ClientQuotas;
+import de.saschaufer.message_broker.app.file_storage.service.DownloadTracker;
+import de.saschaufer.message_broker.app.file_storage.service.LayoutMigration;
+import de.saschaufer.message_broker.app.file_storage.service.MetadataService;
+import de.saschaufer.message_broker.app.file_storage.service.PackingStorageBackend;
+import de.saschaufer.message_broker.app.file_storage.service.RetentionService;
+import de.saschaufer.message_broker.app.file_storage.service.StorageBackend;
+import de.saschaufer.message_broker.app.file_storage.service.StorageLayout;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+import org.springframework.scheduling.annotation.SchedulingConfigurer;
+import org.springframework.scheduling.config.ScheduledTaskRegistrar;
+
+@Configuration
+@EnableScheduling
+@RequiredArgsConstructor
+public class SchedulingConfig implements SchedulingConfigurer {
+
+    private final FileStorageProperties fileStorageProperties;
+    private final MetadataService metadataService;
+    private final DownloadTracker downloadTracker;
+    private final RetentionService retentionService;
+    private final StorageLayout storageLayout;
+    private final LayoutMigration layoutMigration;
+    private final StorageBackend storageBackend;
+    private final ClientQuotas clientQuotas;
+
+    @Override
+    public void configureTasks(@NonNull final ScheduledTaskRegistrar taskRegistrar) {
+        taskRegistrar.addFixedDelayTask(metadataService::compactPending, fileStorageProperties.journal().compactionInterval());
+        taskRegistrar.addFixedDelayTask(downloadTracker::flush, fileStorageProperties.downloadTracking().flushInterval());
+        if (fileStorageProperties.retention().enabled()) {
+            taskRegistrar.addFixedDelayTask(retentionService::run, fileStorageProperties.retention().interval());
+        }
+        if (storageLayout.isMigrating()) {
+            taskRegistrar.addFixedDelayTask(layoutMigration::run, fileStorageProperties.layout().migrationInterval());
+        }
+        if (storageBackend instanceof PackingStorageBackend packingStorageBackend) {
+            taskRegistrar.addFixedDelayTask(packingStorageBackend::compact, fileStorageProperties.packing().compactionInterval());
+        }
+        if (clientQuotas.isEnabled()) {
+            taskRegistrar.addFixedDelayTask(clientQuotas::persist, fileStorageProperties.quota().persistInterval());
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package de.saschaufer.message_broker.app.file_storage.config;
+
+import de.saschaufer.message_broker.app.file_storage.service.InMemoryStorageBackend;
+import de.saschaufer.message_broker.app.file_storage.service.LocalStorageBackend;
+import de.saschaufer.message_broker.app.file_storage.service.PackingStorageBackend;
+import de.saschaufer.message_broker.app.file_storage.service.S3StorageBackend;
+import de.saschaufer.message_broker.app.file_storage.service.StorageBackend;
+import de.saschaufer.message_broker.app.file_storage.service.StorageLayout;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration(proxyBeanMethods = false)
+public class StorageBackendConfig {
+
+    @Bean
+    public StorageBackend storageBackend(final FileStorageProperties fileStorageProperties, final StorageLayout storageLayout) {
+
+        final FileStorageProperties.Backend.Type type = fileStorageProperties.backend().type();
+
+        final StorageBackend storageBackend = switch (type) {
+            case LOCAL -> new LocalStorageBackend(storageLayout);
+            case MEMORY -> new InMemoryStorageBackend();
+            case S3 -> new S3StorageBackend(fileStorageProperties.backend().s3());
+        };
+
+        if (!fileStorageProperties.packing().enabled()) {
+            return storageBackend;
+        }
+
+        // Packs are local files, next to remote or volatile content they would be the odd ones out
+        if (type != FileStorageProperties.Backend.Type.LOCAL) {
+            throw new IllegalStateException("Packing small files needs the local backend.");
+        }
+
+        return new PackingStorageBackend(fileStorageProperties, storageBackend);
+    }
+}
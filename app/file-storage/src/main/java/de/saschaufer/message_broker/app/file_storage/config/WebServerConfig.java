@@ -0,0 +1,16 @@
+package de.saschaufer.message_broker.app.file_storage.config;
+
+import org.springframework.boot.web.embedded.tomcat.TomcatServletWebServerFactory;
+import org.springframework.boot.web.server.WebServerFactoryCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration(proxyBeanMethods = false)
+public class WebServerConfig {
+
+    // Only answer 'Expect: 100-continue' once the body is read, so uploads of known content never send it
+    @Bean
+    public WebServerFactoryCustomizer<TomcatServletWebServerFactory> continueResponseTiming() {
+        return factory -> factory.addConnectorCustomizers(connector -> connector.setProperty("continueResponseTiming", "onRead"));
+    }
+}
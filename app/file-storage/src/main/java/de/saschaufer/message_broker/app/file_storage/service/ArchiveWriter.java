@@ -0,0 +1,141 @@
+package de.saschaufer.message_broker.app.file_storage.service;
+
+import de.saschaufer.message_broker.app.file_storage.service.dto.ArchiveEntry;
+import de.saschaufer.message_broker.app.file_storage.service.dto.ArchiveFormat;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+class ArchiveWriter {
+
+    private static final int BLOCK_SIZE = 512;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private ArchiveWriter() {
+    }
+
+    static void write(final ArchiveFormat format, final int compressionLevel, final List<ArchiveEntry> entries, final OutputStream outputStream) throws IOException {
+        switch (format) {
+            case ZIP -> writeZip(compressionLevel, entries, outputStream);
+            case TAR -> writeTar(entries, outputStream);
+            case TAR_GZ -> {
+                final GZIPOutputStream gzipOutputStream = new GZIPOutputStream(outputStream, BUFFER_SIZE) {
+                    {
+                        def.setLevel(compressionLevel);
+                    }
+                };
+                writeTar(entries, gzipOutputStream);
+                gzipOutputStream.finish();
+            }
+        }
+        outputStream.flush();
+    }
+
+    private static void writeZip(final int compressionLevel, final List<ArchiveEntry> entries, final OutputStream outputStream) throws IOException {
+        final ZipOutputStream zipOutputStream = new ZipOutputStream(outputStream, StandardCharsets.UTF_8);
+        zipOutputStream.setLevel(compressionLevel);
+        for (final ArchiveEntry entry : entries) {
+            final ZipEntry zipEntry = new ZipEntry(entry.name());
+            zipEntry.setTime(entry.modified().toInstant().toEpochMilli());
+            zipOutputStream.putNextEntry(zipEntry);
+            try (final InputStream inputStream = entry.resource().getInputStream()) {
+                inputStream.transferTo(zipOutputStream);
+            }
+            zipOutputStream.closeEntry();
+        }
+        // Finish instead of close, the response stream is closed by the container
+        zipOutputStream.finish();
+    }
+
+    private static void writeTar(final List<ArchiveEntry> entries, final OutputStream outputStream) throws IOException {
+        for (final ArchiveEntry entry : entries) {
+
+            final long size = entry.resource().contentLength();
+            final long modified = entry.modified().toEpochSecond();
+            final byte[] name = entry.name().getBytes(StandardCharsets.UTF_8);
+
+            // Names which don't fit into the ustar header or aren't ASCII are stored in a PAX extended header
+            if (name.length > 100 || name.length != entry.name().length()) {
+                final byte[] pax = paxRecord("path", entry.name());
+                outputStream.write(tarHeader("PaxHeader", pax.length, modified, (byte) 'x'));
+                outputStream.write(pax);
+                pad(outputStream, pax.length);
+            }
+
+            outputStream.write(tarHeader(entry.name(), size, modified, (byte) '0'));
+
+            final long copied;
+            try (final InputStream inputStream = entry.resource().getInputStream()) {
+                copied = inputStream.transferTo(outputStream);
+            }
+            if (copied != size) {
+                throw new IOException("File changed while writing archive: " + entry.name());
+            }
+            pad(outputStream, size);
+        }
+        outputStream.write(new byte[BLOCK_SIZE * 2]);
+    }
+
+    private static byte[] tarHeader(final String name, final long size, final long modified, final byte type) {
+
+        final byte[] header = new byte[BLOCK_SIZE];
+
+        final byte[] nameBytes = name.getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(nameBytes, 0, header, 0, Math.min(nameBytes.length, 100));
+        octal(header, 100, 8, 0644);
+        octal(header, 108, 8, 0);
+        octal(header, 116, 8, 0);
+        if (size < 077777777777L) {
+            octal(header, 124, 12, size);
+        } else {
+            // Base-256 encoding for files of 8 GiB and more
+            header[124] = (byte) 0x80;
+            for (int i = 0; i < 8; i++) {
+                header[135 - i] = (byte) (size >>> (8 * i));
+            }
+        }
+        octal(header, 136, 12, modified);
+        header[156] = type;
+        System.arraycopy("ustar\0".getBytes(StandardCharsets.US_ASCII), 0, header, 257, 6);
+        System.arraycopy("00".getBytes(StandardCharsets.US_ASCII), 0, header, 263, 2);
+
+        Arrays.fill(header, 148, 156, (byte) ' ');
+        long checksum = 0;
+        for (final byte b : header) {
+            checksum += b & 0xFF;
+        }
+        octal(header, 148, 7, checksum);
+
+        return header;
+    }
+
+    private static void octal(final byte[] header, final int offset, final int length, final long value) {
+        final String s = String.format("%0" + (length - 1) + "o", value);
+        System.arraycopy(s.getBytes(StandardCharsets.US_ASCII), 0, header, offset, length - 1);
+        header[offset + length - 1] = 0;
+    }
+
+    private static byte[] paxRecord(final String key, final String value) {
+        // The length at the start of the record includes its own digits
+        final int length = (" " + key + "=" + value + "\n").getBytes(StandardCharsets.UTF_8).length;
+        int total = length + String.valueOf(length).length();
+        if (String.valueOf(total).length() != String.valueOf(length).length()) {
+            total++;
+        }
+        return (total + " " + key + "=" + value + "\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void pad(final OutputStream outputStream, final long size) throws IOException {
+        final int remainder = (int) (size % BLOCK_SIZE);
+        if (remainder != 0) {
+            outputStream.write(new byte[BLOCK_SIZE - remainder]);
+        }
+    }
+}
@@ -0,0 +1,276 @@
+package de.saschaufer.message_broker.app.file_storage.service;
+
+import de.saschaufer.message_broker.app.file_storage.config.FileStorageProperties;
+import de.saschaufer.message_broker.common.api.errorhandler.ResponseStatusException;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+@Component
+public class BlobStore {
+
+    static final String BLOBS_DIRECTORY = ".blobs";
+    static final String REFS_SUFFIX = ".refs";
+
+    private final Path path;
+    private final Lock[] locks;
+
+    public BlobStore(final FileStorageProperties fileStorageProperties) {
+        path = fileStorageProperties.path().resolve(BLOBS_DIRECTORY);
+        locks = new Lock[fileStorageProperties.lockStripes()];
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    public Path getPath(final String blob) {
+        return path.resolve(blob.substring(0, 2)).resolve(blob);
+    }
+
+    // The client uploaded the content, so it may link it from now on. The size is the one of the uploaded bytes.
+    public void store(final Path file, final String blob, final long size, final String client) {
+        final Lock lock = lock(blob);
+        lock.lock();
+        try {
+            if (Files.exists(getPath(blob))) {
+                final References references = readReferences(blob);
+                writeReferences(blob, new References(references.count() + 1, size, add(references.clients(), client)));
+                // The content is already stored, the uploaded copy isn't needed anymore
+                Files.delete(file);
+                return;
+            }
+            final Path pathBlob = getPath(blob);
+            Files.createDirectories(pathBlob.getParent());
+            try {
+                Files.move(file, pathBlob, StandardCopyOption.ATOMIC_MOVE);
+            } catch (final AtomicMoveNotSupportedException e) {
+                // The upload was written to another disk, the copy only becomes visible once it's complete
+                final Path pathTmp = pathBlob.resolveSibling(blob + ".TMP");
+                Files.copy(file, pathTmp, StandardCopyOption.REPLACE_EXISTING);
+                Files.move(pathTmp, pathBlob, StandardCopyOption.ATOMIC_MOVE);
+                Files.delete(file);
+            }
+            writeReferences(blob, new References(1, size, Set.of(client)));
+        } catch (final IOException e) {
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Couldn't store blob.", Map.of(
+                    "blob", blob
+            ), e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Knowing a hash isn't proof of holding the content, only clients that uploaded it learn that it's stored
+    public boolean owns(final String blob, final String client) {
+        final Lock lock = lock(blob);
+        lock.lock();
+        try {
+            return Files.exists(getPath(blob)) && readReferences(blob).clients().contains(client);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Returns the size of the uploaded content, or -1 if the client can't link the blob
+    public long link(final String blob, final String client) {
+        final Lock lock = lock(blob);
+        lock.lock();
+        try {
+            if (!Files.exists(getPath(blob))) {
+                return -1;
+            }
+            final References references = readReferences(blob);
+            // Blobs stored before their clients were recorded are only linked again once a client uploads them
+            if (references.size() < 0 || !references.clients().contains(client)) {
+                return -1;
+            }
+            writeReferences(blob, new References(references.count() + 1, references.size(), references.clients()));
+            return references.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean release(final String blob) {
+        final Lock lock = lock(blob);
+        lock.lock();
+        try {
+            final References references = readReferences(blob);
+            if (references.count() > 1) {
+                writeReferences(blob, new References(references.count() - 1, references.size(), references.clients()));
+                return false;
+            }
+            // Streams opened by running downloads stay readable after the delete
+            final boolean deleted = Files.deleteIfExists(getPath(blob));
+            Files.deleteIfExists(getPathReferences(blob));
+            return deleted;
+        } catch (final IOException e) {
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Couldn't delete blob.", Map.of(
+                    "blob", blob
+            ), e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int references(final String blob) {
+        final Lock lock = lock(blob);
+        lock.lock();
+        try {
+            return readReferences(blob).count();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    List<Path> listShards() {
+        try (final Stream<Path> paths = Files.list(path)) {
+            return paths.filter(Files::isDirectory).toList();
+        } catch (final NoSuchFileException e) {
+            return List.of();
+        } catch (final IOException e) {
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Couldn't list blobs.", e);
+        }
+    }
+
+    // Brings the blobs of a shard in line with the references counted in the metadata of all directories
+    Recovery recover(final Path shard, final Map<String, Integer> references) {
+
+        final List<Path> files;
+        try (final Stream<Path> paths = Files.list(shard)) {
+            files = paths.toList();
+        } catch (final IOException e) {
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Couldn't list blobs.", Map.of(
+                    "shard", shard.getFileName().toString()
+            ), e);
+        }
+
+        int temporaryFiles = 0;
+        int orphanedBlobs = 0;
+        int correctedReferences = 0;
+
+        for (final Path file : files) {
+
+            final String name = file.getFileName().toString();
+
+            try {
+                if (name.endsWith(".TMP")) {
+                    Files.deleteIfExists(file);
+                    temporaryFiles++;
+                } else if (name.endsWith(REFS_SUFFIX)) {
+                    final String blob = name.substring(0, name.length() - REFS_SUFFIX.length());
+                    if (!Files.exists(getPath(blob))) {
+                        Files.deleteIfExists(file);
+                    }
+                } else {
+                    final int expected = references.getOrDefault(name, 0);
+                    final Lock lock = lock(name);
+                    lock.lock();
+                    try {
+                        if (expected == 0) {
+                            // Stored, but the metadata pointing at it was never written
+                            Files.deleteIfExists(file);
+                            Files.deleteIfExists(getPathReferences(name));
+                            orphanedBlobs++;
+                        } else {
+                            final References actual = readReferencesOrNone(name);
+                            if (actual.count() != expected) {
+                                writeReferences(name, new References(expected, actual.size(), actual.clients()));
+                                correctedReferences++;
+                            }
+                        }
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+            } catch (final IOException e) {
+                throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Couldn't recover blob.", Map.of(
+                        "file", file.toAbsolutePath().toString()
+                ), e);
+            }
+        }
+
+        return new Recovery(temporaryFiles, orphanedBlobs, correctedReferences);
+    }
+
+    private References readReferencesOrNone(final String blob) {
+        try {
+            return readReferences(blob);
+        } catch (final ResponseStatusException e) {
+            // Unreadable counts are rewritten, the clients have to upload the content again to link it
+            return new References(0, -1, Set.of());
+        }
+    }
+
+    // The count comes first, then the size of the uploaded content and the clients that uploaded it, one per line.
+    // Files written before the size and the clients were recorded hold the count alone.
+    private References readReferences(final String blob) {
+        final Path pathReferences = getPathReferences(blob);
+        if (!Files.exists(pathReferences)) {
+            return new References(0, -1, Set.of());
+        }
+        try {
+            final List<String> lines = Files.readAllLines(pathReferences, StandardCharsets.UTF_8);
+            final int count = Integer.parseInt(lines.getFirst().trim());
+            final long size = lines.size() > 1 ? Long.parseLong(lines.get(1).trim()) : -1;
+            return new References(count, size, lines.size() > 2 ? Set.copyOf(lines.subList(2, lines.size())) : Set.of());
+        } catch (final IOException | RuntimeException e) {
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Couldn't read blob references.", Map.of(
+                    "blob", blob
+            ), e);
+        }
+    }
+
+    private void writeReferences(final String blob, final References references) {
+        final Path pathReferences = getPathReferences(blob);
+        final Path pathTmp = pathReferences.resolveSibling(pathReferences.getFileName() + ".TMP");
+        final List<String> lines = new ArrayList<>();
+        lines.add(Integer.toString(references.count()));
+        lines.add(Long.toString(references.size()));
+        lines.addAll(references.clients());
+        try {
+            Files.write(pathTmp, lines, StandardCharsets.UTF_8);
+            Files.move(pathTmp, pathReferences, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (final IOException e) {
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Couldn't write blob references.", Map.of(
+                    "blob", blob
+            ), e);
+        }
+    }
+
+    private static Set<String> add(final Set<String> clients, final String client) {
+        final Set<String> added = new HashSet<>(clients);
+        added.add(client);
+        return added;
+    }
+
+    private Path getPathReferences(final String blob) {
+        return getPath(blob).resolveSibling(blob + REFS_SUFFIX);
+    }
+
+    private Lock lock(final String blob) {
+        final int hash = blob.hashCode();
+        return locks[Math.floorMod(hash ^ (hash >>> 16), locks.length)];
+    }
+
+    private record References(int count, long size, Set<String> clients) {
+    }
+
+    record Recovery(int temporaryFiles, int orphanedBlobs, int correctedReferences) {
+    }
+}
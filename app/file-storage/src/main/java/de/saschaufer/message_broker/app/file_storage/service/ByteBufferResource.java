@@ -0,0 +1,65 @@
+package de.saschaufer.message_broker.app.file_storage.service;
+
+import org.springframework.core.io.AbstractResource;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+class ByteBufferResource extends AbstractResource {
+
+    private final ByteBuffer buffer;
+    private final String description;
+
+    ByteBufferResource(final ByteBuffer buffer, final String description) {
+        this.buffer = buffer.asReadOnlyBuffer();
+        this.description = description;
+    }
+
+    @Override
+    public boolean exists() {
+        return true;
+    }
+
+    @Override
+    public long contentLength() {
+        return buffer.remaining();
+    }
+
+    @Override
+    public InputStream getInputStream() {
+
+        // Every stream reads from its own view, so the cached buffer is shared between requests
+        final ByteBuffer view = buffer.duplicate();
+
+        return new InputStream() {
+
+            @Override
+            public int read() {
+                return view.hasRemaining() ? view.get() & 0xFF : -1;
+            }
+
+            @Override
+            public int read(final byte[] b, final int off, final int len) {
+                if (len == 0) {
+                    return 0;
+                }
+                if (!view.hasRemaining()) {
+                    return -1;
+                }
+                final int n = Math.min(len, view.remaining());
+                view.get(b, off, n);
+                return n;
+            }
+
+            @Override
+            public int available() {
+                return view.remaining();
+            }
+        };
+    }
+
+    @Override
+    public String getDescription() {
+        return "Cached content [" + description + "]";
+    }
+}
@@ -0,0 +1,55 @@
+package de.saschaufer.message_broker.app.file_storage.service;
+
+import de.saschaufer.message_broker.app.file_storage.service.dto.Metadata;
+import org.springframework.core.io.AbstractResource;
+import org.springframework.core.io.Resource;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+// Consults the content cache only once the body is read, so answers without a body (304) neither load nor admit the file
+class CachingResource extends AbstractResource {
+
+    private final ContentCache contentCache;
+    private final String directoryId;
+    private final Metadata metadata;
+    private final Resource resource;
+
+    CachingResource(final ContentCache contentCache, final String directoryId, final Metadata metadata, final Resource resource) {
+        this.contentCache = contentCache;
+        this.directoryId = directoryId;
+        this.metadata = metadata;
+        this.resource = resource;
+    }
+
+    @Override
+    public boolean exists() {
+        return resource.exists();
+    }
+
+    @Override
+    public long contentLength() throws IOException {
+        return resource.contentLength();
+    }
+
+    @Override
+    public long lastModified() throws IOException {
+        return resource.lastModified();
+    }
+
+    @Override
+    public String getFilename() {
+        return resource.getFilename();
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        final Resource cached = contentCache.get(directoryId, metadata, resource);
+        return (cached != null ? cached : resource).getInputStream();
+    }
+
+    @Override
+    public String getDescription() {
+        return resource.getDescription();
+    }
+}
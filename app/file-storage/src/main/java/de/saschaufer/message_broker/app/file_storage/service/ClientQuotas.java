@@ -0,0 +1,361 @@
+package de.saschaufer.message_broker.app.file_storage.service;
+
+import de.saschaufer.message_broker.app.file_storage.config.FileStorageProperties;
+import de.saschaufer.message_broker.app.file_storage.service.dto.File;
+import de.saschaufer.message_broker.app.file_storage.service.dto.Metadata;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// Bytes and files stored per client are counted as uploads and deletions happen and written to the quotas file from
+// time to time, so they never have to be recounted from the directories. After a crash, the changes since the last
+// write are missing from the counts.
+@Slf4j
+@Component
+public class ClientQuotas {
+
+    static final String QUOTAS_FILENAME = ".quotas";
+
+    private final FileStorageProperties.Quota quota;
+    private final Path path;
+
+    private final Map<String, Usage> usages = new ConcurrentHashMap<>();
+    private final AtomicBoolean changed = new AtomicBoolean();
+
+    // Counts change under the read lock, the quotas file is written from a snapshot taken under the write lock
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    public ClientQuotas(final FileStorageProperties fileStorageProperties) {
+        quota = fileStorageProperties.quota();
+        path = fileStorageProperties.path();
+        if (quota.enabled()) {
+            readQuotas();
+        }
+    }
+
+    public boolean isEnabled() {
+        return quota.enabled();
+    }
+
+    public void acquire(final String client) {
+
+        if (!quota.enabled() || quota.requestsPerSecond() == null) {
+            return;
+        }
+
+        final Duration wait = usage(client).acquire(quota.requestsPerSecond(), quota.burst());
+        if (wait != null) {
+            throw new RequestRejectedException(HttpStatus.TOO_MANY_REQUESTS, "Too many requests.", Map.of(
+                    "requests-per-second", String.valueOf(quota.requestsPerSecond())
+            ), wait);
+        }
+    }
+
+    // Checked before anything of the body is read. Uploads of unknown size only need the client to be below its quota,
+    // their bytes and further files are reserved as they are received.
+    public Reservation reserve(final String client, final long size) {
+
+        if (!quota.enabled()) {
+            return Reservation.NONE;
+        }
+
+        final long bytes = Math.max(size, 0);
+
+        lock.readLock().lock();
+        try {
+            final Usage usage = usage(client);
+            synchronized (usage) {
+                check(usage, bytes, 1);
+                usage.reservedBytes += bytes;
+                usage.reservedFiles++;
+            }
+            return new Reservation(this, usage, bytes);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public void charge(final String client, final List<File> files) {
+        charge(client, files, Reservation.NONE);
+    }
+
+    // The reservation of the upload is released in the same step, so the files are never counted twice
+    public void charge(final String client, final List<File> files, final Reservation reservation) {
+
+        if (!quota.enabled()) {
+            return;
+        }
+
+        lock.readLock().lock();
+        try {
+            final Usage usage = usage(client);
+            synchronized (usage) {
+                for (final File file : files) {
+                    usage.bytes += file.size();
+                    usage.files++;
+                }
+                if (reservation.usage == usage) {
+                    reservation.release();
+                }
+            }
+            changed.set(true);
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        reservation.close();
+    }
+
+    // Files uploaded before quotas were counted have no client and were never charged
+    public void release(final Collection<Metadata> files) {
+
+        if (!quota.enabled()) {
+            return;
+        }
+
+        lock.readLock().lock();
+        try {
+            for (final Metadata m : files) {
+                if (m.client() == null) {
+                    continue;
+                }
+                final Usage usage = usage(m.client());
+                synchronized (usage) {
+                    usage.bytes = Math.max(0, usage.bytes - (m.size() != null ? m.size() : 0));
+                    usage.files = Math.max(0, usage.files - 1);
+                }
+                changed.set(true);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public long getBytes(final String client) {
+        final Usage usage = usages.get(client);
+        return usage != null ? usage.bytes : 0;
+    }
+
+    public long getFiles(final String client) {
+        final Usage usage = usages.get(client);
+        return usage != null ? usage.files : 0;
+    }
+
+    // Synchronized, so an older snapshot never replaces a newer one
+    public synchronized void persist() {
+
+        final Properties properties;
+
+        lock.writeLock().lock();
+        try {
+            // Clients with nothing stored and no requests to limit don't need to be remembered
+            usages.values().removeIf(usage -> usage.isIdle(quota.requestsPerSecond(), quota.burst()));
+
+            if (!changed.getAndSet(false)) {
+                return;
+            }
+
+            properties = snapshot();
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        try {
+            writeQuotas(properties);
+        } catch (final IOException e) {
+            changed.set(true);
+            log.atError().setMessage("Couldn't write quotas.").setCause(e).log();
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (quota.enabled()) {
+            persist();
+        }
+    }
+
+    private Usage usage(final String client) {
+        return usages.computeIfAbsent(client, c -> new Usage(quota.burst()));
+    }
+
+    private void check(final Usage usage, final long bytes, final long files) {
+        if (quota.maxBytes() != null && usage.bytes + usage.reservedBytes + bytes > quota.maxBytes().toBytes()) {
+            throw quotaExceeded("max-bytes", String.valueOf(quota.maxBytes().toBytes()));
+        }
+        if (quota.maxFiles() != null && usage.files + usage.reservedFiles + files > quota.maxFiles()) {
+            throw quotaExceeded("max-files", String.valueOf(quota.maxFiles()));
+        }
+    }
+
+    private RequestRejectedException quotaExceeded(final String limit, final String value) {
+        // Waiting doesn't help, only deletions free the quota
+        return new RequestRejectedException(HttpStatus.INSUFFICIENT_STORAGE, "Quota exceeded.", Map.of(limit, value), null);
+    }
+
+    private void readQuotas() {
+
+        final Path pathQuotas = path.resolve(QUOTAS_FILENAME);
+        if (!Files.exists(pathQuotas)) {
+            return;
+        }
+
+        try (final BufferedReader reader = Files.newBufferedReader(pathQuotas, StandardCharsets.UTF_8)) {
+            final Properties properties = new Properties();
+            properties.load(reader);
+            for (final String client : properties.stringPropertyNames()) {
+                final String[] values = properties.getProperty(client).split(" ");
+                final Usage usage = new Usage(quota.burst());
+                usage.bytes = Long.parseLong(values[0]);
+                usage.files = Long.parseLong(values[1]);
+                usages.put(client, usage);
+            }
+        } catch (final IOException | RuntimeException e) {
+            throw new IllegalStateException("Couldn't read quotas: " + pathQuotas.toAbsolutePath(), e);
+        }
+    }
+
+    private Properties snapshot() {
+        final Properties properties = new Properties();
+        for (final Map.Entry<String, Usage> entry : usages.entrySet()) {
+            final Usage usage = entry.getValue();
+            synchronized (usage) {
+                if (usage.bytes > 0 || usage.files > 0) {
+                    properties.setProperty(entry.getKey(), usage.bytes + " " + usage.files);
+                }
+            }
+        }
+        return properties;
+    }
+
+    private void writeQuotas(final Properties properties) throws IOException {
+
+        final Path pathQuotas = path.resolve(QUOTAS_FILENAME);
+        final Path pathTmp = pathQuotas.resolveSibling(QUOTAS_FILENAME + ".TMP");
+        Files.createDirectories(path);
+        try (final BufferedWriter writer = Files.newBufferedWriter(pathTmp, StandardCharsets.UTF_8)) {
+            properties.store(writer, null);
+        }
+        Files.move(pathTmp, pathQuotas, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static final class Usage {
+
+        private long bytes;
+        private long files;
+        private long reservedBytes;
+        private long reservedFiles;
+
+        // Token bucket, refilled with the time passed since the last request
+        private double tokens;
+        private long refilled = System.nanoTime();
+
+        private Usage(final int burst) {
+            tokens = burst;
+        }
+
+        private synchronized Duration acquire(final double requestsPerSecond, final int burst) {
+
+            final long now = System.nanoTime();
+            tokens = Math.min(burst, tokens + (now - refilled) / 1e9 * requestsPerSecond);
+            refilled = now;
+
+            if (tokens < 1) {
+                return Duration.ofNanos((long) ((1 - tokens) / requestsPerSecond * 1e9));
+            }
+            tokens--;
+            return null;
+        }
+
+        private synchronized boolean isIdle(final Double requestsPerSecond, final int burst) {
+            if (bytes > 0 || files > 0 || reservedFiles > 0) {
+                return false;
+            }
+            return requestsPerSecond == null || tokens + (System.nanoTime() - refilled) / 1e9 * requestsPerSecond >= burst;
+        }
+    }
+
+    // Used by the thread handling the upload only
+    public static final class Reservation implements AutoCloseable {
+
+        public static final Reservation NONE = new Reservation(null, null, 0);
+
+        private final ClientQuotas clientQuotas;
+        private final Usage usage;
+
+        private long bytes;
+        private long files = 1;
+        private long received;
+        private long filesReceived;
+        private boolean closed;
+
+        private Reservation(final ClientQuotas clientQuotas, final Usage usage, final long bytes) {
+            this.clientQuotas = clientQuotas;
+            this.usage = usage;
+            this.bytes = bytes;
+        }
+
+        // Bytes beyond the announced size of the body are reserved once they arrive
+        public void receive(final long n) {
+            received += n;
+            if (usage == null || received <= bytes) {
+                return;
+            }
+            final long more = received - bytes;
+            synchronized (usage) {
+                clientQuotas.check(usage, more, 0);
+                usage.reservedBytes += more;
+            }
+            bytes += more;
+        }
+
+        // The first file was reserved with the request, every further one before its body is read
+        public void receiveFile() {
+            if (usage == null || ++filesReceived <= files) {
+                return;
+            }
+            synchronized (usage) {
+                clientQuotas.check(usage, 0, 1);
+                usage.reservedFiles++;
+            }
+            files++;
+        }
+
+        // The reservation only holds the quota while the upload runs, uploads failing before they are charged release it here
+        @Override
+        public void close() {
+            if (usage != null && !closed) {
+                synchronized (usage) {
+                    release();
+                }
+            }
+        }
+
+        // Called holding the lock of the usage
+        private void release() {
+            if (!closed) {
+                closed = true;
+                usage.reservedBytes -= bytes;
+                usage.reservedFiles -= files;
+            }
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package de.saschaufer.message_broker.app.file_storage.service;
+
+import de.saschaufer.message_broker.app.file_storage.config.FileStorageProperties;
+import org.springframework.core.io.Resource;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterInputStream;
+
+// Text-like content is deflated on its way to the storage backend. The zlib format is what HTTP calls the deflate
+// content coding, so stored bytes can be sent as they are to clients accepting it.
+@Component
+public class CompressionPolicy {
+
+    public static final String DEFLATE = "deflate";
+
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    private final boolean enabled;
+    private final List<MediaType> mediaTypes;
+    private final long minFileSize;
+    private final int level;
+
+    public CompressionPolicy(final FileStorageProperties fileStorageProperties) {
+
+        final FileStorageProperties.Compression properties = fileStorageProperties.compression();
+
+        enabled = properties.enabled();
+        mediaTypes = properties.mediaTypes().stream().map(MediaType::valueOf).toList();
+        minFileSize = properties.minFileSize().toBytes();
+        level = properties.level();
+    }
+
+    // The size of streamed parts is unknown until they are read, those are compressed based on their media type alone
+    public String select(final MediaType mediaType, final long size) {
+
+        if (!enabled || (size >= 0 && size < minFileSize)) {
+            return null;
+        }
+
+        return mediaTypes.stream().anyMatch(m -> m.includes(mediaType)) ? DEFLATE : null;
+    }
+
+    public InputStream compress(final InputStream inputStream) {
+        final Deflater deflater = new Deflater(level);
+        return new DeflaterInputStream(inputStream, deflater, BUFFER_SIZE) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    // Only the default deflater is released by the stream itself
+                    deflater.end();
+                }
+            }
+        };
+    }
+
+    public static Resource decode(final Resource resource, final String encoding, final Long size) {
+        return encoding != null ? new InflatingResource(resource, size) : resource;
+    }
+
+    public static boolean isAccepted(final String acceptEncoding, final String encoding) {
+
+        if (acceptEncoding == null) {
+            return false;
+        }
+
+        for (final String coding : acceptEncoding.split(",")) {
+            final String[] parameters = coding.split(";");
+            final String name = parameters[0].trim();
+            if (!name.equalsIgnoreCase(encoding) && !name.equals("*")) {
+                continue;
+            }
+            double quality = 1;
+            for (int i = 1; i < parameters.length; i++) {
+                final String parameter = parameters[i].trim();
+                if (parameter.startsWith("q=")) {
+                    try {
+                        quality = Double.parseDouble(parameter.substring(2));
+                    } catch (final NumberFormatException e) {
+                        quality = 0;
+                    }
+                }
+            }
+            return quality > 0;
+        }
+
+        return false;
+    }
+}
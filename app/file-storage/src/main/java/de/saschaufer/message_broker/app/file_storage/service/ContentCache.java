@@ -0,0 +1,130 @@
+package de.saschaufer.message_broker.app.file_storage.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import de.saschaufer.message_broker.app.file_storage.config.FileStorageProperties;
+import de.saschaufer.message_broker.app.file_storage.service.dto.Metadata;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+@Slf4j
+@Component
+public class ContentCache {
+
+    private final boolean enabled;
+    private final long maxFileSize;
+    private final int minAccesses;
+
+    private final Cache<String, ByteBuffer> cache;
+    private final Cache<String, Integer> accesses;
+
+    public ContentCache(final FileStorageProperties fileStorageProperties) {
+
+        final FileStorageProperties.ContentCache properties = fileStorageProperties.contentCache();
+
+        enabled = properties.enabled();
+        maxFileSize = properties.maxFileSize().toBytes();
+        minAccesses = properties.minAccesses();
+
+        // Off-heap buffers keep large amounts of cached content out of the GC's way
+        cache = Caffeine.newBuilder()
+                .maximumWeight(properties.maxSize().toBytes())
+                .<String, ByteBuffer>weigher((key, buffer) -> Math.max(1, buffer.capacity()))
+                .recordStats()
+                .build();
+
+        // Only files requested repeatedly are admitted, so one-off downloads don't displace the hot ones
+        accesses = Caffeine.newBuilder()
+                .maximumSize(properties.maxSize().toBytes() / Math.max(1, maxFileSize) * 10 + 1000)
+                .build();
+    }
+
+    public Resource get(final String directoryId, final Metadata metadata, final Resource resource) {
+
+        if (!enabled) {
+            return null;
+        }
+
+        final String key = getKey(directoryId, metadata);
+
+        final ByteBuffer cached = cache.getIfPresent(key);
+        if (cached != null) {
+            return new ByteBufferResource(cached, key);
+        }
+
+        if (accesses.asMap().merge(key, 1, Integer::sum) < minAccesses) {
+            return null;
+        }
+
+        final ByteBuffer buffer;
+        try {
+            buffer = load(resource);
+        } catch (final IOException e) {
+            log.atWarn().setMessage("Couldn't cache file.").addKeyValue("file", resource.getDescription()).setCause(e).log();
+            return null;
+        }
+
+        if (buffer == null) {
+            // Too large to be cached, the counter can't reach the threshold again
+            accesses.put(key, Integer.MIN_VALUE);
+            return null;
+        }
+
+        accesses.invalidate(key);
+        cache.put(key, buffer);
+
+        return new ByteBufferResource(buffer, key);
+    }
+
+    // Neither counts as an access nor as a hit
+    public boolean contains(final String directoryId, final Metadata metadata) {
+        return enabled && cache.asMap().containsKey(getKey(directoryId, metadata));
+    }
+
+    public void invalidate(final String directoryId, final Metadata metadata) {
+        final String key = getKey(directoryId, metadata);
+        cache.invalidate(key);
+        accesses.invalidate(key);
+    }
+
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    public long bytes() {
+        return cache.policy().eviction().map(eviction -> eviction.weightedSize().orElse(0)).orElse(0L);
+    }
+
+    void cleanUp() {
+        cache.cleanUp();
+    }
+
+    private ByteBuffer load(final Resource resource) throws IOException {
+
+        final long size = resource.contentLength();
+        if (size > maxFileSize) {
+            return null;
+        }
+
+        try (final ReadableByteChannel channel = resource.readableChannel()) {
+            final ByteBuffer buffer = ByteBuffer.allocateDirect((int) size);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) == -1) {
+                    throw new IOException("File ended before its size was read.");
+                }
+            }
+            return buffer.flip();
+        }
+    }
+
+    private static String getKey(final String directoryId, final Metadata metadata) {
+        // Deduplicated files share one entry
+        return metadata.blob() != null ? metadata.blob() : directoryId + "/" + metadata.fileId();
+    }
+}
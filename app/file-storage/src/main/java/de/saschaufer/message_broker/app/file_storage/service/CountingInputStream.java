@@ -0,0 +1,59 @@
+package de.saschaufer.message_broker.app.file_storage.service;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+// Counts the bytes read and the time spent reading them
+class CountingInputStream extends FilterInputStream {
+
+    private long count;
+    private long nanos;
+
+    CountingInputStream(final InputStream inputStream) {
+        super(inputStream);
+    }
+
+    long getCount() {
+        return count;
+    }
+
+    long getNanos() {
+        return nanos;
+    }
+
+    @Override
+    public int read() throws IOException {
+        final long start = System.nanoTime();
+        final int b = super.read();
+        nanos += System.nanoTime() - start;
+        if (b != -1) {
+            count++;
+        }
+        return b;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+        final long start = System.nanoTime();
+        final int read = super.read(b, off, len);
+        nanos += System.nanoTime() - start;
+        if (read > 0) {
+            count += read;
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(final long n) throws IOException {
+        final long skipped = super.skip(n);
+        count += skipped;
+        return skipped;
+    }
+
+    // Marks would make bytes count twice
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+}
@@ -0,0 +1,34 @@
+package de.saschaufer.message_broker.app.file_storage.service;
+
+import de.saschaufer.message_broker.app.file_storage.config.FileStorageProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+@Component
+public class DirectoryLocks {
+
+    private final ReadWriteLock[] locks;
+
+    public DirectoryLocks(final FileStorageProperties fileStorageProperties) {
+        locks = new ReadWriteLock[fileStorageProperties.lockStripes()];
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new ReentrantReadWriteLock();
+        }
+    }
+
+    public Lock readLock(final String directoryId) {
+        return locks[stripe(directoryId)].readLock();
+    }
+
+    public Lock writeLock(final String directoryId) {
+        return locks[stripe(directoryId)].writeLock();
+    }
+
+    int stripe(final String directoryId) {
+        final int hash = directoryId.hashCode();
+        return Math.floorMod(hash ^ (hash >>> 16), locks.length);
+    }
+}
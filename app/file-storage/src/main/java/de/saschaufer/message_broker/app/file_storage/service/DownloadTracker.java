@@ -0,0 +1,121 @@
+package de.saschaufer.message_broker.app.file_storage.service;
+
+import de.saschaufer.message_broker.app.file_storage.config.FileStorageProperties;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.time.OffsetDateTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class DownloadTracker {
+
+    private final Map<String, Map<String, OffsetDateTime>> pending = new ConcurrentHashMap<>();
+    private final AtomicInteger pendingEntries = new AtomicInteger();
+    private final AtomicBoolean flushQueued = new AtomicBoolean();
+
+    private final FileStorageProperties fileStorageProperties;
+    private final MetadataService metadataService;
+    private final IoExecutor ioExecutor;
+
+    public void record(final String directoryId, final List<String> fileIds, final OffsetDateTime downloaded) {
+
+        pending.compute(directoryId, (id, files) -> {
+            final Map<String, OffsetDateTime> f = files != null ? files : new HashMap<>();
+            for (final String fileId : fileIds) {
+                if (f.put(fileId, downloaded) == null) {
+                    pendingEntries.incrementAndGet();
+                }
+            }
+            return f;
+        });
+
+        // The download crossing the threshold doesn't wait for the journal writes, one flush is queued at a time
+        if (pendingEntries.get() >= fileStorageProperties.downloadTracking().maxPending() && flushQueued.compareAndSet(false, true)) {
+            ioExecutor.submit(() -> {
+                try {
+                    flush();
+                } finally {
+                    flushQueued.set(false);
+                }
+                return null;
+            });
+        }
+    }
+
+    public int pendingEntries() {
+        return pendingEntries.get();
+    }
+
+    // The download of a file not written to the journal yet
+    public OffsetDateTime pending(final String directoryId, final String fileId) {
+        // The files of a directory are only changed while its entry is locked, so they are read the same way
+        final OffsetDateTime[] downloaded = new OffsetDateTime[1];
+        pending.computeIfPresent(directoryId, (id, files) -> {
+            downloaded[0] = files.get(fileId);
+            return files;
+        });
+        return downloaded[0];
+    }
+
+    public void flush() {
+        for (final String directoryId : List.copyOf(pending.keySet())) {
+            flush(directoryId);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flush();
+        if (pendingEntries.get() > 0) {
+            log.atError().setMessage("Couldn't flush all download timestamps on shutdown.").addKeyValue("pending", pendingEntries.get()).log();
+        }
+    }
+
+    public void flush(final String directoryId) {
+
+        final Map<String, OffsetDateTime> files = pending.remove(directoryId);
+        if (files == null) {
+            return;
+        }
+        pendingEntries.addAndGet(-files.size());
+
+        // Files downloaded at the same time are written as one batch
+        final Map<OffsetDateTime, List<String>> batches = new TreeMap<>();
+        files.forEach((fileId, downloaded) -> batches.computeIfAbsent(downloaded, d -> new ArrayList<>()).add(fileId));
+
+        final Iterator<Map.Entry<OffsetDateTime, List<String>>> iterator = batches.entrySet().iterator();
+        while (iterator.hasNext()) {
+            final Map.Entry<OffsetDateTime, List<String>> batch = iterator.next();
+            try {
+                metadataService.markDownloaded(directoryId, batch.getValue(), batch.getKey());
+                iterator.remove();
+            } catch (final Exception e) {
+                log.atError().setMessage("Couldn't flush download timestamps.").addKeyValue("directoryId", directoryId).setCause(e).log();
+                break;
+            }
+        }
+
+        if (batches.isEmpty()) {
+            return;
+        }
+
+        // Keep the timestamps not written yet for the next flush, unless a newer download has been recorded in the meantime
+        pending.compute(directoryId, (id, current) -> {
+            final Map<String, OffsetDateTime> f = current != null ? current : new HashMap<>();
+            batches.forEach((downloaded, fileIds) -> fileIds.forEach(fileId -> {
+                if (f.putIfAbsent(fileId, downloaded) == null) {
+                    pendingEntries.incrementAndGet();
+                }
+            }));
+            return f;
+        });
+    }
+}
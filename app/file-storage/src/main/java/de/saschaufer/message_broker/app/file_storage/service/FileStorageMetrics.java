@@ -0,0 +1,67 @@
+package de.saschaufer.message_broker.app.file_storage.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+
+import java.util.concurrent.TimeUnit;
+
+// Meters of the hot paths. Their owners create them on a composite registry of their own and add the registry of the
+// application once they are bound, so nothing is recorded before that or outside of the application.
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+final class FileStorageMetrics {
+
+    static void record(final Timer timer, final long nanos) {
+        timer.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    static Counter uploadBytes(final MeterRegistry registry) {
+        return Counter.builder("file.storage.upload.bytes")
+                .description("Bytes of uploaded files received.")
+                .baseUnit("bytes")
+                .register(registry);
+    }
+
+    static Counter downloadBytes(final MeterRegistry registry) {
+        return Counter.builder("file.storage.download.bytes")
+                .description("Bytes of stored files sent.")
+                .baseUnit("bytes")
+                .register(registry);
+    }
+
+    // Reading, hashing and writing an upload overlap, every phase counts the time spent in it alone
+    static Timer uploadPhase(final MeterRegistry registry, final String phase) {
+        return Timer.builder("file.storage.upload.phase")
+                .description("Time spent in a phase of storing an uploaded file.")
+                .tag("phase", phase)
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+
+    static Timer metadata(final MeterRegistry registry, final String operation) {
+        return Timer.builder("file.storage.metadata")
+                .description("Time spent reading and writing the metadata of a directory.")
+                .tag("operation", operation)
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+
+    static Timer metadataLockWait(final MeterRegistry registry) {
+        return Timer.builder("file.storage.metadata.lock.wait")
+                .description("Time waiting for the lock of a directory.")
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+
+    static DistributionSummary metadataSize(final MeterRegistry registry, final String file) {
+        return DistributionSummary.builder("file.storage.metadata.size")
+                .description("Size of the metadata files of a directory after they were written.")
+                .tag("file", file)
+                .baseUnit("bytes")
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+}
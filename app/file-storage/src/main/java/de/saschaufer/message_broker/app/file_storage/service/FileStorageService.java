@@ -1,18 +1,26 @@
 package de.saschaufer.message_broker.app.file_storage.service;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.core.type.TypeReference;
 import de.saschaufer.message_broker.app.file_storage.config.FileStorageProperties;
+import de.saschaufer.message_broker.app.file_storage.service.dto.ArchiveEntry;
+import de.saschaufer.message_broker.app.file_storage.service.dto.ArchiveFormat;
+import de.saschaufer.message_broker.app.file_storage.service.dto.ChunkHashes;
 import de.saschaufer.message_broker.app.file_storage.service.dto.File;
+import de.saschaufer.message_broker.app.file_storage.service.dto.HashAlgorithm;
 import de.saschaufer.message_broker.app.file_storage.service.dto.Metadata;
+import de.saschaufer.message_broker.app.file_storage.service.dto.StorageObject;
 import de.saschaufer.message_broker.common.Constants;
 import de.saschaufer.message_broker.common.api.errorhandler.ResponseStatusException;
 import de.saschaufer.message_broker.common.api.file_storage.dto.FileDownload;
-import de.saschaufer.message_broker.common.json.JsonUtils;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
 import jakarta.servlet.http.Part;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.core.io.InputStreamResource;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
 import org.springframework.http.*;
 import org.springframework.stereotype.Service;
 import org.springframework.util.LinkedMultiValueMap;
@@ -20,229 +28,550 @@ import org.springframework.util.MultiValueMap;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
 import java.security.DigestInputStream;
 import java.security.MessageDigest;
+import java.time.Duration;
 import java.time.OffsetDateTime;
 import java.util.*;
+import java.util.regex.Pattern;
+import java.util.stream.IntStream;
 
 @Slf4j
 @Service
 @RequiredArgsConstructor
-public class FileStorageService {
+public class FileStorageService implements MeterBinder {
 
-    private static final String METADATA_FILENAME = "metadata.json";
-
-    private final Object lock = new Object();
+    private static final Pattern HASH = Pattern.compile("[0-9a-f]{2,512}");
 
     private final FileStorageProperties fileStorageProperties;
+    private final MetadataService metadataService;
+    private final DownloadTracker downloadTracker;
+    private final IoExecutor ioExecutor;
+    private final BlobStore blobStore;
+    private final ContentCache contentCache;
+    private final StorageLayout storageLayout;
+    private final StorageBackend storageBackend;
+    private final CompressionPolicy compressionPolicy;
+    private final TreeHasher treeHasher;
+
+    private final CompositeMeterRegistry meterRegistry = new CompositeMeterRegistry();
+    private final Counter uploadBytes = FileStorageMetrics.uploadBytes(meterRegistry);
+    private final Counter downloadBytes = FileStorageMetrics.downloadBytes(meterRegistry);
+    private final Timer uploadReceive = FileStorageMetrics.uploadPhase(meterRegistry, "receive");
+    private final Timer uploadHash = FileStorageMetrics.uploadPhase(meterRegistry, "hash");
+    private final Timer uploadWrite = FileStorageMetrics.uploadPhase(meterRegistry, "write");
+    // Only storing a deduplicated upload as a blob, the rename is timed by the local backend
+    private final Timer uploadStoreBlob = FileStorageMetrics.uploadPhase(meterRegistry, "store-blob");
+
+    @Override
+    public void bindTo(final MeterRegistry registry) {
+        meterRegistry.add(registry);
+    }
 
-    public List<File> saveFiles(final String directoryId, final List<Part> parts) {
-
-        final Path path = getPath(directoryId);
-
-        createDirectoryIfNotExists(path);
-
-        final List<File> files = parts.stream().parallel()
-                .map(part -> {
-
-                    final String id = part.getHeader(Constants.Http.Header.FILE_ID);
-                    if (id == null) {
-                        throw new ResponseStatusException(HttpStatus.BAD_REQUEST, String.format("Missing header '%s'.", Constants.Http.Header.FILE_ID), Map.of(
-                                "file", part.getName()
-                        ));
-                    }
-
-                    final String hash = part.getHeader(Constants.Http.Header.FILE_HASH);
-                    final String fileId = UUID.randomUUID().toString();
-                    final String name = part.getSubmittedFileName();
-                    final MediaType mediaType = MediaType.valueOf(part.getContentType());
-                    final String hashHex;
-
-                    try (final InputStream is = part.getInputStream()) {
-                        final MessageDigest md = MessageDigest.getInstance("SHA3-512");
-                        final DigestInputStream dis = new DigestInputStream(is, md);
-                        Files.copy(dis, path.resolve(fileId + ".TMP"));
-                        hashHex = HexFormat.of().formatHex(md.digest());
-                    } catch (final Exception e) {
-                        throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Couldn't write temporary file.", Map.of(
-                                "id", id,
-                                "file", path.resolve(fileId + ".TMP").toAbsolutePath().toString()
-                        ), e);
-                    }
-
-                    if (hash != null && !hashHex.equals(hash)) {
-                        try {
-                            Files.delete(path.resolve(fileId + ".TMP"));
-                        } catch (final IOException e) {
-                            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Couldn't delete temporary file.", Map.of(
-                                    "id", id,
-                                    "file", path.resolve(fileId + ".TMP").toAbsolutePath().toString()
-                            ), e);
-                        }
-                        throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Hash doesn't match.", Map.of(
-                                "id", id,
-                                "file", path.resolve(fileId + ".TMP").toAbsolutePath().toString(),
-                                "hash-calculated", hashHex,
-                                "hash-provided", hash
-                        ));
-                    }
-
-                    try {
-                        Files.move(path.resolve(fileId + ".TMP"), path.resolve(fileId), StandardCopyOption.REPLACE_EXISTING);
-                    } catch (IOException e) {
-                        throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Couldn't move temporary file.", Map.of(
-                                "id", id,
-                                "file-from", path.resolve(fileId + ".TMP").toAbsolutePath().toString(),
-                                "file-to", path.resolve(fileId).toAbsolutePath().toString()
-                        ), e);
-                    }
-
-                    return new File(id, fileId, name, mediaType, hashHex);
-                })
-                .toList();
+    public List<File> saveFiles(final String directoryId, final String client, final List<Part> parts) {
+
+        final Path path = storageLayout.createDirectory(directoryId);
 
-        updateMetadataNewFiles(path, files);
+        final List<File> files = ioExecutor.map(parts, part -> saveFile(directoryId, client, path, part));
+
+        updateMetadataNewFiles(directoryId, client, files);
 
         return files;
     }
 
-    public List<HttpEntity<InputStreamResource>> readFiles(final String directoryId, final List<FileDownload> files) {
+    public List<File> saveFilesStreaming(final String directoryId, final String client, final Iterator<Part> parts) {
 
-        final Path path = getPath(directoryId);
+        final Path path = storageLayout.createDirectory(directoryId);
 
-        final List<Metadata> allMetadata;
-        synchronized (lock) {
-            allMetadata = readMetadata(path.resolve(METADATA_FILENAME));
+        final List<File> files = new ArrayList<>();
+        while (parts.hasNext()) {
+            final Part part = parts.next();
+            if (Constants.Http.BodyPart.FILE.equals(part.getName())) {
+                files.add(saveFile(directoryId, client, path, part));
+            }
         }
 
-        final List<Metadata> metadata = files.stream()
-                .map(file -> allMetadata.stream()
-                        .filter(md -> md.fileId().equals(file.fileId()))
-                        .findFirst()
-                        .orElseThrow(
-                                () -> new ResponseStatusException(HttpStatus.NOT_FOUND, "File not found.", Map.of(
-                                        "fileId", file.fileId()
-                                ))
-                        )
-                )
-                .map(m -> new Metadata(m.fileId(), m.name(), m.mediaType(), m.hash(), m.uploaded(), OffsetDateTime.now()))
-                .toList();
+        if (files.isEmpty()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, String.format("Missing part '%s'.", Constants.Http.BodyPart.FILE));
+        }
 
-        final List<HttpEntity<InputStreamResource>> httpEntities = files.stream().parallel()
-                .map(file -> {
-
-                    final Metadata m = metadata.stream().filter(md -> md.fileId().equals(file.fileId())).findFirst().orElseThrow(
-                            () -> new ResponseStatusException(HttpStatus.NOT_FOUND, "File not found.", Map.of(
-                                    "fileId", file.fileId()
-                            ))
-                    );
-
-                    final ContentDisposition contentDisposition = ContentDisposition
-                            .builder("form-data")
-                            .name(Constants.Http.BodyPart.FILE)
-                            .filename(m.name())
-                            .build();
-
-                    final MultiValueMap<String, String> fileMap = new LinkedMultiValueMap<>();
-                    fileMap.add(HttpHeaders.CONTENT_DISPOSITION, contentDisposition.toString());
-                    fileMap.add(HttpHeaders.CONTENT_TYPE, m.mediaType());
-                    fileMap.add(Constants.Http.Header.FILE_ID, file.id());
-                    fileMap.add(Constants.Http.Header.FILE_HASH, m.hash());
-
-                    final InputStream inputStream;
-                    try {
-                        inputStream = Files.newInputStream(path.resolve(m.fileId()));
-                    } catch (IOException e) {
-                        throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Couldn't read file.", Map.of(
-                                "file", m.fileId()
-                        ), e);
-                    }
-
-                    return new HttpEntity<>(new InputStreamResource(inputStream), fileMap);
-                })
-                .toList();
+        updateMetadataNewFiles(directoryId, client, files);
 
-        updateMetadataDownloadedFiles(directoryId, files.stream().map(FileDownload::fileId).toList(), allMetadata);
+        return files;
+    }
 
-        return httpEntities;
+    public File saveFile(final String directoryId, final String client, final Part part) {
+
+        final File linked = linkFile(directoryId, client, part);
+        final File file = linked != null ? linked : saveFile(directoryId, client, storageLayout.createDirectory(directoryId), part);
+
+        updateMetadataNewFiles(directoryId, client, List.of(file));
+
+        return file;
+    }
+
+    public List<String> findKnownHashes(final List<String> hashes, final String algorithm, final String client) {
+
+        final HashAlgorithm hashAlgorithm = getHashAlgorithm(algorithm);
+        final boolean tree = treeHasher.isEnabled();
+
+        // Content can only be found by its hash if it's deduplicated
+        if (!isDeduplicated(hashAlgorithm)) {
+            return List.of();
+        }
+
+        return hashes.stream()
+                .distinct()
+                .filter(hash -> isHash(hash) && (blobStore.owns(getBlob(hash, hashAlgorithm, tree, null), client) || blobStore.owns(getBlob(hash, hashAlgorithm, tree, CompressionPolicy.DEFLATE), client)))
+                .toList();
     }
 
-    private void createDirectoryIfNotExists(final Path path) {
-        if (!Files.exists(path)) {
+    public List<HttpEntity<Resource>> readFiles(final String directoryId, final List<FileDownload> files) {
+
+        final Map<String, Metadata> allMetadata = metadataService.readMetadata(directoryId);
+
+        final Map<String, Metadata> metadata = new HashMap<>();
+        for (final FileDownload file : files) {
+            final Metadata m = allMetadata.get(file.fileId());
+            if (m == null) {
+                throw new ResponseStatusException(HttpStatus.NOT_FOUND, "File not found.", Map.of(
+                        "fileId", file.fileId()
+                ));
+            }
+            metadata.put(file.fileId(), m);
+        }
+
+        // The cache is consulted only once a part is written, cached files aren't prefetched though
+        final List<Resource> resources = new ArrayList<>(files.size());
+        final List<Path> paths = new ArrayList<>();
+        for (final FileDownload file : files) {
+            final Metadata m = metadata.get(file.fileId());
+            final Resource resource = getResource(directoryId, m);
+            if (!contentCache.contains(directoryId, m) && resource instanceof FileSystemResource fileSystemResource) {
+                // Filled with prefetching resources below
+                resources.add(null);
+                paths.add(fileSystemResource.getFilePath());
+            } else {
+                resources.add(new CachingResource(contentCache, directoryId, m, resource));
+            }
+        }
+
+        final FileStorageProperties.Download download = fileStorageProperties.download();
+        final Iterator<PrefetchingFileResource> prefetching = PrefetchingFileResource.of(
+                paths,
+                ioExecutor,
+                download.prefetchWindow(),
+                (int) download.prefetchSize().toBytes()
+        ).iterator();
+        for (int i = 0; i < resources.size(); i++) {
+            if (resources.get(i) == null) {
+                resources.set(i, new CachingResource(contentCache, directoryId, metadata.get(files.get(i).fileId()), prefetching.next()));
+            }
+        }
+
+        final List<HttpEntity<Resource>> httpEntities = ioExecutor.map(IntStream.range(0, files.size()).boxed().toList(), i -> {
+
+            final FileDownload file = files.get(i);
+            final Metadata m = metadata.get(file.fileId());
+
+            final ContentDisposition contentDisposition = ContentDisposition
+                    .builder("form-data")
+                    .name(Constants.Http.BodyPart.FILE)
+                    .filename(m.name())
+                    .build();
+
+            final MultiValueMap<String, String> fileMap = new LinkedMultiValueMap<>();
+            fileMap.add(HttpHeaders.CONTENT_DISPOSITION, contentDisposition.toString());
+            fileMap.add(HttpHeaders.CONTENT_TYPE, m.mediaType());
+            fileMap.add(Constants.Http.Header.FILE_ID, file.id());
+            fileMap.add(Constants.Http.Header.FILE_HASH, m.hash());
+            fileMap.add(Constants.Http.Header.FILE_HASH_ALGORITHM, getHashAlgorithm(m));
+            fileMap.add(Constants.Http.Header.FILE_HASH_MODE, getHashMode(m));
+
+            // File-backed resources are only opened when their part is written, all of them know their exact length
+            final Resource resource = CompressionPolicy.decode(resources.get(i), m.encoding(), m.size());
             try {
-                Files.createDirectories(path);
-            } catch (final IOException e) {
-                throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Couldn't create directory.", Map.of(
-                        "directory", path.toAbsolutePath().toString()
+                fileMap.add(HttpHeaders.CONTENT_LENGTH, Long.toString(resource.contentLength()));
+            } catch (IOException e) {
+                throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Couldn't read file.", Map.of(
+                        "file", m.fileId()
                 ), e);
             }
-        }
+
+            return new HttpEntity<>(new MeteredResource(resource, downloadBytes), fileMap);
+        });
+
+        downloadTracker.record(directoryId, files.stream().map(FileDownload::fileId).toList(), OffsetDateTime.now());
+
+        return httpEntities;
     }
 
-    private void updateMetadataNewFiles(final Path path, final List<File> files) {
-        final Path pathMetadata = path.resolve(METADATA_FILENAME);
-        final List<Metadata> metadata = new ArrayList<>(files.stream()
-                .map(f -> new Metadata(
-                        f.fileId(),
-                        f.name(),
-                        f.mediaType().toString(),
-                        f.hash(),
-                        OffsetDateTime.now(),
-                        null
-                ))
-                .toList());
+    public HttpEntity<Resource> readFile(final String directoryId, final String fileId, final String acceptEncoding) {
+
+        final Metadata m = metadataService.readMetadata(directoryId).get(fileId);
+        if (m == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "File not found.", Map.of(
+                    "fileId", fileId
+            ));
+        }
 
-        synchronized (lock) {
-            metadata.addAll(readMetadata(pathMetadata));
-            saveMetadata(pathMetadata, metadata);
+        final HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.valueOf(m.mediaType()));
+        headers.setContentDisposition(ContentDisposition.attachment().filename(m.name(), StandardCharsets.UTF_8).build());
+        headers.setLastModified(m.uploaded().toInstant());
+        // Stored files never change, a new upload always gets a new file ID
+        headers.setCacheControl(CacheControl.maxAge(Duration.ofDays(365)).cachePublic().immutable());
+        headers.set(Constants.Http.Header.FILE_HASH, m.hash());
+        headers.set(Constants.Http.Header.FILE_HASH_ALGORITHM, getHashAlgorithm(m));
+        headers.set(Constants.Http.Header.FILE_HASH_MODE, getHashMode(m));
+
+        // Compressed files are sent as they are stored if the client can inflate them itself, ranges then refer to the
+        // compressed bytes
+        final boolean encoded = m.encoding() != null && CompressionPolicy.isAccepted(acceptEncoding, m.encoding());
+        if (m.encoding() != null) {
+            headers.setVary(List.of(HttpHeaders.ACCEPT_ENCODING));
         }
+        if (encoded) {
+            headers.set(HttpHeaders.CONTENT_ENCODING, m.encoding());
+            headers.setETag("\"" + m.hash() + "." + m.encoding() + "\"");
+        } else {
+            headers.setETag("\"" + m.hash() + "\"");
+        }
+
+        downloadTracker.record(directoryId, List.of(fileId), OffsetDateTime.now());
+
+        // Nothing is read here, so a 304 neither opens the file nor admits it to the cache
+        final Resource stored = new CachingResource(contentCache, directoryId, m, getResource(directoryId, m));
+
+        return new HttpEntity<>(new MeteredResource(encoded ? stored : CompressionPolicy.decode(stored, m.encoding(), m.size()), downloadBytes), headers);
     }
 
-    private void updateMetadataDownloadedFiles(final String directoryId, final List<String> fileIds, final List<Metadata> metadata) {
-        final Path path = getPath(directoryId).resolve(METADATA_FILENAME);
-        final List<Metadata> metadataList = metadata.stream()
-                .map(m -> {
-                    if (fileIds.contains(m.fileId())) {
-                        return new Metadata(m.fileId(), m.name(), m.mediaType(), m.hash(), m.uploaded(), OffsetDateTime.now());
-                    }
-                    return m;
-                })
-                .toList();
-        synchronized (lock) {
-            saveMetadata(path, metadataList);
+    public ChunkHashes readChunkHashes(final String directoryId, final String fileId) {
+
+        final Metadata m = metadataService.readMetadata(directoryId).get(fileId);
+        if (m == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "File not found.", Map.of(
+                    "fileId", fileId
+            ));
+        }
+
+        // Files uploaded without tree hashing or linked to known content have none
+        if (m.chunkHashes() == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "No chunk hashes for file.", Map.of(
+                    "fileId", fileId
+            ));
         }
+
+        return m.chunkHashes();
     }
 
-    private List<Metadata> readMetadata(final Path path) {
+    public List<ArchiveEntry> readArchiveEntries(final String directoryId, final List<String> fileIds) {
+
+        final Map<String, Metadata> allMetadata = metadataService.readMetadata(directoryId);
+
         final List<Metadata> metadata = new ArrayList<>();
-        if (Files.exists(path)) {
-            try {
-                metadata.addAll(JsonUtils.fromJson(Files.readAllBytes(path), new TypeReference<List<Metadata>>() {
-                }));
-            } catch (final IOException e) {
-                throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Couldn't read metadata.", e);
+        if (fileIds == null || fileIds.isEmpty()) {
+            if (allMetadata.isEmpty()) {
+                throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Directory not found.", Map.of(
+                        "directoryId", directoryId
+                ));
+            }
+            allMetadata.values().stream()
+                    .sorted(Comparator.comparing(Metadata::name).thenComparing(Metadata::fileId))
+                    .forEach(metadata::add);
+        } else {
+            for (final String fileId : new LinkedHashSet<>(fileIds)) {
+                final Metadata m = allMetadata.get(fileId);
+                if (m == null) {
+                    throw new ResponseStatusException(HttpStatus.NOT_FOUND, "File not found.", Map.of(
+                            "fileId", fileId
+                    ));
+                }
+                metadata.add(m);
+            }
+        }
+
+        final Set<String> names = new HashSet<>();
+        final List<ArchiveEntry> entries = metadata.stream()
+                .map(m -> new ArchiveEntry(getArchiveName(m.name(), names), new MeteredResource(CompressionPolicy.decode(getResource(directoryId, m), m.encoding(), m.size()), downloadBytes), m.uploaded()))
+                .toList();
+
+        downloadTracker.record(directoryId, metadata.stream().map(Metadata::fileId).toList(), OffsetDateTime.now());
+
+        return entries;
+    }
+
+    public void writeArchive(final List<ArchiveEntry> entries, final ArchiveFormat format, final int compressionLevel, final OutputStream outputStream) throws IOException {
+        ArchiveWriter.write(format, compressionLevel, entries, outputStream);
+    }
+
+    public long deleteFiles(final String directoryId, final List<Metadata> files) {
+
+        // Metadata first, a crash afterwards leaves only unreferenced data files behind
+        metadataService.removeFiles(directoryId, files.stream().map(Metadata::fileId).toList());
+
+        long reclaimed = 0;
+        for (final Metadata m : files) {
+            contentCache.invalidate(directoryId, m);
+            final long size = getSize(directoryId, m);
+            if (m.blob() != null) {
+                if (blobStore.release(m.blob())) {
+                    reclaimed += size;
+                }
+            } else {
+                try {
+                    storageBackend.delete(directoryId, m.fileId());
+                    reclaimed += size;
+                } catch (final IOException e) {
+                    log.atWarn().setMessage("Couldn't delete file.").addKeyValue("directoryId", directoryId).addKeyValue("fileId", m.fileId()).setCause(e).log();
+                }
             }
         }
-        return metadata;
+        return reclaimed;
     }
 
-    private void saveMetadata(final Path path, final List<Metadata> metadata) {
+    public long getSize(final String directoryId, final Metadata metadata) {
         try {
-            Files.writeString(path, JsonUtils.toJson(metadata), StandardCharsets.UTF_8);
-        } catch (final JsonProcessingException e) {
-            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Couldn't serialize metadata.", e);
+            if (metadata.blob() != null) {
+                return Files.size(blobStore.getPath(metadata.blob()));
+            }
+            final StorageObject storageObject = storageBackend.stat(directoryId, metadata.fileId());
+            return storageObject != null ? storageObject.size() : 0;
         } catch (final IOException e) {
+            return 0;
+        }
+    }
+
+    private String getArchiveName(final String name, final Set<String> names) {
+
+        // Submitted file names must not place entries outside the extraction directory
+        final String safeName = name == null || name.isBlank() ? "file" : name.replaceAll("[/\\\\]", "_").replaceAll("^\\.+$", "_");
+
+        String archiveName = safeName;
+        for (int i = 1; !names.add(archiveName); i++) {
+            final int dot = safeName.lastIndexOf('.');
+            archiveName = dot > 0
+                    ? safeName.substring(0, dot) + " (" + i + ")" + safeName.substring(dot)
+                    : safeName + " (" + i + ")";
+        }
+        return archiveName;
+    }
+
+    private File saveFile(final String directoryId, final String client, final Path path, final Part part) {
+
+        final String id = part.getHeader(Constants.Http.Header.FILE_ID);
+        if (id == null) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, String.format("Missing header '%s'.", Constants.Http.Header.FILE_ID), Map.of(
+                    "file", part.getName()
+            ));
+        }
+
+        final String hash = part.getHeader(Constants.Http.Header.FILE_HASH);
+        final HashAlgorithm hashAlgorithm = getHashAlgorithm(part.getHeader(Constants.Http.Header.FILE_HASH_ALGORITHM));
+        final String fileId = UUID.randomUUID().toString();
+        final String name = part.getSubmittedFileName();
+        final MediaType mediaType = MediaType.valueOf(part.getContentType());
+        final String encoding = compressionPolicy.select(mediaType, part.getSize());
+        final String hashHex;
+        final long size;
+        final ChunkHashes chunkHashes;
+
+        // Blobs are kept on the local disk whatever the backend, so deduplicated uploads are received there
+        final Path pathTmp = isDeduplicated(hashAlgorithm)
+                ? storageLayout.createFile(path, fileId).resolveSibling(fileId + ".TMP")
+                : null;
+        final String file = pathTmp != null ? pathTmp.toAbsolutePath().toString() : directoryId + "/" + fileId;
+
+        // The hash and the size are the ones of the uploaded bytes, not of what is stored
+        try (final CountingInputStream is = new CountingInputStream(part.getInputStream())) {
+            final MessageDigest md = hashAlgorithm.newDigest();
+            final TreeHasher.HashingInputStream his = treeHasher.isEnabled() ? treeHasher.wrap(is, hashAlgorithm) : null;
+            final CountingInputStream hashed = new CountingInputStream(his != null ? his : new DigestInputStream(is, md));
+            final long start = System.nanoTime();
+            final long finish;
+            try (final InputStream content = encoding != null ? compressionPolicy.compress(hashed) : hashed) {
+                if (pathTmp != null) {
+                    LocalStorageBackend.write(content, pathTmp, storageLayout);
+                } else {
+                    storageBackend.put(directoryId, fileId, content);
+                }
+                finish = System.nanoTime();
+                chunkHashes = his != null ? his.finish() : null;
+            }
+            hashHex = his != null ? his.getHash() : HexFormat.of().formatHex(md.digest());
+            size = is.getCount();
+
+            // Writing includes the compression and, apart from deduplicated uploads, moving the file in place, which the
+            // local backend records as the rename phase on its own as well
+            FileStorageMetrics.record(uploadReceive, is.getNanos());
+            FileStorageMetrics.record(uploadHash, hashed.getNanos() - is.getNanos() + System.nanoTime() - finish);
+            FileStorageMetrics.record(uploadWrite, finish - start - hashed.getNanos());
+            uploadBytes.increment(size);
+        } catch (final ResponseStatusException e) {
+            discard(directoryId, fileId, pathTmp);
+            throw e;
+        } catch (final Exception e) {
+            discard(directoryId, fileId, pathTmp);
             throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Couldn't write file.", Map.of(
-                    "file", METADATA_FILENAME
+                    "id", id,
+                    "file", file
             ), e);
         }
+
+        if (hash != null && !hashHex.equals(hash)) {
+            discard(directoryId, fileId, pathTmp);
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Hash doesn't match.", Map.of(
+                    "id", id,
+                    "file", file,
+                    "hash-calculated", hashHex,
+                    "hash-provided", hash
+            ));
+        }
+
+        final String blob = pathTmp != null ? getBlob(hashHex, hashAlgorithm, chunkHashes != null, encoding) : null;
+        if (blob != null) {
+            final long start = System.nanoTime();
+            blobStore.store(pathTmp, blob, size, client);
+            FileStorageMetrics.record(uploadStoreBlob, System.nanoTime() - start);
+        }
+
+        return new File(id, fileId, name, mediaType, hashHex, size, encoding, chunkHashes, hashAlgorithm, chunkHashes != null, blob);
+    }
+
+    // Content the client already uploaded is linked into the directory without reading the body of the part
+    private File linkFile(final String directoryId, final String client, final Part part) {
+
+        final String hash = part.getHeader(Constants.Http.Header.FILE_HASH);
+        final HashAlgorithm hashAlgorithm = getHashAlgorithm(part.getHeader(Constants.Http.Header.FILE_HASH_ALGORITHM));
+        if (!isDeduplicated(hashAlgorithm) || hash == null || !isHash(hash)) {
+            return null;
+        }
+
+        final String id = part.getHeader(Constants.Http.Header.FILE_ID);
+        if (id == null) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, String.format("Missing header '%s'.", Constants.Http.Header.FILE_ID), Map.of(
+                    "file", part.getName()
+            ));
+        }
+
+        for (final String encoding : Arrays.asList(null, CompressionPolicy.DEFLATE)) {
+
+            final String blob = getBlob(hash, hashAlgorithm, treeHasher.isEnabled(), encoding);
+            final long size = blobStore.link(blob, client);
+            if (size < 0) {
+                continue;
+            }
+
+            try {
+                storageLayout.createDirectory(directoryId);
+                return new File(id, UUID.randomUUID().toString(), part.getSubmittedFileName(), MediaType.valueOf(part.getContentType()), hash, size, encoding, null, hashAlgorithm, treeHasher.isEnabled(), blob);
+            } catch (final RuntimeException e) {
+                blobStore.release(blob);
+                throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Couldn't link file.", Map.of(
+                        "id", id,
+                        "blob", blob
+                ), e);
+            }
+        }
+
+        return null;
+    }
+
+    // Hashes name blob files, anything but hex digits could point elsewhere
+    private static boolean isHash(final String hash) {
+        return HASH.matcher(hash).matches();
+    }
+
+    private void discard(final String directoryId, final String fileId, final Path pathTmp) {
+        try {
+            if (pathTmp != null) {
+                Files.deleteIfExists(pathTmp);
+            } else {
+                storageBackend.delete(directoryId, fileId);
+            }
+        } catch (final IOException e) {
+            log.atWarn().setMessage("Couldn't delete file.").addKeyValue("directoryId", directoryId).addKeyValue("fileId", fileId).setCause(e).log();
+        }
+    }
+
+    private void updateMetadataNewFiles(final String directoryId, final String client, final List<File> files) {
+        final OffsetDateTime uploaded = OffsetDateTime.now();
+        try {
+            metadataService.addFiles(directoryId, files.stream()
+                    .map(f -> new Metadata(
+                            f.fileId(),
+                            f.name(),
+                            f.mediaType().toString(),
+                            f.hash(),
+                            uploaded,
+                            null,
+                            f.blob(),
+                            f.size(),
+                            f.encoding(),
+                            f.chunkHashes(),
+                            f.hashAlgorithm().algorithm(),
+                            client,
+                            f.tree()
+                    ))
+                    .toList());
+        } catch (final RuntimeException e) {
+            // Nothing points at the blobs without the metadata
+            files.stream().map(File::blob).filter(Objects::nonNull).forEach(blobStore::release);
+            throw e;
+        }
     }
 
-    private Path getPath(final String directoryId) {
-        return fileStorageProperties.path().resolve(directoryId);
+    // Compressed and uncompressed copies of the same content can't share a blob, neither can hashes of different
+    // algorithms. Plain SHA3-512 hashes were the only ones at first and name their blobs alone.
+    private static String getBlob(final String hash, final HashAlgorithm hashAlgorithm, final boolean tree, final String encoding) {
+        final StringBuilder blob = new StringBuilder(hash);
+        if (hashAlgorithm != HashAlgorithm.SHA3_512 || tree) {
+            blob.append('.').append(hashAlgorithm.id()).append(tree ? "-tree" : "");
+        }
+        if (encoding != null) {
+            blob.append('.').append(encoding);
+        }
+        return blob.toString();
+    }
+
+    private HashAlgorithm getHashAlgorithm(final String algorithm) {
+
+        if (algorithm == null) {
+            return HashAlgorithm.SHA3_512;
+        }
+
+        return HashAlgorithm.ofAlgorithm(algorithm)
+                .filter(a -> fileStorageProperties.hashing().algorithms().stream().anyMatch(a.algorithm()::equalsIgnoreCase))
+                .orElseThrow(() -> new ResponseStatusException(HttpStatus.BAD_REQUEST, "Hash algorithm not supported.", Map.of(
+                        "algorithm", algorithm,
+                        "supported", String.join(", ", fileStorageProperties.hashing().algorithms())
+                )));
+    }
+
+    // Files uploaded before hash algorithms could be chosen were hashed with SHA3-512
+    private static String getHashAlgorithm(final Metadata metadata) {
+        return metadata.hashAlgorithm() != null ? metadata.hashAlgorithm() : HashAlgorithm.SHA3_512.algorithm();
+    }
+
+    // Whether the hash is the one of the whole file or of its chunk hashes, files from before tree hashing are flat
+    private static String getHashMode(final Metadata metadata) {
+        return Boolean.TRUE.equals(metadata.tree()) ? Constants.Http.HashMode.TREE : Constants.Http.HashMode.FLAT;
+    }
+
+    // Content is only shared if nobody can forge a hash that points at it
+    private boolean isDeduplicated(final HashAlgorithm hashAlgorithm) {
+        return fileStorageProperties.dedup().enabled() && hashAlgorithm.cryptographic();
+    }
+
+    private Resource getResource(final String directoryId, final Metadata metadata) {
+        if (metadata.blob() != null) {
+            return new FileSystemResource(blobStore.getPath(metadata.blob()));
+        }
+        final Path path = storageBackend.getLocalPath(directoryId, metadata.fileId());
+        return path != null ? new FileSystemResource(path) : new StorageBackendResource(storageBackend, directoryId, metadata.fileId());
     }
 }
@@ -0,0 +1,96 @@
+package de.saschaufer.message_broker.app.file_storage.service;
+
+import de.saschaufer.message_broker.app.file_storage.service.dto.StorageObject;
+import de.saschaufer.message_broker.common.api.errorhandler.ResponseStatusException;
+import org.springframework.http.HttpStatus;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.NoSuchFileException;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Content is lost with a restart, the startup recovery then removes the metadata of all files. Meant for tests and
+// short-lived data where the disk would only slow things down.
+public class InMemoryStorageBackend implements StorageBackend {
+
+    // Arrays can't hold more, whatever the maximum file size of uploads is
+    private static final int MAX_FILE_SIZE = Integer.MAX_VALUE - 8;
+
+    private final Map<String, Map<String, Content>> directories = new ConcurrentHashMap<>();
+    private final int maxFileSize;
+
+    public InMemoryStorageBackend() {
+        this(MAX_FILE_SIZE);
+    }
+
+    InMemoryStorageBackend(final int maxFileSize) {
+        this.maxFileSize = Math.min(maxFileSize, MAX_FILE_SIZE);
+    }
+
+    @Override
+    public long put(final String directoryId, final String fileId, final InputStream inputStream) throws IOException {
+        final byte[] bytes = inputStream.readNBytes(maxFileSize);
+        if (bytes.length == maxFileSize && inputStream.read() != -1) {
+            throw new ResponseStatusException(HttpStatus.CONTENT_TOO_LARGE, "File too large.", Map.of(
+                    "max-size", String.valueOf(maxFileSize)
+            ));
+        }
+        // Changed only while the directory's entry is locked, a concurrent delete mustn't drop the map in between
+        directories.compute(directoryId, (k, files) -> {
+            final Map<String, Content> f = files != null ? files : new ConcurrentHashMap<>();
+            f.put(fileId, new Content(bytes, Instant.now()));
+            return f;
+        });
+        return bytes.length;
+    }
+
+    @Override
+    public InputStream get(final String directoryId, final String fileId) throws IOException {
+        final Content content = getContent(directoryId, fileId);
+        return new ByteArrayInputStream(content.bytes());
+    }
+
+    @Override
+    public InputStream get(final String directoryId, final String fileId, final long offset, final long length) throws IOException {
+        final byte[] bytes = getContent(directoryId, fileId).bytes();
+        final int from = (int) Math.min(offset, bytes.length);
+        return new ByteArrayInputStream(bytes, from, (int) Math.min(length, bytes.length - from));
+    }
+
+    @Override
+    public void delete(final String directoryId, final String fileId) {
+        directories.computeIfPresent(directoryId, (k, files) -> {
+            files.remove(fileId);
+            return files.isEmpty() ? null : files;
+        });
+    }
+
+    @Override
+    public List<String> list(final String directoryId) {
+        final Map<String, Content> files = directories.get(directoryId);
+        return files != null ? List.copyOf(files.keySet()) : List.of();
+    }
+
+    @Override
+    public StorageObject stat(final String directoryId, final String fileId) {
+        final Map<String, Content> files = directories.get(directoryId);
+        final Content content = files != null ? files.get(fileId) : null;
+        return content != null ? new StorageObject(content.bytes().length, content.modified()) : null;
+    }
+
+    private Content getContent(final String directoryId, final String fileId) throws NoSuchFileException {
+        final Map<String, Content> files = directories.get(directoryId);
+        final Content content = files != null ? files.get(fileId) : null;
+        if (content == null) {
+            throw new NoSuchFileException(directoryId + "/" + fileId);
+        }
+        return content;
+    }
+
+    private record Content(byte[] bytes, Instant modified) {
+    }
+}
@@ -0,0 +1,65 @@
+package de.saschaufer.message_broker.app.file_storage.service;
+
+import org.springframework.core.io.AbstractResource;
+import org.springframework.core.io.Resource;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+// Stored content of a compressed file, inflated while it's read. The length is the one of the original upload.
+class InflatingResource extends AbstractResource {
+
+    private final Resource resource;
+    private final Long size;
+
+    InflatingResource(final Resource resource, final Long size) {
+        this.resource = resource;
+        this.size = size;
+    }
+
+    @Override
+    public boolean exists() {
+        return resource.exists();
+    }
+
+    @Override
+    public long contentLength() throws IOException {
+        if (size == null) {
+            throw new FileNotFoundException("Original size of compressed file unknown: " + resource.getDescription());
+        }
+        return size;
+    }
+
+    @Override
+    public long lastModified() throws IOException {
+        return resource.lastModified();
+    }
+
+    @Override
+    public String getFilename() {
+        return resource.getFilename();
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        final Inflater inflater = new Inflater();
+        return new InflaterInputStream(resource.getInputStream(), inflater, CompressionPolicy.BUFFER_SIZE) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    inflater.end();
+                }
+            }
+        };
+    }
+
+    @Override
+    public String getDescription() {
+        return "Inflating " + resource.getDescription();
+    }
+}
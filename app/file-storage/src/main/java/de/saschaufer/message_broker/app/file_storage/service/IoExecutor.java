@@ -0,0 +1,174 @@
+package de.saschaufer.message_broker.app.file_storage.service;
+
+import de.saschaufer.message_broker.app.file_storage.config.FileStorageProperties;
+import de.saschaufer.message_broker.common.api.errorhandler.ResponseStatusException;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.slf4j.MDC;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+@Slf4j
+@Component
+public class IoExecutor implements MeterBinder {
+
+    private final ExecutorService executorService;
+    private final Semaphore permits;
+
+    private final AtomicInteger activeTasks = new AtomicInteger();
+    private final AtomicLong completedTasks = new AtomicLong();
+
+    public IoExecutor(final FileStorageProperties fileStorageProperties) {
+
+        final FileStorageProperties.Io io = fileStorageProperties.io();
+
+        if (io.virtualThreads()) {
+            // Virtual threads are cheap, the semaphore limits how many of them do I/O at the same time
+            executorService = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("file-storage-io-", 0).factory());
+            permits = new Semaphore(io.parallelism());
+        } else {
+            // If the queue is full, the request thread does the work itself instead of queueing without bound
+            executorService = new ThreadPoolExecutor(
+                    io.parallelism(),
+                    io.parallelism(),
+                    0L,
+                    TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<>(io.queueCapacity()),
+                    Thread.ofPlatform().name("file-storage-io-", 0).daemon().factory(),
+                    new ThreadPoolExecutor.CallerRunsPolicy()
+            );
+            permits = null;
+        }
+    }
+
+    public <T, R> List<R> map(final List<T> items, final Function<T, R> function) {
+
+        if (items.size() == 1) {
+            return List.of(run(() -> function.apply(items.getFirst())));
+        }
+
+        final Map<String, String> mdc = MDC.getCopyOfContextMap();
+
+        final List<Future<R>> futures = new ArrayList<>(items.size());
+        for (final T item : items) {
+            futures.add(executorService.submit(() -> withMdc(mdc, () -> function.apply(item))));
+        }
+
+        final List<R> results = new ArrayList<>(items.size());
+        try {
+            for (final Future<R> future : futures) {
+                results.add(future.get());
+            }
+        } catch (final ExecutionException e) {
+            futures.forEach(f -> f.cancel(false));
+            if (e.getCause() instanceof RuntimeException re) {
+                throw re;
+            }
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Couldn't process files.", e.getCause());
+        } catch (final InterruptedException e) {
+            futures.forEach(f -> f.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Interrupted while processing files.", e);
+        }
+
+        return results;
+    }
+
+    public <R> CompletableFuture<R> submit(final Supplier<R> supplier) {
+        final Map<String, String> mdc = MDC.getCopyOfContextMap();
+        return CompletableFuture.supplyAsync(() -> withMdc(mdc, supplier::get), executorService);
+    }
+
+    public int queuedTasks() {
+        if (executorService instanceof ThreadPoolExecutor threadPoolExecutor) {
+            return threadPoolExecutor.getQueue().size();
+        }
+        return permits.getQueueLength();
+    }
+
+    public int activeTasks() {
+        return activeTasks.get();
+    }
+
+    public long completedTasks() {
+        return completedTasks.get();
+    }
+
+    @Override
+    public void bindTo(final MeterRegistry registry) {
+        Gauge.builder("file.storage.io.tasks.queued", this, IoExecutor::queuedTasks).register(registry);
+        Gauge.builder("file.storage.io.tasks.active", this, IoExecutor::activeTasks).register(registry);
+        FunctionCounter.builder("file.storage.io.tasks.completed", this, IoExecutor::completedTasks).register(registry);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executorService.shutdown();
+        try {
+            if (!executorService.awaitTermination(30, TimeUnit.SECONDS)) {
+                log.atWarn().setMessage("I/O tasks didn't finish in time.").addKeyValue("active", activeTasks.get()).log();
+                executorService.shutdownNow();
+            }
+        } catch (final InterruptedException e) {
+            executorService.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private <R> R withMdc(final Map<String, String> mdc, final Callable<R> task) {
+        // The task may run on the request thread, so its MDC has to be restored afterwards
+        final Map<String, String> previous = MDC.getCopyOfContextMap();
+        if (mdc != null) {
+            MDC.setContextMap(mdc);
+        }
+        try {
+            return run(task);
+        } finally {
+            if (previous != null) {
+                MDC.setContextMap(previous);
+            } else {
+                MDC.clear();
+            }
+        }
+    }
+
+    private <R> R run(final Callable<R> task) {
+
+        if (permits != null) {
+            try {
+                permits.acquire();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Interrupted while processing files.", e);
+            }
+        }
+
+        activeTasks.incrementAndGet();
+        try {
+            return task.call();
+        } catch (final RuntimeException e) {
+            throw e;
+        } catch (final Exception e) {
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Couldn't process files.", e);
+        } finally {
+            activeTasks.decrementAndGet();
+            completedTasks.incrementAndGet();
+            if (permits != null) {
+                permits.release();
+            }
+        }
+    }
+}
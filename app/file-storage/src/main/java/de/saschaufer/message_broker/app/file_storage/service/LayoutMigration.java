@@ -0,0 +1,222 @@
+package de.saschaufer.message_broker.app.file_storage.service;
+
+import de.saschaufer.message_broker.app.file_storage.config.FileStorageProperties;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.stream.Stream;
+
+// Moves an existing store into the configured layout while it keeps serving requests.
+// Directories are moved with an atomic rename and a link is left in their old place, files get a hard link in their new
+// shard. Requests which resolved a path before the move keep working through the old names. These are only removed
+// once a pass didn't find anything to move anymore and the grace period has passed.
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class LayoutMigration {
+
+    private final FileStorageProperties fileStorageProperties;
+    private final DirectoryLocks directoryLocks;
+    private final StorageLayout storageLayout;
+
+    private Long lastChange;
+
+    public synchronized void run() {
+
+        if (!storageLayout.isMigrating()) {
+            return;
+        }
+
+        final FileStorageProperties.Layout layout = fileStorageProperties.layout();
+        final long start = System.nanoTime();
+
+        final List<String> directoryIds = storageLayout.listDirectories();
+
+        int moved = 0;
+        int busy = 0;
+
+        for (int i = 0; i < directoryIds.size(); i++) {
+
+            final String directoryId = directoryIds.get(i);
+
+            try {
+                switch (migrate(directoryId)) {
+                    case MOVED -> moved++;
+                    case BUSY -> busy++;
+                    case UNCHANGED -> {
+                    }
+                }
+            } catch (final IOException | RuntimeException e) {
+                log.atError().setMessage("Couldn't migrate directory.").addKeyValue("directoryId", directoryId).setCause(e).log();
+                busy++;
+            }
+
+            if ((i + 1) % layout.migrationBatchSize() == 0 && !pause(layout.migrationBatchPause())) {
+                log.atWarn().setMessage("Layout migration interrupted.").log();
+                return;
+            }
+        }
+
+        if (moved > 0) {
+            lastChange = System.nanoTime();
+        }
+
+        log.atInfo().setMessage("Layout migration pass finished.")
+                .addKeyValue("directories", directoryIds.size())
+                .addKeyValue("moved", moved)
+                .addKeyValue("busy", busy)
+                .addKeyValue("duration-ms", Duration.ofNanos(System.nanoTime() - start).toMillis())
+                .log();
+
+        if (moved > 0 || busy > 0) {
+            return;
+        }
+
+        // Requests started before the last move may still use the old names
+        if (lastChange != null && System.nanoTime() - lastChange < layout.migrationGracePeriod().toNanos()) {
+            return;
+        }
+
+        for (final String directoryId : directoryIds) {
+            try {
+                cleanUp(directoryId);
+            } catch (final IOException | RuntimeException e) {
+                log.atError().setMessage("Couldn't clean up migrated directory.").addKeyValue("directoryId", directoryId).setCause(e).log();
+                return;
+            }
+        }
+
+        for (final Path root : storageLayout.roots()) {
+            try {
+                deleteEmptyShards(root, storageLayout.previous().directoryLevels());
+            } catch (final IOException e) {
+                log.atWarn().setMessage("Couldn't delete empty shards.").addKeyValue("root", root.toString()).setCause(e).log();
+            }
+        }
+
+        storageLayout.finishMigration();
+
+        log.atInfo().setMessage("Layout migration finished.").addKeyValue("directories", directoryIds.size()).log();
+    }
+
+    private Result migrate(final String directoryId) throws IOException {
+
+        final StorageLayout.Levels current = storageLayout.current();
+        final StorageLayout.Levels previous = storageLayout.previous();
+
+        final Path directory = storageLayout.resolveDirectory(current, directoryId);
+        final Path legacy = storageLayout.resolveDirectory(previous, directoryId);
+
+        // Don't wait for uploads or metadata writes, the directory is tried again with the next pass
+        final Lock lock = directoryLocks.writeLock(directoryId);
+        if (!lock.tryLock()) {
+            return Result.BUSY;
+        }
+
+        try {
+            boolean changed = false;
+
+            if (!directory.equals(legacy) && !Files.exists(directory) && Files.isDirectory(legacy) && !Files.isSymbolicLink(legacy)) {
+                Files.createDirectories(directory.getParent());
+                Files.move(legacy, directory, StandardCopyOption.ATOMIC_MOVE);
+                Files.createSymbolicLink(legacy, legacy.getParent().relativize(directory));
+                changed = true;
+            }
+
+            if (current.fileLevels() != previous.fileLevels() && Files.isDirectory(directory)) {
+                for (final Path file : listDataFiles(directory)) {
+                    final String fileId = file.getFileName().toString();
+                    final Path target = storageLayout.resolveFile(current, directory, fileId);
+                    if (file.equals(storageLayout.resolveFile(previous, directory, fileId)) && !Files.exists(target)) {
+                        Files.createDirectories(target.getParent());
+                        Files.createLink(target, file);
+                        changed = true;
+                    }
+                }
+            }
+
+            return changed ? Result.MOVED : Result.UNCHANGED;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void cleanUp(final String directoryId) throws IOException {
+
+        final StorageLayout.Levels current = storageLayout.current();
+        final StorageLayout.Levels previous = storageLayout.previous();
+
+        final Path directory = storageLayout.resolveDirectory(current, directoryId);
+        final Path legacy = storageLayout.resolveDirectory(previous, directoryId);
+
+        final Lock lock = directoryLocks.writeLock(directoryId);
+        lock.lock();
+        try {
+            if (current.fileLevels() != previous.fileLevels() && Files.isDirectory(directory)) {
+                for (final Path file : listDataFiles(directory)) {
+                    final String fileId = file.getFileName().toString();
+                    if (!file.equals(storageLayout.resolveFile(current, directory, fileId))) {
+                        Files.deleteIfExists(file);
+                    }
+                }
+                deleteEmptyShards(directory, previous.fileLevels());
+            }
+
+            if (!directory.equals(legacy) && Files.isSymbolicLink(legacy)) {
+                Files.delete(legacy);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private List<Path> listDataFiles(final Path directory) throws IOException {
+        return storageLayout.listFiles(directory).stream()
+                .filter(file -> {
+                    final String name = file.getFileName().toString();
+                    return !name.endsWith(".TMP") && !name.equals(MetadataService.METADATA_FILENAME) && !name.equals(MetadataService.JOURNAL_FILENAME);
+                })
+                .toList();
+    }
+
+    private static void deleteEmptyShards(final Path path, final int levels) throws IOException {
+        if (levels == 0) {
+            return;
+        }
+        try (final Stream<Path> paths = Files.walk(path, levels)) {
+            // Deepest first, so the parents are empty when they are reached
+            for (final Path shard : paths.filter(p -> !p.equals(path)).sorted((a, b) -> b.getNameCount() - a.getNameCount()).toList()) {
+                if (StorageLayout.SHARD.matcher(shard.getFileName().toString()).matches() && Files.isDirectory(shard, LinkOption.NOFOLLOW_LINKS)) {
+                    try (final Stream<Path> children = Files.list(shard)) {
+                        if (children.findAny().isEmpty()) {
+                            Files.delete(shard);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static boolean pause(final Duration duration) {
+        try {
+            Thread.sleep(duration);
+            return true;
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private enum Result {
+        MOVED, BUSY, UNCHANGED
+    }
+}
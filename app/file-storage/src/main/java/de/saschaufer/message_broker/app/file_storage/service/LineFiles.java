@@ -0,0 +1,36 @@
+package de.saschaufer.message_broker.app.file_storage.service;
+
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// Files that lines are appended to, like the journal, the placements and the pack indexes
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+final class LineFiles {
+
+    // A crash while appending may leave an unterminated line behind. Terminating it keeps the next line from being
+    // glued to it, readers skip the line if it is incomplete.
+    static boolean terminateLastLine(final Path file) throws IOException {
+        try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+
+            final long size = channel.size();
+            if (size == 0) {
+                return false;
+            }
+
+            final ByteBuffer last = ByteBuffer.allocate(1);
+            if (channel.read(last, size - 1) != 1 || last.get(0) == '\n') {
+                return false;
+            }
+
+            channel.write(ByteBuffer.wrap(new byte[]{'\n'}), size);
+            channel.force(false);
+            return true;
+        }
+    }
+}
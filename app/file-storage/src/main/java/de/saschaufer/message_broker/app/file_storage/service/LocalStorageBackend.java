@@ -0,0 +1,173 @@
+package de.saschaufer.message_broker.app.file_storage.service;
+
+import de.saschaufer.message_broker.app.file_storage.service.dto.StorageObject;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import lombok.RequiredArgsConstructor;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+@RequiredArgsConstructor
+public class LocalStorageBackend implements StorageBackend, MeterBinder {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final StorageLayout storageLayout;
+
+    private final CompositeMeterRegistry meterRegistry = new CompositeMeterRegistry();
+    private final Timer renameTimer = FileStorageMetrics.uploadPhase(meterRegistry, "rename");
+
+    @Override
+    public void bindTo(final MeterRegistry registry) {
+        meterRegistry.add(registry);
+    }
+
+    @Override
+    public long put(final String directoryId, final String fileId, final InputStream inputStream) throws IOException {
+
+        final Path pathFile = storageLayout.createFile(storageLayout.createDirectory(directoryId), fileId);
+        final Path pathTmp = pathFile.resolveSibling(fileId + ".TMP");
+
+        try {
+            final long bytes = write(inputStream, pathTmp, storageLayout);
+            final long start = System.nanoTime();
+            Files.move(pathTmp, pathFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            FileStorageMetrics.record(renameTimer, System.nanoTime() - start);
+            return bytes;
+        } catch (final IOException | RuntimeException e) {
+            Files.deleteIfExists(pathTmp);
+            throw e;
+        }
+    }
+
+    @Override
+    public InputStream get(final String directoryId, final String fileId) throws IOException {
+        return Files.newInputStream(storageLayout.getFile(directoryId, fileId));
+    }
+
+    @Override
+    public InputStream get(final String directoryId, final String fileId, final long offset, final long length) throws IOException {
+        final FileChannel channel = FileChannel.open(storageLayout.getFile(directoryId, fileId), StandardOpenOption.READ);
+        channel.position(offset);
+        return limit(Channels.newInputStream(channel), length);
+    }
+
+    @Override
+    public void delete(final String directoryId, final String fileId) throws IOException {
+        Files.deleteIfExists(storageLayout.getFile(directoryId, fileId));
+    }
+
+    @Override
+    public List<String> list(final String directoryId) throws IOException {
+
+        final Path directory = storageLayout.getDirectory(directoryId);
+        if (!Files.isDirectory(directory)) {
+            return List.of();
+        }
+
+        // During a migration a file may be linked from its old and its new shard
+        final Set<String> fileIds = new LinkedHashSet<>();
+        for (final Path file : storageLayout.listFiles(directory)) {
+            final String name = file.getFileName().toString();
+            if (!name.endsWith(".TMP") && !name.equals(MetadataService.METADATA_FILENAME) && !name.equals(MetadataService.JOURNAL_FILENAME)) {
+                fileIds.add(name);
+            }
+        }
+        return List.copyOf(fileIds);
+    }
+
+    @Override
+    public StorageObject stat(final String directoryId, final String fileId) throws IOException {
+        try {
+            final BasicFileAttributes attributes = Files.readAttributes(storageLayout.getFile(directoryId, fileId), BasicFileAttributes.class);
+            return new StorageObject(attributes.size(), attributes.lastModifiedTime().toInstant());
+        } catch (final NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public Path getLocalPath(final String directoryId, final String fileId) {
+        return storageLayout.getFile(directoryId, fileId);
+    }
+
+    static long write(final InputStream inputStream, final Path path, final StorageLayout storageLayout) throws IOException {
+
+        final byte[] buffer = new byte[BUFFER_SIZE];
+        long bytes = 0;
+        long nanos = 0;
+
+        try (final OutputStream outputStream = Files.newOutputStream(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                // Only the time spent writing counts, reading depends on the client
+                final long start = System.nanoTime();
+                outputStream.write(buffer, 0, read);
+                nanos += System.nanoTime() - start;
+                bytes += read;
+            }
+        }
+
+        storageLayout.recordWrite(path, bytes, nanos);
+
+        return bytes;
+    }
+
+    private static InputStream limit(final InputStream inputStream, final long length) {
+        return new FilterInputStream(inputStream) {
+
+            private long remaining = length;
+
+            @Override
+            public int read() throws IOException {
+                if (remaining <= 0) {
+                    return -1;
+                }
+                final int b = super.read();
+                if (b != -1) {
+                    remaining--;
+                }
+                return b;
+            }
+
+            @Override
+            public int read(final byte[] b, final int off, final int len) throws IOException {
+                if (len == 0) {
+                    return 0;
+                }
+                if (remaining <= 0) {
+                    return -1;
+                }
+                final int read = super.read(b, off, (int) Math.min(len, remaining));
+                if (read > 0) {
+                    remaining -= read;
+                }
+                return read;
+            }
+
+            @Override
+            public long skip(final long n) throws IOException {
+                final long skipped = super.skip(Math.min(n, remaining));
+                remaining -= skipped;
+                return skipped;
+            }
+
+            @Override
+            public int available() throws IOException {
+                return (int) Math.min(super.available(), remaining);
+            }
+        };
+    }
+}
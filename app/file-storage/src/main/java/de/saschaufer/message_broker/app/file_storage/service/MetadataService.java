@@ -0,0 +1,302 @@
+package de.saschaufer.message_broker.app.file_storage.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import de.saschaufer.message_broker.app.file_storage.config.FileStorageProperties;
+import de.saschaufer.message_broker.app.file_storage.service.dto.JournalEntry;
+import de.saschaufer.message_broker.app.file_storage.service.dto.Metadata;
+import de.saschaufer.message_broker.common.api.errorhandler.ResponseStatusException;
+import de.saschaufer.message_broker.common.json.JsonUtils;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.OffsetDateTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+
+@Slf4j
+@Service
+public class MetadataService implements MeterBinder {
+
+    static final String METADATA_FILENAME = "metadata.json";
+    static final String JOURNAL_FILENAME = "metadata.journal";
+
+    private final Map<String, Integer> journalEntries = new ConcurrentHashMap<>();
+
+    private final CompositeMeterRegistry meterRegistry = new CompositeMeterRegistry();
+    private final Timer readTimer = FileStorageMetrics.metadata(meterRegistry, "read");
+    private final Timer writeTimer = FileStorageMetrics.metadata(meterRegistry, "write");
+    private final Timer compactTimer = FileStorageMetrics.metadata(meterRegistry, "compact");
+    private final Timer lockWaitTimer = FileStorageMetrics.metadataLockWait(meterRegistry);
+    private final DistributionSummary journalSize = FileStorageMetrics.metadataSize(meterRegistry, "journal");
+    private final DistributionSummary snapshotSize = FileStorageMetrics.metadataSize(meterRegistry, "snapshot");
+
+    private final FileStorageProperties fileStorageProperties;
+    private final DirectoryLocks directoryLocks;
+    private final StorageLayout storageLayout;
+    private final Cache<String, Map<String, Metadata>> cache;
+
+    public MetadataService(final FileStorageProperties fileStorageProperties, final DirectoryLocks directoryLocks, final StorageLayout storageLayout) {
+        this.fileStorageProperties = fileStorageProperties;
+        this.directoryLocks = directoryLocks;
+        this.storageLayout = storageLayout;
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(fileStorageProperties.metadataCache().maxEntries())
+                .<String, Map<String, Metadata>>weigher((directoryId, index) -> index.size() + 1)
+                .recordStats()
+                .build();
+    }
+
+    public Map<String, Metadata> readMetadata(final String directoryId) {
+        final Lock lock = directoryLocks.readLock(directoryId);
+        lock(lock);
+        try {
+            return Collections.unmodifiableMap(cache.get(directoryId, this::replay));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public CacheStats cacheStats() {
+        return cache.stats();
+    }
+
+    @Override
+    public void bindTo(final MeterRegistry registry) {
+        CaffeineCacheMetrics.monitor(registry, cache, "file.storage.metadata");
+        meterRegistry.add(registry);
+    }
+
+    void cleanUp() {
+        cache.cleanUp();
+    }
+
+    public void addFiles(final String directoryId, final List<Metadata> metadata) {
+        append(directoryId, metadata.stream().map(JournalEntry::ofAdded).toList());
+    }
+
+    public void markDownloaded(final String directoryId, final List<String> fileIds, final OffsetDateTime downloaded) {
+        append(directoryId, fileIds.stream().map(fileId -> JournalEntry.ofDownloaded(fileId, downloaded)).toList());
+    }
+
+    public void removeFiles(final String directoryId, final List<String> fileIds) {
+        append(directoryId, fileIds.stream().map(JournalEntry::ofRemoved).toList());
+    }
+
+    public void compactPending() {
+        final int threshold = fileStorageProperties.journal().compactionThreshold();
+        for (final String directoryId : List.copyOf(journalEntries.keySet())) {
+            if (journalEntries.getOrDefault(directoryId, 0) >= threshold) {
+                try {
+                    compact(directoryId);
+                } catch (final Exception e) {
+                    log.atError().setMessage("Couldn't compact metadata journal.").addKeyValue("directoryId", directoryId).setCause(e).log();
+                }
+            }
+        }
+    }
+
+    public void compact(final String directoryId) {
+        final Path path = getPath(directoryId);
+        final Lock lock = directoryLocks.writeLock(directoryId);
+        lock(lock);
+        final long start = System.nanoTime();
+        try {
+            final Map<String, Metadata> metadata = replay(directoryId);
+            writeSnapshot(path.resolve(METADATA_FILENAME), List.copyOf(metadata.values()));
+            try {
+                Files.deleteIfExists(path.resolve(JOURNAL_FILENAME));
+            } catch (final IOException e) {
+                throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Couldn't delete file.", Map.of(
+                        "file", JOURNAL_FILENAME
+                ), e);
+            }
+            journalEntries.remove(directoryId);
+            cache.put(directoryId, metadata);
+        } finally {
+            lock.unlock();
+            FileStorageMetrics.record(compactTimer, System.nanoTime() - start);
+        }
+    }
+
+    public boolean repairJournal(final String directoryId) {
+        final Path path = getPath(directoryId).resolve(JOURNAL_FILENAME);
+        final Lock lock = directoryLocks.writeLock(directoryId);
+        lock(lock);
+        try {
+            return LineFiles.terminateLastLine(path);
+        } catch (final NoSuchFileException e) {
+            return false;
+        } catch (final IOException e) {
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Couldn't repair file.", Map.of(
+                    "file", JOURNAL_FILENAME
+            ), e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void append(final String directoryId, final List<JournalEntry> entries) {
+
+        if (entries.isEmpty()) {
+            return;
+        }
+
+        final StringBuilder lines = new StringBuilder();
+        for (final JournalEntry entry : entries) {
+            try {
+                lines.append(JsonUtils.toJson(entry)).append('\n');
+            } catch (final JsonProcessingException e) {
+                throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Couldn't serialize metadata.", e);
+            }
+        }
+
+        final Path path = getPath(directoryId).resolve(JOURNAL_FILENAME);
+        final Lock lock = directoryLocks.writeLock(directoryId);
+        lock(lock);
+        try {
+            final long start = System.nanoTime();
+            Files.writeString(path, lines, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            FileStorageMetrics.record(writeTimer, System.nanoTime() - start);
+            journalSize.record(Files.size(path));
+            journalEntries.merge(directoryId, entries.size(), Integer::sum);
+            cache.asMap().computeIfPresent(directoryId, (id, index) -> {
+                entries.forEach(entry -> apply(index, entry));
+                return index;
+            });
+        } catch (final IOException e) {
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Couldn't write file.", Map.of(
+                    "file", JOURNAL_FILENAME
+            ), e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Map<String, Metadata> replay(final String directoryId) {
+        final long start = System.nanoTime();
+        try {
+            return readMetadataFiles(directoryId);
+        } finally {
+            FileStorageMetrics.record(readTimer, System.nanoTime() - start);
+        }
+    }
+
+    private Map<String, Metadata> readMetadataFiles(final String directoryId) {
+
+        final Path path = getPath(directoryId);
+        final Map<String, Metadata> metadata = new ConcurrentHashMap<>();
+
+        for (final Metadata m : readSnapshot(path.resolve(METADATA_FILENAME))) {
+            metadata.put(m.fileId(), m);
+        }
+
+        final Path pathJournal = path.resolve(JOURNAL_FILENAME);
+        if (!Files.exists(pathJournal)) {
+            return metadata;
+        }
+
+        int entries = 0;
+        try (final BufferedReader reader = Files.newBufferedReader(pathJournal, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+
+                if (line.isBlank()) {
+                    continue;
+                }
+
+                final JournalEntry entry;
+                try {
+                    entry = JsonUtils.fromJson(line, JournalEntry.class);
+                } catch (final IOException e) {
+                    // A crash while appending may leave a truncated last line behind.
+                    log.atWarn().setMessage("Skipping unreadable metadata journal entry.").addKeyValue("directoryId", directoryId).setCause(e).log();
+                    continue;
+                }
+
+                entries++;
+
+                apply(metadata, entry);
+            }
+        } catch (final IOException e) {
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Couldn't read metadata.", e);
+        }
+
+        journalEntries.put(directoryId, entries);
+
+        return metadata;
+    }
+
+    private static void apply(final Map<String, Metadata> metadata, final JournalEntry entry) {
+        if (entry.added() != null) {
+            metadata.put(entry.added().fileId(), entry.added());
+        } else if (entry.downloadedFileId() != null) {
+            metadata.computeIfPresent(entry.downloadedFileId(), (fileId, m) ->
+                    new Metadata(m.fileId(), m.name(), m.mediaType(), m.hash(), m.uploaded(), entry.downloaded(), m.blob(), m.size(), m.encoding(), m.chunkHashes(), m.hashAlgorithm(), m.client(), m.tree())
+            );
+        } else if (entry.removedFileId() != null) {
+            metadata.remove(entry.removedFileId());
+        }
+    }
+
+    private List<Metadata> readSnapshot(final Path path) {
+        final List<Metadata> metadata = new ArrayList<>();
+        if (Files.exists(path)) {
+            try {
+                final List<Metadata> snapshot = JsonUtils.fromJson(Files.readAllBytes(path), new TypeReference<List<Metadata>>() {
+                });
+                if (snapshot != null) {
+                    metadata.addAll(snapshot);
+                }
+            } catch (final IOException e) {
+                throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Couldn't read metadata.", e);
+            }
+        }
+        return metadata;
+    }
+
+    private void writeSnapshot(final Path path, final List<Metadata> metadata) {
+        final Path pathTmp = path.resolveSibling(path.getFileName() + ".TMP");
+        try {
+            final byte[] json = JsonUtils.toJson(metadata).getBytes(StandardCharsets.UTF_8);
+            Files.write(pathTmp, json);
+            Files.move(pathTmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            snapshotSize.record(json.length);
+        } catch (final JsonProcessingException e) {
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Couldn't serialize metadata.", e);
+        } catch (final IOException e) {
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Couldn't write file.", Map.of(
+                    "file", METADATA_FILENAME
+            ), e);
+        }
+    }
+
+    private void lock(final Lock lock) {
+        final long start = System.nanoTime();
+        lock.lock();
+        FileStorageMetrics.record(lockWaitTimer, System.nanoTime() - start);
+    }
+
+    private Path getPath(final String directoryId) {
+        return storageLayout.getDirectory(directoryId);
+    }
+}
@@ -0,0 +1,70 @@
+package de.saschaufer.message_broker.app.file_storage.service;
+
+import io.micrometer.core.instrument.Counter;
+import org.springframework.core.io.AbstractResource;
+import org.springframework.core.io.Resource;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+// Counts the bytes of a download as they are sent, so ranges and answers without a body only count what was read
+class MeteredResource extends AbstractResource {
+
+    private final Resource resource;
+    private final Counter counter;
+
+    MeteredResource(final Resource resource, final Counter counter) {
+        this.resource = resource;
+        this.counter = counter;
+    }
+
+    @Override
+    public boolean exists() {
+        return resource.exists();
+    }
+
+    @Override
+    public long contentLength() throws IOException {
+        return resource.contentLength();
+    }
+
+    @Override
+    public long lastModified() throws IOException {
+        return resource.lastModified();
+    }
+
+    @Override
+    public String getFilename() {
+        return resource.getFilename();
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return new FilterInputStream(resource.getInputStream()) {
+
+            @Override
+            public int read() throws IOException {
+                final int b = super.read();
+                if (b != -1) {
+                    counter.increment();
+                }
+                return b;
+            }
+
+            @Override
+            public int read(final byte[] b, final int off, final int len) throws IOException {
+                final int read = super.read(b, off, len);
+                if (read > 0) {
+                    counter.increment(read);
+                }
+                return read;
+            }
+        };
+    }
+
+    @Override
+    public String getDescription() {
+        return resource.getDescription();
+    }
+}
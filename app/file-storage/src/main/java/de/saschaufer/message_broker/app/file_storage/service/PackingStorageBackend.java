@@ -0,0 +1,562 @@
+package de.saschaufer.message_broker.app.file_storage.service;
+
+import de.saschaufer.message_broker.app.file_storage.config.FileStorageProperties;
+import de.saschaufer.message_broker.app.file_storage.service.dto.PackEntry;
+import de.saschaufer.message_broker.app.file_storage.service.dto.StorageObject;
+import de.saschaufer.message_broker.common.json.JsonUtils;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+// Small files are appended to a few large pack files instead of getting a file of their own, which saves a create, a
+// rename and a directory entry per upload. Where each file is is appended to an index next to its pack and kept in
+// memory. Removed and replaced files leave dead space behind, the compaction copies the remaining files of mostly dead
+// packs into the current pack and deletes the old ones.
+@Slf4j
+public class PackingStorageBackend implements StorageBackend, MeterBinder, AutoCloseable {
+
+    static final String PACKS_DIRECTORY = ".packs";
+
+    private static final String PACK_SUFFIX = ".pack";
+    private static final String INDEX_SUFFIX = ".idx";
+    private static final int READ_ATTEMPTS = 3;
+
+    private final StorageBackend storageBackend;
+    private final Path path;
+    private final int maxFileSize;
+    private final long maxPackSize;
+    private final double compactionThreshold;
+
+    private final Map<String, Map<String, Location>> locations = new ConcurrentHashMap<>();
+    private final Map<Integer, Pack> packs = new ConcurrentHashMap<>();
+
+    private volatile Pack active;
+
+    public PackingStorageBackend(final FileStorageProperties fileStorageProperties, final StorageBackend storageBackend) {
+
+        final FileStorageProperties.Packing packing = fileStorageProperties.packing();
+
+        this.storageBackend = storageBackend;
+        path = fileStorageProperties.path().resolve(PACKS_DIRECTORY);
+        maxFileSize = (int) packing.maxFileSize().toBytes();
+        maxPackSize = packing.maxPackSize().toBytes();
+        compactionThreshold = packing.compactionThreshold();
+
+        readPacks();
+    }
+
+    @Override
+    public long put(final String directoryId, final String fileId, final InputStream inputStream) throws IOException {
+
+        final byte[] head = inputStream.readNBytes(maxFileSize + 1);
+
+        if (head.length > maxFileSize) {
+            // Too large for a pack, the bytes read already go ahead of the rest
+            final long size = storageBackend.put(directoryId, fileId, new SequenceInputStream(new ByteArrayInputStream(head), inputStream));
+            remove(directoryId, fileId);
+            return size;
+        }
+
+        append(directoryId, fileId, head, OffsetDateTime.now(), null);
+        // A previous version may have been stored as a file of its own
+        storageBackend.delete(directoryId, fileId);
+
+        return head.length;
+    }
+
+    @Override
+    public InputStream get(final String directoryId, final String fileId) throws IOException {
+        final byte[] bytes = read(directoryId, fileId, 0, Long.MAX_VALUE);
+        return bytes != null ? new ByteArrayInputStream(bytes) : storageBackend.get(directoryId, fileId);
+    }
+
+    @Override
+    public InputStream get(final String directoryId, final String fileId, final long offset, final long length) throws IOException {
+        final byte[] bytes = read(directoryId, fileId, offset, length);
+        return bytes != null ? new ByteArrayInputStream(bytes) : storageBackend.get(directoryId, fileId, offset, length);
+    }
+
+    @Override
+    public void delete(final String directoryId, final String fileId) throws IOException {
+        if (!remove(directoryId, fileId)) {
+            storageBackend.delete(directoryId, fileId);
+        }
+    }
+
+    @Override
+    public List<String> list(final String directoryId) throws IOException {
+        final Set<String> fileIds = new LinkedHashSet<>(storageBackend.list(directoryId));
+        final Map<String, Location> files = locations.get(directoryId);
+        if (files != null) {
+            fileIds.addAll(files.keySet());
+        }
+        return List.copyOf(fileIds);
+    }
+
+    @Override
+    public StorageObject stat(final String directoryId, final String fileId) throws IOException {
+        final Location location = getLocation(directoryId, fileId);
+        return location != null
+                ? new StorageObject(location.length(), location.modified().toInstant())
+                : storageBackend.stat(directoryId, fileId);
+    }
+
+    @Override
+    public Path getLocalPath(final String directoryId, final String fileId) {
+        // Packed files have no path of their own
+        return getLocation(directoryId, fileId) != null ? null : storageBackend.getLocalPath(directoryId, fileId);
+    }
+
+    public synchronized void compact() {
+
+        final long start = System.nanoTime();
+
+        int compacted = 0;
+        int moved = 0;
+        long reclaimed = 0;
+
+        for (final Pack pack : packs.values().stream().sorted(Comparator.comparingInt(Pack::id)).toList()) {
+
+            // The current pack is still being written to
+            if (pack == active) {
+                continue;
+            }
+
+            final long size = pack.size().get();
+            final long dead = size - pack.live().get();
+            if (dead < size * compactionThreshold) {
+                continue;
+            }
+
+            try {
+                moved += move(pack);
+                reclaimed += dead;
+                compacted++;
+            } catch (final IOException | RuntimeException e) {
+                log.atError().setMessage("Couldn't compact pack.").addKeyValue("pack", pack.data().toAbsolutePath().toString()).setCause(e).log();
+            }
+        }
+
+        if (compacted > 0) {
+            log.atInfo().setMessage("Pack compaction finished.")
+                    .addKeyValue("packs", compacted)
+                    .addKeyValue("moved-files", moved)
+                    .addKeyValue("reclaimed-bytes", reclaimed)
+                    .addKeyValue("duration-ms", Duration.ofNanos(System.nanoTime() - start).toMillis())
+                    .log();
+        }
+    }
+
+    @Override
+    public void close() {
+        packs.values().forEach(Pack::close);
+    }
+
+    public int packCount() {
+        return packs.size();
+    }
+
+    @Override
+    public void bindTo(final MeterRegistry registry) {
+        Gauge.builder("file.storage.packs", this, PackingStorageBackend::packCount).register(registry);
+        if (storageBackend instanceof MeterBinder meterBinder) {
+            meterBinder.bindTo(registry);
+        }
+    }
+
+    private boolean append(final String directoryId, final String fileId, final byte[] bytes, final OffsetDateTime modified, final Location expected) throws IOException {
+        while (true) {
+
+            final Pack pack = active();
+
+            // Packs are only locked exclusively while the compaction retires them
+            final Lock lock = pack.lock().readLock();
+            if (!lock.tryLock()) {
+                Thread.onSpinWait();
+                continue;
+            }
+
+            try {
+                if (pack.isRetired()) {
+                    continue;
+                }
+
+                final long offset = pack.size().getAndAdd(bytes.length);
+                final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+                while (buffer.hasRemaining()) {
+                    pack.channel().write(buffer, offset + buffer.position());
+                }
+                pack.append(PackEntry.ofAdded(directoryId, fileId, offset, bytes.length, modified));
+
+                final Location location = new Location(pack, offset, bytes.length, modified);
+                pack.live().addAndGet(bytes.length);
+
+                if (expected == null) {
+                    release(putLocation(directoryId, fileId, location));
+                    return true;
+                }
+
+                if (replaceLocation(directoryId, fileId, expected, location)) {
+                    release(expected);
+                    return true;
+                }
+
+                // Removed or replaced while the compaction copied it
+                pack.append(PackEntry.ofRemoved(directoryId, fileId));
+                pack.live().addAndGet(-bytes.length);
+                return false;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private boolean remove(final String directoryId, final String fileId) throws IOException {
+
+        final Location location = removeLocation(directoryId, fileId);
+        if (location == null) {
+            return false;
+        }
+
+        release(location);
+        if (!location.pack().append(PackEntry.ofRemoved(directoryId, fileId))) {
+            // The compaction skipped the file and is deleting the pack with its index
+            log.atDebug().setMessage("Removal not written, pack is being deleted.")
+                    .addKeyValue("pack", location.pack().data().toAbsolutePath().toString())
+                    .addKeyValue("directoryId", directoryId)
+                    .addKeyValue("fileId", fileId)
+                    .log();
+        }
+
+        return true;
+    }
+
+    private byte[] read(final String directoryId, final String fileId, final long offset, final long length) throws IOException {
+        for (int attempt = 1; ; attempt++) {
+
+            final Location location = getLocation(directoryId, fileId);
+            if (location == null) {
+                return null;
+            }
+
+            try {
+                return read(location, offset, length);
+            } catch (final ClosedByInterruptException e) {
+                throw e;
+            } catch (final ClosedChannelException e) {
+                // The compaction moved the file in the meantime
+                if (attempt == READ_ATTEMPTS) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private static byte[] read(final Location location, final long offset, final long length) throws IOException {
+
+        final long from = Math.min(Math.max(0, offset), location.length());
+        final ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(length, location.length() - from));
+
+        while (buffer.hasRemaining()) {
+            if (location.pack().channel().read(buffer, location.offset() + from + buffer.position()) == -1) {
+                throw new EOFException("Pack ended before the file was read: " + location.pack().data().toAbsolutePath());
+            }
+        }
+        return buffer.array();
+    }
+
+    private int move(final Pack pack) throws IOException {
+
+        final Lock lock = pack.lock().writeLock();
+        lock.lock();
+        try {
+            pack.retire();
+        } finally {
+            lock.unlock();
+        }
+
+        int moved = 0;
+        for (final PackEntry entry : readIndex(pack.index())) {
+            if (entry.removed() != null) {
+                continue;
+            }
+            final Location location = getLocation(entry.directoryId(), entry.fileId());
+            if (location == null || location.pack() != pack || location.offset() != entry.offset()) {
+                continue;
+            }
+            if (append(entry.directoryId(), entry.fileId(), read(location, 0, Long.MAX_VALUE), location.modified(), location)) {
+                moved++;
+            }
+        }
+
+        packs.remove(pack.id());
+        pack.close();
+
+        // The index goes first, a pack without one only holds dead space
+        Files.deleteIfExists(pack.index());
+        Files.deleteIfExists(pack.data());
+
+        return moved;
+    }
+
+    private Pack active() throws IOException {
+
+        final Pack pack = active;
+        if (pack != null && pack.size().get() < maxPackSize) {
+            return pack;
+        }
+
+        synchronized (this) {
+            if (active == null || active.size().get() >= maxPackSize) {
+                final int id = packs.keySet().stream().mapToInt(Integer::intValue).max().orElse(0) + 1;
+                Files.createDirectories(path);
+                final Pack created = new Pack(id, path.resolve(String.format("%08d", id) + PACK_SUFFIX), path.resolve(String.format("%08d", id) + INDEX_SUFFIX));
+                packs.put(id, created);
+                active = created;
+            }
+            return active;
+        }
+    }
+
+    private Location getLocation(final String directoryId, final String fileId) {
+        final Map<String, Location> files = locations.get(directoryId);
+        return files != null ? files.get(fileId) : null;
+    }
+
+    // The maps of directories are only changed while their entry is locked, so emptied ones can be dropped safely
+    private Location putLocation(final String directoryId, final String fileId, final Location location) {
+        final Location[] previous = new Location[1];
+        locations.compute(directoryId, (key, files) -> {
+            final Map<String, Location> f = files != null ? files : new ConcurrentHashMap<>();
+            previous[0] = f.put(fileId, location);
+            return f;
+        });
+        return previous[0];
+    }
+
+    private boolean replaceLocation(final String directoryId, final String fileId, final Location expected, final Location location) {
+        final boolean[] replaced = new boolean[1];
+        locations.computeIfPresent(directoryId, (key, files) -> {
+            replaced[0] = files.replace(fileId, expected, location);
+            return files;
+        });
+        return replaced[0];
+    }
+
+    private Location removeLocation(final String directoryId, final String fileId) {
+        final Location[] removed = new Location[1];
+        locations.computeIfPresent(directoryId, (key, files) -> {
+            removed[0] = files.remove(fileId);
+            return files.isEmpty() ? null : files;
+        });
+        return removed[0];
+    }
+
+    private static void release(final Location location) {
+        if (location != null) {
+            location.pack().live().addAndGet(-location.length());
+        }
+    }
+
+    private void readPacks() {
+
+        if (!Files.isDirectory(path)) {
+            return;
+        }
+
+        final List<Integer> ids;
+        try (final Stream<Path> paths = Files.list(path)) {
+            ids = paths
+                    .map(p -> p.getFileName().toString())
+                    .filter(name -> name.matches("\\d+" + Pattern.quote(PACK_SUFFIX)))
+                    .map(name -> Integer.parseInt(name.substring(0, name.length() - PACK_SUFFIX.length())))
+                    .sorted()
+                    .toList();
+        } catch (final IOException e) {
+            throw new IllegalStateException("Couldn't list packs: " + path.toAbsolutePath(), e);
+        }
+
+        // Later entries win, files copied by an interrupted compaction are found in their new pack
+        for (final int id : ids) {
+            final Pack pack;
+            try {
+                pack = new Pack(id, path.resolve(String.format("%08d", id) + PACK_SUFFIX), path.resolve(String.format("%08d", id) + INDEX_SUFFIX));
+                packs.put(id, pack);
+                for (final PackEntry entry : readIndex(pack.index())) {
+                    if (entry.removed() != null) {
+                        final Location location = getLocation(entry.directoryId(), entry.fileId());
+                        if (location != null && location.pack() == pack) {
+                            removeLocation(entry.directoryId(), entry.fileId());
+                        }
+                    } else if (entry.offset() + entry.length() <= pack.size().get()) {
+                        putLocation(entry.directoryId(), entry.fileId(), new Location(pack, entry.offset(), entry.length(), entry.modified()));
+                    }
+                }
+            } catch (final IOException e) {
+                throw new IllegalStateException("Couldn't read pack: " + path.resolve(String.format("%08d", id) + PACK_SUFFIX).toAbsolutePath(), e);
+            }
+        }
+
+        long files = 0;
+        for (final Map<String, Location> directory : locations.values()) {
+            for (final Location location : directory.values()) {
+                location.pack().live().addAndGet(location.length());
+                files++;
+            }
+        }
+
+        active = ids.isEmpty() ? null : packs.get(ids.getLast());
+
+        log.atInfo().setMessage("Packs read.").addKeyValue("packs", packs.size()).addKeyValue("files", files).log();
+    }
+
+    private static List<PackEntry> readIndex(final Path index) throws IOException {
+
+        if (!Files.exists(index)) {
+            return List.of();
+        }
+
+        final List<PackEntry> entries = new ArrayList<>();
+        try (final BufferedReader reader = Files.newBufferedReader(index, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                try {
+                    entries.add(JsonUtils.fromJson(line, PackEntry.class));
+                } catch (final IOException e) {
+                    // A crash while appending may leave a truncated line behind
+                    log.atWarn().setMessage("Skipping unreadable pack index entry.").addKeyValue("index", index.toAbsolutePath().toString()).setCause(e).log();
+                }
+            }
+        }
+        return entries;
+    }
+
+    private record Location(Pack pack, long offset, long length, OffsetDateTime modified) {
+    }
+
+    private static final class Pack {
+
+        private final int id;
+        private final Path data;
+        private final Path index;
+        private final AtomicLong size;
+        private final AtomicLong live = new AtomicLong();
+        private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+        private volatile FileChannel channel;
+        private FileChannel indexChannel;
+        private volatile boolean retired;
+        private volatile boolean closed;
+
+        private Pack(final int id, final Path data, final Path index) throws IOException {
+            this.id = id;
+            this.data = data;
+            this.index = index;
+            channel = FileChannel.open(data, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            size = new AtomicLong(channel.size());
+            indexChannel = openIndex();
+        }
+
+        private int id() {
+            return id;
+        }
+
+        private Path data() {
+            return data;
+        }
+
+        private Path index() {
+            return index;
+        }
+
+        private AtomicLong size() {
+            return size;
+        }
+
+        private AtomicLong live() {
+            return live;
+        }
+
+        private ReadWriteLock lock() {
+            return lock;
+        }
+
+        private boolean isRetired() {
+            return retired;
+        }
+
+        // An interrupted thread closes the channel for everyone, it's opened again unless the pack was deleted
+        private FileChannel channel() throws IOException {
+            final FileChannel c = channel;
+            if (c.isOpen() || closed) {
+                return c;
+            }
+            synchronized (this) {
+                if (!channel.isOpen() && !closed) {
+                    channel = FileChannel.open(data, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                }
+                return channel;
+            }
+        }
+
+        // Retired packs still take removals until they are deleted, otherwise a restart in between brings the file back
+        private synchronized boolean append(final PackEntry entry) throws IOException {
+            if (closed || (retired && entry.removed() == null)) {
+                return false;
+            }
+            if (!indexChannel.isOpen()) {
+                indexChannel = openIndex();
+            }
+            final ByteBuffer buffer = ByteBuffer.wrap((JsonUtils.toJson(entry) + "\n").getBytes(StandardCharsets.UTF_8));
+            while (buffer.hasRemaining()) {
+                indexChannel.write(buffer);
+            }
+            return true;
+        }
+
+        private synchronized void retire() {
+            retired = true;
+        }
+
+        private synchronized void close() {
+            retired = true;
+            closed = true;
+            try {
+                channel.close();
+                indexChannel.close();
+            } catch (final IOException e) {
+                log.atWarn().setMessage("Couldn't close pack.").addKeyValue("pack", data.toAbsolutePath().toString()).setCause(e).log();
+            }
+        }
+
+        private FileChannel openIndex() throws IOException {
+            final FileChannel c = FileChannel.open(index, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            LineFiles.terminateLastLine(index);
+            return c;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package de.saschaufer.message_broker.app.file_storage.service;
+
+import org.springframework.core.io.FileSystemResource;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+class PrefetchingFileResource extends FileSystemResource {
+
+    private final Window window;
+    private final int index;
+
+    private volatile CompletableFuture<byte[]> head;
+
+    private PrefetchingFileResource(final Path path, final Window window, final int index) {
+        super(path);
+        this.window = window;
+        this.index = index;
+    }
+
+    // Files are opened one after another while the parts are written. The first bytes of the next files are read
+    // ahead in the background, so every file descriptor is only held for a short time.
+    static List<PrefetchingFileResource> of(final List<Path> paths, final IoExecutor ioExecutor, final int prefetchWindow, final int prefetchSize) {
+        final Window window = new Window(ioExecutor, prefetchWindow, prefetchSize, new ArrayList<>(paths.size()));
+        for (int i = 0; i < paths.size(); i++) {
+            window.resources().add(new PrefetchingFileResource(paths.get(i), window, i));
+        }
+        window.advance(-1);
+        return List.copyOf(window.resources());
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+
+        window.advance(index);
+
+        final CompletableFuture<byte[]> prefetched = head;
+        head = null;
+
+        final byte[] bytes;
+        try {
+            bytes = prefetched != null ? prefetched.join() : null;
+        } catch (final RuntimeException e) {
+            // Let the regular read report the error
+            return super.getInputStream();
+        }
+
+        if (bytes == null) {
+            return super.getInputStream();
+        }
+
+        if (bytes.length < window.prefetchSize()) {
+            return new ByteArrayInputStream(bytes);
+        }
+
+        final FileChannel channel = FileChannel.open(getFile().toPath(), StandardOpenOption.READ);
+        channel.position(bytes.length);
+        return new SequenceInputStream(new ByteArrayInputStream(bytes), Channels.newInputStream(channel));
+    }
+
+    boolean isPrefetched() {
+        return head != null;
+    }
+
+    private void prefetch() {
+        if (head == null) {
+            head = window.ioExecutor().submit(() -> {
+                try (final InputStream inputStream = Files.newInputStream(getFile().toPath())) {
+                    return inputStream.readNBytes(window.prefetchSize());
+                } catch (final IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+        }
+    }
+
+    private record Window(IoExecutor ioExecutor, int size, int prefetchSize, List<PrefetchingFileResource> resources) {
+
+        private synchronized void advance(final int index) {
+            for (int i = index + 1; i <= index + size && i < resources.size(); i++) {
+                resources.get(i).prefetch();
+            }
+        }
+    }
+}
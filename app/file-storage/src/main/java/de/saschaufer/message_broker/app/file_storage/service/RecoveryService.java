@@ -0,0 +1,123 @@
+package de.saschaufer.message_broker.app.file_storage.service;
+
+import de.saschaufer.message_broker.app.file_storage.config.FileStorageProperties;
+import de.saschaufer.message_broker.app.file_storage.service.dto.Metadata;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.*;
+
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class RecoveryService {
+
+    private final FileStorageProperties fileStorageProperties;
+    private final MetadataService metadataService;
+    private final IoExecutor ioExecutor;
+    private final BlobStore blobStore;
+    private final StorageLayout storageLayout;
+    private final StorageBackend storageBackend;
+
+    // Runs while the application context starts, before requests are accepted and scheduled tasks run
+    @PostConstruct
+    public void recover() {
+
+        if (!fileStorageProperties.recovery().enabled()) {
+            return;
+        }
+
+        final long start = System.nanoTime();
+
+        final List<DirectoryRecovery> directories = ioExecutor.map(storageLayout.listDirectories(), this::recover);
+
+        final Map<String, Integer> references = new HashMap<>();
+        boolean complete = true;
+        for (final DirectoryRecovery directory : directories) {
+            complete &= directory.complete();
+            directory.blobs().forEach(blob -> references.merge(blob, 1, Integer::sum));
+        }
+
+        // Without the references of every directory, blobs still in use would look orphaned
+        final List<BlobStore.Recovery> shards = complete
+                ? ioExecutor.map(blobStore.listShards(), shard -> blobStore.recover(shard, references))
+                : List.of();
+        if (!complete) {
+            log.atWarn().setMessage("Skipping blob recovery, not all directories could be recovered.").log();
+        }
+
+        log.atInfo().setMessage("Recovery finished.")
+                .addKeyValue("directories", directories.size())
+                .addKeyValue("files", directories.stream().mapToLong(DirectoryRecovery::files).sum())
+                .addKeyValue("temporary-files", directories.stream().mapToInt(DirectoryRecovery::temporaryFiles).sum() + shards.stream().mapToInt(BlobStore.Recovery::temporaryFiles).sum())
+                .addKeyValue("orphaned-files", directories.stream().mapToInt(DirectoryRecovery::orphanedFiles).sum())
+                .addKeyValue("missing-files", directories.stream().mapToInt(DirectoryRecovery::missingFiles).sum())
+                .addKeyValue("repaired-journals", directories.stream().filter(DirectoryRecovery::repairedJournal).count())
+                .addKeyValue("orphaned-blobs", shards.stream().mapToInt(BlobStore.Recovery::orphanedBlobs).sum())
+                .addKeyValue("corrected-references", shards.stream().mapToInt(BlobStore.Recovery::correctedReferences).sum())
+                .addKeyValue("duration-ms", Duration.ofNanos(System.nanoTime() - start).toMillis())
+                .log();
+    }
+
+    private DirectoryRecovery recover(final String directoryId) {
+
+        final Path path = storageLayout.getDirectory(directoryId);
+
+        try {
+            final boolean repairedJournal = metadataService.repairJournal(directoryId);
+            final Map<String, Metadata> metadata = metadataService.readMetadata(directoryId);
+
+            final Set<String> dataFiles = new HashSet<>();
+            int temporaryFiles = 0;
+            int orphanedFiles = 0;
+
+            // Uploads and snapshots interrupted by the crash
+            if (Files.isDirectory(path)) {
+                for (final Path file : storageLayout.listFiles(path)) {
+                    if (file.getFileName().toString().endsWith(".TMP")) {
+                        Files.deleteIfExists(file);
+                        temporaryFiles++;
+                    }
+                }
+            }
+
+            for (final String fileId : storageBackend.list(directoryId)) {
+                if (!metadata.containsKey(fileId) || metadata.get(fileId).blob() != null) {
+                    // Stored, but the upload died before its metadata was written
+                    storageBackend.delete(directoryId, fileId);
+                    orphanedFiles++;
+                } else {
+                    dataFiles.add(fileId);
+                }
+            }
+
+            final List<String> missing = new ArrayList<>();
+            final List<String> blobs = new ArrayList<>();
+            for (final Metadata m : metadata.values()) {
+                if (m.blob() != null ? !Files.exists(blobStore.getPath(m.blob())) : !dataFiles.contains(m.fileId())) {
+                    missing.add(m.fileId());
+                } else if (m.blob() != null) {
+                    blobs.add(m.blob());
+                }
+            }
+
+            // Entries without data can't be downloaded anyway
+            metadataService.removeFiles(directoryId, missing);
+
+            return new DirectoryRecovery(metadata.size() - missing.size(), temporaryFiles, orphanedFiles, missing.size(), repairedJournal, blobs, true);
+
+        } catch (final IOException | RuntimeException e) {
+            log.atError().setMessage("Couldn't recover directory.").addKeyValue("directoryId", directoryId).setCause(e).log();
+            return new DirectoryRecovery(0, 0, 0, 0, false, List.of(), false);
+        }
+    }
+
+    private record DirectoryRecovery(long files, int temporaryFiles, int orphanedFiles, int missingFiles, boolean repairedJournal, List<String> blobs, boolean complete) {
+    }
+}
@@ -0,0 +1,20 @@
+package de.saschaufer.message_broker.app.file_storage.service;
+
+import de.saschaufer.message_broker.common.api.errorhandler.ResponseStatusException;
+import lombok.Getter;
+import org.springframework.http.HttpStatus;
+
+import java.time.Duration;
+import java.util.Map;
+
+// Retry-After is only sent if the client can tell when trying again makes sense
+@Getter
+public class RequestRejectedException extends ResponseStatusException {
+
+    private final Duration retryAfter;
+
+    public RequestRejectedException(final HttpStatus status, final String reason, final Map<String, String> additionalDetails, final Duration retryAfter) {
+        super(status, reason, additionalDetails);
+        this.retryAfter = retryAfter;
+    }
+}
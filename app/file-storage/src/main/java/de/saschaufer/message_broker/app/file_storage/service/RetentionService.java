@@ -0,0 +1,137 @@
+package de.saschaufer.message_broker.app.file_storage.service;
+
+import de.saschaufer.message_broker.app.file_storage.config.FileStorageProperties;
+import de.saschaufer.message_broker.app.file_storage.service.dto.Metadata;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class RetentionService {
+
+    private final FileStorageProperties fileStorageProperties;
+    private final MetadataService metadataService;
+    private final FileStorageService fileStorageService;
+    private final StorageLayout storageLayout;
+    private final ClientQuotas clientQuotas;
+    private final DownloadTracker downloadTracker;
+
+    private final AtomicLong deletedFiles = new AtomicLong();
+    private final AtomicLong reclaimedBytes = new AtomicLong();
+
+    public void run() {
+
+        final FileStorageProperties.Retention retention = fileStorageProperties.retention();
+        final OffsetDateTime now = OffsetDateTime.now();
+        final long start = System.nanoTime();
+
+        long files = 0;
+        long bytes = 0;
+
+        for (final String directoryId : storageLayout.listDirectories()) {
+            try {
+                // Recent downloads are written first, so a file downloaded right before the run isn't idle
+                downloadTracker.flush(directoryId);
+                final List<Metadata> expired = select(directoryId, metadataService.readMetadata(directoryId).values(), now);
+
+                for (int i = 0; i < expired.size(); i += retention.batchSize()) {
+
+                    final List<Metadata> batch = expired.subList(i, Math.min(i + retention.batchSize(), expired.size()));
+
+                    final long reclaimed = fileStorageService.deleteFiles(directoryId, batch);
+                    clientQuotas.release(batch);
+                    deletedFiles.addAndGet(batch.size());
+                    reclaimedBytes.addAndGet(reclaimed);
+                    files += batch.size();
+                    bytes += reclaimed;
+
+                    // Leave the disk to the requests between the batches
+                    if (!pause(retention.batchPause())) {
+                        log.atWarn().setMessage("Retention interrupted.").log();
+                        return;
+                    }
+                }
+            } catch (final RuntimeException e) {
+                log.atError().setMessage("Couldn't apply retention.").addKeyValue("directoryId", directoryId).setCause(e).log();
+            }
+        }
+
+        log.atInfo().setMessage("Retention finished.")
+                .addKeyValue("files", files)
+                .addKeyValue("bytes", bytes)
+                .addKeyValue("duration-ms", Duration.ofNanos(System.nanoTime() - start).toMillis())
+                .log();
+    }
+
+    public long deletedFiles() {
+        return deletedFiles.get();
+    }
+
+    public long reclaimedBytes() {
+        return reclaimedBytes.get();
+    }
+
+    List<Metadata> select(final String directoryId, final Collection<Metadata> metadata, final OffsetDateTime now) {
+
+        final FileStorageProperties.Retention retention = fileStorageProperties.retention();
+
+        final List<Metadata> expired = new ArrayList<>();
+        final List<Metadata> kept = new ArrayList<>();
+
+        for (final Metadata m : metadata) {
+            if (retention.maxAge() != null && m.uploaded().isBefore(now.minus(retention.maxAge()))) {
+                expired.add(m);
+            } else if (retention.maxIdle() != null && lastAccess(directoryId, m).isBefore(now.minus(retention.maxIdle()))) {
+                expired.add(m);
+            } else {
+                kept.add(m);
+            }
+        }
+
+        if (retention.maxDirectorySize() != null) {
+
+            final Map<String, Long> sizes = new HashMap<>();
+            long size = 0;
+            for (final Metadata m : kept) {
+                sizes.put(m.fileId(), fileStorageService.getSize(directoryId, m));
+                size += sizes.get(m.fileId());
+            }
+
+            // The least recently used files go first
+            kept.sort(Comparator.comparing(m -> lastAccess(directoryId, m)));
+            for (final Iterator<Metadata> iterator = kept.iterator(); iterator.hasNext() && size > retention.maxDirectorySize().toBytes(); ) {
+                final Metadata m = iterator.next();
+                expired.add(m);
+                size -= sizes.get(m.fileId());
+            }
+        }
+
+        return expired;
+    }
+
+    // Downloads during the run, or whose flush failed, are only known to the tracker
+    private OffsetDateTime lastAccess(final String directoryId, final Metadata metadata) {
+        final OffsetDateTime pending = downloadTracker.pending(directoryId, metadata.fileId());
+        if (pending != null) {
+            return pending;
+        }
+        return metadata.lastDownloaded() != null ? metadata.lastDownloaded() : metadata.uploaded();
+    }
+
+    private static boolean pause(final Duration duration) {
+        try {
+            Thread.sleep(duration);
+            return true;
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
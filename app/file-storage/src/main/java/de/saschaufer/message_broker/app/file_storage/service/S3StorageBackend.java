@@ -0,0 +1,355 @@
+package de.saschaufer.message_broker.app.file_storage.service;
+
+import de.saschaufer.message_broker.app.file_storage.config.FileStorageProperties;
+import de.saschaufer.message_broker.app.file_storage.service.dto.StorageObject;
+import de.saschaufer.message_broker.common.api.errorhandler.ResponseStatusException;
+import org.springframework.http.HttpStatus;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+// Talks to S3 and S3-compatible stores (MinIO, Ceph, ...) with path-style requests signed with Signature Version 4.
+// Uploads are sent in parts, so neither the whole file nor its length has to be known upfront. Each upload buffers one
+// part at a time, the number of uploads doing so is limited so the buffers fit into the heap.
+public class S3StorageBackend implements StorageBackend {
+
+    private static final String UNSIGNED_PAYLOAD = "UNSIGNED-PAYLOAD";
+    private static final DateTimeFormatter AMZ_DATE = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'Z'").withZone(ZoneOffset.UTC);
+    private static final int MIN_PART_SIZE = 5 * 1024 * 1024;
+
+    private final URI endpoint;
+    private final String region;
+    private final String bucket;
+    private final String accessKey;
+    private final String secretKey;
+    private final String prefix;
+    private final int partSize;
+    private final int maxPartBuffers;
+    private final Semaphore partBuffers;
+    private final Duration timeout;
+    private final HttpClient httpClient;
+
+    public S3StorageBackend(final FileStorageProperties.Backend.S3 s3) {
+
+        if (s3.endpoint() == null || s3.bucket() == null || s3.accessKey() == null || s3.secretKey() == null) {
+            throw new IllegalStateException("The S3 backend needs an endpoint, a bucket, an access key and a secret key.");
+        }
+
+        endpoint = URI.create(s3.endpoint().toString().replaceAll("/+$", ""));
+        region = s3.region();
+        bucket = s3.bucket();
+        accessKey = s3.accessKey();
+        secretKey = s3.secretKey();
+        prefix = s3.prefix();
+        partSize = (int) Math.max(MIN_PART_SIZE, s3.partSize().toBytes());
+        maxPartBuffers = s3.maxPartBuffers();
+        partBuffers = new Semaphore(maxPartBuffers);
+        timeout = s3.timeout();
+        httpClient = HttpClient.newBuilder().connectTimeout(timeout).build();
+    }
+
+    @Override
+    public long put(final String directoryId, final String fileId, final InputStream inputStream) throws IOException {
+
+        // Waits for a buffer as long as for an answer of S3
+        try {
+            if (!partBuffers.tryAcquire(timeout.toMillis(), TimeUnit.MILLISECONDS)) {
+                throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "All part buffers in use.", Map.of(
+                        "max-part-buffers", String.valueOf(maxPartBuffers)
+                ));
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a part buffer.");
+        }
+
+        try {
+            return put(getKey(directoryId, fileId), inputStream);
+        } finally {
+            partBuffers.release();
+        }
+    }
+
+    private long put(final String key, final InputStream inputStream) throws IOException {
+
+        final byte[] first = inputStream.readNBytes(partSize);
+        if (first.length < partSize) {
+            send("PUT", key, Map.of(), Map.of(), HttpRequest.BodyPublishers.ofByteArray(first));
+            return first.length;
+        }
+
+        final String uploadId = text(parse(send("POST", key, Map.of("uploads", ""), Map.of(), HttpRequest.BodyPublishers.noBody())), "UploadId");
+        if (uploadId == null) {
+            throw new IOException("S3 didn't return an upload ID.");
+        }
+        try {
+            final StringBuilder parts = new StringBuilder("<CompleteMultipartUpload>");
+            long size = 0;
+            byte[] part = first;
+            for (int partNumber = 1; part.length > 0; partNumber++) {
+                final HttpResponse<byte[]> response = sendForResponse("PUT", key, Map.of("partNumber", Integer.toString(partNumber), "uploadId", uploadId), Map.of(), HttpRequest.BodyPublishers.ofByteArray(part));
+                final String eTag = response.headers().firstValue("ETag").orElseThrow(() -> new IOException("S3 didn't return an ETag for the part."));
+                parts.append("<Part><PartNumber>").append(partNumber).append("</PartNumber><ETag>").append(escape(eTag)).append("</ETag></Part>");
+                size += part.length;
+                part = inputStream.readNBytes(partSize);
+            }
+            parts.append("</CompleteMultipartUpload>");
+
+            // A failed completion may still be answered with 200, the error is in the body then
+            final Document result = parse(send("POST", key, Map.of("uploadId", uploadId), Map.of(), HttpRequest.BodyPublishers.ofString(parts.toString())));
+            if ("Error".equals(result.getDocumentElement().getTagName())) {
+                throw new IOException("Couldn't complete multipart upload: " + text(result, "Message"));
+            }
+            return size;
+        } catch (final IOException | RuntimeException e) {
+            try {
+                send("DELETE", key, Map.of("uploadId", uploadId), Map.of(), HttpRequest.BodyPublishers.noBody());
+            } catch (final IOException | RuntimeException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public InputStream get(final String directoryId, final String fileId) throws IOException {
+        return open(directoryId, fileId, Map.of());
+    }
+
+    @Override
+    public InputStream get(final String directoryId, final String fileId, final long offset, final long length) throws IOException {
+        if (length <= 0) {
+            return InputStream.nullInputStream();
+        }
+        return open(directoryId, fileId, Map.of("Range", "bytes=" + offset + "-" + (offset + length - 1)));
+    }
+
+    @Override
+    public void delete(final String directoryId, final String fileId) throws IOException {
+        final HttpResponse<byte[]> response = exchange("DELETE", getKey(directoryId, fileId), Map.of(), Map.of(), HttpRequest.BodyPublishers.noBody(), HttpResponse.BodyHandlers.ofByteArray());
+        if (response.statusCode() != 404) {
+            check(response);
+        }
+    }
+
+    @Override
+    public List<String> list(final String directoryId) throws IOException {
+
+        final String keyPrefix = prefix + directoryId + "/";
+
+        final List<String> fileIds = new ArrayList<>();
+        String continuationToken = null;
+        do {
+            final Map<String, String> query = new HashMap<>(Map.of("list-type", "2", "prefix", keyPrefix));
+            if (continuationToken != null) {
+                query.put("continuation-token", continuationToken);
+            }
+            final Document result = parse(send("GET", null, query, Map.of(), HttpRequest.BodyPublishers.noBody()));
+
+            final NodeList contents = result.getElementsByTagName("Contents");
+            for (int i = 0; i < contents.getLength(); i++) {
+                final String key = text((Element) contents.item(i), "Key");
+                if (key != null && key.startsWith(keyPrefix) && key.indexOf('/', keyPrefix.length()) == -1) {
+                    fileIds.add(key.substring(keyPrefix.length()));
+                }
+            }
+
+            continuationToken = "true".equals(text(result, "IsTruncated")) ? text(result, "NextContinuationToken") : null;
+        } while (continuationToken != null);
+
+        return fileIds;
+    }
+
+    @Override
+    public StorageObject stat(final String directoryId, final String fileId) throws IOException {
+
+        final HttpResponse<byte[]> response = exchange("HEAD", getKey(directoryId, fileId), Map.of(), Map.of(), HttpRequest.BodyPublishers.noBody(), HttpResponse.BodyHandlers.ofByteArray());
+        if (response.statusCode() == 404) {
+            return null;
+        }
+        check(response);
+
+        final long size = response.headers().firstValueAsLong("Content-Length").orElse(0);
+        final Instant modified = response.headers().firstValue("Last-Modified")
+                .map(value -> ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant())
+                .orElse(null);
+        return new StorageObject(size, modified);
+    }
+
+    private InputStream open(final String directoryId, final String fileId, final Map<String, String> headers) throws IOException {
+
+        final String key = getKey(directoryId, fileId);
+
+        final HttpResponse<InputStream> response = exchange("GET", key, Map.of(), headers, HttpRequest.BodyPublishers.noBody(), HttpResponse.BodyHandlers.ofInputStream());
+        if (response.statusCode() == 200 || response.statusCode() == 206) {
+            return response.body();
+        }
+
+        try (final InputStream body = response.body()) {
+            if (response.statusCode() == 404) {
+                throw new NoSuchFileException(key);
+            }
+            // A range starting at the end of the object
+            if (response.statusCode() == 416) {
+                return InputStream.nullInputStream();
+            }
+            throw new IOException("S3 request failed with status " + response.statusCode() + ": " + new String(body.readAllBytes(), StandardCharsets.UTF_8));
+        }
+    }
+
+    private byte[] send(final String method, final String key, final Map<String, String> query, final Map<String, String> headers, final HttpRequest.BodyPublisher body) throws IOException {
+        return sendForResponse(method, key, query, headers, body).body();
+    }
+
+    private HttpResponse<byte[]> sendForResponse(final String method, final String key, final Map<String, String> query, final Map<String, String> headers, final HttpRequest.BodyPublisher body) throws IOException {
+        final HttpResponse<byte[]> response = exchange(method, key, query, headers, body, HttpResponse.BodyHandlers.ofByteArray());
+        check(response);
+        return response;
+    }
+
+    private <T> HttpResponse<T> exchange(final String method, final String key, final Map<String, String> query, final Map<String, String> headers, final HttpRequest.BodyPublisher body, final HttpResponse.BodyHandler<T> bodyHandler) throws IOException {
+
+        final String path = endpoint.getRawPath() + "/" + encode(bucket, false) + (key != null ? "/" + encode(key, true) : "");
+        final String canonicalQuery = new TreeMap<>(query).entrySet().stream()
+                .map(e -> encode(e.getKey(), false) + "=" + encode(e.getValue(), false))
+                .reduce((a, b) -> a + "&" + b)
+                .orElse("");
+
+        final URI uri = URI.create(endpoint.getScheme() + "://" + endpoint.getRawAuthority() + path + (canonicalQuery.isEmpty() ? "" : "?" + canonicalQuery));
+
+        final HttpRequest.Builder request = HttpRequest.newBuilder(uri)
+                .timeout(timeout)
+                .method(method, body);
+        headers.forEach(request::header);
+        sign(request, method, uri, path, canonicalQuery);
+
+        try {
+            return httpClient.send(request.build(), bodyHandler);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for S3.");
+        }
+    }
+
+    private void sign(final HttpRequest.Builder request, final String method, final URI uri, final String path, final String canonicalQuery) {
+
+        final String amzDate = AMZ_DATE.format(Instant.now());
+        final String date = amzDate.substring(0, 8);
+        final String scope = date + "/" + region + "/s3/aws4_request";
+
+        // The client sends the port only if it isn't the default one of the scheme
+        final int port = uri.getPort();
+        final boolean defaultPort = port == -1 || port == 80 && "http".equals(uri.getScheme()) || port == 443 && "https".equals(uri.getScheme());
+        final String host = defaultPort ? uri.getHost() : uri.getHost() + ":" + port;
+
+        final String signedHeaders = "host;x-amz-content-sha256;x-amz-date";
+        final String canonicalRequest = method + "\n"
+                + path + "\n"
+                + canonicalQuery + "\n"
+                + "host:" + host + "\n"
+                + "x-amz-content-sha256:" + UNSIGNED_PAYLOAD + "\n"
+                + "x-amz-date:" + amzDate + "\n"
+                + "\n"
+                + signedHeaders + "\n"
+                + UNSIGNED_PAYLOAD;
+
+        try {
+            final String stringToSign = "AWS4-HMAC-SHA256\n" + amzDate + "\n" + scope + "\n"
+                    + HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(canonicalRequest.getBytes(StandardCharsets.UTF_8)));
+
+            byte[] signingKey = hmac(("AWS4" + secretKey).getBytes(StandardCharsets.UTF_8), date);
+            signingKey = hmac(signingKey, region);
+            signingKey = hmac(signingKey, "s3");
+            signingKey = hmac(signingKey, "aws4_request");
+            final String signature = HexFormat.of().formatHex(hmac(signingKey, stringToSign));
+
+            request.header("x-amz-content-sha256", UNSIGNED_PAYLOAD);
+            request.header("x-amz-date", amzDate);
+            request.header("Authorization", "AWS4-HMAC-SHA256 Credential=" + accessKey + "/" + scope + ", SignedHeaders=" + signedHeaders + ", Signature=" + signature);
+        } catch (final GeneralSecurityException e) {
+            throw new IllegalStateException("Couldn't sign S3 request.", e);
+        }
+    }
+
+    private String getKey(final String directoryId, final String fileId) {
+        return prefix + directoryId + "/" + fileId;
+    }
+
+    private static void check(final HttpResponse<?> response) throws IOException {
+        if (response.statusCode() / 100 != 2) {
+            final Object body = response.body();
+            throw new IOException("S3 request failed with status " + response.statusCode() + ": " + (body instanceof byte[] bytes ? new String(bytes, StandardCharsets.UTF_8) : ""));
+        }
+    }
+
+    private static byte[] hmac(final byte[] key, final String data) throws GeneralSecurityException {
+        final Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(key, "HmacSHA256"));
+        return mac.doFinal(data.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // RFC 3986 encoding as expected by Signature Version 4, slashes of object keys are kept
+    private static String encode(final String value, final boolean keepSlashes) {
+        final StringBuilder encoded = new StringBuilder();
+        for (final byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            final char c = (char) (b & 0xFF);
+            if (c >= 'A' && c <= 'Z' || c >= 'a' && c <= 'z' || c >= '0' && c <= '9' || c == '-' || c == '_' || c == '.' || c == '~' || c == '/' && keepSlashes) {
+                encoded.append(c);
+            } else {
+                encoded.append('%').append(String.format("%02X", b & 0xFF));
+            }
+        }
+        return encoded.toString();
+    }
+
+    private static String escape(final String value) {
+        return value.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+    }
+
+    private static Document parse(final byte[] xml) throws IOException {
+        try {
+            final DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+            factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+            return factory.newDocumentBuilder().parse(new ByteArrayInputStream(xml));
+        } catch (final ParserConfigurationException | SAXException e) {
+            throw new IOException("Couldn't parse S3 response.", e);
+        }
+    }
+
+    private static String text(final Document document, final String tagName) {
+        return text(document.getDocumentElement(), tagName);
+    }
+
+    private static String text(final Element element, final String tagName) {
+        final NodeList nodes = element.getElementsByTagName(tagName);
+        return nodes.getLength() > 0 ? nodes.item(0).getTextContent() : null;
+    }
+}
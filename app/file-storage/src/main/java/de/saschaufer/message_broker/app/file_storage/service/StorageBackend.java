@@ -0,0 +1,33 @@
+package de.saschaufer.message_broker.app.file_storage.service;
+
+import de.saschaufer.message_broker.app.file_storage.service.dto.StorageObject;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.List;
+
+// Where the content of uploaded files is kept. Metadata, journals and deduplicated blobs always stay on the local disk.
+public interface StorageBackend {
+
+    // Replaces an existing file, the content only becomes visible once it's complete
+    long put(String directoryId, String fileId, InputStream inputStream) throws IOException;
+
+    // Throws NoSuchFileException for unknown files
+    InputStream get(String directoryId, String fileId) throws IOException;
+
+    InputStream get(String directoryId, String fileId, long offset, long length) throws IOException;
+
+    // Unknown files are ignored
+    void delete(String directoryId, String fileId) throws IOException;
+
+    List<String> list(String directoryId) throws IOException;
+
+    // Null for unknown files
+    StorageObject stat(String directoryId, String fileId) throws IOException;
+
+    // Backends keeping files on the local disk hand out their paths, which allows zero-copy transfers and prefetching
+    default Path getLocalPath(final String directoryId, final String fileId) {
+        return null;
+    }
+}
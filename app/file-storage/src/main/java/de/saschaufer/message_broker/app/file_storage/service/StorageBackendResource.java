@@ -0,0 +1,115 @@
+package de.saschaufer.message_broker.app.file_storage.service;
+
+import de.saschaufer.message_broker.app.file_storage.service.dto.StorageObject;
+import org.springframework.core.io.AbstractResource;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+
+class StorageBackendResource extends AbstractResource {
+
+    private final StorageBackend storageBackend;
+    private final String directoryId;
+    private final String fileId;
+
+    private volatile StorageObject storageObject;
+
+    StorageBackendResource(final StorageBackend storageBackend, final String directoryId, final String fileId) {
+        this.storageBackend = storageBackend;
+        this.directoryId = directoryId;
+        this.fileId = fileId;
+    }
+
+    @Override
+    public boolean exists() {
+        try {
+            return stat() != null;
+        } catch (final IOException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public long contentLength() throws IOException {
+        return require().size();
+    }
+
+    @Override
+    public long lastModified() throws IOException {
+        final StorageObject object = require();
+        return object.modified() != null ? object.modified().toEpochMilli() : 0;
+    }
+
+    @Override
+    public String getFilename() {
+        return fileId;
+    }
+
+    @Override
+    public InputStream getInputStream() {
+
+        // Range requests skip to their start before reading, that skip becomes a ranged read of the backend
+        return new InputStream() {
+
+            private long offset;
+            private InputStream inputStream;
+
+            @Override
+            public int read() throws IOException {
+                return open().read();
+            }
+
+            @Override
+            public int read(final byte[] b, final int off, final int len) throws IOException {
+                return open().read(b, off, len);
+            }
+
+            @Override
+            public long skip(final long n) throws IOException {
+                if (inputStream != null) {
+                    return inputStream.skip(n);
+                }
+                final long skipped = Math.max(0, Math.min(n, contentLength() - offset));
+                offset += skipped;
+                return skipped;
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (inputStream != null) {
+                    inputStream.close();
+                }
+            }
+
+            private InputStream open() throws IOException {
+                if (inputStream == null) {
+                    inputStream = offset == 0
+                            ? storageBackend.get(directoryId, fileId)
+                            : storageBackend.get(directoryId, fileId, offset, contentLength() - offset);
+                }
+                return inputStream;
+            }
+        };
+    }
+
+    @Override
+    public String getDescription() {
+        return "Storage backend [" + directoryId + "/" + fileId + "]";
+    }
+
+    private StorageObject stat() throws IOException {
+        if (storageObject == null) {
+            storageObject = storageBackend.stat(directoryId, fileId);
+        }
+        return storageObject;
+    }
+
+    private StorageObject require() throws IOException {
+        final StorageObject object = stat();
+        if (object == null) {
+            throw new FileNotFoundException(getDescription() + " doesn't exist.");
+        }
+        return object;
+    }
+}
@@ -0,0 +1,314 @@
+package de.saschaufer.message_broker.app.file_storage.service;
+
+import de.saschaufer.message_broker.app.file_storage.config.FileStorageProperties;
+import de.saschaufer.message_broker.common.api.errorhandler.ResponseStatusException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.Lock;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+@Slf4j
+@Component
+public class StorageLayout {
+
+    static final String LAYOUT_FILENAME = ".layout";
+
+    // Shards start with a dot like the other internal directories, directory ids mustn't and file ids are UUIDs, so they
+    // never collide
+    static final Pattern SHARD = Pattern.compile("\\.[0-9a-f]{2}");
+
+    private final Path path;
+    private final DirectoryLocks directoryLocks;
+    private final StorageRoots storageRoots;
+    private final Levels current;
+    private final List<WriteListener> writeListeners = new CopyOnWriteArrayList<>();
+
+    private volatile Levels previous;
+    private volatile boolean layoutWritten;
+
+    public StorageLayout(final FileStorageProperties fileStorageProperties, final DirectoryLocks directoryLocks) {
+
+        this.path = fileStorageProperties.path();
+        this.directoryLocks = directoryLocks;
+        this.storageRoots = new StorageRoots(fileStorageProperties);
+
+        final FileStorageProperties.Layout layout = fileStorageProperties.layout();
+        current = new Levels(layout.directoryLevels(), layout.fileLevels());
+
+        final Levels stored = readLayout();
+        if (stored != null) {
+            previous = stored;
+            layoutWritten = true;
+        } else {
+            // Stores from before the layout became configurable are flat
+            previous = hasDirectories(path) ? new Levels(0, 0) : current;
+        }
+
+        if (isMigrating()) {
+            log.atInfo().setMessage("Storage layout changed, lookups fall back to the previous layout until the migration is finished.")
+                    .addKeyValue("previous", previous.toString())
+                    .addKeyValue("current", current.toString())
+                    .log();
+        }
+
+        if (storageRoots.isMultiple()) {
+            recoverPlacements();
+        }
+    }
+
+    public boolean isMigrating() {
+        return !previous.equals(current);
+    }
+
+    public Path getDirectory(final String directoryId) {
+
+        final Path directory = resolveDirectory(current, directoryId);
+
+        if (isMigrating() && !Files.exists(directory)) {
+            final Path legacy = resolveDirectory(previous, directoryId);
+            if (Files.exists(legacy)) {
+                return legacy;
+            }
+        }
+
+        return directory;
+    }
+
+    public Path createDirectory(final String directoryId) {
+
+        // Doesn't interleave with a migration moving the directory
+        final Lock lock = directoryLocks.readLock(directoryId);
+        lock.lock();
+        try {
+            Path directory = getDirectory(directoryId);
+            if (!Files.exists(directory)) {
+                directory = shard(storageRoots.place(directoryId), current.directoryLevels(), directoryId).resolve(directoryId);
+                Files.createDirectories(directory);
+            }
+            if (!layoutWritten) {
+                writeLayout(current);
+            }
+            return directory;
+        } catch (final IOException e) {
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Couldn't create directory.", Map.of(
+                    "directoryId", directoryId
+            ), e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Path getFile(final String directoryId, final String fileId) {
+        final Path directory = getDirectory(directoryId);
+        final Path file = resolveFile(current, directory, fileId);
+        if (isMigrating() && previous.fileLevels() != current.fileLevels() && !Files.exists(file)) {
+            final Path legacy = resolveFile(previous, directory, fileId);
+            if (Files.exists(legacy)) {
+                return legacy;
+            }
+        }
+        return file;
+    }
+
+    // Where new files of a directory go, the shard is created if necessary
+    public Path createFile(final Path directory, final String fileId) {
+        final Path file = resolveFile(current, directory, fileId);
+        if (current.fileLevels() > 0) {
+            try {
+                Files.createDirectories(file.getParent());
+            } catch (final IOException e) {
+                throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Couldn't create directory.", Map.of(
+                        "directory", file.getParent().toAbsolutePath().toString()
+                ), e);
+            }
+        }
+        return file;
+    }
+
+    public List<String> listDirectories() {
+        final Set<String> directoryIds = new LinkedHashSet<>();
+        try {
+            for (final Path root : storageRoots.all()) {
+                listDirectories(root, current.directoryLevels(), directoryIds);
+                if (isMigrating() && previous.directoryLevels() != current.directoryLevels()) {
+                    listDirectories(root, previous.directoryLevels(), directoryIds);
+                }
+            }
+        } catch (final IOException e) {
+            log.atError().setMessage("Couldn't list directories.").setCause(e).log();
+        }
+        return List.copyOf(directoryIds);
+    }
+
+    // Data and temporary files of a directory in all shards, metadata files included
+    public List<Path> listFiles(final Path directory) throws IOException {
+        final int depth = Math.max(current.fileLevels(), previous.fileLevels()) + 1;
+        try (final Stream<Path> paths = Files.walk(directory, depth)) {
+            return paths
+                    .filter(file -> !file.equals(directory))
+                    .filter(Files::isRegularFile)
+                    .toList();
+        }
+    }
+
+    public List<Path> roots() {
+        return storageRoots.all();
+    }
+
+    // Disk write time of uploads, steers new directories away from slow disks and, with adaptive limits, the number of
+    // concurrent uploads
+    public void recordWrite(final Path file, final long bytes, final long nanos) {
+        storageRoots.recordWrite(file, bytes, nanos);
+        for (final WriteListener writeListener : writeListeners) {
+            writeListener.written(bytes, nanos);
+        }
+    }
+
+    public void addWriteListener(final WriteListener writeListener) {
+        writeListeners.add(writeListener);
+    }
+
+    Levels current() {
+        return current;
+    }
+
+    Levels previous() {
+        return previous;
+    }
+
+    Path resolveDirectory(final Levels levels, final String directoryId) {
+        return shard(storageRoots.get(directoryId), levels.directoryLevels(), directoryId).resolve(directoryId);
+    }
+
+    Path resolveFile(final Levels levels, final Path directory, final String fileId) {
+        return shard(directory, levels.fileLevels(), fileId).resolve(fileId);
+    }
+
+    void finishMigration() {
+        writeLayout(current);
+        previous = current;
+    }
+
+    // Placements appended right before a crash may be lost. The directories on the other roots are looked up once here,
+    // so lookups don't search every disk for a directory that doesn't exist yet.
+    private void recoverPlacements() {
+        for (final Path root : storageRoots.all()) {
+
+            if (root.equals(storageRoots.main())) {
+                continue;
+            }
+
+            final Set<String> directoryIds = new LinkedHashSet<>();
+            try {
+                listDirectories(root, current.directoryLevels(), directoryIds);
+                if (isMigrating() && previous.directoryLevels() != current.directoryLevels()) {
+                    listDirectories(root, previous.directoryLevels(), directoryIds);
+                }
+            } catch (final IOException e) {
+                throw new IllegalStateException("Couldn't list directories: " + root.toAbsolutePath(), e);
+            }
+
+            for (final String directoryId : directoryIds) {
+                if (!root.equals(storageRoots.get(directoryId))) {
+                    log.atWarn().setMessage("Recovering lost placement.").addKeyValue("directoryId", directoryId).addKeyValue("root", root.toString()).log();
+                    storageRoots.remember(directoryId, root);
+                }
+            }
+        }
+    }
+
+    private void listDirectories(final Path directory, final int levels, final Set<String> directoryIds) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        try (final Stream<Path> paths = Files.list(directory)) {
+            for (final Path child : (Iterable<Path>) paths::iterator) {
+                final String name = child.getFileName().toString();
+                if (levels > 0) {
+                    if (SHARD.matcher(name).matches()) {
+                        listDirectories(child, levels - 1, directoryIds);
+                    }
+                } else if (!name.startsWith(".") && Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+                    // Links left behind by a migration point at directories listed in their new place
+                    directoryIds.add(name);
+                }
+            }
+        }
+    }
+
+    private Levels readLayout() {
+        final Path pathLayout = path.resolve(LAYOUT_FILENAME);
+        if (!Files.exists(pathLayout)) {
+            return null;
+        }
+        try (final BufferedReader reader = Files.newBufferedReader(pathLayout, StandardCharsets.UTF_8)) {
+            final Properties properties = new Properties();
+            properties.load(reader);
+            return new Levels(
+                    Integer.parseInt(properties.getProperty("directory-levels", "0")),
+                    Integer.parseInt(properties.getProperty("file-levels", "0"))
+            );
+        } catch (final IOException | NumberFormatException e) {
+            throw new IllegalStateException("Couldn't read storage layout: " + pathLayout.toAbsolutePath(), e);
+        }
+    }
+
+    private synchronized void writeLayout(final Levels levels) {
+        final Path pathLayout = path.resolve(LAYOUT_FILENAME);
+        final Path pathTmp = pathLayout.resolveSibling(LAYOUT_FILENAME + ".TMP");
+        try {
+            Files.createDirectories(path);
+            Files.writeString(pathTmp, "directory-levels=" + levels.directoryLevels() + "\nfile-levels=" + levels.fileLevels() + "\n", StandardCharsets.UTF_8);
+            Files.move(pathTmp, pathLayout, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            layoutWritten = true;
+        } catch (final IOException e) {
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Couldn't write file.", Map.of(
+                    "file", LAYOUT_FILENAME
+            ), e);
+        }
+    }
+
+    private static boolean hasDirectories(final Path path) {
+        try (final Stream<Path> paths = Files.list(path)) {
+            return paths.anyMatch(p -> Files.isDirectory(p) && !p.getFileName().toString().startsWith("."));
+        } catch (final IOException e) {
+            return false;
+        }
+    }
+
+    private static Path shard(final Path path, final int levels, final String id) {
+
+        if (levels == 0) {
+            return path;
+        }
+
+        // Ids may be chosen by clients, the checksum spreads them evenly nevertheless
+        final CRC32C crc = new CRC32C();
+        crc.update(id.getBytes(StandardCharsets.UTF_8));
+        final long value = crc.getValue();
+
+        Path shard = path;
+        for (int i = 0; i < levels; i++) {
+            shard = shard.resolve(String.format(".%02x", (value >>> (8 * i)) & 0xFF));
+        }
+        return shard;
+    }
+
+    record Levels(int directoryLevels, int fileLevels) {
+    }
+
+    @FunctionalInterface
+    public interface WriteListener {
+        void written(long bytes, long nanos);
+    }
+}
@@ -0,0 +1,236 @@
+package de.saschaufer.message_broker.app.file_storage.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import de.saschaufer.message_broker.app.file_storage.config.FileStorageProperties;
+import de.saschaufer.message_broker.app.file_storage.service.dto.Placement;
+import de.saschaufer.message_broker.common.api.errorhandler.ResponseStatusException;
+import de.saschaufer.message_broker.common.json.JsonUtils;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+// Directories are placed as a whole on one of the roots, usually one per disk. Where a directory went is appended to
+// the placement file on the main root, so reads find it without looking on every disk.
+@Slf4j
+class StorageRoots {
+
+    static final String PLACEMENT_FILENAME = ".placement";
+
+    private static final long FREE_SPACE_REFRESH_NANOS = 1_000_000_000L;
+    // Writes of small files say little about the disk, they are weighted like writes of this size
+    private static final long MIN_WRITE_SIZE = 64 * 1024;
+
+    private final Path main;
+    private final List<Root> roots;
+    private final long minFreeSpace;
+    private final Map<String, Path> placements = new ConcurrentHashMap<>();
+
+    StorageRoots(final FileStorageProperties fileStorageProperties) {
+
+        final FileStorageProperties.Placement placement = fileStorageProperties.placement();
+
+        main = fileStorageProperties.path();
+        minFreeSpace = placement.minFreeSpace().toBytes();
+
+        final List<Root> r = new ArrayList<>();
+        r.add(new Root(main));
+        placement.roots().stream().filter(root -> !root.equals(main)).distinct().map(Root::new).forEach(r::add);
+        roots = List.copyOf(r);
+
+        if (roots.size() > 1) {
+            readPlacements();
+        }
+    }
+
+    boolean isMultiple() {
+        return roots.size() > 1;
+    }
+
+    List<Path> all() {
+        return roots.stream().map(Root::path).toList();
+    }
+
+    Path main() {
+        return main;
+    }
+
+    // Directories from before there were several roots are on the main root
+    Path get(final String directoryId) {
+        return placements.getOrDefault(directoryId, main);
+    }
+
+    Path place(final String directoryId) {
+
+        final Path placed = placements.get(directoryId);
+        if (placed != null || !isMultiple()) {
+            return placed != null ? placed : main;
+        }
+
+        // Concurrent first uploads to a directory have to agree on its root
+        synchronized (this) {
+
+            final Path placedMeanwhile = placements.get(directoryId);
+            if (placedMeanwhile != null) {
+                return placedMeanwhile;
+            }
+
+            final Path root = choose();
+            if (root.equals(main)) {
+                // Directories without a placement are looked up on the main root anyway, it isn't written
+                placements.put(directoryId, main);
+            } else {
+                remember(directoryId, root);
+            }
+            return root;
+        }
+    }
+
+    synchronized void remember(final String directoryId, final Path root) {
+
+        if (root.equals(placements.get(directoryId)) || (!placements.containsKey(directoryId) && root.equals(main))) {
+            return;
+        }
+
+        final String line;
+        try {
+            line = JsonUtils.toJson(new Placement(directoryId, root.toString())) + "\n";
+        } catch (final JsonProcessingException e) {
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Couldn't serialize placement.", e);
+        }
+
+        try {
+            Files.createDirectories(main);
+            Files.writeString(main.resolve(PLACEMENT_FILENAME), line, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        } catch (final IOException e) {
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Couldn't write file.", Map.of(
+                    "file", PLACEMENT_FILENAME
+            ), e);
+        }
+
+        placements.put(directoryId, root);
+    }
+
+    void recordWrite(final Path file, final long bytes, final long nanos) {
+        for (final Root root : roots) {
+            if (file.startsWith(root.path())) {
+                root.recordWrite(bytes, nanos);
+                return;
+            }
+        }
+    }
+
+    // Roots with more free space and faster writes get more of the new directories. Choosing at random by weight
+    // instead of always taking the best root spreads concurrent uploads over all disks.
+    private Path choose() {
+
+        final double[] weights = new double[roots.size()];
+        double total = 0;
+        for (int i = 0; i < roots.size(); i++) {
+            final Root root = roots.get(i);
+            final long usableSpace = root.usableSpace();
+            if (usableSpace > minFreeSpace) {
+                weights[i] = (double) usableSpace / root.nanosPerByte();
+                total += weights[i];
+            }
+        }
+
+        if (total == 0) {
+            throw new ResponseStatusException(HttpStatus.INSUFFICIENT_STORAGE, "Not enough free space.");
+        }
+
+        double random = ThreadLocalRandom.current().nextDouble(total);
+        for (int i = 0; i < roots.size(); i++) {
+            random -= weights[i];
+            if (weights[i] > 0 && random < 0) {
+                return roots.get(i).path();
+            }
+        }
+        return main;
+    }
+
+    private void readPlacements() {
+
+        final Path path = main.resolve(PLACEMENT_FILENAME);
+        if (!Files.exists(path)) {
+            return;
+        }
+
+        try {
+            LineFiles.terminateLastLine(path);
+        } catch (final IOException e) {
+            throw new IllegalStateException("Couldn't repair placements: " + path.toAbsolutePath(), e);
+        }
+
+        try (final BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                try {
+                    final Placement placement = JsonUtils.fromJson(line, Placement.class);
+                    placements.put(placement.directoryId(), Path.of(placement.root()));
+                } catch (final IOException e) {
+                    log.atWarn().setMessage("Skipping unreadable placement.").setCause(e).log();
+                }
+            }
+        } catch (final IOException e) {
+            throw new IllegalStateException("Couldn't read placements: " + path.toAbsolutePath(), e);
+        }
+
+        log.atInfo().setMessage("Placements read.").addKeyValue("directories", placements.size()).log();
+    }
+
+    private static final class Root {
+
+        private final Path path;
+
+        private volatile double nanosPerByte = 1;
+        private volatile long usableSpace;
+        private volatile long usableSpaceRefreshed;
+
+        private Root(final Path path) {
+            this.path = path;
+        }
+
+        private Path path() {
+            return path;
+        }
+
+        private double nanosPerByte() {
+            return nanosPerByte;
+        }
+
+        private long usableSpace() {
+            final long now = System.nanoTime();
+            if (usableSpaceRefreshed == 0 || now - usableSpaceRefreshed > FREE_SPACE_REFRESH_NANOS) {
+                try {
+                    Files.createDirectories(path);
+                    usableSpace = Files.getFileStore(path).getUsableSpace();
+                } catch (final IOException e) {
+                    log.atWarn().setMessage("Couldn't determine free space.").addKeyValue("root", path.toString()).setCause(e).log();
+                    usableSpace = 0;
+                }
+                usableSpaceRefreshed = now;
+            }
+            return usableSpace;
+        }
+
+        private void recordWrite(final long bytes, final long nanos) {
+            // Exponentially weighted, so a disk which got slow is avoided quickly and recovers once it's fast again
+            final double sample = Math.max(1e-3, (double) nanos / Math.max(bytes, MIN_WRITE_SIZE));
+            nanosPerByte = nanosPerByte * 0.9 + sample * 0.1;
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package de.saschaufer.message_broker.app.file_storage.service;
+
+import de.saschaufer.message_broker.app.file_storage.config.FileStorageProperties;
+import de.saschaufer.message_broker.app.file_storage.service.dto.ChunkHashes;
+import de.saschaufer.message_broker.app.file_storage.service.dto.HashAlgorithm;
+import jakarta.annotation.PreDestroy;
+import org.springframework.stereotype.Component;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.*;
+
+// Hashes files as a tree: every chunk is hashed on its own, the hash of the file is the hash of all chunk hashes.
+// Chunks are hashed on a pool of their own, so a single upload uses several cores.
+@Component
+public class TreeHasher {
+
+    private final FileStorageProperties.Hashing hashing;
+    private final int chunkSize;
+    private final ExecutorService executorService;
+
+    // Copies of chunks waiting to be hashed, shared by all uploads to bound the memory
+    private final Semaphore buffers;
+
+    public TreeHasher(final FileStorageProperties fileStorageProperties) {
+        hashing = fileStorageProperties.hashing();
+        chunkSize = (int) Math.min(hashing.chunkSize().toBytes(), Integer.MAX_VALUE - 8);
+        executorService = Executors.newFixedThreadPool(hashing.parallelism(), Thread.ofPlatform().name("file-storage-hash-", 0).daemon().factory());
+        buffers = new Semaphore(hashing.parallelism() * 2);
+    }
+
+    public boolean isEnabled() {
+        return hashing.tree();
+    }
+
+    public HashingInputStream wrap(final InputStream inputStream, final HashAlgorithm hashAlgorithm) {
+        return new HashingInputStream(inputStream, hashAlgorithm);
+    }
+
+    // Queued chunks are still hashed, uploads waiting for them would hang otherwise
+    @PreDestroy
+    public void shutdown() {
+        executorService.shutdown();
+    }
+
+    public class HashingInputStream extends FilterInputStream {
+
+        private final HashAlgorithm hashAlgorithm;
+        private final List<Future<byte[]>> chunks = new ArrayList<>();
+
+        // The current chunk is either hashed right away or copied to be hashed by the pool
+        private MessageDigest digest;
+        private byte[] buffer;
+        private int position;
+
+        private String hash;
+
+        private HashingInputStream(final InputStream inputStream, final HashAlgorithm hashAlgorithm) {
+            super(inputStream);
+            this.hashAlgorithm = hashAlgorithm;
+            // The first chunk is hashed while it's read, small files then aren't copied at all
+            digest = hashAlgorithm.newDigest();
+        }
+
+        @Override
+        public int read() throws IOException {
+            final byte[] b = new byte[1];
+            final int read = read(b, 0, 1);
+            return read == -1 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            final int read = super.read(b, off, len);
+            for (int done = 0; done < read; ) {
+                if (position == chunkSize) {
+                    nextChunk();
+                }
+                final int n = Math.min(read - done, chunkSize - position);
+                if (buffer != null) {
+                    System.arraycopy(b, off + done, buffer, position, n);
+                } else {
+                    digest.update(b, off + done, n);
+                }
+                position += n;
+                done += n;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(final long n) throws IOException {
+            // Skipped bytes would be missing from the hash
+            final byte[] b = new byte[(int) Math.min(n, 8192)];
+            final int read = read(b, 0, b.length);
+            return Math.max(read, 0);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            // A chunk that is never hashed gives its buffer back
+            if (buffer != null) {
+                buffer = null;
+                buffers.release();
+            }
+            super.close();
+        }
+
+        // Call once the stream is read to the end, before it's closed
+        public ChunkHashes finish() throws IOException {
+
+            if (position > 0 || chunks.isEmpty()) {
+                completeChunk();
+            }
+
+            final MessageDigest root = hashAlgorithm.newDigest();
+            final List<String> hashes = new ArrayList<>(chunks.size());
+            try {
+                for (final Future<byte[]> chunk : chunks) {
+                    final byte[] hash = chunk.get();
+                    root.update(hash);
+                    hashes.add(HexFormat.of().formatHex(hash));
+                }
+            } catch (final ExecutionException e) {
+                throw new IOException("Couldn't hash chunk.", e.getCause());
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while hashing chunks.", e);
+            }
+
+            hash = HexFormat.of().formatHex(root.digest());
+            return new ChunkHashes(chunkSize, List.copyOf(hashes));
+        }
+
+        public String getHash() {
+            return hash;
+        }
+
+        private void nextChunk() {
+            completeChunk();
+            position = 0;
+            if (buffers.tryAcquire()) {
+                buffer = new byte[chunkSize];
+                digest = null;
+            } else {
+                // All buffers in use, hashing on the request thread is slower but doesn't need memory
+                buffer = null;
+                digest = hashAlgorithm.newDigest();
+            }
+        }
+
+        private void completeChunk() {
+            if (buffer != null) {
+                final byte[] chunk = buffer;
+                final int length = position;
+                buffer = null;
+                try {
+                    chunks.add(executorService.submit(() -> {
+                        try {
+                            final MessageDigest md = hashAlgorithm.newDigest();
+                            md.update(chunk, 0, length);
+                            return md.digest();
+                        } finally {
+                            buffers.release();
+                        }
+                    }));
+                } catch (final RejectedExecutionException e) {
+                    buffers.release();
+                    throw e;
+                }
+            } else {
+                chunks.add(CompletableFuture.completedFuture(digest.digest()));
+            }
+        }
+    }
+}
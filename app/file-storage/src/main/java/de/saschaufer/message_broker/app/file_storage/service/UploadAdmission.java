@@ -0,0 +1,189 @@
+package de.saschaufer.message_broker.app.file_storage.service;
+
+import de.saschaufer.message_broker.app.file_storage.config.FileStorageProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Uploads beyond the limits are rejected right away instead of queueing, so the uploads already running keep their
+// latency. With adaptive limits, the number of concurrent uploads shrinks while the disk takes longer per byte written
+// than it used to, and grows back once it doesn't. The network transfer of the clients isn't part of the samples.
+@Slf4j
+@Component
+public class UploadAdmission {
+
+    private static final long FREE_SPACE_REFRESH_NANOS = 1_000_000_000L;
+    // Writes of small files say little about the disk, they are weighted like writes of this size
+    private static final long MIN_SAMPLE_SIZE = 64 * 1024;
+    // Latency may rise by this factor over the long-term average before the limit shrinks
+    private static final double TOLERANCE = 2.0;
+
+    private static final Permit NONE = new Permit(null, 0);
+
+    private final FileStorageProperties.Admission admission;
+    private final long diskReserve;
+    private final List<Path> roots;
+
+    private final AtomicInteger uploads = new AtomicInteger();
+    private final AtomicLong bytes = new AtomicLong();
+
+    private volatile double limit;
+    private double shortTermNanosPerByte;
+    private double longTermNanosPerByte;
+
+    private volatile long usableSpace;
+    private volatile long usableSpaceRefreshed;
+
+    public UploadAdmission(final FileStorageProperties fileStorageProperties, final StorageLayout storageLayout) {
+        admission = fileStorageProperties.admission();
+        diskReserve = admission.diskReserve().toBytes();
+        limit = admission.maxConcurrentUploads();
+
+        final List<Path> r = new ArrayList<>();
+        r.add(fileStorageProperties.path());
+        r.addAll(fileStorageProperties.placement().roots());
+        roots = r.stream().distinct().toList();
+
+        if (admission.enabled() && admission.adaptive()) {
+            storageLayout.addWriteListener(this::recordWrite);
+        }
+    }
+
+    // Uploads of unknown size are counted with an average share of the in-flight bytes
+    public Permit admit(final long size) {
+
+        if (!admission.enabled()) {
+            return NONE;
+        }
+
+        final long charged = size >= 0 ? size : admission.maxInFlightBytes().toBytes() / admission.maxConcurrentUploads();
+
+        if (uploads.incrementAndGet() > (int) limit) {
+            uploads.decrementAndGet();
+            throw reject("Too many concurrent uploads.", Map.of("limit", String.valueOf((int) limit)));
+        }
+
+        // A single upload larger than the limit is still let in if it's alone
+        final long inFlight = bytes.addAndGet(charged);
+        if (inFlight > admission.maxInFlightBytes().toBytes() && inFlight != charged) {
+            release(charged);
+            throw reject("Too many bytes in flight.", Map.of("max-in-flight-bytes", String.valueOf(admission.maxInFlightBytes().toBytes())));
+        }
+
+        // Bytes of the uploads still running are about to be written as well
+        if (usableSpace() - inFlight < diskReserve) {
+            release(charged);
+            throw reject("Not enough free space.", Map.of("disk-reserve", String.valueOf(diskReserve)));
+        }
+
+        return new Permit(this, charged);
+    }
+
+    public int getLimit() {
+        return (int) limit;
+    }
+
+    public int getUploads() {
+        return uploads.get();
+    }
+
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    private void release(final long charged) {
+        bytes.addAndGet(-charged);
+        uploads.decrementAndGet();
+    }
+
+    // In the style of a gradient concurrency limit: the ratio of long-term to short-term latency scales the limit,
+    // plus some headroom so it can grow while latency stays the same
+    synchronized void recordWrite(final long size, final long nanos) {
+
+        if (size <= 0) {
+            return;
+        }
+
+        final double nanosPerByte = (double) nanos / Math.max(size, MIN_SAMPLE_SIZE);
+        if (longTermNanosPerByte == 0) {
+            shortTermNanosPerByte = nanosPerByte;
+            longTermNanosPerByte = nanosPerByte;
+            return;
+        }
+        shortTermNanosPerByte = shortTermNanosPerByte * 0.8 + nanosPerByte * 0.2;
+        longTermNanosPerByte = longTermNanosPerByte * 0.99 + nanosPerByte * 0.01;
+
+        final double gradient = Math.max(0.5, Math.min(1.0, TOLERANCE * longTermNanosPerByte / shortTermNanosPerByte));
+        final double next = limit * gradient + Math.sqrt(limit);
+        final double smoothed = limit * 0.8 + next * 0.2;
+
+        final double previous = limit;
+        limit = Math.max(admission.minConcurrentUploads(), Math.min(admission.maxConcurrentUploads(), smoothed));
+
+        if ((int) previous != (int) limit) {
+            log.atDebug().setMessage("Upload limit changed.").addKeyValue("limit", (int) limit).log();
+        }
+    }
+
+    private long usableSpace() {
+
+        final long now = System.nanoTime();
+        if (usableSpaceRefreshed != 0 && now - usableSpaceRefreshed < FREE_SPACE_REFRESH_NANOS) {
+            return usableSpace;
+        }
+
+        // A directory goes to a single root, so only the emptiest one counts
+        long max = 0;
+        for (final Path root : roots) {
+            try {
+                Path existing = root.toAbsolutePath();
+                while (existing != null && !Files.exists(existing)) {
+                    existing = existing.getParent();
+                }
+                if (existing != null) {
+                    max = Math.max(max, Files.getFileStore(existing).getUsableSpace());
+                }
+            } catch (final IOException e) {
+                log.atWarn().setMessage("Couldn't read free space.").addKeyValue("root", root).setCause(e).log();
+            }
+        }
+
+        usableSpace = max;
+        usableSpaceRefreshed = now;
+        return max;
+    }
+
+    private RequestRejectedException reject(final String reason, final Map<String, String> additionalDetails) {
+        return new RequestRejectedException(HttpStatus.SERVICE_UNAVAILABLE, reason, additionalDetails, admission.retryAfter());
+    }
+
+    public static final class Permit implements AutoCloseable {
+
+        private final UploadAdmission uploadAdmission;
+        private final long charged;
+
+        private boolean closed;
+
+        private Permit(final UploadAdmission uploadAdmission, final long charged) {
+            this.uploadAdmission = uploadAdmission;
+            this.charged = charged;
+        }
+
+        @Override
+        public void close() {
+            if (uploadAdmission != null && !closed) {
+                closed = true;
+                uploadAdmission.release(charged);
+            }
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package de.saschaufer.message_broker.app.file_storage.service.dto;
+
+import org.springframework.core.io.Resource;
+
+import java.time.OffsetDateTime;
+
+public record ArchiveEntry(
+        String name,
+        Resource resource,
+        OffsetDateTime modified
+) {
+}
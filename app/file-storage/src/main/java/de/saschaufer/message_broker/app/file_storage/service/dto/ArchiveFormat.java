@@ -0,0 +1,33 @@
+package de.saschaufer.message_broker.app.file_storage.service.dto;
+
+import org.springframework.http.MediaType;
+
+import java.util.Arrays;
+import java.util.Optional;
+
+public enum ArchiveFormat {
+
+    ZIP("zip", MediaType.valueOf("application/zip")),
+    TAR("tar", MediaType.valueOf("application/x-tar")),
+    TAR_GZ("tar.gz", MediaType.valueOf("application/gzip"));
+
+    private final String extension;
+    private final MediaType mediaType;
+
+    ArchiveFormat(final String extension, final MediaType mediaType) {
+        this.extension = extension;
+        this.mediaType = mediaType;
+    }
+
+    public String extension() {
+        return extension;
+    }
+
+    public MediaType mediaType() {
+        return mediaType;
+    }
+
+    public static Optional<ArchiveFormat> ofExtension(final String extension) {
+        return Arrays.stream(values()).filter(f -> f.extension.equalsIgnoreCase(extension)).findFirst();
+    }
+}
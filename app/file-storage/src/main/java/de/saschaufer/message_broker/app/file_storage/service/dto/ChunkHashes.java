@@ -0,0 +1,9 @@
+package de.saschaufer.message_broker.app.file_storage.service.dto;
+
+import java.util.List;
+
+public record ChunkHashes(
+        long chunkSize,
+        List<String> hashes
+) {
+}
@@ -7,6 +7,12 @@ public record File(
         String fileId,
         String name,
         MediaType mediaType,
-        String hash
+        String hash,
+        long size,
+        String encoding,
+        ChunkHashes chunkHashes,
+        HashAlgorithm hashAlgorithm,
+        boolean tree,
+        String blob
 ) {
 }
@@ -0,0 +1,88 @@
+package de.saschaufer.message_broker.app.file_storage.service.dto;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.zip.CRC32C;
+
+public enum HashAlgorithm {
+
+    SHA3_512("SHA3-512", true),
+    SHA_512("SHA-512", true),
+    SHA_256("SHA-256", true),
+    // Only detects corruption, anyone can create content with a given checksum
+    CRC32C("CRC32C", false);
+
+    private final String algorithm;
+    private final boolean cryptographic;
+
+    HashAlgorithm(final String algorithm, final boolean cryptographic) {
+        this.algorithm = algorithm;
+        this.cryptographic = cryptographic;
+    }
+
+    public String algorithm() {
+        return algorithm;
+    }
+
+    public boolean cryptographic() {
+        return cryptographic;
+    }
+
+    // Usable in file names
+    public String id() {
+        return algorithm.toLowerCase().replace("-", "");
+    }
+
+    public MessageDigest newDigest() {
+        if (this == CRC32C) {
+            return new Crc32cDigest();
+        }
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static Optional<HashAlgorithm> ofAlgorithm(final String algorithm) {
+        return Arrays.stream(values()).filter(a -> a.algorithm.equalsIgnoreCase(algorithm)).findFirst();
+    }
+
+    private static class Crc32cDigest extends MessageDigest {
+
+        private final CRC32C crc32c = new CRC32C();
+
+        private Crc32cDigest() {
+            super("CRC32C");
+        }
+
+        @Override
+        protected void engineUpdate(final byte input) {
+            crc32c.update(input);
+        }
+
+        @Override
+        protected void engineUpdate(final byte[] input, final int offset, final int len) {
+            crc32c.update(input, offset, len);
+        }
+
+        @Override
+        protected int engineGetDigestLength() {
+            return 4;
+        }
+
+        @Override
+        protected byte[] engineDigest() {
+            final long value = crc32c.getValue();
+            crc32c.reset();
+            return new byte[]{(byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value};
+        }
+
+        @Override
+        protected void engineReset() {
+            crc32c.reset();
+        }
+    }
+}
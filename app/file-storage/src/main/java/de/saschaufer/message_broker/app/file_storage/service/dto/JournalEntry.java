@@ -0,0 +1,23 @@
+package de.saschaufer.message_broker.app.file_storage.service.dto;
+
+import java.time.OffsetDateTime;
+
+public record JournalEntry(
+        Metadata added,
+        String downloadedFileId,
+        OffsetDateTime downloaded,
+        String removedFileId
+) {
+
+    public static JournalEntry ofAdded(final Metadata metadata) {
+        return new JournalEntry(metadata, null, null, null);
+    }
+
+    public static JournalEntry ofDownloaded(final String fileId, final OffsetDateTime downloaded) {
+        return new JournalEntry(null, fileId, downloaded, null);
+    }
+
+    public static JournalEntry ofRemoved(final String fileId) {
+        return new JournalEntry(null, null, null, fileId);
+    }
+}
@@ -8,6 +8,13 @@ public record Metadata(
         String mediaType,
         String hash,
         OffsetDateTime uploaded,
-        OffsetDateTime lastDownloaded
+        OffsetDateTime lastDownloaded,
+        String blob,
+        Long size,
+        String encoding,
+        ChunkHashes chunkHashes,
+        String hashAlgorithm,
+        String client,
+        Boolean tree
 ) {
 }
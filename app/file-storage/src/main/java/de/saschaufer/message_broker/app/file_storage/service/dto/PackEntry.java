@@ -0,0 +1,21 @@
+package de.saschaufer.message_broker.app.file_storage.service.dto;
+
+import java.time.OffsetDateTime;
+
+public record PackEntry(
+        String directoryId,
+        String fileId,
+        Long offset,
+        Long length,
+        OffsetDateTime modified,
+        Boolean removed
+) {
+
+    public static PackEntry ofAdded(final String directoryId, final String fileId, final long offset, final long length, final OffsetDateTime modified) {
+        return new PackEntry(directoryId, fileId, offset, length, modified, null);
+    }
+
+    public static PackEntry ofRemoved(final String directoryId, final String fileId) {
+        return new PackEntry(directoryId, fileId, null, null, null, true);
+    }
+}
@@ -0,0 +1,7 @@
+package de.saschaufer.message_broker.app.file_storage.service.dto;
+
+public record Placement(
+        String directoryId,
+        String root
+) {
+}
@@ -0,0 +1,9 @@
+package de.saschaufer.message_broker.app.file_storage.service.dto;
+
+import java.time.Instant;
+
+public record StorageObject(
+        long size,
+        Instant modified
+) {
+}
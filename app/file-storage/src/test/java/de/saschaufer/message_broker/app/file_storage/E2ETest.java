@@ -2,7 +2,19 @@ package de.saschaufer.message_broker.app.file_storage;
 
 import de.saschaufer.message_broker.app.file_storage.api.FileStorageController;
 import de.saschaufer.message_broker.app.file_storage.config.FileStorageProperties;
+import de.saschaufer.message_broker.app.file_storage.service.BlobStore;
+import de.saschaufer.message_broker.app.file_storage.service.CompressionPolicy;
+import de.saschaufer.message_broker.app.file_storage.service.ContentCache;
+import de.saschaufer.message_broker.app.file_storage.service.DirectoryLocks;
+import de.saschaufer.message_broker.app.file_storage.service.DownloadTracker;
 import de.saschaufer.message_broker.app.file_storage.service.FileStorageService;
+import de.saschaufer.message_broker.app.file_storage.service.IoExecutor;
+import de.saschaufer.message_broker.app.file_storage.service.LocalStorageBackend;
+import de.saschaufer.message_broker.app.file_storage.service.MetadataService;
+import de.saschaufer.message_broker.app.file_storage.service.RecoveryService;
+import de.saschaufer.message_broker.app.file_storage.service.StorageBackend;
+import de.saschaufer.message_broker.app.file_storage.service.StorageLayout;
+import de.saschaufer.message_broker.app.file_storage.service.TreeHasher;
 import de.saschaufer.message_broker.common.Constants;
 import de.saschaufer.message_broker.common.api.file_storage.dto.FileDownload;
 import de.saschaufer.message_broker.common.api.file_storage.dto.FileDownloadRequest;
@@ -29,6 +41,7 @@ import java.time.Duration;
 import java.util.*;
 import java.util.concurrent.*;
 
+import static de.saschaufer.message_broker.app.file_storage.config.FileStoragePropertiesBuilder.properties;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.collection.IsCollectionWithSize.hasSize;
 
@@ -47,8 +60,50 @@ class E2ETest {
     static class TestConfig {
 
         @Bean
-        FileStorageService fileStorageService() {
-            return new FileStorageService(new FileStorageProperties(tempDir));
+        StorageLayout storageLayout() {
+            final FileStorageProperties fileStorageProperties = properties(tempDir).build();
+            return new StorageLayout(fileStorageProperties, new DirectoryLocks(fileStorageProperties));
+        }
+
+        @Bean
+        MetadataService metadataService(final StorageLayout storageLayout) {
+            final FileStorageProperties fileStorageProperties = properties(tempDir).build();
+            return new MetadataService(fileStorageProperties, new DirectoryLocks(fileStorageProperties), storageLayout);
+        }
+
+        @Bean
+        DownloadTracker downloadTracker(final MetadataService metadataService, final IoExecutor ioExecutor) {
+            return new DownloadTracker(properties(tempDir).build(), metadataService, ioExecutor);
+        }
+
+        @Bean
+        IoExecutor ioExecutor() {
+            return new IoExecutor(properties(tempDir).build());
+        }
+
+        @Bean
+        BlobStore blobStore() {
+            return new BlobStore(properties(tempDir).build());
+        }
+
+        @Bean
+        ContentCache contentCache() {
+            return new ContentCache(properties(tempDir).build());
+        }
+
+        @Bean
+        StorageBackend storageBackend(final StorageLayout storageLayout) {
+            return new LocalStorageBackend(storageLayout);
+        }
+
+        @Bean
+        FileStorageService fileStorageService(final MetadataService metadataService, final DownloadTracker downloadTracker, final IoExecutor ioExecutor, final BlobStore blobStore, final ContentCache contentCache, final StorageLayout storageLayout, final StorageBackend storageBackend, final CompressionPolicy compressionPolicy, final TreeHasher treeHasher) {
+            return new FileStorageService(properties(tempDir).build(), metadataService, downloadTracker, ioExecutor, blobStore, contentCache, storageLayout, storageBackend, compressionPolicy, treeHasher);
+        }
+
+        @Bean
+        RecoveryService recoveryService(final MetadataService metadataService, final IoExecutor ioExecutor, final BlobStore blobStore, final StorageLayout storageLayout, final StorageBackend storageBackend) {
+            return new RecoveryService(properties(tempDir).build(), metadataService, ioExecutor, blobStore, storageLayout, storageBackend);
         }
 
         @Bean
@@ -100,6 +155,7 @@ class E2ETest {
                     Content-Type: text/plain\r
                     ::file-id: 1\r
                     ::file-hash-1\r
+                    Content-Length: ::length-1\r
                     \r
                     ::body-1\r
                     --my-boundary\r
@@ -107,6 +163,7 @@ class E2ETest {
                     Content-Type: application/pdf\r
                     ::file-id: 2\r
                     ::file-hash-2\r
+                    Content-Length: ::length-2\r
                     \r
                     ::body-2\r
                     --my-boundary--\r
@@ -114,6 +171,8 @@ class E2ETest {
                     .replace("::file-id", Constants.Http.Header.FILE_ID)
                     .replace("::file-hash-1", Constants.Http.Header.FILE_HASH + ": " + calcHash("file-1-" + counter))
                     .replace("::file-hash-2", Constants.Http.Header.FILE_HASH + ": " + calcHash("file-2-" + counter))
+                    .replace("::length-1", String.valueOf(("file-1-" + counter).length()))
+                    .replace("::length-2", String.valueOf(("file-2-" + counter).length()))
                     .replace("::body-1", "file-1-" + counter)
                     .replace("::body-2", "file-2-" + counter)
                     .replace("::file", Constants.Http.BodyPart.FILE);
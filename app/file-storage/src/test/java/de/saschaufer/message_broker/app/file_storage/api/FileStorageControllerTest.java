@@ -1,23 +1,37 @@
 package de.saschaufer.message_broker.app.file_storage.api;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import de.saschaufer.message_broker.app.file_storage.config.FileStorageProperties;
 import de.saschaufer.message_broker.app.file_storage.config.FilterConfig;
+import de.saschaufer.message_broker.app.file_storage.service.ClientQuotas;
 import de.saschaufer.message_broker.app.file_storage.service.FileStorageService;
+import de.saschaufer.message_broker.app.file_storage.service.StorageLayout;
+import de.saschaufer.message_broker.app.file_storage.service.UploadAdmission;
+import de.saschaufer.message_broker.app.file_storage.service.RequestRejectedException;
+import de.saschaufer.message_broker.app.file_storage.service.dto.ChunkHashes;
 import de.saschaufer.message_broker.app.file_storage.service.dto.File;
 import de.saschaufer.message_broker.common.Constants;
 import de.saschaufer.message_broker.common.api.errorhandler.ResponseStatusException;
 import de.saschaufer.message_broker.common.api.errorhandler.dto.ErrorResponse;
+import de.saschaufer.message_broker.common.api.file_storage.dto.FileChunksResponse;
 import de.saschaufer.message_broker.common.api.file_storage.dto.FileDownload;
 import de.saschaufer.message_broker.common.api.file_storage.dto.FileDownloadRequest;
+import de.saschaufer.message_broker.common.api.file_storage.dto.FileHashesRequest;
+import de.saschaufer.message_broker.common.api.file_storage.dto.FileHashesResponse;
 import de.saschaufer.message_broker.common.api.file_storage.dto.FileUploadResponse;
 import de.saschaufer.message_broker.common.json.JsonUtils;
 import jakarta.servlet.http.Part;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
 import org.mockito.ArgumentCaptor;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.context.annotation.Import;
+import org.springframework.core.io.ByteArrayResource;
 import org.springframework.core.io.InputStreamResource;
+import org.springframework.core.io.Resource;
 import org.springframework.http.*;
 import org.springframework.http.converter.HttpMessageConversionException;
 import org.springframework.mock.web.MockHttpServletResponse;
@@ -31,6 +45,9 @@ import org.springframework.util.MultiValueMap;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.regex.Pattern;
@@ -46,7 +63,8 @@ import static org.springframework.test.web.servlet.request.MockMvcRequestBuilder
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.multipart;
 
 @WebMvcTest(controllers = FileStorageController.class)
-@Import({FilterConfig.class})
+@Import({FilterConfig.class, UploadAdmission.class, ClientQuotas.class})
+@EnableConfigurationProperties(FileStorageProperties.class)
 class FileStorageControllerTest {
 
     @Autowired
@@ -55,13 +73,16 @@ class FileStorageControllerTest {
     @MockitoBean
     private FileStorageService fileStorageService;
 
+    @MockitoBean
+    private StorageLayout storageLayout;
+
     @Test
     void postFiles_positive() throws Exception {
 
         doReturn(List.of(
-                new File("1", "file-id-1", "file-1.txt", MediaType.TEXT_PLAIN, "file-hash-1"),
-                new File("2", "file-id-2", "file-2.pdf", MediaType.APPLICATION_PDF, "file-hash-2")
-        )).when(fileStorageService).saveFiles(any(String.class), any(List.class));
+                new File("1", "file-id-1", "file-1.txt", MediaType.TEXT_PLAIN, "file-hash-1", 5, null, null, null, false, null),
+                new File("2", "file-id-2", "file-2.pdf", MediaType.APPLICATION_PDF, "file-hash-2", 5, null, null, null, false, null)
+        )).when(fileStorageService).saveFiles(any(String.class), eq("test-user-agent"), any(List.class));
 
         final MockPart mockPartFile1 = new MockPart(Constants.Http.BodyPart.FILE, "file-1.txt", "body-1".getBytes(StandardCharsets.UTF_8), MediaType.TEXT_PLAIN);
         mockPartFile1.getHeaders().add(Constants.Http.Header.FILE_ID, "1");
@@ -75,7 +96,7 @@ class FileStorageControllerTest {
 
         @SuppressWarnings("unchecked") final ArgumentCaptor<List<Part>> captorListParts = ArgumentCaptor.forClass(List.class);
 
-        verify(fileStorageService, times(1)).saveFiles(any(String.class), captorListParts.capture());
+        verify(fileStorageService, times(1)).saveFiles(any(String.class), eq("test-user-agent"), captorListParts.capture());
         verify(fileStorageService, times(0)).readFiles(any(), any());
 
         final List<Part> parts = captorListParts.getValue();
@@ -107,6 +128,7 @@ class FileStorageControllerTest {
         assertThat(fileUploadResponse.files().getFirst().id(), is("1"));
         assertThat(fileUploadResponse.files().getFirst().fileId(), is("file-id-1"));
         assertThat(fileUploadResponse.files().getFirst().fileHash(), is("file-hash-1"));
+        assertThat(fileUploadResponse.files().getFirst().fileHashMode(), is(Constants.Http.HashMode.FLAT));
 
         assertThat(fileUploadResponse.files().getLast().id(), is("2"));
         assertThat(fileUploadResponse.files().getLast().fileId(), is("file-id-2"));
@@ -117,9 +139,9 @@ class FileStorageControllerTest {
     void postFiles_positive_WithDirectoryIdAndCorrelationId() throws Exception {
 
         doReturn(List.of(
-                new File("1", "file-id-1", "file-1.txt", MediaType.TEXT_PLAIN, "file-hash-1"),
-                new File("2", "file-id-2", "file-2.pdf", MediaType.APPLICATION_PDF, "file-hash-2")
-        )).when(fileStorageService).saveFiles(any(String.class), any(List.class));
+                new File("1", "file-id-1", "file-1.txt", MediaType.TEXT_PLAIN, "file-hash-1", 5, null, null, null, false, null),
+                new File("2", "file-id-2", "file-2.pdf", MediaType.APPLICATION_PDF, "file-hash-2", 5, null, null, null, false, null)
+        )).when(fileStorageService).saveFiles(any(String.class), eq("test-user-agent"), any(List.class));
 
         final MockPart mockPartFile1 = new MockPart(Constants.Http.BodyPart.FILE, "file-1.txt", "body-1".getBytes(StandardCharsets.UTF_8), MediaType.TEXT_PLAIN);
         mockPartFile1.getHeaders().add(Constants.Http.Header.FILE_ID, "1");
@@ -135,7 +157,7 @@ class FileStorageControllerTest {
 
         @SuppressWarnings("unchecked") final ArgumentCaptor<List<Part>> captorListParts = ArgumentCaptor.forClass(List.class);
 
-        verify(fileStorageService, times(1)).saveFiles(eq("dirId"), captorListParts.capture());
+        verify(fileStorageService, times(1)).saveFiles(eq("dirId"), eq("test-user-agent"), captorListParts.capture());
         verify(fileStorageService, times(0)).readFiles(any(), any());
 
         final List<Part> parts = captorListParts.getValue();
@@ -173,6 +195,207 @@ class FileStorageControllerTest {
         assertThat(fileUploadResponse.files().getLast().fileHash(), is("file-hash-2"));
     }
 
+    @Test
+    void postFilesStreaming_positive() throws Exception {
+
+        doAnswer(invocation -> {
+            final Iterator<Part> parts = invocation.getArgument(1);
+            final List<File> files = new ArrayList<>();
+            while (parts.hasNext()) {
+                final Part part = parts.next();
+                final String body = new String(part.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+                files.add(new File(part.getHeader(Constants.Http.Header.FILE_ID), "file-id-" + body, part.getSubmittedFileName(), MediaType.valueOf(part.getContentType()), "file-hash-" + body, 5, null, null, null, false, null));
+            }
+            return files;
+        }).when(fileStorageService).saveFilesStreaming(any(String.class), eq("test-user-agent"), any(Iterator.class));
+
+        final String body = """
+                --my-boundary\r
+                Content-Disposition: form-data; name="file"; filename="file-1.txt"\r
+                Content-Type: text/plain\r
+                X-File-ID: 1\r
+                \r
+                body-1\r
+                --my-boundary\r
+                Content-Disposition: form-data; name="file"; filename="file-2.pdf"\r
+                Content-Type: application/pdf\r
+                X-File-ID: 2\r
+                \r
+                body-2\r
+                --my-boundary--\r
+                """;
+
+        //@formatter:off
+        final MvcTestResult mvcTestResult = mockMvc.post()
+                .uri(FILE_STORAGE_PATH_V1 + FileStorageApi.STREAM_PATH + "?" + Constants.Http.Query.DIRECTORY_ID + "=my%20directory")
+                .header(Constants.Http.Header.USER_AGENT, "test-user-agent")
+                .contentType(MediaType.MULTIPART_FORM_DATA_VALUE + "; boundary=my-boundary")
+                .content(body)
+                .exchange();
+        //@formatter:on
+
+        verify(fileStorageService, times(1)).saveFilesStreaming(eq("my directory"), eq("test-user-agent"), any(Iterator.class));
+        verify(fileStorageService, times(0)).saveFiles(any(), any(), any());
+
+        assertThat(mvcTestResult.getUnresolvedException(), nullValue());
+        assertThat(mvcTestResult.getMvcResult().getResolvedException(), nullValue());
+        final MockHttpServletResponse response = mvcTestResult.getResponse();
+
+        assertThat(response.getStatus(), is(HttpStatus.CREATED.value()));
+
+        final FileUploadResponse fileUploadResponse = JsonUtils.fromJson(response.getContentAsByteArray(), FileUploadResponse.class);
+        assertThat(fileUploadResponse.directoryId(), is("my directory"));
+        assertThat(fileUploadResponse.files(), hasSize(2));
+
+        assertThat(fileUploadResponse.files().getFirst().id(), is("1"));
+        assertThat(fileUploadResponse.files().getFirst().fileId(), is("file-id-body-1"));
+        assertThat(fileUploadResponse.files().getFirst().fileHash(), is("file-hash-body-1"));
+
+        assertThat(fileUploadResponse.files().getLast().id(), is("2"));
+        assertThat(fileUploadResponse.files().getLast().fileId(), is("file-id-body-2"));
+        assertThat(fileUploadResponse.files().getLast().fileHash(), is("file-hash-body-2"));
+    }
+
+    @Test
+    void postFilesStreaming_negative_MalformedBody() throws IOException {
+
+        doAnswer(invocation -> {
+            final Iterator<Part> parts = invocation.getArgument(1);
+            parts.hasNext();
+            return List.of();
+        }).when(fileStorageService).saveFilesStreaming(any(String.class), eq("test-user-agent"), any(Iterator.class));
+
+        //@formatter:off
+        final MvcTestResult mvcTestResult = mockMvc.post()
+                .uri(FILE_STORAGE_PATH_V1 + FileStorageApi.STREAM_PATH)
+                .header(Constants.Http.Header.USER_AGENT, "test-user-agent")
+                .contentType(MediaType.MULTIPART_FORM_DATA_VALUE + "; boundary=my-boundary")
+                .content("--my-boundary\r\nContent-Disposition: form-data; name=\"file\"")
+                .exchange();
+        //@formatter:on
+
+        assertThat(mvcTestResult.getUnresolvedException(), nullValue());
+        assertThat(mvcTestResult.getMvcResult().getResolvedException(), instanceOf(ResponseStatusException.class));
+
+        final ResponseStatusException e = (ResponseStatusException) mvcTestResult.getMvcResult().getResolvedException();
+
+        assertThat(e.getStatusCode(), is(HttpStatus.BAD_REQUEST));
+        assertThat(e.getMessage(), is("Malformed multipart request."));
+
+        final MockHttpServletResponse response = mvcTestResult.getResponse();
+        assertThat(response.getStatus(), is(HttpStatus.BAD_REQUEST.value()));
+
+        final ErrorResponse errorResponse = new ObjectMapper().readValue(response.getContentAsByteArray(), ErrorResponse.class);
+
+        assertThat(errorResponse.error(), is("Malformed multipart request."));
+        assertThat(errorResponse.additionalDetails().get("error"), is("Unexpected end of multipart stream."));
+    }
+
+    @Test
+    void postFile_positive() throws Exception {
+
+        doAnswer(invocation -> {
+            final Part part = invocation.getArgument(1);
+            final String body = new String(part.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+            return new File(part.getHeader(Constants.Http.Header.FILE_ID), "file-id-" + body, part.getSubmittedFileName(), MediaType.valueOf(part.getContentType()), "file-hash-" + body, 5, null, null, null, false, null);
+        }).when(fileStorageService).saveFile(any(String.class), eq("test-user-agent"), any(Part.class));
+
+        //@formatter:off
+        final MvcTestResult mvcTestResult = mockMvc.post()
+                .uri(FILE_STORAGE_PATH_V1 + FileStorageApi.RAW_PATH + "?" + Constants.Http.Query.DIRECTORY_ID + "=my%20directory")
+                .header(Constants.Http.Header.USER_AGENT, "test-user-agent")
+                .header(Constants.Http.Header.FILE_ID, "1")
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"file-1.txt\"")
+                .contentType(MediaType.TEXT_PLAIN)
+                .content("body-1")
+                .exchange();
+        //@formatter:on
+
+        verify(fileStorageService, times(1)).saveFile(eq("my directory"), eq("test-user-agent"), any(Part.class));
+
+        assertThat(mvcTestResult.getUnresolvedException(), nullValue());
+        assertThat(mvcTestResult.getMvcResult().getResolvedException(), nullValue());
+        final MockHttpServletResponse response = mvcTestResult.getResponse();
+
+        assertThat(response.getStatus(), is(HttpStatus.CREATED.value()));
+
+        final FileUploadResponse fileUploadResponse = JsonUtils.fromJson(response.getContentAsByteArray(), FileUploadResponse.class);
+        assertThat(fileUploadResponse.directoryId(), is("my directory"));
+        assertThat(fileUploadResponse.files(), hasSize(1));
+        assertThat(fileUploadResponse.files().getFirst().id(), is("1"));
+        assertThat(fileUploadResponse.files().getFirst().fileId(), is("file-id-body-1"));
+        assertThat(fileUploadResponse.files().getFirst().fileHash(), is("file-hash-body-1"));
+    }
+
+    @Test
+    void postFile_negative_UploadRejected() throws Exception {
+
+        doThrow(new RequestRejectedException(HttpStatus.SERVICE_UNAVAILABLE, "Too many concurrent uploads.", Map.of("limit", "4"), Duration.ofSeconds(5))).when(fileStorageService).saveFile(any(String.class), eq("test-user-agent"), any(Part.class));
+
+        //@formatter:off
+        final MvcTestResult mvcTestResult = mockMvc.post()
+                .uri(FILE_STORAGE_PATH_V1 + FileStorageApi.RAW_PATH)
+                .header(Constants.Http.Header.USER_AGENT, "test-user-agent")
+                .contentType(MediaType.TEXT_PLAIN)
+                .content("body-1")
+                .exchange();
+        //@formatter:on
+
+        final MockHttpServletResponse response = mvcTestResult.getResponse();
+
+        assertThat(response.getStatus(), is(HttpStatus.SERVICE_UNAVAILABLE.value()));
+        assertThat(response.getHeader(HttpHeaders.RETRY_AFTER), is("5"));
+
+        final ErrorResponse errorResponse = JsonUtils.fromJson(response.getContentAsByteArray(), ErrorResponse.class);
+        assertThat(errorResponse.error(), is("Too many concurrent uploads."));
+        assertThat(errorResponse.additionalDetails(), is(Map.of("limit", "4")));
+    }
+
+    @Test
+    void postHashes_positive() throws Exception {
+
+        doReturn(List.of("ab")).when(fileStorageService).findKnownHashes(List.of("ab", "cd"), null, "test-user-agent");
+
+        //@formatter:off
+        final MvcTestResult mvcTestResult = mockMvc.post()
+                .uri(FILE_STORAGE_PATH_V1 + FileStorageApi.HASHES_PATH)
+                .header(Constants.Http.Header.USER_AGENT, "test-user-agent")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(JsonUtils.toJson(new FileHashesRequest(List.of("ab", "cd"), null)))
+                .exchange();
+        //@formatter:on
+
+        assertThat(mvcTestResult.getUnresolvedException(), nullValue());
+        assertThat(mvcTestResult.getMvcResult().getResolvedException(), nullValue());
+        final MockHttpServletResponse response = mvcTestResult.getResponse();
+
+        assertThat(response.getStatus(), is(HttpStatus.OK.value()));
+
+        final FileHashesResponse fileHashesResponse = JsonUtils.fromJson(response.getContentAsByteArray(), FileHashesResponse.class);
+        assertThat(fileHashesResponse.known(), contains("ab"));
+    }
+
+    @Test
+    void postHashes_negative_MissingHashes() throws Exception {
+
+        //@formatter:off
+        final MvcTestResult mvcTestResult = mockMvc.post()
+                .uri(FILE_STORAGE_PATH_V1 + FileStorageApi.HASHES_PATH)
+                .header(Constants.Http.Header.USER_AGENT, "test-user-agent")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{}")
+                .exchange();
+        //@formatter:on
+
+        verify(fileStorageService, times(0)).findKnownHashes(any(), any(), any());
+
+        final MockHttpServletResponse response = mvcTestResult.getResponse();
+        assertThat(response.getStatus(), is(HttpStatus.BAD_REQUEST.value()));
+
+        final ErrorResponse errorResponse = new ObjectMapper().readValue(response.getContentAsByteArray(), ErrorResponse.class);
+        assertThat(errorResponse.error(), is("Missing hashes."));
+    }
+
     @Test
     void postFiles_negative_BodyIsNotAMultipart() throws IOException {
 
@@ -185,7 +408,7 @@ class FileStorageControllerTest {
                 .exchange();
         //@formatter:on
 
-        verify(fileStorageService, times(0)).saveFiles(any(), any());
+        verify(fileStorageService, times(0)).saveFiles(any(), any(), any());
         verify(fileStorageService, times(0)).readFiles(any(), any());
 
         assertThat(mvcTestResult.getUnresolvedException(), nullValue());
@@ -220,7 +443,7 @@ class FileStorageControllerTest {
                 .part(mockPartFile1)
         );
 
-        verify(fileStorageService, times(0)).saveFiles(any(), any());
+        verify(fileStorageService, times(0)).saveFiles(any(), any(), any());
         verify(fileStorageService, times(0)).readFiles(any(), any());
 
         assertThat(mvcTestResult.getUnresolvedException(), nullValue());
@@ -256,7 +479,7 @@ class FileStorageControllerTest {
                 .header(Constants.Http.Header.USER_AGENT, "")
         );
 
-        verify(fileStorageService, times(0)).saveFiles(any(), any());
+        verify(fileStorageService, times(0)).saveFiles(any(), any(), any());
         verify(fileStorageService, times(0)).readFiles(any(), any());
 
         assertThat(mvcTestResult.getUnresolvedException(), nullValue());
@@ -293,7 +516,7 @@ class FileStorageControllerTest {
                 .param(Constants.Http.Query.DIRECTORY_ID, "")
         );
 
-        verify(fileStorageService, times(0)).saveFiles(any(), any());
+        verify(fileStorageService, times(0)).saveFiles(any(), any(), any());
         verify(fileStorageService, times(0)).readFiles(any(), any());
 
         assertThat(mvcTestResult.getUnresolvedException(), nullValue());
@@ -318,10 +541,32 @@ class FileStorageControllerTest {
         assertThat(errorResponse.additionalDetails(), anEmptyMap());
     }
 
+    @ParameterizedTest
+    @ValueSource(strings = {".blobs", "..", "a/b", "a\\b"})
+    void postFiles_negative_InvalidParameterDirectoryId(final String directoryId) {
+
+        final MockPart mockPartFile1 = new MockPart(Constants.Http.BodyPart.FILE, "file-1.txt", "body-1".getBytes(StandardCharsets.UTF_8), MediaType.TEXT_PLAIN);
+        mockPartFile1.getHeaders().add(Constants.Http.Header.FILE_ID, "1");
+
+        final MvcTestResult mvcTestResult = mockMvc.perform(multipart(FILE_STORAGE_PATH_V1)
+                .part(mockPartFile1)
+                .header(Constants.Http.Header.USER_AGENT, "test-user-agent")
+                .param(Constants.Http.Query.DIRECTORY_ID, directoryId)
+        );
+
+        verify(fileStorageService, times(0)).saveFiles(any(), any(), any());
+
+        final ResponseStatusException e = (ResponseStatusException) mvcTestResult.getMvcResult().getResolvedException();
+
+        assertThat(e.getStatusCode(), is(HttpStatus.BAD_REQUEST));
+        assertThat(e.getMessage(), is(String.format("Parameter '%s' must not start with '.' or contain path separators.", Constants.Http.Query.DIRECTORY_ID)));
+        assertThat(e.getAdditionalDetails(), is(Map.of("directoryId", directoryId)));
+    }
+
     @Test
     void postFiles_negative_SaveFilesThrowsError() throws IOException {
 
-        doThrow(new ResponseStatusException(HttpStatus.BAD_REQUEST, "Error", Map.of("a", "b"))).when(fileStorageService).saveFiles(any(), any());
+        doThrow(new ResponseStatusException(HttpStatus.BAD_REQUEST, "Error", Map.of("a", "b"))).when(fileStorageService).saveFiles(any(), any(), any());
 
         final MockPart mockPartFile1 = new MockPart(Constants.Http.BodyPart.FILE, "file-1.txt", "body-1".getBytes(StandardCharsets.UTF_8), MediaType.TEXT_PLAIN);
         mockPartFile1.getHeaders().add(Constants.Http.Header.FILE_ID, "1");
@@ -332,7 +577,7 @@ class FileStorageControllerTest {
                 .param(Constants.Http.Query.DIRECTORY_ID, "dirId")
         );
 
-        verify(fileStorageService, times(1)).saveFiles(any(), any());
+        verify(fileStorageService, times(1)).saveFiles(any(), any(), any());
         verify(fileStorageService, times(0)).readFiles(any(), any());
 
         assertThat(mvcTestResult.getUnresolvedException(), nullValue());
@@ -376,7 +621,7 @@ class FileStorageControllerTest {
                 ))))
         );
 
-        verify(fileStorageService, times(0)).saveFiles(any(), any());
+        verify(fileStorageService, times(0)).saveFiles(any(), any(), any());
         verify(fileStorageService, times(1)).readFiles("dirId", List.of(
                 new FileDownload("1", "file-id-1"),
                 new FileDownload("2", "file-id-2")
@@ -412,6 +657,24 @@ class FileStorageControllerTest {
         assertThat(pattern.matcher(response.getContentAsString()).matches(), is(true));
     }
 
+    @ParameterizedTest
+    @ValueSource(strings = {"", ".blobs", "..", "a/b", "a\\b"})
+    void getFiles_negative_InvalidDirectoryId(final String directoryId) throws IOException {
+
+        final MvcTestResult mvcTestResult = mockMvc.perform(get(FILE_STORAGE_PATH_V1)
+                .contentType(MediaType.APPLICATION_JSON)
+                .header(Constants.Http.Header.USER_AGENT, "test-user-agent")
+                .content(JsonUtils.toJson(new FileDownloadRequest(directoryId, List.of(new FileDownload("1", "file-id-1")))))
+        );
+
+        verify(fileStorageService, times(0)).readFiles(any(), any());
+
+        final ResponseStatusException e = (ResponseStatusException) mvcTestResult.getMvcResult().getResolvedException();
+
+        assertThat(e.getStatusCode(), is(HttpStatus.BAD_REQUEST));
+        assertThat(mvcTestResult.getResponse().getStatus(), is(HttpStatus.BAD_REQUEST.value()));
+    }
+
     @Test
     void getFiles_negative_BodyIsNotAFileDownloadRequest() throws IOException {
 
@@ -421,7 +684,7 @@ class FileStorageControllerTest {
                 .content("Wrong".getBytes(StandardCharsets.UTF_8))
         );
 
-        verify(fileStorageService, times(0)).saveFiles(any(), any());
+        verify(fileStorageService, times(0)).saveFiles(any(), any(), any());
         verify(fileStorageService, times(0)).readFiles(any(), any());
 
         assertThat(mvcTestResult.getUnresolvedException(), nullValue());
@@ -456,7 +719,7 @@ class FileStorageControllerTest {
                 ))))
         );
 
-        verify(fileStorageService, times(0)).saveFiles(any(), any());
+        verify(fileStorageService, times(0)).saveFiles(any(), any(), any());
         verify(fileStorageService, times(0)).readFiles(any(), any());
 
         assertThat(mvcTestResult.getUnresolvedException(), nullValue());
@@ -493,7 +756,7 @@ class FileStorageControllerTest {
                 ))))
         );
 
-        verify(fileStorageService, times(0)).saveFiles(any(), any());
+        verify(fileStorageService, times(0)).saveFiles(any(), any(), any());
         verify(fileStorageService, times(0)).readFiles(any(), any());
 
         assertThat(mvcTestResult.getUnresolvedException(), nullValue());
@@ -532,7 +795,7 @@ class FileStorageControllerTest {
                 ))))
         );
 
-        verify(fileStorageService, times(0)).saveFiles(any(), any());
+        verify(fileStorageService, times(0)).saveFiles(any(), any(), any());
         verify(fileStorageService, times(1)).readFiles(any(), any());
 
         assertThat(mvcTestResult.getUnresolvedException(), nullValue());
@@ -559,6 +822,177 @@ class FileStorageControllerTest {
         assertThat(errorResponse.additionalDetails().get("a"), is("b"));
     }
 
+    @Test
+    void getFile_positive() throws Exception {
+
+        doReturn(createFileHttpEntity()).when(fileStorageService).readFile("dirId", "file-id-1", null);
+
+        final MvcTestResult mvcTestResult = mockMvc.perform(get(FILE_STORAGE_PATH_V1 + "/dirId/file-id-1")
+                .header(Constants.Http.Header.USER_AGENT, "test-user-agent")
+        );
+
+        verify(fileStorageService, times(1)).readFile("dirId", "file-id-1", null);
+
+        assertThat(mvcTestResult.getUnresolvedException(), nullValue());
+        assertThat(mvcTestResult.getMvcResult().getResolvedException(), nullValue());
+
+        final MockHttpServletResponse response = mvcTestResult.getResponse();
+        assertThat(response.getStatus(), is(HttpStatus.OK.value()));
+        assertThat(response.getHeader(Constants.Http.Header.CORRELATION_ID), notNullValue());
+        assertThat(response.getHeader(HttpHeaders.ETAG), is("\"file-1-hash\""));
+        assertThat(response.getHeader(HttpHeaders.ACCEPT_RANGES), is("bytes"));
+        assertThat(response.getContentType(), is(MediaType.TEXT_PLAIN_VALUE));
+        assertThat(response.getContentAsString(), is("body-1"));
+    }
+
+    @Test
+    void getChunks_positive() throws Exception {
+
+        doReturn(new ChunkHashes(4, List.of("ab", "cd"))).when(fileStorageService).readChunkHashes("dirId", "file-id-1");
+
+        final MvcTestResult mvcTestResult = mockMvc.perform(get(FILE_STORAGE_PATH_V1 + "/dirId/file-id-1/chunks")
+                .header(Constants.Http.Header.USER_AGENT, "test-user-agent")
+        );
+
+        assertThat(mvcTestResult.getUnresolvedException(), nullValue());
+        assertThat(mvcTestResult.getMvcResult().getResolvedException(), nullValue());
+        final MockHttpServletResponse response = mvcTestResult.getResponse();
+
+        assertThat(response.getStatus(), is(HttpStatus.OK.value()));
+
+        final FileChunksResponse fileChunksResponse = JsonUtils.fromJson(response.getContentAsByteArray(), FileChunksResponse.class);
+        assertThat(fileChunksResponse.chunkSize(), is(4L));
+        assertThat(fileChunksResponse.chunkHashes(), contains("ab", "cd"));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {".blobs", ".packs", ".0a", "a\\b"})
+    void getFile_negative_InvalidDirectoryId(final String directoryId) {
+
+        final MvcTestResult mvcTestResult = mockMvc.perform(get(FILE_STORAGE_PATH_V1 + "/{directoryId}/file-id-1", directoryId)
+                .header(Constants.Http.Header.USER_AGENT, "test-user-agent")
+        );
+
+        verify(fileStorageService, times(0)).readFile(any(), any(), any());
+
+        final ResponseStatusException e = (ResponseStatusException) mvcTestResult.getMvcResult().getResolvedException();
+
+        assertThat(e.getStatusCode(), is(HttpStatus.BAD_REQUEST));
+        assertThat(e.getMessage(), is(String.format("Parameter '%s' must not start with '.' or contain path separators.", Constants.Http.Query.DIRECTORY_ID)));
+        assertThat(e.getAdditionalDetails(), is(Map.of("directoryId", directoryId)));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {".blobs", ".packs", ".0a", "a\\b"})
+    void getChunks_negative_InvalidDirectoryId(final String directoryId) {
+
+        final MvcTestResult mvcTestResult = mockMvc.perform(get(FILE_STORAGE_PATH_V1 + "/{directoryId}/file-id-1/chunks", directoryId)
+                .header(Constants.Http.Header.USER_AGENT, "test-user-agent")
+        );
+
+        verify(fileStorageService, times(0)).readChunkHashes(any(), any());
+
+        final ResponseStatusException e = (ResponseStatusException) mvcTestResult.getMvcResult().getResolvedException();
+
+        assertThat(e.getStatusCode(), is(HttpStatus.BAD_REQUEST));
+        assertThat(e.getAdditionalDetails(), is(Map.of("directoryId", directoryId)));
+    }
+
+    @Test
+    void getFile_positive_Range() throws Exception {
+
+        doReturn(createFileHttpEntity()).when(fileStorageService).readFile("dirId", "file-id-1", null);
+
+        final MvcTestResult mvcTestResult = mockMvc.perform(get(FILE_STORAGE_PATH_V1 + "/dirId/file-id-1")
+                .header(Constants.Http.Header.USER_AGENT, "test-user-agent")
+                .header(HttpHeaders.RANGE, "bytes=2-")
+        );
+
+        assertThat(mvcTestResult.getUnresolvedException(), nullValue());
+
+        final MockHttpServletResponse response = mvcTestResult.getResponse();
+        assertThat(response.getStatus(), is(HttpStatus.PARTIAL_CONTENT.value()));
+        assertThat(response.getHeader(HttpHeaders.CONTENT_RANGE), is("bytes 2-5/6"));
+        assertThat(response.getContentAsString(), is("dy-1"));
+    }
+
+    @Test
+    void getFile_positive_NotModified() throws Exception {
+
+        doReturn(createFileHttpEntity()).when(fileStorageService).readFile("dirId", "file-id-1", null);
+
+        final MvcTestResult mvcTestResult = mockMvc.perform(get(FILE_STORAGE_PATH_V1 + "/dirId/file-id-1")
+                .header(Constants.Http.Header.USER_AGENT, "test-user-agent")
+                .header(HttpHeaders.IF_NONE_MATCH, "\"file-1-hash\"")
+        );
+
+        assertThat(mvcTestResult.getUnresolvedException(), nullValue());
+
+        final MockHttpServletResponse response = mvcTestResult.getResponse();
+        assertThat(response.getStatus(), is(HttpStatus.NOT_MODIFIED.value()));
+        assertThat(response.getContentAsByteArray().length, is(0));
+    }
+
+    @Test
+    void getArchive_positive() throws Exception {
+
+        doReturn(List.of()).when(fileStorageService).readArchiveEntries("dirId", List.of("file-id-1"));
+
+        final MvcTestResult mvcTestResult = mockMvc.perform(get(FILE_STORAGE_PATH_V1 + "/dirId")
+                .header(Constants.Http.Header.USER_AGENT, "test-user-agent")
+                .queryParam(Constants.Http.Query.FILE_ID, "file-id-1")
+                .queryParam(Constants.Http.Query.FORMAT, "tar.gz")
+        );
+
+        verify(fileStorageService, times(1)).readArchiveEntries("dirId", List.of("file-id-1"));
+
+        assertThat(mvcTestResult.getUnresolvedException(), nullValue());
+        assertThat(mvcTestResult.getMvcResult().getRequest().isAsyncStarted(), is(true));
+    }
+
+    @Test
+    void getArchive_negative_UnknownFormat() {
+
+        final MvcTestResult mvcTestResult = mockMvc.perform(get(FILE_STORAGE_PATH_V1 + "/dirId")
+                .header(Constants.Http.Header.USER_AGENT, "test-user-agent")
+                .queryParam(Constants.Http.Query.FORMAT, "rar")
+        );
+
+        verify(fileStorageService, times(0)).readArchiveEntries(any(), any());
+
+        assertThat(mvcTestResult.getUnresolvedException(), nullValue());
+        assertThat(mvcTestResult.getMvcResult().getResolvedException(), instanceOf(ResponseStatusException.class));
+        assertThat(mvcTestResult.getResponse().getStatus(), is(HttpStatus.BAD_REQUEST.value()));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {".blobs", ".packs", ".0a", "a\\b"})
+    void getArchive_negative_InvalidDirectoryId(final String directoryId) {
+
+        final MvcTestResult mvcTestResult = mockMvc.perform(get(FILE_STORAGE_PATH_V1 + "/{directoryId}", directoryId)
+                .header(Constants.Http.Header.USER_AGENT, "test-user-agent")
+                .queryParam(Constants.Http.Query.FORMAT, "zip")
+        );
+
+        verify(fileStorageService, times(0)).readArchiveEntries(any(), any());
+
+        final ResponseStatusException e = (ResponseStatusException) mvcTestResult.getMvcResult().getResolvedException();
+
+        assertThat(e.getStatusCode(), is(HttpStatus.BAD_REQUEST));
+        assertThat(e.getAdditionalDetails(), is(Map.of("directoryId", directoryId)));
+        assertThat(mvcTestResult.getResponse().getHeader(HttpHeaders.CONTENT_DISPOSITION), nullValue());
+    }
+
+    private HttpEntity<Resource> createFileHttpEntity() {
+
+        final HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.TEXT_PLAIN);
+        headers.setETag("\"file-1-hash\"");
+        headers.set(Constants.Http.Header.FILE_HASH, "file-1-hash");
+
+        return new HttpEntity<>(new ByteArrayResource("body-1".getBytes(StandardCharsets.UTF_8)), headers);
+    }
+
     private HttpEntity<InputStreamResource> createHttpEntity(final String id, final String filename, final MediaType mediaType, final String fileHash, final byte[] content) {
 
         final ContentDisposition contentDisposition = ContentDisposition
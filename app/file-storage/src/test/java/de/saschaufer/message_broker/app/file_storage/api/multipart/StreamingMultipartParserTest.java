@@ -0,0 +1,156 @@
+package de.saschaufer.message_broker.app.file_storage.api.multipart;
+
+import de.saschaufer.message_broker.common.api.errorhandler.ResponseStatusException;
+import jakarta.servlet.http.Part;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.http.HttpStatus;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class StreamingMultipartParserTest {
+
+    private static final String BOUNDARY = "test-boundary";
+    // The size of the parser's buffer
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    @Test
+    void next_positive_LargeParts() throws IOException {
+
+        final byte[] content1 = random(300_000, 1);
+        final byte[] content2 = random(BUFFER_SIZE * 2 + 17, 2);
+
+        final List<Part> parts = new ArrayList<>();
+        final List<byte[]> contents = new ArrayList<>();
+        final StreamingMultipartParser parser = new StreamingMultipartParser(new ByteArrayInputStream(body(content1, content2)), BOUNDARY, Long.MAX_VALUE);
+        while (parser.hasNext()) {
+            final Part part = parser.next();
+            parts.add(part);
+            contents.add(part.getInputStream().readAllBytes());
+        }
+
+        assertThat(parts.size(), is(2));
+        assertThat(parts.get(0).getName(), is("file"));
+        assertThat(parts.get(0).getSubmittedFileName(), is("0.bin"));
+        assertThat(parts.get(1).getSubmittedFileName(), is("1.bin"));
+        assertThat(parts.get(1).getContentType(), is("application/octet-stream"));
+        assertThat(contents.get(0), is(content1));
+        assertThat(contents.get(1), is(content2));
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {7, 4096, BUFFER_SIZE})
+    void next_positive_DelimiterAtBufferEdge(final int chunkSize) throws IOException {
+
+        // Parts of sizes around the buffer size put the delimiter before, across and after the end of the buffer
+        for (int size = BUFFER_SIZE - 200; size <= BUFFER_SIZE + 50; size++) {
+
+            final byte[] content1 = random(size, size);
+            final byte[] content2 = random(size % 100, size + 1);
+
+            final List<byte[]> contents = parse(new ChunkedInputStream(body(content1, content2), chunkSize));
+
+            assertThat("size " + size, contents.size(), is(2));
+            assertThat("size " + size, contents.get(0), is(content1));
+            assertThat("size " + size, contents.get(1), is(content2));
+        }
+    }
+
+    @Test
+    void next_positive_ContentResemblingDelimiter() throws IOException {
+
+        // Prefixes of the delimiter in the content must not end the part, also when they end at the edge of the buffer
+        final byte[] prefix = ("\r\n--" + BOUNDARY.substring(0, BOUNDARY.length() - 1)).getBytes(StandardCharsets.ISO_8859_1);
+        final ByteArrayOutputStream content = new ByteArrayOutputStream();
+        while (content.size() < BUFFER_SIZE * 3) {
+            content.write(prefix);
+            content.write(random(1000, content.size()));
+        }
+        final byte[] content1 = content.toByteArray();
+
+        final List<byte[]> contents = parse(new ChunkedInputStream(body(content1), 4093));
+
+        assertThat(contents.size(), is(1));
+        assertThat(contents.getFirst(), is(content1));
+    }
+
+    @Test
+    void next_negative_PartTooLarge() {
+
+        final StreamingMultipartParser parser = new StreamingMultipartParser(new ByteArrayInputStream(body(random(BUFFER_SIZE + 1, 1))), BOUNDARY, BUFFER_SIZE);
+
+        final ResponseStatusException e = assertThrows(ResponseStatusException.class, () -> parser.next().getInputStream().readAllBytes());
+
+        assertThat(e.getStatusCode(), is(HttpStatus.CONTENT_TOO_LARGE));
+    }
+
+    @Test
+    void next_negative_MissingCloseDelimiter() {
+
+        final byte[] body = body(random(BUFFER_SIZE * 2, 1));
+        final byte[] truncated = Arrays.copyOf(body, body.length - 10);
+
+        final IOException e = assertThrows(IOException.class, () -> parse(new ByteArrayInputStream(truncated)));
+
+        assertThat(e.getMessage(), is("Unexpected end of multipart stream."));
+    }
+
+    private static List<byte[]> parse(final InputStream inputStream) throws IOException {
+        final List<byte[]> contents = new ArrayList<>();
+        final StreamingMultipartParser parser = new StreamingMultipartParser(inputStream, BOUNDARY, Long.MAX_VALUE);
+        while (parser.hasNext()) {
+            contents.add(parser.next().getInputStream().readAllBytes());
+        }
+        return contents;
+    }
+
+    private static byte[] body(final byte[]... contents) {
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        for (int i = 0; i < contents.length; i++) {
+            body.writeBytes(("--" + BOUNDARY + "\r\n"
+                    + "Content-Disposition: form-data; name=\"file\"; filename=\"" + i + ".bin\"\r\n"
+                    + "Content-Type: application/octet-stream\r\n"
+                    + "\r\n").getBytes(StandardCharsets.ISO_8859_1));
+            body.writeBytes(contents[i]);
+            body.writeBytes("\r\n".getBytes(StandardCharsets.ISO_8859_1));
+        }
+        body.writeBytes(("--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.ISO_8859_1));
+        return body.toByteArray();
+    }
+
+    private static byte[] random(final int size, final long seed) {
+        final byte[] bytes = new byte[size];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+
+    // Hands out the body in chunks of at most the given size, like a slow network would
+    private static class ChunkedInputStream extends FilterInputStream {
+
+        private final int chunkSize;
+
+        private ChunkedInputStream(final byte[] bytes, final int chunkSize) {
+            super(new ByteArrayInputStream(bytes));
+            this.chunkSize = chunkSize;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            return super.read(b, off, Math.min(len, chunkSize));
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package de.saschaufer.message_broker.app.file_storage.config;
+
+import java.nio.file.Path;
+
+// Properties of a test, everything not set falls back to the defaults of the records
+public final class FileStoragePropertiesBuilder {
+
+    private final Path path;
+    private Integer lockStripes;
+    private FileStorageProperties.Journal journal;
+    private FileStorageProperties.MetadataCache metadataCache;
+    private FileStorageProperties.DownloadTracking downloadTracking;
+    private FileStorageProperties.Upload upload;
+    private FileStorageProperties.Io io;
+    private FileStorageProperties.Dedup dedup;
+    private FileStorageProperties.Download download;
+    private FileStorageProperties.ContentCache contentCache;
+    private FileStorageProperties.Retention retention;
+    private FileStorageProperties.Recovery recovery;
+    private FileStorageProperties.Layout layout;
+    private FileStorageProperties.Placement placement;
+    private FileStorageProperties.Backend backend;
+    private FileStorageProperties.Packing packing;
+    private FileStorageProperties.Compression compression;
+    private FileStorageProperties.Hashing hashing;
+    private FileStorageProperties.Admission admission;
+    private FileStorageProperties.Quota quota;
+
+    private FileStoragePropertiesBuilder(final Path path) {
+        this.path = path;
+    }
+
+    public static FileStoragePropertiesBuilder properties(final Path path) {
+        return new FileStoragePropertiesBuilder(path);
+    }
+
+    public FileStoragePropertiesBuilder lockStripes(final Integer lockStripes) {
+        this.lockStripes = lockStripes;
+        return this;
+    }
+
+    public FileStoragePropertiesBuilder journal(final FileStorageProperties.Journal journal) {
+        this.journal = journal;
+        return this;
+    }
+
+    public FileStoragePropertiesBuilder metadataCache(final FileStorageProperties.MetadataCache metadataCache) {
+        this.metadataCache = metadataCache;
+        return this;
+    }
+
+    public FileStoragePropertiesBuilder downloadTracking(final FileStorageProperties.DownloadTracking downloadTracking) {
+        this.downloadTracking = downloadTracking;
+        return this;
+    }
+
+    public FileStoragePropertiesBuilder upload(final FileStorageProperties.Upload upload) {
+        this.upload = upload;
+        return this;
+    }
+
+    public FileStoragePropertiesBuilder io(final FileStorageProperties.Io io) {
+        this.io = io;
+        return this;
+    }
+
+    public FileStoragePropertiesBuilder dedup(final FileStorageProperties.Dedup dedup) {
+        this.dedup = dedup;
+        return this;
+    }
+
+    public FileStoragePropertiesBuilder download(final FileStorageProperties.Download download) {
+        this.download = download;
+        return this;
+    }
+
+    public FileStoragePropertiesBuilder contentCache(final FileStorageProperties.ContentCache contentCache) {
+        this.contentCache = contentCache;
+        return this;
+    }
+
+    public FileStoragePropertiesBuilder retention(final FileStorageProperties.Retention retention) {
+        this.retention = retention;
+        return this;
+    }
+
+    public FileStoragePropertiesBuilder recovery(final FileStorageProperties.Recovery recovery) {
+        this.recovery = recovery;
+        return this;
+    }
+
+    public FileStoragePropertiesBuilder layout(final FileStorageProperties.Layout layout) {
+        this.layout = layout;
+        return this;
+    }
+
+    public FileStoragePropertiesBuilder placement(final FileStorageProperties.Placement placement) {
+        this.placement = placement;
+        return this;
+    }
+
+    public FileStoragePropertiesBuilder backend(final FileStorageProperties.Backend backend) {
+        this.backend = backend;
+        return this;
+    }
+
+    public FileStoragePropertiesBuilder packing(final FileStorageProperties.Packing packing) {
+        this.packing = packing;
+        return this;
+    }
+
+    public FileStoragePropertiesBuilder compression(final FileStorageProperties.Compression compression) {
+        this.compression = compression;
+        return this;
+    }
+
+    public FileStoragePropertiesBuilder hashing(final FileStorageProperties.Hashing hashing) {
+        this.hashing = hashing;
+        return this;
+    }
+
+    public FileStoragePropertiesBuilder admission(final FileStorageProperties.Admission admission) {
+        this.admission = admission;
+        return this;
+    }
+
+    public FileStoragePropertiesBuilder quota(final FileStorageProperties.Quota quota) {
+        this.quota = quota;
+        return this;
+    }
+
+    public FileStorageProperties build() {
+        return new FileStorageProperties(path, lockStripes, journal, metadataCache, downloadTracking, upload, io, dedup, download, contentCache, retention, recovery, layout, placement, backend, packing, compression, hashing, admission, quota);
+    }
+}
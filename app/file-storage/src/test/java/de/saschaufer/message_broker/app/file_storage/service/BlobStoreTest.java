@@ -0,0 +1,128 @@
+package de.saschaufer.message_broker.app.file_storage.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static de.saschaufer.message_broker.app.file_storage.config.FileStoragePropertiesBuilder.properties;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+class BlobStoreTest {
+
+    private static final String BLOB = "abcdef";
+
+    @TempDir
+    private Path tempDir;
+
+    private BlobStore blobStore;
+
+    @BeforeEach
+    void beforeEach() {
+        blobStore = new BlobStore(properties(tempDir).build());
+    }
+
+    @Test
+    void store_positive_StoresContentOnce() throws IOException {
+
+        blobStore.store(Files.writeString(tempDir.resolve("1.TMP"), "test"), BLOB, 4, "client-1");
+        blobStore.store(Files.writeString(tempDir.resolve("2.TMP"), "test"), BLOB, 4, "client-1");
+
+        assertThat(blobStore.getPath(BLOB), is(tempDir.resolve(BlobStore.BLOBS_DIRECTORY).resolve("ab").resolve(BLOB)));
+        assertThat(Files.readString(blobStore.getPath(BLOB)), is("test"));
+        assertThat(blobStore.references(BLOB), is(2));
+        assertThat(Files.exists(tempDir.resolve("1.TMP")), is(false));
+        assertThat(Files.exists(tempDir.resolve("2.TMP")), is(false));
+    }
+
+    @Test
+    void link_positive_OnlyClientsThatUploaded() throws IOException {
+
+        blobStore.store(Files.writeString(tempDir.resolve("1.TMP"), "test"), BLOB, 4, "client-1");
+
+        assertThat(blobStore.owns(BLOB, "client-1"), is(true));
+        assertThat(blobStore.owns(BLOB, "client-2"), is(false));
+        assertThat(blobStore.link(BLOB, "client-2"), is(-1L));
+        assertThat(blobStore.references(BLOB), is(1));
+
+        assertThat(blobStore.link(BLOB, "client-1"), is(4L));
+        assertThat(blobStore.references(BLOB), is(2));
+
+        // Uploading the content proves holding it
+        blobStore.store(Files.writeString(tempDir.resolve("2.TMP"), "test"), BLOB, 4, "client-2");
+
+        assertThat(blobStore.link(BLOB, "client-2"), is(4L));
+        assertThat(blobStore.references(BLOB), is(4));
+    }
+
+    @Test
+    void link_negative_ReferencesWithoutClients() throws IOException {
+
+        blobStore.store(Files.writeString(tempDir.resolve("1.TMP"), "test"), BLOB, 4, "client-1");
+
+        // Written before the size and the clients were recorded
+        Files.writeString(blobStore.getPath(BLOB).resolveSibling(BLOB + BlobStore.REFS_SUFFIX), "1");
+
+        assertThat(blobStore.references(BLOB), is(1));
+        assertThat(blobStore.owns(BLOB, "client-1"), is(false));
+        assertThat(blobStore.link(BLOB, "client-1"), is(-1L));
+
+        blobStore.store(Files.writeString(tempDir.resolve("2.TMP"), "test"), BLOB, 4, "client-1");
+
+        assertThat(blobStore.link(BLOB, "client-1"), is(4L));
+        assertThat(blobStore.references(BLOB), is(3));
+    }
+
+    @Test
+    void release_positive_DeletesBlobWithoutReferences() throws IOException {
+
+        blobStore.store(Files.writeString(tempDir.resolve("1.TMP"), "test"), BLOB, 4, "client-1");
+        blobStore.store(Files.writeString(tempDir.resolve("2.TMP"), "test"), BLOB, 4, "client-1");
+
+        blobStore.release(BLOB);
+
+        assertThat(Files.exists(blobStore.getPath(BLOB)), is(true));
+        assertThat(blobStore.references(BLOB), is(1));
+
+        blobStore.release(BLOB);
+
+        assertThat(Files.exists(blobStore.getPath(BLOB)), is(false));
+        assertThat(blobStore.references(BLOB), is(0));
+        assertThat(blobStore.link(BLOB, "client-1"), is(-1L));
+    }
+
+    @Test
+    void store_release_positive_Multithreaded() throws Exception {
+
+        blobStore.store(Files.writeString(tempDir.resolve("0.TMP"), "test"), BLOB, 4, "client-1");
+
+        final List<Future<?>> futures = new ArrayList<>();
+
+        try (final ExecutorService executorService = Executors.newFixedThreadPool(10)) {
+            for (int i = 1; i <= 100; i++) {
+                final Path file = Files.writeString(tempDir.resolve(i + ".TMP"), "test");
+                futures.add(executorService.submit(() -> {
+                    blobStore.store(file, BLOB, 4, "client-1");
+                    blobStore.release(BLOB);
+                }));
+            }
+
+            for (final Future<?> future : futures) {
+                future.get(10, TimeUnit.SECONDS);
+            }
+        }
+
+        assertThat(blobStore.references(BLOB), is(1));
+        assertThat(Files.readString(blobStore.getPath(BLOB)), is("test"));
+    }
+}
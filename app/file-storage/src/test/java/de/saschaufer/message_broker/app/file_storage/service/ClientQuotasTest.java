@@ -0,0 +1,197 @@
+package de.saschaufer.message_broker.app.file_storage.service;
+
+import de.saschaufer.message_broker.app.file_storage.config.FileStorageProperties;
+import de.saschaufer.message_broker.app.file_storage.service.dto.File;
+import de.saschaufer.message_broker.app.file_storage.service.dto.Metadata;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.util.unit.DataSize;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.util.List;
+import java.util.Map;
+
+import static de.saschaufer.message_broker.app.file_storage.config.FileStoragePropertiesBuilder.properties;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ClientQuotasTest {
+
+    @TempDir
+    private Path tempDir;
+
+    @Test
+    void reserve_positive_Disabled() {
+
+        final ClientQuotas clientQuotas = new ClientQuotas(properties(tempDir)
+                .quota(new FileStorageProperties.Quota(false, DataSize.ofBytes(1), 1L, 1.0, 1, null)).build());
+
+        for (int i = 0; i < 10; i++) {
+            clientQuotas.acquire("client");
+            clientQuotas.reserve("client", 1000).close();
+            clientQuotas.charge("client", List.of(file(1000)));
+        }
+
+        assertThat(clientQuotas.getBytes("client"), is(0L));
+    }
+
+    @Test
+    void reserve_negative_MaxBytes() {
+
+        final ClientQuotas clientQuotas = createClientQuotas(DataSize.ofBytes(100), null, null);
+
+        clientQuotas.charge("client-1", List.of(file(60)));
+
+        // Reserved bytes count until the upload is done
+        try (final ClientQuotas.Reservation ignored = clientQuotas.reserve("client-1", 30)) {
+
+            final RequestRejectedException e = assertThrows(RequestRejectedException.class, () -> clientQuotas.reserve("client-1", 20));
+
+            assertThat(e.getStatusCode(), is(HttpStatus.INSUFFICIENT_STORAGE));
+            assertThat(e.getReason(), is("Quota exceeded."));
+            assertThat(e.getAdditionalDetails(), is(Map.of("max-bytes", "100")));
+            assertThat(e.getRetryAfter(), nullValue());
+        }
+
+        clientQuotas.reserve("client-1", 40).close();
+
+        // Other clients have a quota of their own
+        clientQuotas.reserve("client-2", 100).close();
+    }
+
+    @Test
+    void reserve_negative_MaxFiles() {
+
+        final ClientQuotas clientQuotas = createClientQuotas(null, 2L, null);
+
+        clientQuotas.charge("client", List.of(file(1)));
+
+        try (final ClientQuotas.Reservation ignored = clientQuotas.reserve("client", -1)) {
+            final RequestRejectedException e = assertThrows(RequestRejectedException.class, () -> clientQuotas.reserve("client", -1));
+            assertThat(e.getAdditionalDetails(), is(Map.of("max-files", "2")));
+        }
+
+        clientQuotas.release(List.of(metadata("client", 1L)));
+        assertThat(clientQuotas.getFiles("client"), is(0L));
+
+        clientQuotas.reserve("client", -1).close();
+    }
+
+    @Test
+    void receive_negative_UnknownSizeOverMaxBytes() {
+
+        final ClientQuotas clientQuotas = createClientQuotas(DataSize.ofBytes(100), null, null);
+
+        clientQuotas.charge("client", List.of(file(60)));
+
+        // Bodies of unknown size are reserved as they are received
+        try (final ClientQuotas.Reservation reservation = clientQuotas.reserve("client", -1)) {
+
+            reservation.receive(30);
+            assertThrows(RequestRejectedException.class, () -> clientQuotas.reserve("client", 20));
+
+            final RequestRejectedException e = assertThrows(RequestRejectedException.class, () -> reservation.receive(20));
+            assertThat(e.getAdditionalDetails(), is(Map.of("max-bytes", "100")));
+        }
+
+        // Released with the upload
+        clientQuotas.reserve("client", 40).close();
+    }
+
+    @Test
+    void receiveFile_negative_MaxFiles() {
+
+        final ClientQuotas clientQuotas = createClientQuotas(null, 3L, null);
+
+        clientQuotas.charge("client", List.of(file(1)));
+
+        // The first file is reserved with the request
+        try (final ClientQuotas.Reservation reservation = clientQuotas.reserve("client", -1)) {
+
+            reservation.receiveFile();
+            reservation.receiveFile();
+
+            final RequestRejectedException e = assertThrows(RequestRejectedException.class, reservation::receiveFile);
+            assertThat(e.getAdditionalDetails(), is(Map.of("max-files", "3")));
+        }
+
+        clientQuotas.reserve("client", -1).close();
+    }
+
+    @Test
+    void acquire_negative_TooManyRequests() {
+
+        final ClientQuotas clientQuotas = createClientQuotas(null, null, 0.5);
+
+        for (int i = 0; i < 3; i++) {
+            clientQuotas.acquire("client-1");
+        }
+
+        final RequestRejectedException e = assertThrows(RequestRejectedException.class, () -> clientQuotas.acquire("client-1"));
+
+        assertThat(e.getStatusCode(), is(HttpStatus.TOO_MANY_REQUESTS));
+        assertThat(e.getReason(), is("Too many requests."));
+        assertThat(e.getRetryAfter(), allOf(greaterThan(Duration.ZERO), lessThanOrEqualTo(Duration.ofSeconds(2))));
+
+        clientQuotas.acquire("client-2");
+    }
+
+    @Test
+    void charge_positive_ReleasesReservation() {
+
+        final ClientQuotas clientQuotas = createClientQuotas(DataSize.ofBytes(100), null, null);
+
+        // The charged bytes no longer count as reserved while the upload is still open
+        try (final ClientQuotas.Reservation reservation = clientQuotas.reserve("client", 60)) {
+            clientQuotas.charge("client", List.of(file(60)), reservation);
+            clientQuotas.reserve("client", 40).close();
+        }
+
+        assertThat(clientQuotas.getBytes("client"), is(60L));
+        assertThat(clientQuotas.getFiles("client"), is(1L));
+
+        // Closing the charged reservation doesn't release it a second time
+        final RequestRejectedException e = assertThrows(RequestRejectedException.class, () -> clientQuotas.reserve("client", 41));
+        assertThat(e.getAdditionalDetails(), is(Map.of("max-bytes", "100")));
+    }
+
+    @Test
+    void persist_positive() throws Exception {
+
+        final ClientQuotas clientQuotas = createClientQuotas(null, null, null);
+
+        clientQuotas.charge("client 1", List.of(file(10), file(20)));
+        clientQuotas.charge("client=2", List.of(file(5)));
+        clientQuotas.release(List.of(metadata("client 1", 20L), metadata(null, 100L)));
+
+        assertThat(Files.exists(tempDir.resolve(ClientQuotas.QUOTAS_FILENAME)), is(false));
+
+        clientQuotas.persist();
+
+        final ClientQuotas restarted = createClientQuotas(null, null, null);
+
+        assertThat(restarted.getBytes("client 1"), is(10L));
+        assertThat(restarted.getFiles("client 1"), is(1L));
+        assertThat(restarted.getBytes("client=2"), is(5L));
+        assertThat(restarted.getFiles("client=2"), is(1L));
+    }
+
+    private ClientQuotas createClientQuotas(final DataSize maxBytes, final Long maxFiles, final Double requestsPerSecond) {
+        return new ClientQuotas(properties(tempDir)
+                .quota(new FileStorageProperties.Quota(true, maxBytes, maxFiles, requestsPerSecond, 3, null)).build());
+    }
+
+    private static File file(final long size) {
+        return new File("1", "file-id", "test.txt", MediaType.TEXT_PLAIN, "hash", size, null, null, null, false, null);
+    }
+
+    private static Metadata metadata(final String client, final Long size) {
+        return new Metadata("file-id", "test.txt", "text/plain", "hash", OffsetDateTime.now(), null, null, size, null, null, null, client, null);
+    }
+}
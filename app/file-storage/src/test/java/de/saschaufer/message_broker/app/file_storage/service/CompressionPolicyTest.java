@@ -0,0 +1,102 @@
+package de.saschaufer.message_broker.app.file_storage.service;
+
+import de.saschaufer.message_broker.app.file_storage.config.FileStorageProperties;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.MediaType;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+
+import static de.saschaufer.message_broker.app.file_storage.config.FileStoragePropertiesBuilder.properties;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+class CompressionPolicyTest {
+
+    @Test
+    void select_positive() {
+
+        final CompressionPolicy compressionPolicy = createCompressionPolicy(true, null);
+
+        assertThat(compressionPolicy.select(MediaType.TEXT_PLAIN, 2048), is(CompressionPolicy.DEFLATE));
+        assertThat(compressionPolicy.select(MediaType.valueOf("text/csv;charset=UTF-8"), 2048), is(CompressionPolicy.DEFLATE));
+        assertThat(compressionPolicy.select(MediaType.APPLICATION_JSON, 2048), is(CompressionPolicy.DEFLATE));
+        assertThat(compressionPolicy.select(MediaType.APPLICATION_PROBLEM_JSON, 2048), is(CompressionPolicy.DEFLATE));
+        assertThat(compressionPolicy.select(MediaType.valueOf("application/vnd.example+xml"), 2048), is(CompressionPolicy.DEFLATE));
+
+        // Already compressed formats
+        assertThat(compressionPolicy.select(MediaType.IMAGE_PNG, 2048), nullValue());
+        assertThat(compressionPolicy.select(MediaType.APPLICATION_PDF, 2048), nullValue());
+
+        // Streamed parts don't know their size yet
+        assertThat(compressionPolicy.select(MediaType.TEXT_PLAIN, 100), nullValue());
+        assertThat(compressionPolicy.select(MediaType.TEXT_PLAIN, -1), is(CompressionPolicy.DEFLATE));
+    }
+
+    @Test
+    void select_positive_Configured() {
+
+        final CompressionPolicy compressionPolicy = createCompressionPolicy(true, List.of("application/octet-stream"));
+
+        assertThat(compressionPolicy.select(MediaType.APPLICATION_OCTET_STREAM, 2048), is(CompressionPolicy.DEFLATE));
+        assertThat(compressionPolicy.select(MediaType.TEXT_PLAIN, 2048), nullValue());
+    }
+
+    @Test
+    void select_negative_Disabled() {
+        assertThat(createCompressionPolicy(false, null).select(MediaType.TEXT_PLAIN, 2048), nullValue());
+    }
+
+    @Test
+    void compressAndDecode_positive() throws IOException {
+
+        final CompressionPolicy compressionPolicy = createCompressionPolicy(true, null);
+        final String content = "test1".repeat(10_000);
+
+        final byte[] compressed;
+        try (final InputStream inputStream = compressionPolicy.compress(new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)))) {
+            compressed = inputStream.readAllBytes();
+        }
+        assertThat(compressed.length, lessThan(1000));
+
+        final Resource resource = CompressionPolicy.decode(new ByteArrayResource(compressed), CompressionPolicy.DEFLATE, 50_000L);
+        assertThat(resource.contentLength(), is(50_000L));
+        assertThat(resource.getContentAsString(StandardCharsets.UTF_8), is(content));
+
+        // Range requests skip to their start
+        try (final InputStream inputStream = resource.getInputStream()) {
+            assertThat(inputStream.skip(49_995), is(49_995L));
+            assertThat(new String(inputStream.readAllBytes(), StandardCharsets.UTF_8), is("test1"));
+        }
+
+        final Resource uncompressed = new ByteArrayResource(compressed);
+        assertThat(CompressionPolicy.decode(uncompressed, null, null), sameInstance(uncompressed));
+    }
+
+    @Test
+    void isAccepted_positive() {
+        assertThat(CompressionPolicy.isAccepted("deflate", CompressionPolicy.DEFLATE), is(true));
+        assertThat(CompressionPolicy.isAccepted("gzip, Deflate;q=0.5", CompressionPolicy.DEFLATE), is(true));
+        assertThat(CompressionPolicy.isAccepted("*", CompressionPolicy.DEFLATE), is(true));
+    }
+
+    @Test
+    void isAccepted_negative() {
+        assertThat(CompressionPolicy.isAccepted(null, CompressionPolicy.DEFLATE), is(false));
+        assertThat(CompressionPolicy.isAccepted("gzip, br", CompressionPolicy.DEFLATE), is(false));
+        assertThat(CompressionPolicy.isAccepted("gzip, deflate;q=0", CompressionPolicy.DEFLATE), is(false));
+        assertThat(CompressionPolicy.isAccepted("identity", CompressionPolicy.DEFLATE), is(false));
+    }
+
+    private static CompressionPolicy createCompressionPolicy(final boolean enabled, final List<String> mediaTypes) {
+        return new CompressionPolicy(properties(Path.of("."))
+                .compression(new FileStorageProperties.Compression(enabled, mediaTypes, DataSize.ofKilobytes(1), null)).build());
+    }
+}
@@ -0,0 +1,95 @@
+package de.saschaufer.message_broker.app.file_storage.service;
+
+import de.saschaufer.message_broker.app.file_storage.config.FileStorageProperties;
+import de.saschaufer.message_broker.app.file_storage.service.dto.Metadata;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.OffsetDateTime;
+
+import static de.saschaufer.message_broker.app.file_storage.config.FileStoragePropertiesBuilder.properties;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+class ContentCacheTest {
+
+    @TempDir
+    private Path tempDir;
+
+    @Test
+    void get_positive_AdmitsFrequentlyRequestedFiles() throws IOException {
+
+        final ContentCache contentCache = createContentCache(DataSize.ofKilobytes(1), DataSize.ofBytes(100));
+        final Path path = Files.writeString(tempDir.resolve("1"), "test1");
+
+        assertThat(contentCache.get("directoryId", metadata("1"), new FileSystemResource(path)), nullValue());
+
+        final Resource resource = contentCache.get("directoryId", metadata("1"), new FileSystemResource(path));
+        assertThat(resource, notNullValue());
+        assertThat(resource.contentLength(), is(5L));
+        assertThat(resource.getContentAsByteArray(), is("test1".getBytes(StandardCharsets.UTF_8)));
+
+        // Served from memory from now on
+        Files.delete(path);
+
+        assertThat(contentCache.get("directoryId", metadata("1"), new FileSystemResource(path)).getContentAsString(StandardCharsets.UTF_8), is("test1"));
+        assertThat(contentCache.stats().hitCount(), is(1L));
+        assertThat(contentCache.bytes(), is(5L));
+    }
+
+    @Test
+    void get_negative_FileTooLarge() throws IOException {
+
+        final ContentCache contentCache = createContentCache(DataSize.ofKilobytes(1), DataSize.ofBytes(3));
+        final Path path = Files.writeString(tempDir.resolve("1"), "test1");
+
+        for (int i = 0; i < 5; i++) {
+            assertThat(contentCache.get("directoryId", metadata("1"), new FileSystemResource(path)), nullValue());
+        }
+
+        assertThat(contentCache.bytes(), is(0L));
+    }
+
+    @Test
+    void get_positive_EvictsOverMaxSize() throws IOException {
+
+        final ContentCache contentCache = createContentCache(DataSize.ofBytes(100), DataSize.ofBytes(50));
+
+        for (int i = 0; i < 10; i++) {
+            final Path path = Files.writeString(tempDir.resolve(String.valueOf(i)), "x".repeat(40));
+            contentCache.get("directoryId", metadata(String.valueOf(i)), new FileSystemResource(path));
+            contentCache.get("directoryId", metadata(String.valueOf(i)), new FileSystemResource(path));
+        }
+        contentCache.cleanUp();
+
+        assertThat(contentCache.bytes(), lessThanOrEqualTo(100L));
+        assertThat(contentCache.stats().evictionCount(), greaterThanOrEqualTo(8L));
+    }
+
+    @Test
+    void get_positive_Disabled() throws IOException {
+
+        final ContentCache contentCache = new ContentCache(properties(tempDir).build());
+        final Path path = Files.writeString(tempDir.resolve("1"), "test1");
+
+        for (int i = 0; i < 5; i++) {
+            assertThat(contentCache.get("directoryId", metadata("1"), new FileSystemResource(path)), nullValue());
+        }
+    }
+
+    private ContentCache createContentCache(final DataSize maxSize, final DataSize maxFileSize) {
+        return new ContentCache(properties(tempDir)
+                .contentCache(new FileStorageProperties.ContentCache(true, maxSize, maxFileSize, 2)).build());
+    }
+
+    private Metadata metadata(final String fileId) {
+        return new Metadata(fileId, "test-" + fileId + ".txt", "text/plain", "hash-" + fileId, OffsetDateTime.now(), null, null, null, null, null, null, null, null);
+    }
+}
@@ -0,0 +1,124 @@
+package de.saschaufer.message_broker.app.file_storage.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.InputStreamResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.ResourceHttpMessageConverter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+// Run with: mvn test -Dtest=DownloadBenchmarkTest -Dbenchmark=true [-Dbenchmark.size-mb=1024]
+@Slf4j
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class DownloadBenchmarkTest {
+
+    private static final int WARMUP = 2;
+    private static final int ITERATIONS = 5;
+
+    @TempDir
+    private Path tempDir;
+
+    @Test
+    void benchmark() throws IOException {
+
+        final long size = Long.getLong("benchmark.size-mb", 512) * 1024 * 1024;
+
+        final Path file = tempDir.resolve("large");
+        writeRandom(file, size);
+
+        run("input-stream-resource", size, () -> write(new InputStreamResource(Files.newInputStream(file))));
+        run("file-system-resource", size, () -> write(new FileSystemResource(file)));
+        run("file-channel-transfer", size, () -> {
+            try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                final var target = Channels.newChannel(OutputStream.nullOutputStream());
+                long position = 0;
+                while (position < size) {
+                    position += channel.transferTo(position, size - position, target);
+                }
+            }
+        });
+    }
+
+    // A sparse file would be read from holes without any disk I/O. Random data can't be compressed or deduplicated
+    // by the file system either. To measure the disk instead of the page cache, pick a size larger than the memory.
+    private static void writeRandom(final Path file, final long size) throws IOException {
+        final Random random = new Random(1);
+        final ByteBuffer buffer = ByteBuffer.allocate(1024 * 1024);
+        try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            long written = 0;
+            while (written < size) {
+                random.nextBytes(buffer.array());
+                buffer.clear().limit((int) Math.min(buffer.capacity(), size - written));
+                while (buffer.hasRemaining()) {
+                    written += channel.write(buffer);
+                }
+            }
+            channel.force(true);
+        }
+    }
+
+    private void write(final Resource resource) throws IOException {
+        new ResourceHttpMessageConverter().write(resource, MediaType.APPLICATION_OCTET_STREAM, new HttpOutputMessage() {
+
+            private final HttpHeaders headers = new HttpHeaders();
+
+            @Override
+            public OutputStream getBody() {
+                return OutputStream.nullOutputStream();
+            }
+
+            @Override
+            public HttpHeaders getHeaders() {
+                return headers;
+            }
+        });
+    }
+
+    private void run(final String name, final long size, final Task task) throws IOException {
+
+        final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+
+        for (int i = 0; i < WARMUP; i++) {
+            task.run();
+        }
+
+        final long cpuStart = threadMXBean.getCurrentThreadCpuTime();
+        final long start = System.nanoTime();
+
+        for (int i = 0; i < ITERATIONS; i++) {
+            task.run();
+        }
+
+        final long cpu = threadMXBean.getCurrentThreadCpuTime() - cpuStart;
+        final long wall = System.nanoTime() - start;
+        final double megabytes = (double) size * ITERATIONS / (1024 * 1024);
+
+        log.atInfo().setMessage("Download benchmark.")
+                .addKeyValue("variant", name)
+                .addKeyValue("throughput-mb-s", String.format("%.1f", megabytes / (wall / 1e9)))
+                .addKeyValue("cpu-ms-per-gb", String.format("%.1f", cpu / 1e6 / (megabytes / 1024)))
+                .log();
+    }
+
+    @FunctionalInterface
+    private interface Task {
+        void run() throws IOException;
+    }
+}
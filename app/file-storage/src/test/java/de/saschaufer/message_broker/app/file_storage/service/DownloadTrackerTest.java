@@ -0,0 +1,102 @@
+package de.saschaufer.message_broker.app.file_storage.service;
+
+import de.saschaufer.message_broker.app.file_storage.config.FileStorageProperties;
+import de.saschaufer.message_broker.app.file_storage.service.dto.Metadata;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Map;
+
+import static de.saschaufer.message_broker.app.file_storage.config.FileStoragePropertiesBuilder.properties;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+class DownloadTrackerTest {
+
+    private static final OffsetDateTime UPLOADED = OffsetDateTime.of(2025, 1, 1, 10, 0, 0, 0, ZoneOffset.UTC);
+    private static final OffsetDateTime DOWNLOADED_1 = OffsetDateTime.of(2025, 1, 2, 10, 0, 0, 0, ZoneOffset.UTC);
+    private static final OffsetDateTime DOWNLOADED_2 = OffsetDateTime.of(2025, 1, 3, 10, 0, 0, 0, ZoneOffset.UTC);
+
+    @TempDir
+    private Path tempDir;
+
+    private MetadataService metadataService;
+    private IoExecutor ioExecutor;
+    private DownloadTracker downloadTracker;
+
+    @BeforeEach
+    void beforeEach() throws IOException {
+        Files.createDirectories(tempDir.resolve("directoryId"));
+        final FileStorageProperties fileStorageProperties = properties(tempDir)
+                .downloadTracking(new FileStorageProperties.DownloadTracking(Duration.ofMinutes(1), 3)).build();
+        final DirectoryLocks directoryLocks = new DirectoryLocks(fileStorageProperties);
+        metadataService = new MetadataService(fileStorageProperties, directoryLocks, new StorageLayout(fileStorageProperties, directoryLocks));
+        ioExecutor = new IoExecutor(fileStorageProperties);
+        downloadTracker = new DownloadTracker(fileStorageProperties, metadataService, ioExecutor);
+        metadataService.addFiles("directoryId", List.of(metadata("1"), metadata("2"), metadata("3")));
+    }
+
+    @Test
+    void record_flush_positive() throws IOException {
+
+        final long journalSize = Files.size(tempDir.resolve("directoryId").resolve(MetadataService.JOURNAL_FILENAME));
+
+        downloadTracker.record("directoryId", List.of("1"), DOWNLOADED_1);
+        downloadTracker.record("directoryId", List.of("1"), DOWNLOADED_2);
+
+        assertThat(downloadTracker.pendingEntries(), is(1));
+        assertThat(Files.size(tempDir.resolve("directoryId").resolve(MetadataService.JOURNAL_FILENAME)), is(journalSize));
+        assertThat(metadataService.readMetadata("directoryId").get("1").lastDownloaded(), nullValue());
+
+        downloadTracker.flush();
+
+        assertThat(downloadTracker.pendingEntries(), is(0));
+
+        final Map<String, Metadata> metadata = metadataService.readMetadata("directoryId");
+        assertThat(metadata.get("1").lastDownloaded().isEqual(DOWNLOADED_2), is(true));
+        assertThat(metadata.get("2").lastDownloaded(), nullValue());
+    }
+
+    @Test
+    void record_positive_FlushesWhenMaxPendingReached() {
+
+        downloadTracker.record("directoryId", List.of("1", "2"), DOWNLOADED_1);
+
+        assertThat(downloadTracker.pendingEntries(), is(2));
+
+        downloadTracker.record("directoryId", List.of("3"), DOWNLOADED_2);
+
+        // The flush runs on the I/O executor, shutting it down waits for it
+        ioExecutor.shutdown();
+
+        assertThat(downloadTracker.pendingEntries(), is(0));
+
+        final Map<String, Metadata> metadata = metadataService.readMetadata("directoryId");
+        assertThat(metadata.get("1").lastDownloaded().isEqual(DOWNLOADED_1), is(true));
+        assertThat(metadata.get("2").lastDownloaded().isEqual(DOWNLOADED_1), is(true));
+        assertThat(metadata.get("3").lastDownloaded().isEqual(DOWNLOADED_2), is(true));
+    }
+
+    @Test
+    void shutdown_positive_FlushesPendingEntries() {
+
+        downloadTracker.record("directoryId", List.of("2"), DOWNLOADED_1);
+
+        downloadTracker.shutdown();
+
+        assertThat(downloadTracker.pendingEntries(), is(0));
+        assertThat(metadataService.readMetadata("directoryId").get("2").lastDownloaded().isEqual(DOWNLOADED_1), is(true));
+    }
+
+    private Metadata metadata(final String fileId) {
+        return new Metadata(fileId, "test-" + fileId + ".txt", "text/plain", "hash-" + fileId, UPLOADED, null, null, null, null, null, null, null, null);
+    }
+}
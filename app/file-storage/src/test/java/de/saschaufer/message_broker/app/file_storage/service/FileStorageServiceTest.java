@@ -1,26 +1,46 @@
 package de.saschaufer.message_broker.app.file_storage.service;
 
+import de.saschaufer.message_broker.app.file_storage.api.multipart.StreamingMultipartParser;
 import de.saschaufer.message_broker.app.file_storage.config.FileStorageProperties;
+import de.saschaufer.message_broker.app.file_storage.service.dto.ArchiveEntry;
+import de.saschaufer.message_broker.app.file_storage.service.dto.ArchiveFormat;
+import de.saschaufer.message_broker.app.file_storage.service.dto.ChunkHashes;
 import de.saschaufer.message_broker.app.file_storage.service.dto.File;
+import de.saschaufer.message_broker.app.file_storage.service.dto.Metadata;
 import de.saschaufer.message_broker.common.Constants;
 import de.saschaufer.message_broker.common.api.errorhandler.ResponseStatusException;
 import de.saschaufer.message_broker.common.api.file_storage.dto.FileDownload;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import jakarta.servlet.http.Part;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
-import org.springframework.core.io.InputStreamResource;
+import org.springframework.core.io.Resource;
 import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.mock.web.MockPart;
+import org.springframework.util.unit.DataSize;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HexFormat;
 import java.util.List;
+import java.util.Map;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
 
+import static de.saschaufer.message_broker.app.file_storage.config.FileStoragePropertiesBuilder.properties;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.*;
 import static org.junit.jupiter.api.Assertions.assertThrows;
@@ -34,7 +54,12 @@ class FileStorageServiceTest {
 
     @BeforeEach
     void beforeEach() {
-        fileStorageService = new FileStorageService(new FileStorageProperties(tempDir));
+        final FileStorageProperties fileStorageProperties = properties(tempDir).build();
+        final DirectoryLocks directoryLocks = new DirectoryLocks(fileStorageProperties);
+        final StorageLayout storageLayout = new StorageLayout(fileStorageProperties, directoryLocks);
+        final MetadataService metadataService = new MetadataService(fileStorageProperties, directoryLocks, storageLayout);
+        final IoExecutor ioExecutor = new IoExecutor(fileStorageProperties);
+        fileStorageService = new FileStorageService(fileStorageProperties, metadataService, new DownloadTracker(fileStorageProperties, metadataService, ioExecutor), ioExecutor, new BlobStore(fileStorageProperties), new ContentCache(fileStorageProperties), storageLayout, new LocalStorageBackend(storageLayout), new CompressionPolicy(fileStorageProperties), new TreeHasher(fileStorageProperties));
     }
 
     @Test
@@ -44,7 +69,7 @@ class FileStorageServiceTest {
         final Part part2 = createPart("2", "test2.pdf", "test2", MediaType.APPLICATION_PDF, "e35970edaa1e0d8af7d948491b2da0450a49fd9cc1e83c5db4c6f175f9550cf341f642f6be8cfb0bfa476e4258e5088c5ad549087bf02811132ac2fa22b734c6");
         final Part part3 = createPart("3", "test3.png", "test3", MediaType.IMAGE_PNG, null);
 
-        final List<File> files = fileStorageService.saveFiles("directoryId", List.of(
+        final List<File> files = fileStorageService.saveFiles("directoryId", "test-user-agent", List.of(
                 part1, part2, part3
         ));
 
@@ -72,10 +97,10 @@ class FileStorageServiceTest {
         assertThat(Files.readString(tempDir.resolve("directoryId").resolve(files.get(1).fileId())), is("test2"));
         assertThat(Files.readString(tempDir.resolve("directoryId").resolve(files.getLast().fileId())), is("test3"));
 
-        final String metadata = Files.readString(tempDir.resolve("directoryId").resolve("metadata.json"));
-        assertThat(metadata, notNullValue());
+        final List<String> journal = Files.readAllLines(tempDir.resolve("directoryId").resolve("metadata.journal"));
+        assertThat(journal, hasSize(3));
 
-        final List<HttpEntity<InputStreamResource>> httpEntities = fileStorageService.readFiles("directoryId", List.of(
+        final List<HttpEntity<Resource>> httpEntities = fileStorageService.readFiles("directoryId", List.of(
                 new FileDownload("1", files.getFirst().fileId()),
                 new FileDownload("2", files.get(1).fileId()),
                 new FileDownload("3", files.getLast().fileId())
@@ -86,6 +111,7 @@ class FileStorageServiceTest {
         assertThat(httpEntities.getFirst().getHeaders().getContentType(), is(MediaType.TEXT_PLAIN));
         assertThat(httpEntities.getFirst().getHeaders().getFirst(Constants.Http.Header.FILE_ID), is("1"));
         assertThat(httpEntities.getFirst().getHeaders().getFirst(Constants.Http.Header.FILE_HASH), is("d2d8cc4f369b340130bd2b29b8b54e918b7c260c3279176da9ccaa37c96eb71735fc97568e892dc6220bf4ae0d748edb46bd75622751556393be3f482e6f794e"));
+        assertThat(httpEntities.getFirst().getHeaders().getContentLength(), is(5L));
         assertThat(httpEntities.getFirst().getBody().getInputStream().readAllBytes(), is("test1".getBytes(StandardCharsets.UTF_8)));
 
         assertThat(httpEntities.get(1).getHeaders().getContentDisposition().getName(), is(Constants.Http.BodyPart.FILE));
@@ -103,12 +129,506 @@ class FileStorageServiceTest {
         assertThat(httpEntities.getLast().getBody().getInputStream().readAllBytes(), is("test3".getBytes(StandardCharsets.UTF_8)));
     }
 
+    @Test
+    void saveAndReadFiles_positive_Dedup() throws IOException {
+
+        final FileStorageProperties fileStorageProperties = properties(tempDir)
+                .dedup(new FileStorageProperties.Dedup(true)).build();
+        final DirectoryLocks directoryLocks = new DirectoryLocks(fileStorageProperties);
+        final StorageLayout storageLayout = new StorageLayout(fileStorageProperties, directoryLocks);
+        final MetadataService metadataService = new MetadataService(fileStorageProperties, directoryLocks, storageLayout);
+        final BlobStore blobStore = new BlobStore(fileStorageProperties);
+        final IoExecutor ioExecutor = new IoExecutor(fileStorageProperties);
+        final FileStorageService fileStorageService = new FileStorageService(fileStorageProperties, metadataService, new DownloadTracker(fileStorageProperties, metadataService, ioExecutor), ioExecutor, blobStore, new ContentCache(fileStorageProperties), storageLayout, new LocalStorageBackend(storageLayout), new CompressionPolicy(fileStorageProperties), new TreeHasher(fileStorageProperties));
+
+        final File file1 = fileStorageService.saveFiles("directoryId-1", "test-user-agent", List.of(createPart("1", "test1.txt", "test", MediaType.TEXT_PLAIN, null))).getFirst();
+        final File file2 = fileStorageService.saveFiles("directoryId-2", "test-user-agent", List.of(createPart("1", "test2.txt", "test", MediaType.TEXT_PLAIN, null))).getFirst();
+
+        assertThat(file1.hash(), is(file2.hash()));
+        assertThat(file1.fileId(), not(file2.fileId()));
+        assertThat(blobStore.references(file1.hash()), is(2));
+        assertThat(Files.exists(tempDir.resolve("directoryId-1").resolve(file1.fileId())), is(false));
+        assertThat(metadataService.readMetadata("directoryId-2").get(file2.fileId()).blob(), is(file2.hash()));
+
+        final List<HttpEntity<Resource>> httpEntities = fileStorageService.readFiles("directoryId-2", List.of(
+                new FileDownload("1", file2.fileId())
+        ));
+
+        assertThat(httpEntities.getFirst().getHeaders().getContentDisposition().getFilename(), is("test2.txt"));
+        assertThat(httpEntities.getFirst().getBody().getInputStream().readAllBytes(), is("test".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    void saveAndReadFiles_positive_MultipleRoots() throws IOException {
+
+        final FileStorageProperties fileStorageProperties = properties(tempDir.resolve("main"))
+                .placement(new FileStorageProperties.Placement(List.of(tempDir.resolve("disk-1"), tempDir.resolve("disk-2")), DataSize.ofBytes(0))).build();
+        final DirectoryLocks directoryLocks = new DirectoryLocks(fileStorageProperties);
+        final StorageLayout storageLayout = new StorageLayout(fileStorageProperties, directoryLocks);
+        final MetadataService metadataService = new MetadataService(fileStorageProperties, directoryLocks, storageLayout);
+        final IoExecutor ioExecutor = new IoExecutor(fileStorageProperties);
+        final FileStorageService fileStorageService = new FileStorageService(fileStorageProperties, metadataService, new DownloadTracker(fileStorageProperties, metadataService, ioExecutor), ioExecutor, new BlobStore(fileStorageProperties), new ContentCache(fileStorageProperties), storageLayout, new LocalStorageBackend(storageLayout), new CompressionPolicy(fileStorageProperties), new TreeHasher(fileStorageProperties));
+
+        final Map<String, File> files = new HashMap<>();
+        for (int i = 0; i < 30; i++) {
+            files.put("directoryId-" + i, fileStorageService.saveFiles("directoryId-" + i, "test-user-agent", List.of(createPart("1", "test.txt", "test" + i, MediaType.TEXT_PLAIN, null))).getFirst());
+        }
+
+        // Every root got some of the directories, each directory with its metadata is on one root
+        for (final String root : List.of("main", "disk-1", "disk-2")) {
+            assertThat(files.keySet().stream().filter(directoryId -> Files.exists(tempDir.resolve(root).resolve(directoryId).resolve(MetadataService.JOURNAL_FILENAME))).count(), greaterThan(0L));
+        }
+
+        final StorageLayout restarted = new StorageLayout(fileStorageProperties, directoryLocks);
+        for (int i = 0; i < 30; i++) {
+            final File file = files.get("directoryId-" + i);
+            assertThat(Files.readString(restarted.getFile("directoryId-" + i, file.fileId())), is("test" + i));
+            assertThat(fileStorageService.readFile("directoryId-" + i, file.fileId(), null).getBody().getContentAsString(StandardCharsets.UTF_8), is("test" + i));
+        }
+    }
+
+    @Test
+    void saveAndReadFiles_positive_InMemoryBackend() throws IOException {
+
+        final FileStorageProperties fileStorageProperties = properties(tempDir).build();
+        final DirectoryLocks directoryLocks = new DirectoryLocks(fileStorageProperties);
+        final StorageLayout storageLayout = new StorageLayout(fileStorageProperties, directoryLocks);
+        final MetadataService metadataService = new MetadataService(fileStorageProperties, directoryLocks, storageLayout);
+        final InMemoryStorageBackend storageBackend = new InMemoryStorageBackend();
+        final IoExecutor ioExecutor = new IoExecutor(fileStorageProperties);
+        final FileStorageService fileStorageService = new FileStorageService(fileStorageProperties, metadataService, new DownloadTracker(fileStorageProperties, metadataService, ioExecutor), ioExecutor, new BlobStore(fileStorageProperties), new ContentCache(fileStorageProperties), storageLayout, storageBackend, new CompressionPolicy(fileStorageProperties), new TreeHasher(fileStorageProperties));
+
+        final File file = fileStorageService.saveFiles("directoryId", "test-user-agent", List.of(createPart("1", "test1.txt", "0123456789", MediaType.TEXT_PLAIN, null))).getFirst();
+
+        // Only the metadata is written to the disk
+        assertThat(Files.exists(storageLayout.getFile("directoryId", file.fileId())), is(false));
+        assertThat(storageBackend.list("directoryId"), contains(file.fileId()));
+
+        final Resource resource = fileStorageService.readFile("directoryId", file.fileId(), null).getBody();
+        assertThat(resource.contentLength(), is(10L));
+        assertThat(resource.getContentAsString(StandardCharsets.UTF_8), is("0123456789"));
+
+        // Range requests skip to their start first
+        try (final InputStream inputStream = resource.getInputStream()) {
+            assertThat(inputStream.skip(4), is(4L));
+            assertThat(new String(inputStream.readAllBytes(), StandardCharsets.UTF_8), is("456789"));
+        }
+
+        final List<HttpEntity<Resource>> httpEntities = fileStorageService.readFiles("directoryId", List.of(new FileDownload("1", file.fileId())));
+        assertThat(httpEntities.getFirst().getHeaders().getContentLength(), is(10L));
+        assertThat(httpEntities.getFirst().getBody().getContentAsString(StandardCharsets.UTF_8), is("0123456789"));
+
+        final ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        fileStorageService.writeArchive(fileStorageService.readArchiveEntries("directoryId", null), ArchiveFormat.ZIP, 6, archive);
+        try (final ZipInputStream zipInputStream = new ZipInputStream(new ByteArrayInputStream(archive.toByteArray()))) {
+            assertThat(zipInputStream.getNextEntry().getName(), is("test1.txt"));
+            assertThat(new String(zipInputStream.readAllBytes(), StandardCharsets.UTF_8), is("0123456789"));
+        }
+
+        assertThat(fileStorageService.deleteFiles("directoryId", List.copyOf(metadataService.readMetadata("directoryId").values())), is(10L));
+        assertThat(storageBackend.list("directoryId"), empty());
+    }
+
+    @Test
+    void saveAndReadFiles_positive_Compressed() throws IOException {
+
+        final FileStorageProperties fileStorageProperties = properties(tempDir)
+                .compression(new FileStorageProperties.Compression(true, null, DataSize.ofBytes(0), null)).build();
+        final DirectoryLocks directoryLocks = new DirectoryLocks(fileStorageProperties);
+        final StorageLayout storageLayout = new StorageLayout(fileStorageProperties, directoryLocks);
+        final MetadataService metadataService = new MetadataService(fileStorageProperties, directoryLocks, storageLayout);
+        final IoExecutor ioExecutor = new IoExecutor(fileStorageProperties);
+        final FileStorageService fileStorageService = new FileStorageService(fileStorageProperties, metadataService, new DownloadTracker(fileStorageProperties, metadataService, ioExecutor), ioExecutor, new BlobStore(fileStorageProperties), new ContentCache(fileStorageProperties), storageLayout, new LocalStorageBackend(storageLayout), new CompressionPolicy(fileStorageProperties), new TreeHasher(fileStorageProperties));
+
+        final String text = "test1".repeat(1000);
+        final List<File> files = fileStorageService.saveFiles("directoryId", "test-user-agent", List.of(
+                createPart("1", "test1.txt", text, MediaType.TEXT_PLAIN, null),
+                createPart("2", "test2.png", text, MediaType.IMAGE_PNG, null)
+        ));
+
+        // Same content, the hash is the one of the uploaded bytes either way
+        assertThat(files.getFirst().hash(), is(files.getLast().hash()));
+        assertThat(files.getFirst().encoding(), is(CompressionPolicy.DEFLATE));
+        assertThat(files.getLast().encoding(), nullValue());
+        assertThat(Files.size(storageLayout.getFile("directoryId", files.getFirst().fileId())), lessThan(100L));
+        assertThat(Files.size(storageLayout.getFile("directoryId", files.getLast().fileId())), is(5000L));
+        assertThat(metadataService.readMetadata("directoryId").get(files.getFirst().fileId()).size(), is(5000L));
+        assertThat(metadataService.readMetadata("directoryId").get(files.getFirst().fileId()).encoding(), is(CompressionPolicy.DEFLATE));
+
+        final HttpEntity<Resource> inflated = fileStorageService.readFile("directoryId", files.getFirst().fileId(), "gzip");
+        assertThat(inflated.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING), nullValue());
+        assertThat(inflated.getHeaders().getETag(), is("\"" + files.getFirst().hash() + "\""));
+        assertThat(inflated.getHeaders().getVary(), contains(HttpHeaders.ACCEPT_ENCODING));
+        assertThat(inflated.getBody().contentLength(), is(5000L));
+        assertThat(inflated.getBody().getContentAsString(StandardCharsets.UTF_8), is(text));
+
+        final HttpEntity<Resource> deflated = fileStorageService.readFile("directoryId", files.getFirst().fileId(), "gzip, deflate");
+        assertThat(deflated.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING), is(CompressionPolicy.DEFLATE));
+        assertThat(deflated.getHeaders().getETag(), is("\"" + files.getFirst().hash() + ".deflate\""));
+        try (final InputStream inputStream = new InflaterInputStream(deflated.getBody().getInputStream())) {
+            assertThat(new String(inputStream.readAllBytes(), StandardCharsets.UTF_8), is(text));
+        }
+
+        final List<HttpEntity<Resource>> httpEntities = fileStorageService.readFiles("directoryId", List.of(new FileDownload("1", files.getFirst().fileId())));
+        assertThat(httpEntities.getFirst().getHeaders().getContentLength(), is(5000L));
+        assertThat(httpEntities.getFirst().getBody().getContentAsString(StandardCharsets.UTF_8), is(text));
+
+        final ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        fileStorageService.writeArchive(fileStorageService.readArchiveEntries("directoryId", List.of(files.getFirst().fileId())), ArchiveFormat.ZIP, 6, archive);
+        try (final ZipInputStream zipInputStream = new ZipInputStream(new ByteArrayInputStream(archive.toByteArray()))) {
+            assertThat(zipInputStream.getNextEntry().getName(), is("test1.txt"));
+            assertThat(new String(zipInputStream.readAllBytes(), StandardCharsets.UTF_8), is(text));
+        }
+    }
+
+    @Test
+    void saveFiles_positive_CompressedDedup() throws IOException {
+
+        final FileStorageProperties fileStorageProperties = properties(tempDir)
+                .dedup(new FileStorageProperties.Dedup(true))
+                .compression(new FileStorageProperties.Compression(true, null, DataSize.ofBytes(0), null)).build();
+        final DirectoryLocks directoryLocks = new DirectoryLocks(fileStorageProperties);
+        final StorageLayout storageLayout = new StorageLayout(fileStorageProperties, directoryLocks);
+        final MetadataService metadataService = new MetadataService(fileStorageProperties, directoryLocks, storageLayout);
+        final BlobStore blobStore = new BlobStore(fileStorageProperties);
+        final IoExecutor ioExecutor = new IoExecutor(fileStorageProperties);
+        final FileStorageService fileStorageService = new FileStorageService(fileStorageProperties, metadataService, new DownloadTracker(fileStorageProperties, metadataService, ioExecutor), ioExecutor, blobStore, new ContentCache(fileStorageProperties), storageLayout, new LocalStorageBackend(storageLayout), new CompressionPolicy(fileStorageProperties), new TreeHasher(fileStorageProperties));
+
+        final File file1 = fileStorageService.saveFiles("directoryId", "test-user-agent", List.of(createPart("1", "test1.txt", "test", MediaType.TEXT_PLAIN, null))).getFirst();
+
+        // The size of the uploaded content is kept with the blob, linking doesn't inflate it
+        final MockPart part = new MockPart(Constants.Http.BodyPart.FILE, "test3.txt", new byte[0], MediaType.TEXT_PLAIN) {
+            @Override
+            public InputStream getInputStream() {
+                throw new IllegalStateException("Body read.");
+            }
+        };
+        part.getHeaders().add(Constants.Http.Header.FILE_ID, "3");
+        part.getHeaders().add(Constants.Http.Header.FILE_HASH, file1.hash());
+
+        final File file3 = fileStorageService.saveFile("directoryId", "test-user-agent", part);
+        assertThat(file3.size(), is(4L));
+        assertThat(file3.encoding(), is(CompressionPolicy.DEFLATE));
+
+        final File file2 = fileStorageService.saveFiles("directoryId", "test-user-agent", List.of(createPart("2", "test2.bin", "test", MediaType.APPLICATION_OCTET_STREAM, null))).getFirst();
+
+        // A compressed blob can't be served for an uncompressed file
+        assertThat(blobStore.references(file1.hash() + ".deflate"), is(2));
+        assertThat(blobStore.references(file2.hash()), is(1));
+
+        final Map<String, Metadata> metadata = metadataService.readMetadata("directoryId");
+        assertThat(fileStorageService.readFile("directoryId", file1.fileId(), null).getBody().getContentAsString(StandardCharsets.UTF_8), is("test"));
+        assertThat(fileStorageService.readFile("directoryId", file2.fileId(), null).getBody().getContentAsString(StandardCharsets.UTF_8), is("test"));
+
+        fileStorageService.deleteFiles("directoryId", List.copyOf(metadata.values()));
+        assertThat(Files.exists(blobStore.getPath(file1.hash() + ".deflate")), is(false));
+        assertThat(Files.exists(blobStore.getPath(file2.hash())), is(false));
+    }
+
+    @Test
+    void saveFile_positive_LinksKnownContent() throws IOException {
+
+        final FileStorageProperties fileStorageProperties = properties(tempDir)
+                .dedup(new FileStorageProperties.Dedup(true)).build();
+        final DirectoryLocks directoryLocks = new DirectoryLocks(fileStorageProperties);
+        final StorageLayout storageLayout = new StorageLayout(fileStorageProperties, directoryLocks);
+        final MetadataService metadataService = new MetadataService(fileStorageProperties, directoryLocks, storageLayout);
+        final BlobStore blobStore = new BlobStore(fileStorageProperties);
+        final IoExecutor ioExecutor = new IoExecutor(fileStorageProperties);
+        final FileStorageService fileStorageService = new FileStorageService(fileStorageProperties, metadataService, new DownloadTracker(fileStorageProperties, metadataService, ioExecutor), ioExecutor, blobStore, new ContentCache(fileStorageProperties), storageLayout, new LocalStorageBackend(storageLayout), new CompressionPolicy(fileStorageProperties), new TreeHasher(fileStorageProperties));
+
+        final File file1 = fileStorageService.saveFile("directoryId1", "test-user-agent", createPart("1", "test1.txt", "test1", MediaType.TEXT_PLAIN, null));
+
+        assertThat(fileStorageService.findKnownHashes(List.of(file1.hash(), "ab", "../x"), null, "test-user-agent"), contains(file1.hash()));
+
+        // The body of known content is never read
+        final MockPart part = new MockPart(Constants.Http.BodyPart.FILE, "test2.txt", new byte[0], MediaType.TEXT_PLAIN) {
+            @Override
+            public InputStream getInputStream() {
+                throw new IllegalStateException("Body read.");
+            }
+        };
+        part.getHeaders().add(Constants.Http.Header.FILE_ID, "2");
+        part.getHeaders().add(Constants.Http.Header.FILE_HASH, file1.hash());
+
+        final File file2 = fileStorageService.saveFile("directoryId2", "test-user-agent", part);
+
+        assertThat(file2.id(), is("2"));
+        assertThat(file2.name(), is("test2.txt"));
+        assertThat(file2.size(), is(5L));
+        assertThat(blobStore.references(file1.hash()), is(2));
+        assertThat(fileStorageService.readFile("directoryId2", file2.fileId(), null).getBody().getContentAsString(StandardCharsets.UTF_8), is("test1"));
+
+        // Knowing the hash isn't enough for other clients, they have to upload the content
+        assertThat(fileStorageService.findKnownHashes(List.of(file1.hash()), null, "other-user-agent"), empty());
+
+        final ResponseStatusException e = assertThrows(ResponseStatusException.class, () -> fileStorageService.saveFile("directoryId3", "other-user-agent", part));
+        assertThat(e.getMessage(), is("Couldn't write file."));
+        assertThat(blobStore.references(file1.hash()), is(2));
+    }
+
+    @Test
+    void findKnownHashes_positive_DedupDisabled() {
+
+        final File file = fileStorageService.saveFile("directoryId", "test-user-agent", createPart("1", "test1.txt", "test1", MediaType.TEXT_PLAIN, null));
+
+        assertThat(fileStorageService.findKnownHashes(List.of(file.hash()), null, "test-user-agent"), empty());
+    }
+
+    @Test
+    void saveFiles_positive_TreeHash() throws Exception {
+
+        final FileStorageProperties fileStorageProperties = properties(tempDir)
+                .hashing(new FileStorageProperties.Hashing(true, DataSize.ofBytes(4), 2, null)).build();
+        final DirectoryLocks directoryLocks = new DirectoryLocks(fileStorageProperties);
+        final StorageLayout storageLayout = new StorageLayout(fileStorageProperties, directoryLocks);
+        final MetadataService metadataService = new MetadataService(fileStorageProperties, directoryLocks, storageLayout);
+        final IoExecutor ioExecutor = new IoExecutor(fileStorageProperties);
+        final FileStorageService fileStorageService = new FileStorageService(fileStorageProperties, metadataService, new DownloadTracker(fileStorageProperties, metadataService, ioExecutor), ioExecutor, new BlobStore(fileStorageProperties), new ContentCache(fileStorageProperties), storageLayout, new LocalStorageBackend(storageLayout), new CompressionPolicy(fileStorageProperties), new TreeHasher(fileStorageProperties));
+
+        final File file = fileStorageService.saveFiles("directoryId", "test-user-agent", List.of(createPart("1", "test1.txt", "test1test2", MediaType.TEXT_PLAIN, null))).getFirst();
+
+        final ChunkHashes chunkHashes = fileStorageService.readChunkHashes("directoryId", file.fileId());
+        assertThat(chunkHashes.chunkSize(), is(4L));
+        assertThat(chunkHashes.hashes(), hasSize(3));
+
+        final MessageDigest root = MessageDigest.getInstance("SHA3-512");
+        chunkHashes.hashes().forEach(h -> root.update(HexFormat.of().parseHex(h)));
+        assertThat(file.hash(), is(HexFormat.of().formatHex(root.digest())));
+
+        // A client can verify a range against the chunks it covers
+        final HttpEntity<Resource> httpEntity = fileStorageService.readFile("directoryId", file.fileId(), null);
+        assertThat(file.tree(), is(true));
+        assertThat(httpEntity.getHeaders().getFirst(Constants.Http.Header.FILE_HASH_MODE), is(Constants.Http.HashMode.TREE));
+        final Resource resource = httpEntity.getBody();
+        final byte[] range = Arrays.copyOfRange(resource.getContentAsByteArray(), 4, 8);
+        assertThat(HexFormat.of().formatHex(MessageDigest.getInstance("SHA3-512").digest(range)), is(chunkHashes.hashes().get(1)));
+
+        // The provided hash is the tree hash
+        final ResponseStatusException e = assertThrows(ResponseStatusException.class, () -> fileStorageService.saveFiles("directoryId", "test-user-agent", List.of(createPart("2", "test2.txt", "test1test2", MediaType.TEXT_PLAIN, "00"))));
+        assertThat(e.getAdditionalDetails().get("hash-calculated"), is(file.hash()));
+    }
+
+    @Test
+    void saveFiles_positive_HashAlgorithm() throws Exception {
+
+        final FileStorageProperties fileStorageProperties = properties(tempDir)
+                .dedup(new FileStorageProperties.Dedup(true)).build();
+        final DirectoryLocks directoryLocks = new DirectoryLocks(fileStorageProperties);
+        final StorageLayout storageLayout = new StorageLayout(fileStorageProperties, directoryLocks);
+        final MetadataService metadataService = new MetadataService(fileStorageProperties, directoryLocks, storageLayout);
+        final BlobStore blobStore = new BlobStore(fileStorageProperties);
+        final IoExecutor ioExecutor = new IoExecutor(fileStorageProperties);
+        final FileStorageService fileStorageService = new FileStorageService(fileStorageProperties, metadataService, new DownloadTracker(fileStorageProperties, metadataService, ioExecutor), ioExecutor, blobStore, new ContentCache(fileStorageProperties), storageLayout, new LocalStorageBackend(storageLayout), new CompressionPolicy(fileStorageProperties), new TreeHasher(fileStorageProperties));
+
+        final String sha256 = HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest("test1".getBytes(StandardCharsets.UTF_8)));
+        final File file1 = fileStorageService.saveFiles("directoryId", "test-user-agent", List.of(createPart("1", "test1.txt", "test1", MediaType.TEXT_PLAIN, sha256, "sha-256"))).getFirst();
+
+        assertThat(file1.hash(), is(sha256));
+        assertThat(file1.blob(), is(sha256 + ".sha256"));
+        assertThat(blobStore.references(file1.blob()), is(1));
+
+        final HttpHeaders headers = fileStorageService.readFile("directoryId", file1.fileId(), null).getHeaders();
+        assertThat(headers.getFirst(Constants.Http.Header.FILE_HASH), is(sha256));
+        assertThat(headers.getFirst(Constants.Http.Header.FILE_HASH_ALGORITHM), is("SHA-256"));
+        assertThat(headers.getFirst(Constants.Http.Header.FILE_HASH_MODE), is(Constants.Http.HashMode.FLAT));
+
+        // Checksums can be forged, content verified by them is never shared
+        final File file2 = fileStorageService.saveFiles("directoryId", "test-user-agent", List.of(createPart("2", "test2.txt", "test1", MediaType.TEXT_PLAIN, null, "CRC32C"))).getFirst();
+
+        assertThat(file2.hash(), hasLength(8));
+        assertThat(file2.blob(), nullValue());
+        assertThat(fileStorageService.findKnownHashes(List.of(file2.hash()), "CRC32C", "test-user-agent"), empty());
+        assertThat(fileStorageService.readFile("directoryId", file2.fileId(), null).getBody().getContentAsString(StandardCharsets.UTF_8), is("test1"));
+
+        // The provided hash is verified with the chosen algorithm
+        final ResponseStatusException e = assertThrows(ResponseStatusException.class, () -> fileStorageService.saveFiles("directoryId", "test-user-agent", List.of(createPart("3", "test3.txt", "test1", MediaType.TEXT_PLAIN, file2.hash(), "SHA-512"))));
+        assertThat(e.getMessage(), is("Hash doesn't match."));
+    }
+
+    @Test
+    void saveFiles_negative_HashAlgorithmNotSupported() {
+
+        final FileStorageProperties fileStorageProperties = properties(tempDir)
+                .hashing(new FileStorageProperties.Hashing(null, null, null, List.of("SHA3-512"))).build();
+        final DirectoryLocks directoryLocks = new DirectoryLocks(fileStorageProperties);
+        final StorageLayout storageLayout = new StorageLayout(fileStorageProperties, directoryLocks);
+        final MetadataService metadataService = new MetadataService(fileStorageProperties, directoryLocks, storageLayout);
+        final IoExecutor ioExecutor = new IoExecutor(fileStorageProperties);
+        final FileStorageService fileStorageService = new FileStorageService(fileStorageProperties, metadataService, new DownloadTracker(fileStorageProperties, metadataService, ioExecutor), ioExecutor, new BlobStore(fileStorageProperties), new ContentCache(fileStorageProperties), storageLayout, new LocalStorageBackend(storageLayout), new CompressionPolicy(fileStorageProperties), new TreeHasher(fileStorageProperties));
+
+        final ResponseStatusException e = assertThrows(ResponseStatusException.class, () -> fileStorageService.saveFiles("directoryId", "test-user-agent", List.of(createPart("1", "test1.txt", "test1", MediaType.TEXT_PLAIN, null, "SHA-256"))));
+
+        assertThat(e.getStatusCode(), is(HttpStatus.BAD_REQUEST));
+        assertThat(e.getMessage(), is("Hash algorithm not supported."));
+        assertThat(e.getAdditionalDetails().get("supported"), is("SHA3-512"));
+    }
+
+    @Test
+    void readChunkHashes_negative_NoTreeHash() {
+
+        final File file = fileStorageService.saveFiles("directoryId", "test-user-agent", List.of(createPart("1", "test1.txt", "test1", MediaType.TEXT_PLAIN, null))).getFirst();
+
+        final ResponseStatusException e = assertThrows(ResponseStatusException.class, () -> fileStorageService.readChunkHashes("directoryId", file.fileId()));
+
+        assertThat(e.getStatusCode(), is(HttpStatus.NOT_FOUND));
+        assertThat(e.getMessage(), is("No chunk hashes for file."));
+    }
+
+    @Test
+    void readFile_positive() throws IOException {
+
+        final File file = fileStorageService.saveFiles("directoryId", "test-user-agent", List.of(createPart("1", "test1.txt", "test1", MediaType.TEXT_PLAIN, null))).getFirst();
+
+        final HttpEntity<Resource> httpEntity = fileStorageService.readFile("directoryId", file.fileId(), null);
+
+        assertThat(httpEntity.getHeaders().getContentType(), is(MediaType.TEXT_PLAIN));
+        assertThat(httpEntity.getHeaders().getContentDisposition().getFilename(), is("test1.txt"));
+        assertThat(httpEntity.getHeaders().getETag(), is("\"" + file.hash() + "\""));
+        assertThat(httpEntity.getHeaders().getFirst(Constants.Http.Header.FILE_HASH), is(file.hash()));
+        assertThat(httpEntity.getBody().getContentAsByteArray(), is("test1".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    void readFile_positive_CachedOnlyWhenRead() throws IOException {
+
+        final FileStorageProperties fileStorageProperties = properties(tempDir).contentCache(new FileStorageProperties.ContentCache(true, null, null, 1)).build();
+        final DirectoryLocks directoryLocks = new DirectoryLocks(fileStorageProperties);
+        final StorageLayout storageLayout = new StorageLayout(fileStorageProperties, directoryLocks);
+        final MetadataService metadataService = new MetadataService(fileStorageProperties, directoryLocks, storageLayout);
+        final IoExecutor ioExecutor = new IoExecutor(fileStorageProperties);
+        final ContentCache contentCache = new ContentCache(fileStorageProperties);
+        final FileStorageService fileStorageService = new FileStorageService(fileStorageProperties, metadataService, new DownloadTracker(fileStorageProperties, metadataService, ioExecutor), ioExecutor, new BlobStore(fileStorageProperties), contentCache, storageLayout, new LocalStorageBackend(storageLayout), new CompressionPolicy(fileStorageProperties), new TreeHasher(fileStorageProperties));
+
+        final File file = fileStorageService.saveFiles("directoryId", "test-user-agent", List.of(createPart("1", "test1.txt", "test1", MediaType.TEXT_PLAIN, null))).getFirst();
+
+        // Answers without a body (304) don't read the file
+        fileStorageService.readFile("directoryId", file.fileId(), null);
+        fileStorageService.readFile("directoryId", file.fileId(), null);
+        assertThat(contentCache.bytes(), is(0L));
+
+        assertThat(fileStorageService.readFile("directoryId", file.fileId(), null).getBody().getContentAsString(StandardCharsets.UTF_8), is("test1"));
+        contentCache.cleanUp();
+        assertThat(contentCache.bytes(), is(5L));
+    }
+
+    @Test
+    void readFiles_positive_CachedOnlyWhenRead() throws IOException {
+
+        final FileStorageProperties fileStorageProperties = properties(tempDir).contentCache(new FileStorageProperties.ContentCache(true, null, null, 1)).build();
+        final DirectoryLocks directoryLocks = new DirectoryLocks(fileStorageProperties);
+        final StorageLayout storageLayout = new StorageLayout(fileStorageProperties, directoryLocks);
+        final MetadataService metadataService = new MetadataService(fileStorageProperties, directoryLocks, storageLayout);
+        final IoExecutor ioExecutor = new IoExecutor(fileStorageProperties);
+        final ContentCache contentCache = new ContentCache(fileStorageProperties);
+        final FileStorageService fileStorageService = new FileStorageService(fileStorageProperties, metadataService, new DownloadTracker(fileStorageProperties, metadataService, ioExecutor), ioExecutor, new BlobStore(fileStorageProperties), contentCache, storageLayout, new LocalStorageBackend(storageLayout), new CompressionPolicy(fileStorageProperties), new TreeHasher(fileStorageProperties));
+
+        final File file = fileStorageService.saveFiles("directoryId", "test-user-agent", List.of(createPart("1", "test1.txt", "test1", MediaType.TEXT_PLAIN, null))).getFirst();
+
+        // Building the response doesn't read the files
+        fileStorageService.readFiles("directoryId", List.of(new FileDownload("1", file.fileId())));
+        fileStorageService.readFiles("directoryId", List.of(new FileDownload("1", file.fileId())));
+        assertThat(contentCache.contains("directoryId", metadataService.readMetadata("directoryId").get(file.fileId())), is(false));
+
+        final HttpEntity<Resource> httpEntity = fileStorageService.readFiles("directoryId", List.of(new FileDownload("1", file.fileId()))).getFirst();
+        assertThat(httpEntity.getBody().getContentAsString(StandardCharsets.UTF_8), is("test1"));
+        assertThat(contentCache.contains("directoryId", metadataService.readMetadata("directoryId").get(file.fileId())), is(true));
+
+        // Cached files are served from the cache
+        assertThat(fileStorageService.readFiles("directoryId", List.of(new FileDownload("1", file.fileId()))).getFirst().getBody().getContentAsString(StandardCharsets.UTF_8), is("test1"));
+    }
+
+    @Test
+    void bindTo_positive() throws IOException {
+
+        final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        fileStorageService.bindTo(registry);
+
+        final File file = fileStorageService.saveFiles("directoryId", "test-user-agent", List.of(createPart("1", "test1.txt", "test1", MediaType.TEXT_PLAIN, null))).getFirst();
+        fileStorageService.readFile("directoryId", file.fileId(), null).getBody().getContentAsByteArray();
+
+        assertThat(registry.get("file.storage.upload.bytes").counter().count(), is(5.0));
+        assertThat(registry.get("file.storage.download.bytes").counter().count(), is(5.0));
+        assertThat(registry.get("file.storage.upload.phase").tag("phase", "write").timer().count(), is(1L));
+        assertThat(registry.get("file.storage.upload.phase").tag("phase", "store-blob").timer(), notNullValue());
+        // The rename belongs to the local backend
+        assertThat(registry.find("file.storage.upload.phase").tag("phase", "rename").timer(), nullValue());
+    }
+
+    @Test
+    void readFile_negative_FileNotFound() {
+
+        final ResponseStatusException e = assertThrows(ResponseStatusException.class, () -> fileStorageService.readFile("directoryId", "unknown", null));
+
+        assertThat(e.getStatusCode(), is(HttpStatus.NOT_FOUND));
+        assertThat(e.getAdditionalDetails().get("fileId"), is("unknown"));
+    }
+
+    @Test
+    void readArchiveEntries_writeArchive_positive_Zip() throws IOException {
+
+        fileStorageService.saveFiles("directoryId", "test-user-agent", List.of(
+                createPart("1", "test.txt", "test1", MediaType.TEXT_PLAIN, null),
+                createPart("2", "test.txt", "test2", MediaType.TEXT_PLAIN, null),
+                createPart("3", "../other.txt", "test3", MediaType.TEXT_PLAIN, null)
+        ));
+
+        final List<ArchiveEntry> entries = fileStorageService.readArchiveEntries("directoryId", null);
+
+        assertThat(entries.stream().map(ArchiveEntry::name).toList(), containsInAnyOrder("test.txt", "test (1).txt", ".._other.txt"));
+
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        fileStorageService.writeArchive(entries, ArchiveFormat.ZIP, 1, outputStream);
+
+        final Map<String, String> content = new HashMap<>();
+        try (final ZipInputStream zipInputStream = new ZipInputStream(new ByteArrayInputStream(outputStream.toByteArray()))) {
+            ZipEntry zipEntry;
+            while ((zipEntry = zipInputStream.getNextEntry()) != null) {
+                content.put(zipEntry.getName(), new String(zipInputStream.readAllBytes(), StandardCharsets.UTF_8));
+            }
+        }
+
+        assertThat(content, aMapWithSize(3));
+        assertThat(content.get(".._other.txt"), is("test3"));
+        assertThat(content.values(), containsInAnyOrder("test1", "test2", "test3"));
+    }
+
+    @Test
+    void readArchiveEntries_writeArchive_positive_TarFiltered() throws IOException {
+
+        final List<File> files = fileStorageService.saveFiles("directoryId", "test-user-agent", List.of(
+                createPart("1", "test1.txt", "test1", MediaType.TEXT_PLAIN, null),
+                createPart("2", "test2.txt", "test2", MediaType.TEXT_PLAIN, null)
+        ));
+
+        final List<ArchiveEntry> entries = fileStorageService.readArchiveEntries("directoryId", List.of(files.getLast().fileId()));
+
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        fileStorageService.writeArchive(entries, ArchiveFormat.TAR, -1, outputStream);
+
+        final byte[] tar = outputStream.toByteArray();
+
+        // Header, one data block and two empty blocks at the end
+        assertThat(tar.length, is(4 * 512));
+        assertThat(new String(tar, 0, 9, StandardCharsets.US_ASCII), is("test2.txt"));
+        assertThat(new String(tar, 257, 5, StandardCharsets.US_ASCII), is("ustar"));
+        assertThat(new String(tar, 512, 5, StandardCharsets.UTF_8), is("test2"));
+    }
+
+    @Test
+    void readArchiveEntries_negative_FileNotFound() {
+
+        final ResponseStatusException e = assertThrows(ResponseStatusException.class, () -> fileStorageService.readArchiveEntries("directoryId", List.of("unknown")));
+
+        assertThat(e.getStatusCode(), is(HttpStatus.NOT_FOUND));
+    }
+
     @Test
     void saveFiles_negative_HashDoesNotMatch() {
 
         final Part part1 = createPart("1", "test.txt", "test", MediaType.TEXT_PLAIN, "Doesn't match");
 
-        final ResponseStatusException e = assertThrows(ResponseStatusException.class, () -> fileStorageService.saveFiles("directoryId", List.of(
+        final ResponseStatusException e = assertThrows(ResponseStatusException.class, () -> fileStorageService.saveFiles("directoryId", "test-user-agent", List.of(
                 part1
         )));
 
@@ -124,10 +644,67 @@ class FileStorageServiceTest {
         assertThat(e.getAdditionalDetails().get("hash-provided"), is("Doesn't match"));
     }
 
+    @Test
+    void saveFilesStreaming_positive() throws IOException {
+
+        final String body = """
+                --my-boundary\r
+                Content-Disposition: form-data; name="variables"\r
+                \r
+                ignored\r
+                --my-boundary\r
+                Content-Disposition: form-data; name="file"; filename="test1.txt"\r
+                Content-Type: text/plain\r
+                X-File-ID: 1\r
+                X-File-Hash: d2d8cc4f369b340130bd2b29b8b54e918b7c260c3279176da9ccaa37c96eb71735fc97568e892dc6220bf4ae0d748edb46bd75622751556393be3f482e6f794e\r
+                \r
+                test1\r
+                --my-boundary--\r
+                """;
+
+        final List<File> files = fileStorageService.saveFilesStreaming("directoryId", "test-user-agent", new StreamingMultipartParser(
+                new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)), "my-boundary", 1024
+        ));
+
+        assertThat(files.size(), is(1));
+        assertThat(files.getFirst().id(), is("1"));
+        assertThat(files.getFirst().name(), is("test1.txt"));
+        assertThat(files.getFirst().mediaType(), is(MediaType.TEXT_PLAIN));
+        assertThat(files.getFirst().hash(), is("d2d8cc4f369b340130bd2b29b8b54e918b7c260c3279176da9ccaa37c96eb71735fc97568e892dc6220bf4ae0d748edb46bd75622751556393be3f482e6f794e"));
+
+        assertThat(Files.readString(tempDir.resolve("directoryId").resolve(files.getFirst().fileId())), is("test1"));
+    }
+
+    @Test
+    void saveFilesStreaming_negative_FileTooLarge() {
+
+        final String body = """
+                --my-boundary\r
+                Content-Disposition: form-data; name="file"; filename="test1.txt"\r
+                Content-Type: text/plain\r
+                X-File-ID: 1\r
+                \r
+                test1\r
+                --my-boundary--\r
+                """;
+
+        final ResponseStatusException e = assertThrows(ResponseStatusException.class, () -> fileStorageService.saveFilesStreaming("directoryId", "test-user-agent", new StreamingMultipartParser(
+                new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)), "my-boundary", 3
+        )));
+
+        assertThat(e.getStatusCode(), is(HttpStatus.CONTENT_TOO_LARGE));
+        assertThat(tempDir.resolve("directoryId").toFile().list(), arrayWithSize(0));
+    }
+
     private Part createPart(final String id, final String filename, final String content, final MediaType contentType, final String hash) {
+        return createPart(id, filename, content, contentType, hash, null);
+    }
+
+    private Part createPart(final String id, final String filename, final String content, final MediaType contentType, final String hash, final String hashAlgorithm) {
         final MockPart part = new MockPart(Constants.Http.BodyPart.FILE, filename, content.getBytes(StandardCharsets.UTF_8), contentType);
         part.getHeaders().add(Constants.Http.Header.FILE_ID, id);
         part.getHeaders().add(Constants.Http.Header.FILE_HASH, hash);
+        part.getHeaders().add(Constants.Http.Header.FILE_HASH_ALGORITHM, hashAlgorithm);
         return part;
     }
 }
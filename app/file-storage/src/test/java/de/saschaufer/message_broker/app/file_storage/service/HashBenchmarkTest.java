@@ -0,0 +1,103 @@
+package de.saschaufer.message_broker.app.file_storage.service;
+
+import de.saschaufer.message_broker.app.file_storage.config.FileStorageProperties;
+import de.saschaufer.message_broker.app.file_storage.service.dto.HashAlgorithm;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static de.saschaufer.message_broker.app.file_storage.config.FileStoragePropertiesBuilder.properties;
+
+// Run with: mvn test -Dtest=HashBenchmarkTest -Dbenchmark=true [-Dbenchmark.sizes=4KB,256KB,8MB,256MB]
+// The sizes stand for the distribution of uploaded files, every size is hashed about the same amount of bytes.
+@Slf4j
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class HashBenchmarkTest {
+
+    private static final int WARMUP = 2;
+    private static final int ITERATIONS = 5;
+    private static final long BYTES_PER_ITERATION = 256L * 1024 * 1024;
+
+    @Test
+    void benchmark() throws IOException {
+
+        final List<DataSize> sizes = Arrays.stream(System.getProperty("benchmark.sizes", "4KB,256KB,8MB,256MB").split(","))
+                .map(String::trim)
+                .map(DataSize::parse)
+                .toList();
+
+        final TreeHasher treeHasher = new TreeHasher(properties(Path.of("."))
+                .hashing(new FileStorageProperties.Hashing(true, null, null, null)).build());
+
+        try {
+            for (final DataSize size : sizes) {
+                final byte[] content = new byte[(int) size.toBytes()];
+                ThreadLocalRandom.current().nextBytes(content);
+
+                for (final HashAlgorithm hashAlgorithm : HashAlgorithm.values()) {
+                    run(hashAlgorithm.algorithm(), "flat", content, () -> {
+                        final MessageDigest md = hashAlgorithm.newDigest();
+                        try (final InputStream is = new DigestInputStream(new ByteArrayInputStream(content), md)) {
+                            is.transferTo(OutputStream.nullOutputStream());
+                        }
+                        md.digest();
+                    });
+                    run(hashAlgorithm.algorithm(), "tree", content, () -> {
+                        try (final TreeHasher.HashingInputStream is = treeHasher.wrap(new ByteArrayInputStream(content), hashAlgorithm)) {
+                            is.transferTo(OutputStream.nullOutputStream());
+                            is.finish();
+                        }
+                    });
+                }
+            }
+        } finally {
+            treeHasher.shutdown();
+        }
+    }
+
+    private void run(final String algorithm, final String mode, final byte[] content, final Task task) throws IOException {
+
+        final long repetitions = Math.max(1, BYTES_PER_ITERATION / Math.max(1, content.length));
+
+        for (int i = 0; i < WARMUP; i++) {
+            for (long r = 0; r < repetitions; r++) {
+                task.run();
+            }
+        }
+
+        final long start = System.nanoTime();
+
+        for (int i = 0; i < ITERATIONS; i++) {
+            for (long r = 0; r < repetitions; r++) {
+                task.run();
+            }
+        }
+
+        final long wall = System.nanoTime() - start;
+        final double megabytes = (double) content.length * repetitions * ITERATIONS / (1024 * 1024);
+
+        log.atInfo().setMessage("Hash benchmark.")
+                .addKeyValue("algorithm", algorithm)
+                .addKeyValue("mode", mode)
+                .addKeyValue("file-size", DataSize.ofBytes(content.length))
+                .addKeyValue("throughput-mb-s", String.format("%.1f", megabytes / (wall / 1e9)))
+                .log();
+    }
+
+    @FunctionalInterface
+    private interface Task {
+        void run() throws IOException;
+    }
+}
@@ -0,0 +1,35 @@
+package de.saschaufer.message_broker.app.file_storage.service;
+
+import de.saschaufer.message_broker.common.api.errorhandler.ResponseStatusException;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Map;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class InMemoryStorageBackendTest extends StorageBackendConformanceTest {
+
+    @Override
+    StorageBackend createStorageBackend() {
+        return new InMemoryStorageBackend();
+    }
+
+    @Test
+    void put_negative_TooLarge() throws IOException {
+
+        final InMemoryStorageBackend storageBackend = new InMemoryStorageBackend(4);
+
+        assertThat(storageBackend.put("directoryId", "fileId-1", new ByteArrayInputStream(new byte[4])), is(4L));
+
+        final ResponseStatusException e = assertThrows(ResponseStatusException.class, () -> storageBackend.put("directoryId", "fileId-2", new ByteArrayInputStream(new byte[5])));
+
+        assertThat(e.getStatusCode(), is(HttpStatus.CONTENT_TOO_LARGE));
+        assertThat(e.getAdditionalDetails(), is(Map.of("max-size", "4")));
+        assertThat(storageBackend.list("directoryId"), contains("fileId-1"));
+    }
+}
@@ -0,0 +1,100 @@
+package de.saschaufer.message_broker.app.file_storage.service;
+
+import de.saschaufer.message_broker.app.file_storage.config.FileStorageProperties;
+import de.saschaufer.message_broker.common.api.errorhandler.ResponseStatusException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.http.HttpStatus;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import static de.saschaufer.message_broker.app.file_storage.config.FileStoragePropertiesBuilder.properties;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class IoExecutorTest {
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void map_positive_KeepsOrderAndLimitsParallelism(final boolean virtualThreads) {
+
+        final IoExecutor ioExecutor = createIoExecutor(3, virtualThreads);
+
+        final AtomicInteger active = new AtomicInteger();
+        final AtomicInteger maxActive = new AtomicInteger();
+
+        final List<Integer> results = ioExecutor.map(IntStream.range(0, 50).boxed().toList(), i -> {
+            maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(5);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            active.decrementAndGet();
+            return i * 2;
+        });
+
+        assertThat(results, is(IntStream.range(0, 50).map(i -> i * 2).boxed().toList()));
+        assertThat(maxActive.get(), lessThanOrEqualTo(virtualThreads ? 3 : 4));
+        assertThat(ioExecutor.activeTasks(), is(0));
+        assertThat(ioExecutor.queuedTasks(), is(0));
+        assertThat(ioExecutor.completedTasks(), is(50L));
+
+        ioExecutor.shutdown();
+    }
+
+    @Test
+    void map_negative_RethrowsException() {
+
+        final IoExecutor ioExecutor = createIoExecutor(2, false);
+
+        final ResponseStatusException e = assertThrows(ResponseStatusException.class, () -> ioExecutor.map(List.of(1, 2, 3), i -> {
+            if (i == 2) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Error");
+            }
+            return i;
+        }));
+
+        assertThat(e.getStatusCode(), is(HttpStatus.BAD_REQUEST));
+        assertThat(e.getMessage(), is("Error"));
+
+        ioExecutor.shutdown();
+    }
+
+    @Test
+    void submit_positive() {
+
+        final IoExecutor ioExecutor = createIoExecutor(2, false);
+
+        assertThat(ioExecutor.submit(() -> "test").join(), is("test"));
+
+        ioExecutor.shutdown();
+    }
+
+    @Test
+    void bindTo_positive() {
+
+        final IoExecutor ioExecutor = createIoExecutor(2, false);
+        final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        ioExecutor.bindTo(registry);
+
+        ioExecutor.map(List.of(1, 2, 3), i -> i);
+
+        assertThat(registry.get("file.storage.io.tasks.completed").functionCounter().count(), is(3.0));
+        assertThat(registry.get("file.storage.io.tasks.active").gauge().value(), is(0.0));
+        assertThat(registry.get("file.storage.io.tasks.queued").gauge().value(), is(0.0));
+
+        ioExecutor.shutdown();
+    }
+
+    private IoExecutor createIoExecutor(final int parallelism, final boolean virtualThreads) {
+        return new IoExecutor(properties(Path.of("."))
+                .io(new FileStorageProperties.Io(parallelism, virtualThreads, 1)).build());
+    }
+}
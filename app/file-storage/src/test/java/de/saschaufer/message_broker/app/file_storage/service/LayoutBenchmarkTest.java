@@ -0,0 +1,77 @@
+package de.saschaufer.message_broker.app.file_storage.service;
+
+import de.saschaufer.message_broker.app.file_storage.config.FileStorageProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static de.saschaufer.message_broker.app.file_storage.config.FileStoragePropertiesBuilder.properties;
+
+// Run with: mvn test -Dtest=LayoutBenchmarkTest -Dbenchmark=true [-Dbenchmark.entries=1000000]
+@Slf4j
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class LayoutBenchmarkTest {
+
+    private static final int LOOKUPS = 100_000;
+
+    @TempDir
+    private Path tempDir;
+
+    @Test
+    void benchmark() throws Exception {
+
+        final int entries = Integer.getInteger("benchmark.entries", 1_000_000);
+
+        run("flat", entries, 0);
+        run("sharded-2", entries, 2);
+    }
+
+    private void run(final String name, final int entries, final int levels) throws Exception {
+
+        final Path path = Files.createDirectories(tempDir.resolve(name));
+        final FileStorageProperties fileStorageProperties = properties(path)
+                .layout(new FileStorageProperties.Layout(levels, levels, null, null, null, null)).build();
+        final StorageLayout storageLayout = new StorageLayout(fileStorageProperties, new DirectoryLocks(fileStorageProperties));
+
+        final String[] directoryIds = new String[entries];
+        final long[] create = new long[entries];
+        for (int i = 0; i < entries; i++) {
+            directoryIds[i] = UUID.randomUUID().toString();
+            final long start = System.nanoTime();
+            storageLayout.createDirectory(directoryIds[i]);
+            create[i] = System.nanoTime() - start;
+        }
+
+        final long[] lookup = new long[LOOKUPS];
+        for (int i = 0; i < LOOKUPS; i++) {
+            final String directoryId = directoryIds[ThreadLocalRandom.current().nextInt(entries)];
+            final long start = System.nanoTime();
+            if (!Files.isDirectory(storageLayout.getDirectory(directoryId))) {
+                throw new IllegalStateException("Directory not found: " + directoryId);
+            }
+            lookup[i] = System.nanoTime() - start;
+        }
+
+        log.atInfo().setMessage("Layout benchmark.")
+                .addKeyValue("variant", name)
+                .addKeyValue("entries", entries)
+                .addKeyValue("create-p50-us", percentile(create, 0.5))
+                .addKeyValue("create-p99-us", percentile(create, 0.99))
+                .addKeyValue("lookup-p50-us", percentile(lookup, 0.5))
+                .addKeyValue("lookup-p99-us", percentile(lookup, 0.99))
+                .log();
+    }
+
+    private static String percentile(final long[] nanos, final double percentile) {
+        final long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        return String.format("%.1f", sorted[(int) Math.min(sorted.length - 1, sorted.length * percentile)] / 1e3);
+    }
+}
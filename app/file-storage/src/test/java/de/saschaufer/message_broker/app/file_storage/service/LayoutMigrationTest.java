@@ -0,0 +1,128 @@
+package de.saschaufer.message_broker.app.file_storage.service;
+
+import de.saschaufer.message_broker.app.file_storage.config.FileStorageProperties;
+import de.saschaufer.message_broker.app.file_storage.service.dto.File;
+import de.saschaufer.message_broker.common.Constants;
+import jakarta.servlet.http.Part;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockPart;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.locks.Lock;
+
+import static de.saschaufer.message_broker.app.file_storage.config.FileStoragePropertiesBuilder.properties;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+class LayoutMigrationTest {
+
+    @TempDir
+    private Path tempDir;
+
+    @Test
+    void run_positive_MigratesFlatStore() throws IOException {
+
+        final List<File> files = createFileStorageService(0, 0).saveFiles("directoryId", "test-user-agent", List.of(createPart("1", "test1"), createPart("2", "test2")));
+
+        final FileStorageProperties fileStorageProperties = createFileStorageProperties(2, 2);
+        final DirectoryLocks directoryLocks = new DirectoryLocks(fileStorageProperties);
+        final StorageLayout storageLayout = new StorageLayout(fileStorageProperties, directoryLocks);
+        final FileStorageService fileStorageService = createFileStorageService(fileStorageProperties, directoryLocks, storageLayout);
+        final LayoutMigration layoutMigration = new LayoutMigration(fileStorageProperties, directoryLocks, storageLayout);
+
+        assertThat(storageLayout.isMigrating(), is(true));
+
+        layoutMigration.run();
+
+        // Moved, the old names still work until the clean-up
+        final Path directory = storageLayout.resolveDirectory(storageLayout.current(), "directoryId");
+        assertThat(Files.isDirectory(directory), is(true));
+        assertThat(Files.isSymbolicLink(tempDir.resolve("directoryId")), is(true));
+        assertThat(Files.readString(tempDir.resolve("directoryId").resolve(files.getFirst().fileId())), is("test1"));
+        assertThat(fileStorageService.readFile("directoryId", files.getFirst().fileId(), null).getBody().getContentAsString(StandardCharsets.UTF_8), is("test1"));
+
+        layoutMigration.run();
+
+        assertThat(storageLayout.isMigrating(), is(false));
+        assertThat(Files.exists(tempDir.resolve("directoryId")), is(false));
+        assertThat(Files.exists(directory.resolve(files.getFirst().fileId())), is(false));
+        assertThat(Files.readString(storageLayout.getFile("directoryId", files.getFirst().fileId())), is("test1"));
+        assertThat(Files.readString(storageLayout.getFile("directoryId", files.getLast().fileId())), is("test2"));
+        assertThat(fileStorageService.readFile("directoryId", files.getLast().fileId(), null).getBody().getContentAsString(StandardCharsets.UTF_8), is("test2"));
+        assertThat(Files.readString(tempDir.resolve(StorageLayout.LAYOUT_FILENAME)), is("directory-levels=2\nfile-levels=2\n"));
+        assertThat(new StorageLayout(fileStorageProperties, directoryLocks).isMigrating(), is(false));
+    }
+
+    @Test
+    void run_positive_SkipsBusyDirectories() throws Exception {
+
+        createFileStorageService(0, 0).saveFiles("directoryId", "test-user-agent", List.of(createPart("1", "test1")));
+
+        final FileStorageProperties fileStorageProperties = createFileStorageProperties(1, 0);
+        final DirectoryLocks directoryLocks = new DirectoryLocks(fileStorageProperties);
+        final StorageLayout storageLayout = new StorageLayout(fileStorageProperties, directoryLocks);
+        final LayoutMigration layoutMigration = new LayoutMigration(fileStorageProperties, directoryLocks, storageLayout);
+
+        final CountDownLatch locked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Thread thread = Thread.ofPlatform().start(() -> {
+            final Lock lock = directoryLocks.readLock("directoryId");
+            lock.lock();
+            try {
+                locked.countDown();
+                release.await();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                lock.unlock();
+            }
+        });
+
+        locked.await();
+        layoutMigration.run();
+
+        assertThat(Files.isDirectory(tempDir.resolve("directoryId")), is(true));
+        assertThat(Files.isSymbolicLink(tempDir.resolve("directoryId")), is(false));
+        assertThat(storageLayout.isMigrating(), is(true));
+
+        release.countDown();
+        thread.join();
+
+        layoutMigration.run();
+        layoutMigration.run();
+
+        assertThat(Files.exists(tempDir.resolve("directoryId")), is(false));
+        assertThat(storageLayout.isMigrating(), is(false));
+    }
+
+    private FileStorageProperties createFileStorageProperties(final int directoryLevels, final int fileLevels) {
+        return properties(tempDir)
+                .layout(new FileStorageProperties.Layout(directoryLevels, fileLevels, null, 100, Duration.ZERO, Duration.ZERO)).build();
+    }
+
+    private FileStorageService createFileStorageService(final int directoryLevels, final int fileLevels) {
+        final FileStorageProperties fileStorageProperties = createFileStorageProperties(directoryLevels, fileLevels);
+        final DirectoryLocks directoryLocks = new DirectoryLocks(fileStorageProperties);
+        return createFileStorageService(fileStorageProperties, directoryLocks, new StorageLayout(fileStorageProperties, directoryLocks));
+    }
+
+    private FileStorageService createFileStorageService(final FileStorageProperties fileStorageProperties, final DirectoryLocks directoryLocks, final StorageLayout storageLayout) {
+        final MetadataService metadataService = new MetadataService(fileStorageProperties, directoryLocks, storageLayout);
+        final IoExecutor ioExecutor = new IoExecutor(fileStorageProperties);
+        return new FileStorageService(fileStorageProperties, metadataService, new DownloadTracker(fileStorageProperties, metadataService, ioExecutor), ioExecutor, new BlobStore(fileStorageProperties), new ContentCache(fileStorageProperties), storageLayout, new LocalStorageBackend(storageLayout), new CompressionPolicy(fileStorageProperties), new TreeHasher(fileStorageProperties));
+    }
+
+    private Part createPart(final String id, final String content) {
+        final MockPart part = new MockPart(Constants.Http.BodyPart.FILE, "test-" + id + ".txt", content.getBytes(StandardCharsets.UTF_8), MediaType.TEXT_PLAIN);
+        part.getHeaders().add(Constants.Http.Header.FILE_ID, id);
+        return part;
+    }
+}
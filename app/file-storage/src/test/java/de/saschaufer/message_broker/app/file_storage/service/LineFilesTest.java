@@ -0,0 +1,45 @@
+package de.saschaufer.message_broker.app.file_storage.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class LineFilesTest {
+
+    @TempDir
+    private Path tempDir;
+
+    @Test
+    void terminateLastLine_positive() throws IOException {
+
+        final Path file = Files.writeString(tempDir.resolve("file"), "line-1\nline-2");
+
+        assertThat(LineFiles.terminateLastLine(file), is(true));
+        assertThat(Files.readString(file), is("line-1\nline-2\n"));
+
+        assertThat(LineFiles.terminateLastLine(file), is(false));
+        assertThat(Files.readString(file), is("line-1\nline-2\n"));
+    }
+
+    @Test
+    void terminateLastLine_positive_Empty() throws IOException {
+
+        final Path file = Files.writeString(tempDir.resolve("file"), "");
+
+        assertThat(LineFiles.terminateLastLine(file), is(false));
+        assertThat(Files.readString(file), is(""));
+    }
+
+    @Test
+    void terminateLastLine_negative_Missing() {
+        assertThrows(NoSuchFileException.class, () -> LineFiles.terminateLastLine(tempDir.resolve("file")));
+    }
+}
@@ -0,0 +1,60 @@
+package de.saschaufer.message_broker.app.file_storage.service;
+
+import de.saschaufer.message_broker.app.file_storage.config.FileStorageProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static de.saschaufer.message_broker.app.file_storage.config.FileStoragePropertiesBuilder.properties;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+
+class LocalStorageBackendTest extends StorageBackendConformanceTest {
+
+    @TempDir
+    private Path tempDir;
+
+    private StorageLayout storageLayout;
+
+    @Override
+    StorageBackend createStorageBackend() {
+        final FileStorageProperties fileStorageProperties = properties(tempDir)
+                .layout(new FileStorageProperties.Layout(1, 1, null, null, null, null)).build();
+        storageLayout = new StorageLayout(fileStorageProperties, new DirectoryLocks(fileStorageProperties));
+        return new LocalStorageBackend(storageLayout);
+    }
+
+    @Test
+    void list_positive_SkipsMetadataAndTemporaryFiles() throws IOException {
+
+        final LocalStorageBackend storageBackend = new LocalStorageBackend(storageLayout);
+        storageBackend.put("directoryId", "fileId", new ByteArrayInputStream("test1".getBytes(StandardCharsets.UTF_8)));
+
+        final Path directory = storageLayout.getDirectory("directoryId");
+        Files.writeString(directory.resolve(MetadataService.METADATA_FILENAME), "{}");
+        Files.writeString(directory.resolve(MetadataService.JOURNAL_FILENAME), "");
+        Files.writeString(directory.resolve("fileId2.TMP"), "test2");
+
+        assertThat(storageBackend.list("directoryId"), contains("fileId"));
+        assertThat(storageBackend.getLocalPath("directoryId", "fileId"), is(storageLayout.getFile("directoryId", "fileId")));
+    }
+
+    @Test
+    void bindTo_positive_RecordsRename() throws IOException {
+
+        final LocalStorageBackend storageBackend = new LocalStorageBackend(storageLayout);
+        final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        storageBackend.bindTo(registry);
+
+        storageBackend.put("directoryId", "fileId", new ByteArrayInputStream("test1".getBytes(StandardCharsets.UTF_8)));
+
+        assertThat(registry.get("file.storage.upload.phase").tag("phase", "rename").timer().count(), is(1L));
+    }
+}
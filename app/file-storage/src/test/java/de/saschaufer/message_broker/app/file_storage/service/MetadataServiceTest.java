@@ -0,0 +1,229 @@
+package de.saschaufer.message_broker.app.file_storage.service;
+
+import de.saschaufer.message_broker.app.file_storage.config.FileStorageProperties;
+import de.saschaufer.message_broker.app.file_storage.service.dto.Metadata;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.Lock;
+
+import static de.saschaufer.message_broker.app.file_storage.config.FileStoragePropertiesBuilder.properties;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class MetadataServiceTest {
+
+    private static final OffsetDateTime UPLOADED = OffsetDateTime.of(2025, 1, 1, 10, 0, 0, 0, ZoneOffset.UTC);
+    private static final OffsetDateTime DOWNLOADED = OffsetDateTime.of(2025, 1, 2, 10, 0, 0, 0, ZoneOffset.UTC);
+
+    @TempDir
+    private Path tempDir;
+
+    private DirectoryLocks directoryLocks;
+    private MetadataService metadataService;
+
+    @BeforeEach
+    void beforeEach() throws IOException {
+        Files.createDirectories(tempDir.resolve("directoryId"));
+        final FileStorageProperties fileStorageProperties = properties(tempDir)
+                .journal(new FileStorageProperties.Journal(Duration.ofMinutes(1), 3)).build();
+        directoryLocks = new DirectoryLocks(fileStorageProperties);
+        metadataService = new MetadataService(fileStorageProperties, directoryLocks, new StorageLayout(fileStorageProperties, directoryLocks));
+    }
+
+    @Test
+    void addFiles_markDownloaded_positive_ReplaysJournal() {
+
+        metadataService.addFiles("directoryId", List.of(metadata("1"), metadata("2")));
+        metadataService.markDownloaded("directoryId", List.of("2"), DOWNLOADED);
+
+        assertThat(Files.exists(tempDir.resolve("directoryId").resolve(MetadataService.METADATA_FILENAME)), is(false));
+
+        final Map<String, Metadata> metadata = metadataService.readMetadata("directoryId");
+
+        assertThat(metadata, aMapWithSize(2));
+        assertThat(metadata.get("1").lastDownloaded(), nullValue());
+        assertThat(metadata.get("2").lastDownloaded().isEqual(DOWNLOADED), is(true));
+    }
+
+    @Test
+    void compactPending_positive_WritesSnapshotAndRemovesJournal() {
+
+        metadataService.addFiles("directoryId", List.of(metadata("1"), metadata("2")));
+
+        metadataService.compactPending();
+
+        assertThat(Files.exists(tempDir.resolve("directoryId").resolve(MetadataService.JOURNAL_FILENAME)), is(true));
+
+        metadataService.markDownloaded("directoryId", List.of("1"), DOWNLOADED);
+
+        metadataService.compactPending();
+
+        assertThat(Files.exists(tempDir.resolve("directoryId").resolve(MetadataService.JOURNAL_FILENAME)), is(false));
+        assertThat(Files.exists(tempDir.resolve("directoryId").resolve(MetadataService.METADATA_FILENAME)), is(true));
+
+        final Map<String, Metadata> metadata = metadataService.readMetadata("directoryId");
+
+        assertThat(metadata, aMapWithSize(2));
+        assertThat(metadata.get("1").lastDownloaded().isEqual(DOWNLOADED), is(true));
+        assertThat(metadata.get("2").lastDownloaded(), nullValue());
+    }
+
+    @Test
+    void removeFiles_positive_RemovedAfterReplayAndCompaction() {
+
+        metadataService.addFiles("directoryId", List.of(metadata("1"), metadata("2")));
+        metadataService.removeFiles("directoryId", List.of("1"));
+
+        assertThat(metadataService.readMetadata("directoryId").keySet(), contains("2"));
+
+        metadataService.compact("directoryId");
+
+        final MetadataService restarted = new MetadataService(properties(tempDir).build(), directoryLocks, new StorageLayout(properties(tempDir).build(), directoryLocks));
+
+        assertThat(restarted.readMetadata("directoryId").keySet(), contains("2"));
+    }
+
+    @Test
+    void readMetadata_positive_LegacyMetadataFile() throws IOException {
+
+        Files.writeString(tempDir.resolve("directoryId").resolve(MetadataService.METADATA_FILENAME), """
+                [{"fileId":"1","name":"test.txt","mediaType":"text/plain","hash":"hash-1","uploaded":"2025-01-01T10:00:00Z"}]
+                """, StandardCharsets.UTF_8);
+
+        metadataService.markDownloaded("directoryId", List.of("1"), DOWNLOADED);
+
+        final Map<String, Metadata> metadata = metadataService.readMetadata("directoryId");
+
+        assertThat(metadata, aMapWithSize(1));
+        assertThat(metadata.get("1").name(), is("test.txt"));
+        assertThat(metadata.get("1").lastDownloaded().isEqual(DOWNLOADED), is(true));
+    }
+
+    @Test
+    void readMetadata_positive_SkipsTruncatedJournalEntry() throws IOException {
+
+        metadataService.addFiles("directoryId", List.of(metadata("1")));
+
+        Files.writeString(tempDir.resolve("directoryId").resolve(MetadataService.JOURNAL_FILENAME), "{\"added\":{\"fileId\":\"2\",\"na", StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+
+        final Map<String, Metadata> metadata = metadataService.readMetadata("directoryId");
+
+        assertThat(metadata, aMapWithSize(1));
+        assertThat(metadata.get("1"), notNullValue());
+    }
+
+    @Test
+    void readMetadata_addFiles_positive_Multithreaded_IndependentDirectories() throws Exception {
+
+        final List<String> directoryIds = new ArrayList<>();
+        for (int i = 0; directoryIds.size() < 20; i++) {
+            final String directoryId = "directory-" + i;
+            if (directoryLocks.stripe(directoryId) != directoryLocks.stripe("directoryId")) {
+                directoryIds.add(directoryId);
+                Files.createDirectories(tempDir.resolve(directoryId));
+            }
+        }
+
+        // Block the directory for writers and readers
+        final Lock lock = directoryLocks.writeLock("directoryId");
+        lock.lock();
+
+        final List<Future<Integer>> futures = new ArrayList<>();
+        final Future<Integer> blocked;
+
+        try (final ExecutorService executorService = Executors.newFixedThreadPool(10)) {
+
+            blocked = executorService.submit(() -> metadataService.readMetadata("directoryId").size());
+
+            for (final String directoryId : directoryIds) {
+                futures.add(executorService.submit(() -> {
+                    metadataService.addFiles(directoryId, List.of(metadata("1"), metadata("2")));
+                    return metadataService.readMetadata(directoryId).size();
+                }));
+            }
+
+            try {
+                for (final Future<Integer> future : futures) {
+                    assertThat(future.get(10, TimeUnit.SECONDS), is(2));
+                }
+
+                assertThrows(TimeoutException.class, () -> blocked.get(100, TimeUnit.MILLISECONDS));
+            } finally {
+                lock.unlock();
+            }
+
+            assertThat(blocked.get(10, TimeUnit.SECONDS), is(0));
+        }
+    }
+
+    @Test
+    void readMetadata_positive_ServedFromCacheAndCoherentWithWrites() throws IOException {
+
+        metadataService.addFiles("directoryId", List.of(metadata("1")));
+
+        assertThat(metadataService.readMetadata("directoryId"), aMapWithSize(1));
+        assertThat(metadataService.cacheStats().missCount(), is(1L));
+
+        // The cached index must not touch the disk anymore
+        Files.delete(tempDir.resolve("directoryId").resolve(MetadataService.JOURNAL_FILENAME));
+
+        metadataService.addFiles("directoryId", List.of(metadata("2")));
+        metadataService.markDownloaded("directoryId", List.of("1"), DOWNLOADED);
+
+        final Map<String, Metadata> metadata = metadataService.readMetadata("directoryId");
+
+        assertThat(metadata, aMapWithSize(2));
+        assertThat(metadata.get("1").lastDownloaded().isEqual(DOWNLOADED), is(true));
+        assertThat(metadata.get("2").lastDownloaded(), nullValue());
+        assertThat(metadataService.cacheStats().hitCount(), is(1L));
+        assertThat(metadataService.cacheStats().missCount(), is(1L));
+    }
+
+    @Test
+    void readMetadata_positive_EvictsDirectoriesOverMaxEntries() {
+
+        final FileStorageProperties fileStorageProperties = properties(tempDir)
+                .metadataCache(new FileStorageProperties.MetadataCache(2L)).build();
+        final MetadataService metadataService = new MetadataService(fileStorageProperties, directoryLocks, new StorageLayout(fileStorageProperties, directoryLocks));
+
+        for (int i = 0; i < 10; i++) {
+            metadataService.readMetadata("directory-" + i);
+        }
+        metadataService.cleanUp();
+
+        assertThat(metadataService.cacheStats().evictionCount(), greaterThanOrEqualTo(8L));
+    }
+
+    @Test
+    void bindTo_positive() {
+
+        final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        metadataService.bindTo(registry);
+
+        metadataService.readMetadata("directoryId");
+        metadataService.readMetadata("directoryId");
+
+        assertThat(registry.get("cache.gets").tag("cache", "file.storage.metadata").tag("result", "hit").functionCounter().count(), is(1.0));
+        assertThat(registry.get("cache.gets").tag("cache", "file.storage.metadata").tag("result", "miss").functionCounter().count(), is(1.0));
+    }
+
+    private Metadata metadata(final String fileId) {
+        return new Metadata(fileId, "test-" + fileId + ".txt", "text/plain", "hash-" + fileId, UPLOADED, null, null, null, null, null, null, null, null);
+    }
+}
@@ -0,0 +1,42 @@
+package de.saschaufer.message_broker.app.file_storage.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ByteArrayResource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+class MeteredResourceTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    @Test
+    void getInputStream_positive() throws IOException {
+
+        final MeteredResource resource = new MeteredResource(new ByteArrayResource("test-content".getBytes(StandardCharsets.UTF_8)), FileStorageMetrics.downloadBytes(registry));
+
+        assertThat(resource.contentLength(), is(12L));
+        assertThat(downloadBytes(), is(0.0));
+
+        // Only what is read counts
+        try (final InputStream inputStream = resource.getInputStream()) {
+            inputStream.read();
+            inputStream.readNBytes(3);
+        }
+        assertThat(downloadBytes(), is(4.0));
+
+        try (final InputStream inputStream = resource.getInputStream()) {
+            inputStream.readAllBytes();
+        }
+        assertThat(downloadBytes(), is(16.0));
+    }
+
+    private double downloadBytes() {
+        return registry.get("file.storage.download.bytes").counter().count();
+    }
+}
@@ -0,0 +1,180 @@
+package de.saschaufer.message_broker.app.file_storage.service;
+
+import de.saschaufer.message_broker.app.file_storage.config.FileStorageProperties;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static de.saschaufer.message_broker.app.file_storage.config.FileStoragePropertiesBuilder.properties;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+class PackingStorageBackendTest extends StorageBackendConformanceTest {
+
+    @TempDir
+    private Path tempDir;
+
+    private FileStorageProperties fileStorageProperties;
+    private StorageLayout storageLayout;
+    private final List<PackingStorageBackend> storageBackends = new ArrayList<>();
+
+    @Override
+    StorageBackend createStorageBackend() {
+        return createStorageBackend(DataSize.ofMegabytes(256));
+    }
+
+    @AfterEach
+    void afterEach() {
+        storageBackends.forEach(PackingStorageBackend::close);
+    }
+
+    @Test
+    void put_positive_SmallFilesArePacked() throws IOException {
+
+        final PackingStorageBackend storageBackend = createStorageBackend(DataSize.ofMegabytes(256));
+
+        storageBackend.put("directoryId", "fileId1", stream("test1"));
+        storageBackend.put("directoryId", "fileId2", stream("x".repeat(2048)));
+
+        // Only the large file got a file of its own
+        assertThat(Files.exists(storageLayout.getFile("directoryId", "fileId1")), is(false));
+        assertThat(Files.exists(storageLayout.getFile("directoryId", "fileId2")), is(true));
+        assertThat(storageBackend.getLocalPath("directoryId", "fileId1"), nullValue());
+        assertThat(storageBackend.getLocalPath("directoryId", "fileId2"), is(storageLayout.getFile("directoryId", "fileId2")));
+        assertThat(storageBackend.list("directoryId"), containsInAnyOrder("fileId1", "fileId2"));
+        assertThat(storageBackend.packCount(), is(1));
+    }
+
+    @Test
+    void put_positive_ReplacesAcrossPackAndFile() throws IOException {
+
+        final PackingStorageBackend storageBackend = createStorageBackend(DataSize.ofMegabytes(256));
+
+        storageBackend.put("directoryId", "fileId", stream("x".repeat(2048)));
+        storageBackend.put("directoryId", "fileId", stream("test1"));
+
+        assertThat(Files.exists(storageLayout.getFile("directoryId", "fileId")), is(false));
+        assertThat(read(storageBackend, "fileId"), is("test1"));
+
+        storageBackend.put("directoryId", "fileId", stream("y".repeat(2048)));
+
+        assertThat(read(storageBackend, "fileId"), is("y".repeat(2048)));
+        assertThat(read(createStorageBackend(DataSize.ofMegabytes(256)), "fileId"), is("y".repeat(2048)));
+    }
+
+    @Test
+    void constructor_positive_ReadsPacks() throws IOException {
+
+        final PackingStorageBackend storageBackend = createStorageBackend(DataSize.ofMegabytes(256));
+        storageBackend.put("directoryId", "fileId1", stream("test1"));
+        storageBackend.put("directoryId", "fileId2", stream("test2"));
+        storageBackend.put("directoryId", "fileId3", stream("test3"));
+        storageBackend.delete("directoryId", "fileId2");
+        storageBackend.put("directoryId", "fileId3", stream("test33"));
+
+        final PackingStorageBackend restarted = createStorageBackend(DataSize.ofMegabytes(256));
+
+        assertThat(restarted.list("directoryId"), containsInAnyOrder("fileId1", "fileId3"));
+        assertThat(read(restarted, "fileId1"), is("test1"));
+        assertThat(read(restarted, "fileId3"), is("test33"));
+        assertThat(restarted.stat("directoryId", "fileId2"), nullValue());
+    }
+
+    @Test
+    void constructor_positive_SkipsTruncatedEntries() throws IOException {
+
+        final PackingStorageBackend storageBackend = createStorageBackend(DataSize.ofMegabytes(256));
+        storageBackend.put("directoryId", "fileId1", stream("test1"));
+        storageBackend.close();
+
+        // A crash while appending the next entry
+        final Path index;
+        try (final Stream<Path> paths = Files.list(tempDir.resolve(PackingStorageBackend.PACKS_DIRECTORY))) {
+            index = paths.filter(p -> p.toString().endsWith(".idx")).findFirst().orElseThrow();
+        }
+        Files.writeString(index, "{\"directoryId\":\"directoryId\",\"fileId\":\"fil", StandardOpenOption.APPEND);
+
+        final PackingStorageBackend restarted = createStorageBackend(DataSize.ofMegabytes(256));
+        restarted.put("directoryId", "fileId2", stream("test2"));
+
+        final PackingStorageBackend restartedAgain = createStorageBackend(DataSize.ofMegabytes(256));
+        assertThat(restartedAgain.list("directoryId"), containsInAnyOrder("fileId1", "fileId2"));
+        assertThat(read(restartedAgain, "fileId2"), is("test2"));
+    }
+
+    @Test
+    void compact_positive_ReclaimsDeadSpace() throws IOException {
+
+        // Every pack is full after two files
+        final PackingStorageBackend storageBackend = createStorageBackend(DataSize.ofBytes(200));
+
+        for (int i = 0; i < 10; i++) {
+            storageBackend.put("directoryId", "fileId" + i, stream(String.valueOf(i).repeat(100)));
+        }
+        assertThat(storageBackend.packCount(), is(5));
+
+        for (int i = 0; i < 10; i += 2) {
+            storageBackend.delete("directoryId", "fileId" + i);
+        }
+
+        storageBackend.compact();
+
+        // The half-dead packs are merged into new ones, only the current one is kept as it is
+        assertThat(storageBackend.packCount(), lessThan(5));
+        for (int i = 1; i < 10; i += 2) {
+            assertThat(read(storageBackend, "fileId" + i), is(String.valueOf(i).repeat(100)));
+        }
+
+        final PackingStorageBackend restarted = createStorageBackend(DataSize.ofBytes(200));
+        assertThat(restarted.list("directoryId"), containsInAnyOrder("fileId1", "fileId3", "fileId5", "fileId7", "fileId9"));
+        for (int i = 1; i < 10; i += 2) {
+            assertThat(read(restarted, "fileId" + i), is(String.valueOf(i).repeat(100)));
+        }
+    }
+
+    @Test
+    void compact_positive_KeepsPacksBelowThreshold() throws IOException {
+
+        final PackingStorageBackend storageBackend = createStorageBackend(DataSize.ofBytes(400));
+
+        for (int i = 0; i < 8; i++) {
+            storageBackend.put("directoryId", "fileId" + i, stream(String.valueOf(i).repeat(100)));
+        }
+        storageBackend.delete("directoryId", "fileId0");
+
+        storageBackend.compact();
+
+        assertThat(storageBackend.packCount(), is(2));
+    }
+
+    private PackingStorageBackend createStorageBackend(final DataSize maxPackSize) {
+        fileStorageProperties = properties(tempDir)
+                .packing(new FileStorageProperties.Packing(true, DataSize.ofKilobytes(1), maxPackSize, null, 0.5)).build();
+        storageLayout = new StorageLayout(fileStorageProperties, new DirectoryLocks(fileStorageProperties));
+        final PackingStorageBackend storageBackend = new PackingStorageBackend(fileStorageProperties, new LocalStorageBackend(storageLayout));
+        storageBackends.add(storageBackend);
+        return storageBackend;
+    }
+
+    private static String read(final StorageBackend storageBackend, final String fileId) throws IOException {
+        try (final InputStream inputStream = storageBackend.get("directoryId", fileId)) {
+            return new String(inputStream.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static InputStream stream(final String content) {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,85 @@
+package de.saschaufer.message_broker.app.file_storage.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static de.saschaufer.message_broker.app.file_storage.config.FileStoragePropertiesBuilder.properties;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class PrefetchingFileResourceTest {
+
+    @TempDir
+    private Path tempDir;
+
+    private IoExecutor ioExecutor;
+
+    @BeforeEach
+    void beforeEach() {
+        ioExecutor = new IoExecutor(properties(tempDir).build());
+    }
+
+    @AfterEach
+    void afterEach() {
+        ioExecutor.shutdown();
+    }
+
+    @Test
+    void getInputStream_positive_PrefetchesWindow() throws IOException {
+
+        final List<Path> paths = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            paths.add(Files.writeString(tempDir.resolve("file-" + i), "content-" + i + "-" + "x".repeat(i * 4)));
+        }
+
+        final List<PrefetchingFileResource> resources = PrefetchingFileResource.of(paths, ioExecutor, 2, 16);
+
+        assertThat(resources.get(0).isPrefetched(), is(true));
+        assertThat(resources.get(1).isPrefetched(), is(true));
+        assertThat(resources.get(2).isPrefetched(), is(false));
+
+        for (int i = 0; i < 5; i++) {
+            try (final InputStream inputStream = resources.get(i).getInputStream()) {
+                assertThat(new String(inputStream.readAllBytes()), is("content-" + i + "-" + "x".repeat(i * 4)));
+            }
+            assertThat(resources.get(i).isPrefetched(), is(false));
+            if (i + 2 < 5) {
+                assertThat(resources.get(i + 2).isPrefetched(), is(true));
+            }
+        }
+    }
+
+    @Test
+    void getInputStream_positive_WithoutPrefetch() throws IOException {
+
+        final Path path = Files.writeString(tempDir.resolve("file"), "content");
+
+        final PrefetchingFileResource resource = PrefetchingFileResource.of(List.of(path), ioExecutor, 0, 16).getFirst();
+
+        assertThat(resource.isPrefetched(), is(false));
+        assertThat(resource.getContentAsByteArray(), is("content".getBytes()));
+    }
+
+    @Test
+    void getInputStream_negative_FileDeleted() throws IOException {
+
+        final Path path = Files.writeString(tempDir.resolve("file"), "content");
+
+        Files.delete(path);
+
+        final PrefetchingFileResource resource = PrefetchingFileResource.of(List.of(path), ioExecutor, 1, 16).getFirst();
+
+        assertThrows(NoSuchFileException.class, resource::getInputStream);
+    }
+}
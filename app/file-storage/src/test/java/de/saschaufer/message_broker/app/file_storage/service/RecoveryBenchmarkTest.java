@@ -0,0 +1,76 @@
+package de.saschaufer.message_broker.app.file_storage.service;
+
+import de.saschaufer.message_broker.app.file_storage.config.FileStorageProperties;
+import de.saschaufer.message_broker.app.file_storage.service.dto.Metadata;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static de.saschaufer.message_broker.app.file_storage.config.FileStoragePropertiesBuilder.properties;
+
+// Run with: mvn test -Dtest=RecoveryBenchmarkTest -Dbenchmark=true [-Dbenchmark.files=1000000]
+@Slf4j
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class RecoveryBenchmarkTest {
+
+    private static final int FILES_PER_DIRECTORY = 100;
+
+    @TempDir
+    private Path tempDir;
+
+    @Test
+    void benchmark() throws IOException {
+
+        final long files = Long.getLong("benchmark.files", 100_000);
+
+        final FileStorageProperties fileStorageProperties = properties(tempDir).build();
+        final DirectoryLocks directoryLocks = new DirectoryLocks(fileStorageProperties);
+        final StorageLayout storageLayout = new StorageLayout(fileStorageProperties, directoryLocks);
+        final MetadataService metadataService = new MetadataService(fileStorageProperties, directoryLocks, storageLayout);
+
+        for (long d = 0; d < files / FILES_PER_DIRECTORY; d++) {
+
+            final String directoryId = "directory-" + d;
+            final Path path = Files.createDirectories(tempDir.resolve(directoryId));
+
+            final List<Metadata> metadata = new ArrayList<>(FILES_PER_DIRECTORY);
+            for (int f = 0; f < FILES_PER_DIRECTORY; f++) {
+                Files.writeString(path.resolve("file-" + f), "test");
+                metadata.add(new Metadata("file-" + f, "test.txt", "text/plain", "hash", OffsetDateTime.now(), null, null, null, null, null, null, null, null));
+            }
+            metadataService.addFiles(directoryId, metadata);
+
+            // Leftovers of a crash in every tenth directory
+            if (d % 10 == 0) {
+                Files.writeString(path.resolve("file-x.TMP"), "test");
+            }
+        }
+
+        final RecoveryService recoveryService = new RecoveryService(fileStorageProperties,
+                new MetadataService(fileStorageProperties, directoryLocks, storageLayout),
+                new IoExecutor(fileStorageProperties),
+                new BlobStore(fileStorageProperties),
+                storageLayout,
+                new LocalStorageBackend(storageLayout)
+        );
+
+        final long start = System.nanoTime();
+        recoveryService.recover();
+        final long duration = System.nanoTime() - start;
+
+        log.atInfo().setMessage("Recovery benchmark.")
+                .addKeyValue("files", files)
+                .addKeyValue("duration-ms", Duration.ofNanos(duration).toMillis())
+                .addKeyValue("files-per-second", String.format("%.0f", files / (duration / 1e9)))
+                .log();
+    }
+}
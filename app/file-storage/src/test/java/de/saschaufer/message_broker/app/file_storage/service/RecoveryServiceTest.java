@@ -0,0 +1,148 @@
+package de.saschaufer.message_broker.app.file_storage.service;
+
+import de.saschaufer.message_broker.app.file_storage.config.FileStorageProperties;
+import de.saschaufer.message_broker.app.file_storage.service.dto.Metadata;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.List;
+
+import static de.saschaufer.message_broker.app.file_storage.config.FileStoragePropertiesBuilder.properties;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+class RecoveryServiceTest {
+
+    private static final OffsetDateTime UPLOADED = OffsetDateTime.of(2025, 1, 1, 10, 0, 0, 0, ZoneOffset.UTC);
+
+    @TempDir
+    private Path tempDir;
+
+    private FileStorageProperties fileStorageProperties;
+    private DirectoryLocks directoryLocks;
+    private StorageLayout storageLayout;
+    private BlobStore blobStore;
+
+    @BeforeEach
+    void beforeEach() {
+        fileStorageProperties = properties(tempDir).build();
+        directoryLocks = new DirectoryLocks(fileStorageProperties);
+        storageLayout = new StorageLayout(fileStorageProperties, directoryLocks);
+        blobStore = new BlobStore(fileStorageProperties);
+    }
+
+    @Test
+    void recover_positive_DeletesTemporaryAndOrphanedFiles() throws IOException {
+
+        final MetadataService metadataService = createMetadataService();
+        metadataService.addFiles("directoryId", List.of(metadata("1", null)));
+
+        final Path path = tempDir.resolve("directoryId");
+        Files.writeString(path.resolve("1"), "test");
+        Files.writeString(path.resolve("2.TMP"), "test");
+        Files.writeString(path.resolve("3"), "test");
+        Files.writeString(path.resolve(MetadataService.METADATA_FILENAME + ".TMP"), "[{\"fileId\":");
+
+        createRecoveryService(metadataService).recover();
+
+        assertThat(Files.exists(path.resolve("1")), is(true));
+        assertThat(Files.exists(path.resolve("2.TMP")), is(false));
+        assertThat(Files.exists(path.resolve("3")), is(false));
+        assertThat(Files.exists(path.resolve(MetadataService.METADATA_FILENAME + ".TMP")), is(false));
+        assertThat(createMetadataService().readMetadata("directoryId").keySet(), contains("1"));
+    }
+
+    @Test
+    void recover_positive_RemovesMetadataWithoutData() throws IOException {
+
+        final MetadataService metadataService = createMetadataService();
+        metadataService.addFiles("directoryId", List.of(metadata("1", null), metadata("2", null)));
+
+        Files.writeString(tempDir.resolve("directoryId").resolve("1"), "test");
+
+        createRecoveryService(metadataService).recover();
+
+        assertThat(createMetadataService().readMetadata("directoryId").keySet(), contains("1"));
+    }
+
+    @Test
+    void recover_positive_TerminatesTruncatedJournal() throws IOException {
+
+        final MetadataService metadataService = createMetadataService();
+        metadataService.addFiles("directoryId", List.of(metadata("1", null)));
+
+        final Path path = tempDir.resolve("directoryId");
+        Files.writeString(path.resolve("1"), "test");
+        Files.writeString(path.resolve(MetadataService.JOURNAL_FILENAME), "{\"added\":{\"fileId\":\"2\"", StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+
+        final MetadataService restarted = createMetadataService();
+        createRecoveryService(restarted).recover();
+
+        // Entries appended after the recovery must not be glued to the truncated line
+        Files.writeString(path.resolve("3"), "test");
+        restarted.addFiles("directoryId", List.of(metadata("3", null)));
+
+        assertThat(createMetadataService().readMetadata("directoryId").keySet(), containsInAnyOrder("1", "3"));
+    }
+
+    @Test
+    void recover_positive_ReconcilesBlobs() throws IOException {
+
+        final MetadataService metadataService = createMetadataService();
+
+        // Referenced twice, but the count is off after a crash
+        blobStore.store(Files.writeString(tempDir.resolve("1.TMP"), "test"), "aaaaaa", 4, "client");
+        blobStore.link("aaaaaa", "client");
+        blobStore.link("aaaaaa", "client");
+        metadataService.addFiles("directoryId-1", List.of(metadata("1", "aaaaaa")));
+        metadataService.addFiles("directoryId-2", List.of(metadata("1", "aaaaaa")));
+
+        // Stored, but never referenced by metadata
+        blobStore.store(Files.writeString(tempDir.resolve("2.TMP"), "test"), "bbbbbb", 4, "client");
+
+        final Path refsTmp = blobStore.getPath("aaaaaa").resolveSibling("aaaaaa" + BlobStore.REFS_SUFFIX + ".TMP");
+        Files.writeString(refsTmp, "1");
+
+        createRecoveryService(metadataService).recover();
+
+        assertThat(blobStore.references("aaaaaa"), is(2));
+        assertThat(blobStore.link("aaaaaa", "client"), is(4L));
+        assertThat(Files.exists(blobStore.getPath("bbbbbb")), is(false));
+        assertThat(blobStore.references("bbbbbb"), is(0));
+        assertThat(Files.exists(refsTmp), is(false));
+    }
+
+    @Test
+    void recover_positive_Disabled() throws IOException {
+
+        fileStorageProperties = properties(tempDir).recovery(new FileStorageProperties.Recovery(false)).build();
+        storageLayout = new StorageLayout(fileStorageProperties, directoryLocks);
+
+        Files.createDirectories(tempDir.resolve("directoryId"));
+        Files.writeString(tempDir.resolve("directoryId").resolve("1.TMP"), "test");
+
+        createRecoveryService(createMetadataService()).recover();
+
+        assertThat(Files.exists(tempDir.resolve("directoryId").resolve("1.TMP")), is(true));
+    }
+
+    private MetadataService createMetadataService() {
+        return new MetadataService(fileStorageProperties, directoryLocks, storageLayout);
+    }
+
+    private RecoveryService createRecoveryService(final MetadataService metadataService) {
+        return new RecoveryService(fileStorageProperties, metadataService, new IoExecutor(fileStorageProperties), blobStore, storageLayout, new LocalStorageBackend(storageLayout), new CompressionPolicy(fileStorageProperties), new TreeHasher(fileStorageProperties));
+    }
+
+    private Metadata metadata(final String fileId, final String blob) {
+        return new Metadata(fileId, "test-" + fileId + ".txt", "text/plain", "hash-" + fileId, UPLOADED, null, blob, null, null, null, null, null, null);
+    }
+}
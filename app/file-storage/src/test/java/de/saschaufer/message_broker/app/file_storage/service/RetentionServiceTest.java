@@ -0,0 +1,156 @@
+package de.saschaufer.message_broker.app.file_storage.service;
+
+import de.saschaufer.message_broker.app.file_storage.config.FileStorageProperties;
+import de.saschaufer.message_broker.app.file_storage.service.dto.File;
+import de.saschaufer.message_broker.app.file_storage.service.dto.Metadata;
+import de.saschaufer.message_broker.common.Constants;
+import jakarta.servlet.http.Part;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockPart;
+import org.springframework.util.unit.DataSize;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.List;
+
+import static de.saschaufer.message_broker.app.file_storage.config.FileStoragePropertiesBuilder.properties;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+class RetentionServiceTest {
+
+    private static final OffsetDateTime NOW = OffsetDateTime.of(2025, 1, 10, 10, 0, 0, 0, ZoneOffset.UTC);
+
+    @TempDir
+    private Path tempDir;
+
+    private MetadataService metadataService;
+    private BlobStore blobStore;
+    private FileStorageService fileStorageService;
+    private ClientQuotas clientQuotas;
+    private DownloadTracker downloadTracker;
+    private RetentionService retentionService;
+
+    @Test
+    void run_positive_DeletesExpiredFiles() {
+
+        setUp(new FileStorageProperties.Retention(true, null, Duration.ZERO, null, null, 1, Duration.ZERO), false);
+
+        final List<File> files = fileStorageService.saveFiles("directoryId", "test-user-agent", List.of(createPart("1", "test1"), createPart("2", "test22")));
+        clientQuotas.charge("test-user-agent", files);
+
+        assertThat(clientQuotas.getBytes("test-user-agent"), is(11L));
+
+        retentionService.run();
+
+        assertThat(metadataService.readMetadata("directoryId"), anEmptyMap());
+        assertThat(Files.exists(tempDir.resolve("directoryId").resolve(files.getFirst().fileId())), is(false));
+        assertThat(Files.exists(tempDir.resolve("directoryId").resolve(files.getLast().fileId())), is(false));
+        assertThat(retentionService.deletedFiles(), is(2L));
+        assertThat(retentionService.reclaimedBytes(), is(11L));
+        assertThat(clientQuotas.getBytes("test-user-agent"), is(0L));
+        assertThat(clientQuotas.getFiles("test-user-agent"), is(0L));
+    }
+
+    @Test
+    void run_positive_ReleasesSharedBlobs() {
+
+        setUp(new FileStorageProperties.Retention(true, null, Duration.ZERO, null, null, 10, Duration.ZERO), true);
+
+        final File file = fileStorageService.saveFiles("directoryId-1", "test-user-agent", List.of(createPart("1", "test1"))).getFirst();
+        fileStorageService.saveFiles("directoryId-2", "test-user-agent", List.of(createPart("1", "test1")));
+
+        assertThat(blobStore.references(file.hash()), is(2));
+
+        retentionService.run();
+
+        assertThat(blobStore.references(file.hash()), is(0));
+        assertThat(Files.exists(blobStore.getPath(file.hash())), is(false));
+        assertThat(retentionService.deletedFiles(), is(2L));
+        assertThat(retentionService.reclaimedBytes(), is(5L));
+    }
+
+    @Test
+    void select_positive_MaxIdle() {
+
+        setUp(new FileStorageProperties.Retention(true, null, null, Duration.ofDays(3), null, 10, Duration.ZERO), false);
+
+        final List<Metadata> expired = retentionService.select("directoryId", List.of(
+                metadata("1", NOW.minusDays(5), null),
+                metadata("2", NOW.minusDays(5), NOW.minusDays(1)),
+                metadata("3", NOW.minusDays(1), null)
+        ), NOW);
+
+        assertThat(expired.stream().map(Metadata::fileId).toList(), contains("1"));
+    }
+
+    @Test
+    void select_positive_MaxDirectorySize() {
+
+        setUp(new FileStorageProperties.Retention(true, null, null, null, DataSize.ofBytes(12), 10, Duration.ZERO), false);
+
+        final List<File> files = fileStorageService.saveFiles("directoryId", "test-user-agent", List.of(createPart("1", "test1"), createPart("2", "test2"), createPart("3", "test3")));
+
+        final List<Metadata> expired = retentionService.select("directoryId", List.of(
+                metadata(files.get(0).fileId(), NOW.minusDays(5), NOW.minusDays(1)),
+                metadata(files.get(1).fileId(), NOW.minusDays(5), null),
+                metadata(files.get(2).fileId(), NOW.minusDays(4), null)
+        ), NOW);
+
+        // 15 bytes, the least recently used file has to go
+        assertThat(expired.stream().map(Metadata::fileId).toList(), contains(files.get(1).fileId()));
+    }
+
+    @Test
+    void run_positive_KeepsFilesDownloadedRecently() {
+
+        setUp(new FileStorageProperties.Retention(true, null, null, Duration.ZERO, null, 10, Duration.ZERO), false);
+
+        final List<File> files = fileStorageService.saveFiles("directoryId", "test-user-agent", List.of(createPart("1", "test1")));
+
+        // The timestamp of the download is still with the tracker
+        downloadTracker.record("directoryId", List.of(files.getFirst().fileId()), OffsetDateTime.now().plusHours(2));
+        assertThat(downloadTracker.pendingEntries(), is(1));
+
+        final List<Metadata> expired = retentionService.select("directoryId", metadataService.readMetadata("directoryId").values(), OffsetDateTime.now().plusHours(2));
+        assertThat(expired, empty());
+
+        retentionService.run();
+
+        assertThat(downloadTracker.pendingEntries(), is(0));
+        assertThat(metadataService.readMetadata("directoryId").get(files.getFirst().fileId()).lastDownloaded(), notNullValue());
+        assertThat(retentionService.deletedFiles(), is(0L));
+    }
+
+    private void setUp(final FileStorageProperties.Retention retention, final boolean dedup) {
+        final FileStorageProperties fileStorageProperties = properties(tempDir)
+                .dedup(new FileStorageProperties.Dedup(dedup))
+                .retention(retention)
+                .quota(new FileStorageProperties.Quota(true, null, null, null, null, null)).build();
+        final DirectoryLocks directoryLocks = new DirectoryLocks(fileStorageProperties);
+        final StorageLayout storageLayout = new StorageLayout(fileStorageProperties, directoryLocks);
+        metadataService = new MetadataService(fileStorageProperties, directoryLocks, storageLayout);
+        blobStore = new BlobStore(fileStorageProperties);
+        final IoExecutor ioExecutor = new IoExecutor(fileStorageProperties);
+        downloadTracker = new DownloadTracker(fileStorageProperties, metadataService, ioExecutor);
+        fileStorageService = new FileStorageService(fileStorageProperties, metadataService, downloadTracker, ioExecutor, blobStore, new ContentCache(fileStorageProperties), storageLayout, new LocalStorageBackend(storageLayout), new CompressionPolicy(fileStorageProperties), new TreeHasher(fileStorageProperties));
+        clientQuotas = new ClientQuotas(fileStorageProperties);
+        retentionService = new RetentionService(fileStorageProperties, metadataService, fileStorageService, storageLayout, clientQuotas, downloadTracker);
+    }
+
+    private Metadata metadata(final String fileId, final OffsetDateTime uploaded, final OffsetDateTime lastDownloaded) {
+        return new Metadata(fileId, "test-" + fileId + ".txt", "text/plain", "hash-" + fileId, uploaded, lastDownloaded, null, null, null, null, null, null, null);
+    }
+
+    private Part createPart(final String id, final String content) {
+        final MockPart part = new MockPart(Constants.Http.BodyPart.FILE, "test-" + id + ".txt", content.getBytes(StandardCharsets.UTF_8), MediaType.TEXT_PLAIN);
+        part.getHeaders().add(Constants.Http.Header.FILE_ID, id);
+        return part;
+    }
+}
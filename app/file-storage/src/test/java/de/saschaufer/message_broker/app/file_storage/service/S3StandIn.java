@@ -0,0 +1,218 @@
+package de.saschaufer.message_broker.app.file_storage.service;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Just enough of the S3 API for S3StorageBackend: objects, ranged reads, listing with pagination and multipart uploads
+class S3StandIn implements AutoCloseable {
+
+    private static final int PAGE_SIZE = 2;
+
+    private final String bucket;
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final Map<String, byte[]> objects = new ConcurrentSkipListMap<>();
+    private final Map<String, Map<Integer, byte[]>> uploads = new ConcurrentHashMap<>();
+    private final AtomicInteger uploadIds = new AtomicInteger();
+    private final AtomicInteger completedUploads = new AtomicInteger();
+    private final List<String> authorizations = new CopyOnWriteArrayList<>();
+
+    S3StandIn(final String bucket) throws IOException {
+        this.bucket = bucket;
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", this::handle);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    URI endpoint() {
+        return URI.create("http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort());
+    }
+
+    int completedUploads() {
+        return completedUploads.get();
+    }
+
+    int openUploads() {
+        return uploads.size();
+    }
+
+    List<String> authorizations() {
+        return authorizations;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(final HttpExchange exchange) throws IOException {
+        try (exchange) {
+
+            authorizations.add(Objects.requireNonNullElse(exchange.getRequestHeaders().getFirst("Authorization"), ""));
+
+            final String path = exchange.getRequestURI().getPath();
+            if (!path.startsWith("/" + bucket)) {
+                respond(exchange, 404, "<Error><Code>NoSuchBucket</Code></Error>");
+                return;
+            }
+
+            final String key = path.length() > bucket.length() + 2 ? path.substring(bucket.length() + 2) : null;
+            final Map<String, String> query = query(exchange.getRequestURI().getRawQuery());
+            final byte[] body = exchange.getRequestBody().readAllBytes();
+
+            switch (exchange.getRequestMethod()) {
+                case "GET" -> {
+                    if (key == null) {
+                        list(exchange, query);
+                    } else {
+                        get(exchange, key);
+                    }
+                }
+                case "HEAD" -> {
+                    final byte[] object = objects.get(key);
+                    if (object == null) {
+                        exchange.sendResponseHeaders(404, -1);
+                        return;
+                    }
+                    exchange.getResponseHeaders().set("Content-Length", Integer.toString(object.length));
+                    exchange.getResponseHeaders().set("Last-Modified", DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.now(ZoneOffset.UTC)));
+                    exchange.sendResponseHeaders(200, -1);
+                }
+                case "PUT" -> {
+                    if (query.containsKey("uploadId")) {
+                        final Map<Integer, byte[]> parts = uploads.get(query.get("uploadId"));
+                        if (parts == null) {
+                            respond(exchange, 404, "<Error><Code>NoSuchUpload</Code></Error>");
+                            return;
+                        }
+                        parts.put(Integer.parseInt(query.get("partNumber")), body);
+                        exchange.getResponseHeaders().set("ETag", "\"" + query.get("partNumber") + "-" + body.length + "\"");
+                    } else {
+                        objects.put(key, body);
+                    }
+                    exchange.sendResponseHeaders(200, -1);
+                }
+                case "POST" -> {
+                    if (query.containsKey("uploads")) {
+                        final String uploadId = "upload-" + uploadIds.incrementAndGet();
+                        uploads.put(uploadId, new ConcurrentSkipListMap<>());
+                        respond(exchange, 200, "<InitiateMultipartUploadResult><Bucket>" + bucket + "</Bucket><UploadId>" + uploadId + "</UploadId></InitiateMultipartUploadResult>");
+                    } else {
+                        final Map<Integer, byte[]> parts = uploads.remove(query.get("uploadId"));
+                        if (parts == null) {
+                            respond(exchange, 404, "<Error><Code>NoSuchUpload</Code></Error>");
+                            return;
+                        }
+                        final ByteArrayOutputStream object = new ByteArrayOutputStream();
+                        for (final byte[] part : parts.values()) {
+                            object.write(part);
+                        }
+                        objects.put(key, object.toByteArray());
+                        completedUploads.incrementAndGet();
+                        respond(exchange, 200, "<CompleteMultipartUploadResult><Bucket>" + bucket + "</Bucket></CompleteMultipartUploadResult>");
+                    }
+                }
+                case "DELETE" -> {
+                    if (query.containsKey("uploadId")) {
+                        uploads.remove(query.get("uploadId"));
+                    } else {
+                        objects.remove(key);
+                    }
+                    exchange.sendResponseHeaders(204, -1);
+                }
+                default -> exchange.sendResponseHeaders(405, -1);
+            }
+        }
+    }
+
+    private void get(final HttpExchange exchange, final String key) throws IOException {
+
+        final byte[] object = objects.get(key);
+        if (object == null) {
+            respond(exchange, 404, "<Error><Code>NoSuchKey</Code></Error>");
+            return;
+        }
+
+        final String range = exchange.getRequestHeaders().getFirst("Range");
+        if (range == null) {
+            respond(exchange, 200, object);
+            return;
+        }
+
+        final String[] bounds = range.substring("bytes=".length()).split("-");
+        final int from = Integer.parseInt(bounds[0]);
+        final int to = bounds.length > 1 ? Math.min(Integer.parseInt(bounds[1]), object.length - 1) : object.length - 1;
+        if (from >= object.length) {
+            exchange.sendResponseHeaders(416, -1);
+            return;
+        }
+        exchange.getResponseHeaders().set("Content-Range", "bytes " + from + "-" + to + "/" + object.length);
+        respond(exchange, 206, Arrays.copyOfRange(object, from, to + 1));
+    }
+
+    private void list(final HttpExchange exchange, final Map<String, String> query) throws IOException {
+
+        final String prefix = query.getOrDefault("prefix", "");
+        final List<String> keys = objects.keySet().stream().filter(k -> k.startsWith(prefix)).toList();
+
+        final int start = Integer.parseInt(query.getOrDefault("continuation-token", "0"));
+        final int end = Math.min(keys.size(), start + PAGE_SIZE);
+
+        final StringBuilder xml = new StringBuilder("<ListBucketResult xmlns=\"http://s3.amazonaws.com/doc/2006-03-01/\">");
+        xml.append("<IsTruncated>").append(end < keys.size()).append("</IsTruncated>");
+        for (final String key : keys.subList(start, end)) {
+            xml.append("<Contents><Key>").append(key).append("</Key></Contents>");
+        }
+        if (end < keys.size()) {
+            xml.append("<NextContinuationToken>").append(end).append("</NextContinuationToken>");
+        }
+        xml.append("</ListBucketResult>");
+
+        respond(exchange, 200, xml.toString());
+    }
+
+    private static Map<String, String> query(final String rawQuery) {
+        final Map<String, String> query = new HashMap<>();
+        if (rawQuery != null) {
+            for (final String parameter : rawQuery.split("&")) {
+                final int equals = parameter.indexOf('=');
+                final String name = equals == -1 ? parameter : parameter.substring(0, equals);
+                final String value = equals == -1 ? "" : parameter.substring(equals + 1);
+                query.put(URLDecoder.decode(name, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+            }
+        }
+        return query;
+    }
+
+    private static void respond(final HttpExchange exchange, final int status, final String body) throws IOException {
+        respond(exchange, status, body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void respond(final HttpExchange exchange, final int status, final byte[] body) throws IOException {
+        exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+        try (final OutputStream outputStream = exchange.getResponseBody()) {
+            outputStream.write(body);
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package de.saschaufer.message_broker.app.file_storage.service;
+
+import de.saschaufer.message_broker.app.file_storage.config.FileStorageProperties;
+import org.junit.jupiter.api.AfterEach;
+import de.saschaufer.message_broker.common.api.errorhandler.ResponseStatusException;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class S3StorageBackendTest extends StorageBackendConformanceTest {
+
+    private S3StandIn s3StandIn;
+    private S3StorageBackend storageBackend;
+
+    @Override
+    StorageBackend createStorageBackend() throws IOException {
+        s3StandIn = new S3StandIn("bucket");
+        storageBackend = new S3StorageBackend(s3(s3StandIn.endpoint()));
+        return storageBackend;
+    }
+
+    @AfterEach
+    void afterEach() {
+        s3StandIn.close();
+    }
+
+    @Test
+    void put_positive_Multipart() throws IOException {
+
+        final byte[] content = new byte[11 * 1024 * 1024];
+        ThreadLocalRandom.current().nextBytes(content);
+
+        storageBackend.put("directoryId", "fileId", new ByteArrayInputStream(content));
+
+        assertThat(s3StandIn.completedUploads(), is(1));
+        assertThat(s3StandIn.openUploads(), is(0));
+        try (final InputStream inputStream = storageBackend.get("directoryId", "fileId")) {
+            assertThat(Arrays.equals(inputStream.readAllBytes(), content), is(true));
+        }
+    }
+
+    @Test
+    void put_negative_AbortsMultipartUpload() {
+
+        final InputStream failing = new InputStream() {
+
+            private int remaining = 6 * 1024 * 1024;
+
+            @Override
+            public int read() throws IOException {
+                if (remaining-- == 0) {
+                    throw new IOException("Client went away.");
+                }
+                return 0;
+            }
+        };
+
+        assertThrows(IOException.class, () -> storageBackend.put("directoryId", "fileId", failing));
+
+        assertThat(s3StandIn.openUploads(), is(0));
+        assertThat(s3StandIn.completedUploads(), is(0));
+    }
+
+    @Test
+    void put_positive_SignsRequests() throws IOException {
+
+        storageBackend.put("directory Id", "fileId", new ByteArrayInputStream(new byte[]{1}));
+
+        assertThat(storageBackend.list("directory Id"), contains("fileId"));
+        assertThat(s3StandIn.authorizations(), everyItem(startsWith("AWS4-HMAC-SHA256 Credential=accessKey/")));
+        assertThat(s3StandIn.authorizations(), everyItem(containsString("SignedHeaders=host;x-amz-content-sha256;x-amz-date, Signature=")));
+    }
+
+    @Test
+    void constructor_negative_MissingSettings() {
+        assertThrows(IllegalStateException.class, () -> new S3StorageBackend(new FileStorageProperties.Backend.S3(null, null, "bucket", "accessKey", "secretKey", null, null, null, null)));
+    }
+
+    @Test
+    void put_negative_AllPartBuffersInUse() throws Exception {
+
+        final S3StorageBackend s3StorageBackend = new S3StorageBackend(new FileStorageProperties.Backend.S3(s3StandIn.endpoint(), "eu-central-1", "bucket", "accessKey", "secretKey", "files/", DataSize.ofMegabytes(5), 1, Duration.ofMillis(200)));
+
+        final CountDownLatch reading = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final InputStream blocking = new InputStream() {
+
+            @Override
+            public int read() throws IOException {
+                reading.countDown();
+                try {
+                    release.await();
+                } catch (final InterruptedException e) {
+                    throw new IOException(e);
+                }
+                return -1;
+            }
+        };
+
+        try (final ExecutorService executorService = Executors.newSingleThreadExecutor()) {
+
+            final Future<Long> first = executorService.submit(() -> s3StorageBackend.put("directoryId", "fileId-1", blocking));
+            reading.await();
+
+            final ResponseStatusException e = assertThrows(ResponseStatusException.class, () -> s3StorageBackend.put("directoryId", "fileId-2", new ByteArrayInputStream(new byte[]{1})));
+            assertThat(e.getStatusCode(), is(HttpStatus.SERVICE_UNAVAILABLE));
+            assertThat(e.getAdditionalDetails(), is(Map.of("max-part-buffers", "1")));
+
+            release.countDown();
+            assertThat(first.get(), is(0L));
+        }
+
+        // The buffer is free again
+        assertThat(s3StorageBackend.put("directoryId", "fileId-2", new ByteArrayInputStream(new byte[]{1})), is(1L));
+    }
+
+    private static FileStorageProperties.Backend.S3 s3(final URI endpoint) {
+        return new FileStorageProperties.Backend.S3(endpoint, "eu-central-1", "bucket", "accessKey", "secretKey", "files/", DataSize.ofMegabytes(5), null, null);
+    }
+}
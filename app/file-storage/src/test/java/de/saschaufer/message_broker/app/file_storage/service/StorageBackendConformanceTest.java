@@ -0,0 +1,187 @@
+package de.saschaufer.message_broker.app.file_storage.service;
+
+import de.saschaufer.message_broker.app.file_storage.service.dto.StorageObject;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.IntStream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+// Every backend has to pass these, FileStorageService relies on nothing else
+@Slf4j
+abstract class StorageBackendConformanceTest {
+
+    private StorageBackend storageBackend;
+
+    abstract StorageBackend createStorageBackend() throws Exception;
+
+    @BeforeEach
+    void beforeEach() throws Exception {
+        storageBackend = createStorageBackend();
+    }
+
+    @Test
+    void put_get_positive() throws IOException {
+
+        assertThat(storageBackend.put("directoryId", "fileId", stream("test1")), is(5L));
+
+        try (final InputStream inputStream = storageBackend.get("directoryId", "fileId")) {
+            assertThat(new String(inputStream.readAllBytes(), StandardCharsets.UTF_8), is("test1"));
+        }
+    }
+
+    @Test
+    void put_positive_Replaces() throws IOException {
+
+        storageBackend.put("directoryId", "fileId", stream("test1"));
+        storageBackend.put("directoryId", "fileId", stream("test22"));
+
+        try (final InputStream inputStream = storageBackend.get("directoryId", "fileId")) {
+            assertThat(new String(inputStream.readAllBytes(), StandardCharsets.UTF_8), is("test22"));
+        }
+    }
+
+    @Test
+    void put_positive_Empty() throws IOException {
+
+        assertThat(storageBackend.put("directoryId", "fileId", stream("")), is(0L));
+
+        assertThat(storageBackend.stat("directoryId", "fileId").size(), is(0L));
+        try (final InputStream inputStream = storageBackend.get("directoryId", "fileId")) {
+            assertThat(inputStream.readAllBytes().length, is(0));
+        }
+    }
+
+    @Test
+    void put_positive_Large() throws IOException {
+
+        // Larger than the part size of multipart uploads
+        final byte[] content = new byte[12 * 1024 * 1024 + 17];
+        ThreadLocalRandom.current().nextBytes(content);
+
+        assertThat(storageBackend.put("directoryId", "fileId", new ByteArrayInputStream(content)), is((long) content.length));
+
+        try (final InputStream inputStream = storageBackend.get("directoryId", "fileId")) {
+            assertThat(Arrays.equals(inputStream.readAllBytes(), content), is(true));
+        }
+        try (final InputStream inputStream = storageBackend.get("directoryId", "fileId", content.length - 100, 100)) {
+            assertThat(Arrays.equals(inputStream.readAllBytes(), Arrays.copyOfRange(content, content.length - 100, content.length)), is(true));
+        }
+    }
+
+    @Test
+    void get_positive_Range() throws IOException {
+
+        storageBackend.put("directoryId", "fileId", stream("0123456789"));
+
+        try (final InputStream inputStream = storageBackend.get("directoryId", "fileId", 2, 5)) {
+            assertThat(new String(inputStream.readAllBytes(), StandardCharsets.UTF_8), is("23456"));
+        }
+        try (final InputStream inputStream = storageBackend.get("directoryId", "fileId", 8, 2)) {
+            assertThat(new String(inputStream.readAllBytes(), StandardCharsets.UTF_8), is("89"));
+        }
+    }
+
+    @Test
+    void get_negative_NotFound() {
+        assertThrows(NoSuchFileException.class, () -> storageBackend.get("directoryId", "fileId"));
+        assertThrows(NoSuchFileException.class, () -> storageBackend.get("directoryId", "fileId", 0, 1));
+    }
+
+    @Test
+    void delete_positive() throws IOException {
+
+        storageBackend.put("directoryId", "fileId", stream("test1"));
+        storageBackend.delete("directoryId", "fileId");
+
+        assertThat(storageBackend.stat("directoryId", "fileId"), nullValue());
+        assertThrows(NoSuchFileException.class, () -> storageBackend.get("directoryId", "fileId"));
+
+        // Unknown files are ignored
+        storageBackend.delete("directoryId", "fileId");
+    }
+
+    @Test
+    void list_positive() throws IOException {
+
+        storageBackend.put("directoryId", "fileId1", stream("test1"));
+        storageBackend.put("directoryId", "fileId2", stream("test2"));
+        storageBackend.put("directoryId2", "fileId3", stream("test3"));
+
+        assertThat(storageBackend.list("directoryId"), containsInAnyOrder("fileId1", "fileId2"));
+        assertThat(storageBackend.list("directoryId2"), contains("fileId3"));
+        assertThat(storageBackend.list("directoryId3"), empty());
+    }
+
+    @Test
+    void stat_positive() throws IOException {
+
+        storageBackend.put("directoryId", "fileId", stream("test1"));
+
+        final StorageObject storageObject = storageBackend.stat("directoryId", "fileId");
+        assertThat(storageObject.size(), is(5L));
+        assertThat(storageObject.modified(), notNullValue());
+
+        assertThat(storageBackend.stat("directoryId", "fileId2"), nullValue());
+    }
+
+    // Run with: mvn test -Dtest=*StorageBackendTest#throughput -Dbenchmark=true
+    @Test
+    @EnabledIfSystemProperty(named = "benchmark", matches = "true")
+    void throughput() throws IOException {
+        run("small", 2_000, 4 * 1024);
+        run("large", 20, 16 * 1024 * 1024);
+    }
+
+    private void run(final String name, final int files, final int size) throws IOException {
+
+        final byte[] content = new byte[size];
+        ThreadLocalRandom.current().nextBytes(content);
+        final String directoryId = UUID.randomUUID().toString();
+        final List<String> fileIds = IntStream.range(0, files).mapToObj(i -> UUID.randomUUID().toString()).toList();
+
+        long start = System.nanoTime();
+        for (final String fileId : fileIds) {
+            storageBackend.put(directoryId, fileId, new ByteArrayInputStream(content));
+        }
+        final Duration put = Duration.ofNanos(System.nanoTime() - start);
+
+        start = System.nanoTime();
+        for (final String fileId : fileIds) {
+            try (final InputStream inputStream = storageBackend.get(directoryId, fileId)) {
+                inputStream.transferTo(OutputStream.nullOutputStream());
+            }
+        }
+        final Duration get = Duration.ofNanos(System.nanoTime() - start);
+
+        log.atInfo().setMessage("Storage backend benchmark.")
+                .addKeyValue("backend", storageBackend.getClass().getSimpleName())
+                .addKeyValue("variant", name)
+                .addKeyValue("files", files)
+                .addKeyValue("put-ops-per-s", String.format("%.0f", files / (put.toNanos() / 1e9)))
+                .addKeyValue("put-mb-per-s", String.format("%.1f", (double) files * size / (1 << 20) / (put.toNanos() / 1e9)))
+                .addKeyValue("get-ops-per-s", String.format("%.0f", files / (get.toNanos() / 1e9)))
+                .addKeyValue("get-mb-per-s", String.format("%.1f", (double) files * size / (1 << 20) / (get.toNanos() / 1e9)))
+                .log();
+    }
+
+    private static InputStream stream(final String content) {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,99 @@
+package de.saschaufer.message_broker.app.file_storage.service;
+
+import de.saschaufer.message_broker.app.file_storage.config.FileStorageProperties;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static de.saschaufer.message_broker.app.file_storage.config.FileStoragePropertiesBuilder.properties;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+class StorageLayoutTest {
+
+    @TempDir
+    private Path tempDir;
+
+    @Test
+    void getDirectory_positive_Flat() {
+
+        final StorageLayout storageLayout = createStorageLayout(0, 0);
+
+        assertThat(storageLayout.getDirectory("directoryId"), is(tempDir.resolve("directoryId")));
+        assertThat(storageLayout.getFile("directoryId", "fileId"), is(tempDir.resolve("directoryId").resolve("fileId")));
+    }
+
+    @Test
+    void getDirectory_positive_Sharded() {
+
+        final StorageLayout storageLayout = createStorageLayout(2, 1);
+
+        final Path directory = storageLayout.getDirectory("directoryId");
+        final Path file = storageLayout.getFile("directoryId", "fileId");
+
+        assertThat(tempDir.relativize(directory).getNameCount(), is(3));
+        assertThat(tempDir.relativize(directory).getName(0).toString(), matchesPattern("\\.[0-9a-f]{2}"));
+        assertThat(tempDir.relativize(directory).getName(1).toString(), matchesPattern("\\.[0-9a-f]{2}"));
+        assertThat(directory.getFileName().toString(), is("directoryId"));
+        assertThat(directory.relativize(file).getNameCount(), is(2));
+        assertThat(directory.relativize(file).getName(0).toString(), matchesPattern("\\.[0-9a-f]{2}"));
+
+        // Stable across instances
+        assertThat(createStorageLayout(2, 1).getDirectory("directoryId"), is(directory));
+    }
+
+    @Test
+    void createDirectory_positive_WritesLayout() throws IOException {
+
+        createStorageLayout(2, 1).createDirectory("directoryId");
+
+        assertThat(Files.readString(tempDir.resolve(StorageLayout.LAYOUT_FILENAME)), is("directory-levels=2\nfile-levels=1\n"));
+        assertThat(createStorageLayout(2, 1).isMigrating(), is(false));
+        assertThat(createStorageLayout(1, 1).isMigrating(), is(true));
+    }
+
+    @Test
+    void getDirectory_positive_FallsBackToPreviousLayout() throws IOException {
+
+        // A store from before the layout was configurable
+        Files.createDirectories(tempDir.resolve("directoryId-1"));
+        Files.writeString(tempDir.resolve("directoryId-1").resolve("fileId"), "test");
+
+        final StorageLayout storageLayout = createStorageLayout(2, 2);
+
+        assertThat(storageLayout.isMigrating(), is(true));
+        assertThat(storageLayout.getDirectory("directoryId-1"), is(tempDir.resolve("directoryId-1")));
+        assertThat(storageLayout.getFile("directoryId-1", "fileId"), is(tempDir.resolve("directoryId-1").resolve("fileId")));
+
+        final Path created = storageLayout.createDirectory("directoryId-2");
+
+        assertThat(created, is(storageLayout.resolveDirectory(storageLayout.current(), "directoryId-2")));
+        assertThat(storageLayout.listDirectories(), containsInAnyOrder("directoryId-1", "directoryId-2"));
+    }
+
+    @Test
+    void getDirectory_positive_RecoversLostPlacement() throws IOException {
+
+        // Created on another root, but the placement was lost in a crash
+        Files.createDirectories(tempDir.resolve("disk-1").resolve("directoryId-1"));
+
+        final FileStorageProperties fileStorageProperties = properties(tempDir.resolve("main"))
+                .placement(new FileStorageProperties.Placement(List.of(tempDir.resolve("disk-1")), DataSize.ofBytes(0))).build();
+        final StorageLayout storageLayout = new StorageLayout(fileStorageProperties, new DirectoryLocks(fileStorageProperties));
+
+        assertThat(storageLayout.getDirectory("directoryId-1"), is(tempDir.resolve("disk-1").resolve("directoryId-1")));
+        assertThat(storageLayout.getDirectory("directoryId-2"), is(tempDir.resolve("main").resolve("directoryId-2")));
+        assertThat(Files.readString(tempDir.resolve("main").resolve(StorageRoots.PLACEMENT_FILENAME)), containsString("directoryId-1"));
+    }
+
+    private StorageLayout createStorageLayout(final int directoryLevels, final int fileLevels) {
+        final FileStorageProperties fileStorageProperties = properties(tempDir)
+                .layout(new FileStorageProperties.Layout(directoryLevels, fileLevels, null, null, null, null)).build();
+        return new StorageLayout(fileStorageProperties, new DirectoryLocks(fileStorageProperties));
+    }
+}
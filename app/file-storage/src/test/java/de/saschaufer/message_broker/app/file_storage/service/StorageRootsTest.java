@@ -0,0 +1,131 @@
+package de.saschaufer.message_broker.app.file_storage.service;
+
+import de.saschaufer.message_broker.app.file_storage.config.FileStorageProperties;
+import de.saschaufer.message_broker.common.api.errorhandler.ResponseStatusException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.HttpStatus;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static de.saschaufer.message_broker.app.file_storage.config.FileStoragePropertiesBuilder.properties;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class StorageRootsTest {
+
+    @TempDir
+    private Path tempDir;
+
+    @Test
+    void place_positive_SpreadsAndPersists() {
+
+        final StorageRoots storageRoots = createStorageRoots(DataSize.ofBytes(0));
+
+        final Map<Path, Integer> counts = new HashMap<>();
+        for (int i = 0; i < 100; i++) {
+            counts.merge(storageRoots.place("directory-" + i), 1, Integer::sum);
+        }
+
+        assertThat(counts.keySet(), containsInAnyOrder(tempDir.resolve("main"), tempDir.resolve("disk-1"), tempDir.resolve("disk-2")));
+
+        final StorageRoots restarted = createStorageRoots(DataSize.ofBytes(0));
+        for (int i = 0; i < 100; i++) {
+            assertThat(restarted.get("directory-" + i), is(storageRoots.get("directory-" + i)));
+        }
+    }
+
+    @Test
+    void place_positive_AvoidsSlowRoots() {
+
+        final StorageRoots storageRoots = createStorageRoots(DataSize.ofBytes(0));
+
+        for (int i = 0; i < 100; i++) {
+            storageRoots.recordWrite(tempDir.resolve("disk-1").resolve("directoryId").resolve("fileId"), 1024 * 1024, 10_000_000_000L);
+            storageRoots.recordWrite(tempDir.resolve("disk-2").resolve("directoryId").resolve("fileId"), 1024 * 1024, 10_000_000_000L);
+        }
+
+        int main = 0;
+        for (int i = 0; i < 1000; i++) {
+            if (storageRoots.place("directory-" + i).equals(tempDir.resolve("main"))) {
+                main++;
+            }
+        }
+
+        assertThat(main, greaterThan(950));
+    }
+
+    @Test
+    void place_positive_Multithreaded() throws Exception {
+
+        final StorageRoots storageRoots = createStorageRoots(DataSize.ofBytes(0));
+
+        for (int i = 0; i < 20; i++) {
+
+            final String directoryId = "directory-" + i;
+            final List<Future<Path>> futures = new ArrayList<>();
+
+            try (final ExecutorService executorService = Executors.newFixedThreadPool(10)) {
+                for (int j = 0; j < 10; j++) {
+                    futures.add(executorService.submit(() -> storageRoots.place(directoryId)));
+                }
+
+                // Every upload creates the directory where the first one placed it
+                final Set<Path> roots = new HashSet<>();
+                for (final Future<Path> future : futures) {
+                    roots.add(future.get(10, TimeUnit.SECONDS));
+                }
+                assertThat(roots, hasSize(1));
+                assertThat(storageRoots.get(directoryId), is(roots.iterator().next()));
+            }
+        }
+    }
+
+    @Test
+    void place_negative_NoFreeSpace() {
+
+        final StorageRoots storageRoots = createStorageRoots(DataSize.ofTerabytes(1024 * 1024));
+
+        final ResponseStatusException e = assertThrows(ResponseStatusException.class, () -> storageRoots.place("directoryId"));
+
+        assertThat(e.getStatusCode(), is(HttpStatus.INSUFFICIENT_STORAGE));
+    }
+
+    @Test
+    void get_positive_SkipsTruncatedPlacement() throws IOException {
+
+        final StorageRoots storageRoots = createStorageRoots(DataSize.ofBytes(0));
+        storageRoots.remember("directory-1", tempDir.resolve("disk-1"));
+        Files.writeString(tempDir.resolve("main").resolve(StorageRoots.PLACEMENT_FILENAME), "{\"directoryId\":\"directory-2\",\"ro", StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+
+        final StorageRoots restarted = createStorageRoots(DataSize.ofBytes(0));
+        restarted.remember("directory-3", tempDir.resolve("disk-2"));
+
+        final StorageRoots reread = createStorageRoots(DataSize.ofBytes(0));
+
+        assertThat(reread.get("directory-1"), is(tempDir.resolve("disk-1")));
+        assertThat(reread.get("directory-2"), is(tempDir.resolve("main")));
+        assertThat(reread.get("directory-3"), is(tempDir.resolve("disk-2")));
+    }
+
+    private StorageRoots createStorageRoots(final DataSize minFreeSpace) {
+        return new StorageRoots(properties(tempDir.resolve("main"))
+                .placement(new FileStorageProperties.Placement(List.of(tempDir.resolve("disk-1"), tempDir.resolve("disk-2")), minFreeSpace)).build());
+    }
+}
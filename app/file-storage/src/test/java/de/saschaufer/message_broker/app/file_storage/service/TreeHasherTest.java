@@ -0,0 +1,126 @@
+package de.saschaufer.message_broker.app.file_storage.service;
+
+import de.saschaufer.message_broker.app.file_storage.config.FileStorageProperties;
+import de.saschaufer.message_broker.app.file_storage.service.dto.ChunkHashes;
+import de.saschaufer.message_broker.app.file_storage.service.dto.HashAlgorithm;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.Random;
+
+import static de.saschaufer.message_broker.app.file_storage.config.FileStoragePropertiesBuilder.properties;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+class TreeHasherTest {
+
+    private TreeHasher treeHasher;
+
+    @AfterEach
+    void afterEach() {
+        treeHasher.shutdown();
+    }
+
+    @Test
+    void finish_positive() throws IOException {
+
+        treeHasher = createTreeHasher(4);
+        final byte[] content = content(1000);
+
+        final TreeHasher.HashingInputStream is = treeHasher.wrap(new ByteArrayInputStream(content), HashAlgorithm.SHA3_512);
+        is.transferTo(OutputStream.nullOutputStream());
+        final ChunkHashes chunkHashes = is.finish();
+        is.close();
+
+        assertThat(chunkHashes.chunkSize(), is(100L));
+        assertThat(chunkHashes.hashes(), hasSize(10));
+        assertThat(chunkHashes.hashes().get(3), is(hash(Arrays.copyOfRange(content, 300, 400))));
+        assertThat(is.getHash(), is(root(content, 100)));
+    }
+
+    @Test
+    void finish_positive_PartialLastChunk() throws IOException {
+
+        treeHasher = createTreeHasher(4);
+        final byte[] content = content(250);
+
+        // Single bytes and odd reads cross chunk boundaries
+        try (final TreeHasher.HashingInputStream is = treeHasher.wrap(new ByteArrayInputStream(content), HashAlgorithm.SHA3_512)) {
+            is.read();
+            is.readNBytes(new byte[77], 0, 77);
+            is.transferTo(OutputStream.nullOutputStream());
+
+            assertThat(is.finish().hashes(), hasSize(3));
+            assertThat(is.getHash(), is(root(content, 100)));
+        }
+    }
+
+    @Test
+    void finish_positive_Empty() throws IOException {
+
+        treeHasher = createTreeHasher(4);
+
+        try (final TreeHasher.HashingInputStream is = treeHasher.wrap(InputStream.nullInputStream(), HashAlgorithm.SHA3_512)) {
+            is.transferTo(OutputStream.nullOutputStream());
+
+            assertThat(is.finish().hashes(), contains(hash(new byte[0])));
+        }
+    }
+
+    @Test
+    void finish_positive_AllBuffersInUse() throws IOException {
+
+        // Two buffers for three uploads, the rest is hashed inline
+        treeHasher = createTreeHasher(1);
+        final byte[] content = content(1000);
+
+        final TreeHasher.HashingInputStream is1 = treeHasher.wrap(new ByteArrayInputStream(content), HashAlgorithm.SHA3_512);
+        final TreeHasher.HashingInputStream is2 = treeHasher.wrap(new ByteArrayInputStream(content), HashAlgorithm.SHA3_512);
+        final TreeHasher.HashingInputStream is3 = treeHasher.wrap(new ByteArrayInputStream(content), HashAlgorithm.SHA3_512);
+        final byte[] buffer = new byte[50];
+        for (int i = 0; i < 20; i++) {
+            is1.readNBytes(buffer, 0, 50);
+            is2.readNBytes(buffer, 0, 50);
+            is3.readNBytes(buffer, 0, 50);
+        }
+
+        for (final TreeHasher.HashingInputStream is : new TreeHasher.HashingInputStream[]{is1, is2, is3}) {
+            is.transferTo(OutputStream.nullOutputStream());
+            is.finish();
+            is.close();
+            assertThat(is.getHash(), is(root(content, 100)));
+        }
+    }
+
+    private TreeHasher createTreeHasher(final int parallelism) {
+        return new TreeHasher(properties(Path.of("."))
+                .hashing(new FileStorageProperties.Hashing(true, DataSize.ofBytes(100), parallelism, null)).build());
+    }
+
+    private static byte[] content(final int size) {
+        final byte[] content = new byte[size];
+        new Random(size).nextBytes(content);
+        return content;
+    }
+
+    private static String hash(final byte[] content) {
+        return HexFormat.of().formatHex(HashAlgorithm.SHA3_512.newDigest().digest(content));
+    }
+
+    private static String root(final byte[] content, final int chunkSize) {
+        final MessageDigest root = HashAlgorithm.SHA3_512.newDigest();
+        for (int i = 0; i < content.length; i += chunkSize) {
+            root.update(HashAlgorithm.SHA3_512.newDigest().digest(Arrays.copyOfRange(content, i, Math.min(i + chunkSize, content.length))));
+        }
+        return HexFormat.of().formatHex(root.digest());
+    }
+}
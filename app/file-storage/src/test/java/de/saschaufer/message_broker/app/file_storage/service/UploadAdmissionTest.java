@@ -0,0 +1,150 @@
+package de.saschaufer.message_broker.app.file_storage.service;
+
+import de.saschaufer.message_broker.app.file_storage.config.FileStorageProperties;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.HttpStatus;
+import org.springframework.util.unit.DataSize;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Map;
+
+import static de.saschaufer.message_broker.app.file_storage.config.FileStoragePropertiesBuilder.properties;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class UploadAdmissionTest {
+
+    @TempDir
+    private Path tempDir;
+
+    private StorageLayout storageLayout;
+
+    @Test
+    void admit_positive_Disabled() {
+
+        final UploadAdmission uploadAdmission = createUploadAdmission(false, 1, DataSize.ofBytes(1), DataSize.ofBytes(0), false);
+
+        for (int i = 0; i < 10; i++) {
+            uploadAdmission.admit(1000);
+        }
+
+        assertThat(uploadAdmission.getUploads(), is(0));
+        assertThat(uploadAdmission.getBytes(), is(0L));
+    }
+
+    @Test
+    void admit_positive_Released() {
+
+        final UploadAdmission uploadAdmission = createUploadAdmission(true, 2, DataSize.ofKilobytes(10), DataSize.ofBytes(0), false);
+
+        try (final UploadAdmission.Permit ignored = uploadAdmission.admit(1000)) {
+            assertThat(uploadAdmission.getUploads(), is(1));
+            assertThat(uploadAdmission.getBytes(), is(1000L));
+        }
+
+        assertThat(uploadAdmission.getUploads(), is(0));
+        assertThat(uploadAdmission.getBytes(), is(0L));
+
+        // Unknown sizes are counted with an average share
+        try (final UploadAdmission.Permit ignored = uploadAdmission.admit(-1)) {
+            assertThat(uploadAdmission.getBytes(), is(5120L));
+        }
+    }
+
+    @Test
+    void admit_negative_TooManyConcurrentUploads() {
+
+        final UploadAdmission uploadAdmission = createUploadAdmission(true, 2, DataSize.ofKilobytes(10), DataSize.ofBytes(0), false);
+
+        try (final UploadAdmission.Permit ignored1 = uploadAdmission.admit(1); final UploadAdmission.Permit ignored2 = uploadAdmission.admit(1)) {
+
+            final RequestRejectedException e = assertThrows(RequestRejectedException.class, () -> uploadAdmission.admit(1));
+
+            assertThat(e.getStatusCode(), is(HttpStatus.SERVICE_UNAVAILABLE));
+            assertThat(e.getReason(), is("Too many concurrent uploads."));
+            assertThat(e.getAdditionalDetails(), is(Map.of("limit", "2")));
+            assertThat(e.getRetryAfter(), is(Duration.ofSeconds(5)));
+            assertThat(uploadAdmission.getUploads(), is(2));
+        }
+
+        uploadAdmission.admit(1).close();
+    }
+
+    @Test
+    void admit_negative_TooManyBytesInFlight() {
+
+        final UploadAdmission uploadAdmission = createUploadAdmission(true, 10, DataSize.ofKilobytes(10), DataSize.ofBytes(0), false);
+
+        // A single upload larger than the limit gets in while it's alone
+        try (final UploadAdmission.Permit ignored = uploadAdmission.admit(20_000)) {
+
+            final RequestRejectedException e = assertThrows(RequestRejectedException.class, () -> uploadAdmission.admit(1));
+
+            assertThat(e.getReason(), is("Too many bytes in flight."));
+            assertThat(uploadAdmission.getUploads(), is(1));
+            assertThat(uploadAdmission.getBytes(), is(20_000L));
+        }
+
+        try (final UploadAdmission.Permit ignored = uploadAdmission.admit(6_000)) {
+            assertThrows(RequestRejectedException.class, () -> uploadAdmission.admit(6_000));
+            uploadAdmission.admit(4_000).close();
+        }
+    }
+
+    @Test
+    void admit_negative_NotEnoughFreeSpace() {
+
+        final UploadAdmission uploadAdmission = createUploadAdmission(true, 10, DataSize.ofKilobytes(10), DataSize.ofTerabytes(1_000_000), false);
+
+        final RequestRejectedException e = assertThrows(RequestRejectedException.class, () -> uploadAdmission.admit(1));
+
+        assertThat(e.getReason(), is("Not enough free space."));
+        assertThat(uploadAdmission.getUploads(), is(0));
+        assertThat(uploadAdmission.getBytes(), is(0L));
+    }
+
+    @Test
+    void recordWrite_positive_Adaptive() {
+
+        final UploadAdmission uploadAdmission = createUploadAdmission(true, 16, DataSize.ofGigabytes(1), DataSize.ofBytes(0), true);
+        assertThat(uploadAdmission.getLimit(), is(16));
+
+        // Disk writes getting much slower per byte shrink the limit
+        storageLayout.recordWrite(tempDir.resolve("file"), 1_000_000, 1_000_000);
+        for (int i = 0; i < 20; i++) {
+            storageLayout.recordWrite(tempDir.resolve("file"), 10_000, 10_000_000);
+        }
+        final int shrunk = uploadAdmission.getLimit();
+        assertThat(shrunk, lessThan(16));
+        assertThat(shrunk, greaterThanOrEqualTo(4));
+
+        // Disk writes getting faster again let it grow back
+        for (int i = 0; i < 200; i++) {
+            storageLayout.recordWrite(tempDir.resolve("file"), 1_000_000, 1_000_000);
+        }
+        assertThat(uploadAdmission.getLimit(), greaterThan(shrunk));
+    }
+
+    @Test
+    void recordWrite_positive_NotAdaptive() {
+
+        final UploadAdmission uploadAdmission = createUploadAdmission(true, 16, DataSize.ofGigabytes(1), DataSize.ofBytes(0), false);
+
+        storageLayout.recordWrite(tempDir.resolve("file"), 1_000_000, 1_000_000);
+        for (int i = 0; i < 20; i++) {
+            storageLayout.recordWrite(tempDir.resolve("file"), 10_000, 10_000_000);
+        }
+
+        assertThat(uploadAdmission.getLimit(), is(16));
+    }
+
+    private UploadAdmission createUploadAdmission(final boolean enabled, final int maxConcurrentUploads, final DataSize maxInFlightBytes, final DataSize diskReserve, final boolean adaptive) {
+        final FileStorageProperties fileStorageProperties = properties(tempDir)
+                .admission(new FileStorageProperties.Admission(enabled, maxConcurrentUploads, Math.min(4, maxConcurrentUploads), maxInFlightBytes, diskReserve, Duration.ofSeconds(5), adaptive)).build();
+        storageLayout = new StorageLayout(fileStorageProperties, new DirectoryLocks(fileStorageProperties));
+        return new UploadAdmission(fileStorageProperties, storageLayout);
+    }
+}
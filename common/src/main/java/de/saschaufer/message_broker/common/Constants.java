@@ -12,6 +12,9 @@ public class Constants {
         @NoArgsConstructor(access = AccessLevel.PRIVATE)
         public abstract static class Query {
             public static final String DIRECTORY_ID = "directory-id";
+            public static final String FILE_ID = "file-id";
+            public static final String FORMAT = "format";
+            public static final String COMPRESSION_LEVEL = "compression-level";
         }
 
         @NoArgsConstructor(access = AccessLevel.PRIVATE)
@@ -19,9 +22,17 @@ public class Constants {
             public static final String CORRELATION_ID = "X-Correlation-ID";
             public static final String FILE_ID = "X-File-ID";
             public static final String FILE_HASH = "X-File-Hash";
+            public static final String FILE_HASH_ALGORITHM = "X-File-Hash-Algorithm";
+            public static final String FILE_HASH_MODE = "X-File-Hash-Mode";
             public static final String USER_AGENT = "User-Agent";
         }
 
+        @NoArgsConstructor(access = AccessLevel.PRIVATE)
+        public abstract static class HashMode {
+            public static final String FLAT = "flat";
+            public static final String TREE = "tree";
+        }
+
         @NoArgsConstructor(access = AccessLevel.PRIVATE)
         public abstract static class BodyPart {
             public static final String FILE = "file";
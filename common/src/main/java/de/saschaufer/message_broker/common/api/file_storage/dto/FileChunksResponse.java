@@ -0,0 +1,9 @@
+package de.saschaufer.message_broker.common.api.file_storage.dto;
+
+import java.util.List;
+
+public record FileChunksResponse(
+        long chunkSize,
+        List<String> chunkHashes
+) {
+}
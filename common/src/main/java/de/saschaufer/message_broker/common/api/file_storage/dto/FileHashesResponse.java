@@ -0,0 +1,8 @@
+package de.saschaufer.message_broker.common.api.file_storage.dto;
+
+import java.util.List;
+
+public record FileHashesResponse(
+        List<String> known
+) {
+}
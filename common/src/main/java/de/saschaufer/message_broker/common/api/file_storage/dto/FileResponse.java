@@ -3,6 +3,7 @@ package de.saschaufer.message_broker.common.api.file_storage.dto;
 public record FileResponse(
         String id,
         String fileId,
-        String fileHash
+        String fileHash,
+        String fileHashMode
 ) {
 }
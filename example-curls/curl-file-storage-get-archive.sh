@@ -0,0 +1,4 @@
+curl -v -X GET 'http://localhost:8080/file-storage/328a145a-a230-4931-8813-e6469d2f1f09?format=zip&compression-level=1' \
+-H 'User-Agent: my-pc' \
+-H 'X-Correlation-ID: corId' \
+-o archive.zip
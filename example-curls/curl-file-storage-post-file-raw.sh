@@ -0,0 +1,9 @@
+curl 'http://localhost:8080/file-storage/raw' \
+-H 'User-Agent: my-pc' \
+-H 'X-Correlation-ID: corId' \
+-H 'X-File-ID: 1' \
+-H "X-File-Hash: $(openssl dgst -sha3-512 -r testfile.txt | cut -d ' ' -f 1)" \
+-H 'Content-Type: text/plain' \
+-H 'Content-Disposition: attachment; filename="testfile.txt"' \
+-H 'Expect: 100-continue' \
+--data-binary '@testfile.txt'
@@ -0,0 +1,4 @@
+curl 'http://localhost:8080/file-storage/stream' \
+-H 'User-Agent: my-pc' \
+-H 'X-Correlation-ID: corId' \
+-F 'file=@testfile.txt;type=text/plain;headers="X-File-ID: 1"'
@@ -0,0 +1,5 @@
+curl 'http://localhost:8080/file-storage/hashes' \
+-H 'User-Agent: my-pc' \
+-H 'X-Correlation-ID: corId' \
+-H 'Content-Type: application/json' \
+-d '{"hashes": ["e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855"], "algorithm": "SHA-256"}'